@@ -51,7 +51,8 @@ public class Agent implements IAgent {
 
   private Agent(final AgentConfigs agentConfigs) {
     this.outputListener =
-        new OutputEventListener(AgentOutputFactory.createAgentOutput(agentConfigs));
+        new OutputEventListener(AgentOutputFactory.createAgentOutput(agentConfigs),
+            agentConfigs.getOutputQueueSize(), agentConfigs.getOutputOverflow());
   }
 
   public void startup() {
@@ -59,6 +60,7 @@ public class Agent implements IAgent {
   }
 
   public synchronized void shutdown() {
+    this.outputListener.close();
     singleton = null;
   }
 
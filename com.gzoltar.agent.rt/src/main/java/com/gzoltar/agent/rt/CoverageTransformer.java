@@ -19,7 +19,14 @@ package com.gzoltar.agent.rt;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import com.gzoltar.core.AgentConfigs;
 import com.gzoltar.core.instr.Instrumenter;
 import com.gzoltar.core.instr.Outcome;
@@ -30,10 +37,11 @@ import com.gzoltar.core.instr.filter.Filter;
 import com.gzoltar.core.instr.matchers.ClassNameMatcher;
 import com.gzoltar.core.instr.matchers.PrefixMatcher;
 import com.gzoltar.core.instr.matchers.SourceLocationMatcher;
+import com.gzoltar.core.runtime.IFocusHandler;
 import javassist.ClassPool;
 import javassist.CtClass;
 
-public class CoverageTransformer implements ClassFileTransformer {
+public class CoverageTransformer implements ClassFileTransformer, IFocusHandler {
 
   private final Instrumenter instrumenter;
 
@@ -45,7 +53,30 @@ public class CoverageTransformer implements ClassFileTransformer {
 
   private final DuplicateCollectorReferenceFilter duplicateCollectorFilter;
 
+  private final Instrumentation instrumentation;
+
+  /** Names of all classes that have been instrumented */
+  private final Set<String> instrumentedClasses =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /** Names of the classes whose probes are kept, or <code>null</code> if coverage is not focused */
+  private volatile Set<String> focus = null;
+
   public CoverageTransformer(final AgentConfigs agentConfigs) throws Exception {
+    this(agentConfigs, null);
+  }
+
+  /**
+   * 
+   * @param agentConfigs
+   * @param instrumentation instrumentation used to retransform classes once coverage is focused, in
+   *        which case this transformer must have been added as able to retransform classes, or
+   *        <code>null</code> if classes are never retransformed
+   * @throws Exception
+   */
+  public CoverageTransformer(final AgentConfigs agentConfigs,
+      final Instrumentation instrumentation) throws Exception {
+    this.instrumentation = instrumentation;
     this.instrumenter = new Instrumenter(agentConfigs);
 
     this.buildLocation = new File(agentConfigs.getBuildLocation()).getCanonicalPath();
@@ -82,34 +113,19 @@ public class CoverageTransformer implements ClassFileTransformer {
       return null;
     }
 
-    if (classBeingRedefined != null) {
+    if (classBeingRedefined != null && this.instrumentation == null) {
       // avoid re-instrumention
       return null;
     }
 
     try {
-      ClassPool cp = ClassPool.getDefault();
-      CtClass cc = cp.makeClassIfNew(new ByteArrayInputStream(classfileBuffer));
-
-      // check whether this class has been instrumented, if so return the
-      // previously instrumented code, if not try to instrument it
-      if (this.duplicateCollectorFilter.filter(cc) == Outcome.REJECT) {
-        return cc.toBytecode();
-      }
-
-      // only instrument classes under a build location, e.g., target/classes/ or build/classes/
-      SourceLocationMatcher excludeClassesNotInBuildLocation = new SourceLocationMatcher(
-          this.inclNoLocationClasses, this.buildLocation, protectionDomain);
-      if (!excludeClassesNotInBuildLocation.matches(cc)) {
-        return null;
-      }
-
-      // check whether this class should be instrumented
-      if (this.filter.filter(cc) == Outcome.REJECT) {
-        return null;
+      // classes are shared by all class loaders through the default class pool, therefore a class
+      // loaded by several class loaders at the same time (e.g., by test methods running in
+      // parallel) must only be instrumented by one of them
+      synchronized (this) {
+        return this.transform(className, classBeingRedefined != null, protectionDomain,
+            classfileBuffer);
       }
-
-      return this.instrumenter.instrument(cc);
     } catch (Exception e) {
       System.err.println("GZoltar failed to instrument: " + className);
       e.printStackTrace();
@@ -117,4 +133,96 @@ public class CoverageTransformer implements ClassFileTransformer {
     }
   }
 
+  private byte[] transform(final String className, final boolean retransform,
+      final ProtectionDomain protectionDomain, final byte[] classfileBuffer) throws Exception {
+    Set<String> focus = this.focus;
+    boolean placeProbes =
+        focus == null || (className != null && focus.contains(className.replace('/', '.')));
+
+    ClassPool cp = ClassPool.getDefault();
+    CtClass cc;
+    if (retransform || !placeProbes) {
+      // the default class pool holds the instrumented version of each class, whereas a class being
+      // retransformed (or instrumented without probes) must be instrumented from its original
+      // bytecode
+      cc = new ClassPool(cp).makeClass(new ByteArrayInputStream(classfileBuffer));
+    } else {
+      cc = cp.makeClassIfNew(new ByteArrayInputStream(classfileBuffer));
+    }
+
+    // check whether this class has been instrumented, if so return the
+    // previously instrumented code, if not try to instrument it
+    if (this.duplicateCollectorFilter.filter(cc) == Outcome.REJECT) {
+      return cc.toBytecode();
+    }
+
+    // only instrument classes under a build location, e.g., target/classes/ or build/classes/
+    SourceLocationMatcher excludeClassesNotInBuildLocation = new SourceLocationMatcher(
+        this.inclNoLocationClasses, this.buildLocation, protectionDomain);
+    if (!excludeClassesNotInBuildLocation.matches(cc)) {
+      return null;
+    }
+
+    // check whether this class should be instrumented
+    if (this.filter.filter(cc) == Outcome.REJECT) {
+      return null;
+    }
+
+    byte[] bytecode;
+    if (!placeProbes) {
+      // once coverage is focused, classes not executed by any failing test case get the same
+      // fields and methods as instrumented classes (so that those already loaded can be
+      // retransformed), but without any probe
+      bytecode = this.instrumenter.instrumentWithoutProbes(cc);
+    } else if (retransform) {
+      // the static initializer of a class being retransformed does not run again, and therefore
+      // does not bind its hit array
+      bytecode = this.instrumenter.instrumentRedefinedClass(cc);
+    } else {
+      bytecode = this.instrumenter.instrument(cc);
+    }
+    if (bytecode != null) {
+      this.instrumentedClasses.add(cc.getName());
+    }
+    return bytecode;
+  }
+
+  /**
+   * Removes the probes of all instrumented classes but the given ones, by retransforming those that
+   * have been loaded.
+   */
+  @Override
+  public void focus(final Set<String> classNames) throws Exception {
+    if (this.instrumentation == null) {
+      throw new IllegalStateException("GZoltar agent is not able to retransform classes.");
+    }
+    this.focus = new HashSet<String>(classNames);
+
+    List<Class<?>> classes = new ArrayList<Class<?>>();
+    for (Class<?> clazz : this.instrumentation.getAllLoadedClasses()) {
+      if (this.instrumentedClasses.contains(clazz.getName())
+          && !classNames.contains(clazz.getName())
+          && this.instrumentation.isModifiableClass(clazz)) {
+        classes.add(clazz);
+      }
+    }
+    if (classes.isEmpty()) {
+      return;
+    }
+
+    try {
+      this.instrumentation.retransformClasses(classes.toArray(new Class<?>[classes.size()]));
+    } catch (Exception | LinkageError e) {
+      // either all classes or none are retransformed, therefore each one is retransformed on its
+      // own so that only those that cannot be retransformed keep their probes
+      for (Class<?> clazz : classes) {
+        try {
+          this.instrumentation.retransformClasses(clazz);
+        } catch (Exception | LinkageError e1) {
+          System.err.println("GZoltar failed to retransform: " + clazz.getName());
+        }
+      }
+    }
+  }
+
 }
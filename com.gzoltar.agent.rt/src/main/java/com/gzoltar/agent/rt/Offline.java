@@ -16,6 +16,11 @@
  */
 package com.gzoltar.agent.rt;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.Properties;
 import com.gzoltar.core.AgentConfigs;
 import com.gzoltar.core.runtime.Collector;
@@ -41,8 +46,68 @@ public final class Offline {
    * 
    * @param args
    */
-  public synchronized static void getHitArray(final Object[] args) {
+  public static void getHitArray(final Object[] args) {
     Collector.instance().getHitArray(args);
   }
 
+  /**
+   * API for offline instrumented classes of Java 7 or later, i.e., the bootstrap method that links
+   * the hit array of a class.
+   * 
+   * @param lookup
+   * @param name
+   * @param type
+   * @param hash
+   * @param className
+   * @param numberOfProbes
+   * @return a constant call site of the hit array
+   */
+  public static CallSite bootstrap(final MethodHandles.Lookup lookup, final String name,
+      final MethodType type, final String hash, final String className,
+      final int numberOfProbes) {
+    final boolean[] hitArray = Collector.instance().getHitArray(hash, className, numberOfProbes);
+    return new ConstantCallSite(MethodHandles.constant(type.returnType(), hitArray));
+  }
+
+  /**
+   * API for offline instrumented classes.
+   * 
+   * @param args
+   */
+  public static void markDirty(final Object[] args) {
+    Collector.instance().markDirty(args);
+  }
+
+  /**
+   * API for offline instrumented classes of Java 7 or later, called through the call site linked
+   * by {@link #bootstrapDirty(MethodHandles.Lookup, String, MethodType, String)}.
+   * 
+   * @param hash
+   * @param hitArray
+   */
+  public static void markDirty(final String hash, final boolean[] hitArray) {
+    Collector.instance().markDirty(hash, hitArray);
+  }
+
+  /**
+   * API for offline instrumented classes of Java 7 or later, i.e., the bootstrap method that links
+   * the call that marks a class as executed to {@link #markDirty(String, boolean[])}, with the hash
+   * of the class already bound.
+   * 
+   * @param lookup
+   * @param name
+   * @param type
+   * @param hash
+   * @return a constant call site of type <code>(boolean[])void</code>
+   * @throws NoSuchMethodException
+   * @throws IllegalAccessException
+   */
+  public static CallSite bootstrapDirty(final MethodHandles.Lookup lookup, final String name,
+      final MethodType type, final String hash)
+      throws NoSuchMethodException, IllegalAccessException {
+    final MethodHandle markDirty = MethodHandles.lookup().findStatic(Offline.class, "markDirty",
+        MethodType.methodType(void.class, String.class, boolean[].class));
+    return new ConstantCallSite(MethodHandles.insertArguments(markDirty, 0, hash));
+  }
+
 }
@@ -21,6 +21,7 @@ import com.gzoltar.core.AgentConfigs;
 import com.gzoltar.core.instr.InstrumentationConstants;
 import com.gzoltar.core.instr.InstrumentationLevel;
 import com.gzoltar.core.instr.SystemClassInstrumenter;
+import com.gzoltar.core.runtime.Collector;
 
 public final class PreMain {
 
@@ -48,6 +49,13 @@ public final class PreMain {
           InstrumentationConstants.SYSTEM_CLASS_FIELD_NAME);
     }
 
-    inst.addTransformer(new CoverageTransformer(agentConfigs));
+    if (agentConfigs.getFocused() && inst.isRetransformClassesSupported()) {
+      // coverage may be focused on some classes, by retransforming all others
+      CoverageTransformer transformer = new CoverageTransformer(agentConfigs, inst);
+      inst.addTransformer(transformer, true);
+      Collector.instance().setFocusHandler(transformer);
+    } else {
+      inst.addTransformer(new CoverageTransformer(agentConfigs));
+    }
   }
 }
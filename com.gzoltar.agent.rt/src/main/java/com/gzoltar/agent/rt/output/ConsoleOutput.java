@@ -37,4 +37,20 @@ public class ConsoleOutput implements IAgentOutput {
   public void writeTransaction(final Transaction transaction) throws IOException {
     System.out.println(transaction.toString());
   }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void flush() throws IOException {
+    System.out.flush();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() throws IOException {
+    System.out.flush();
+  }
 }
@@ -16,28 +16,87 @@
  */
 package com.gzoltar.agent.rt.output;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
 import com.gzoltar.core.model.Transaction;
 import com.gzoltar.core.spectrum.ISpectrum;
 import com.gzoltar.core.spectrum.SpectrumWriter;
 
+/**
+ * Writes transactions to a buffered segment file that is opened (and locked) once per agent. At
+ * shutdown, segments are appended to the destination file, so that agents running in parallel
+ * (e.g., forks of a build tool) only contend on the destination file once.
+ * 
+ * Segments end with a trailer once they have been closed. Segments without it have been left
+ * behind by an agent that did not shut down (e.g., whose JVM has crashed), and might end with a
+ * truncated block, therefore they are moved aside instead of being merged. Segments left behind by
+ * a previous run whose destination file has since been deleted are moved aside as well, when the
+ * first agent of the next run starts.
+ */
 public class FileOutput implements IAgentOutput {
 
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  private static final String ORPHAN_SUFFIX = ".orphan";
+
+  /** Trailer of the segments that have been closed, which is not merged */
+  static final byte[] SEGMENT_TRAILER = {'G', 'Z', 'S', 'E', 'G', 'E', 'N', 'D'};
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Number of transactions written between two flushes of the segment file */
+  private static final int FLUSH_INTERVAL = 64;
+
+  /**
+   * Segment files being written in this JVM. They are never opened by {@link #mergeSegments(File)},
+   * as closing any stream of a file releases all locks held on it by this JVM on some systems.
+   */
+  private static final Set<File> openSegments = Collections.synchronizedSet(new HashSet<File>());
+
   private final File destFile;
 
+  /** Granularity level at which coverage is collected, which is recorded by each segment */
+  private final GranularityLevel granularity;
+
+  private File segment = null;
+
+  private OutputStream output = null;
+
+  private SpectrumWriter writer = null;
+
+  private int numberOfPendingTransactions = 0;
+
   public FileOutput(final AgentConfigs agentConfigs) {
     this.destFile = new File(agentConfigs.getDestfile()).getAbsoluteFile();
+    this.granularity = agentConfigs.getGranularity();
     final File folder = this.destFile.getParentFile();
     if (folder != null) {
       folder.mkdirs();
     }
+    final boolean newRun = !this.destFile.exists();
     // Make sure we can write to the file:
     try {
-      this.openFile().close();
+      final OutputStream file = this.openFile();
+      try {
+        if (newRun) {
+          moveAsideSegments(this.destFile);
+        }
+      } finally {
+        file.close();
+      }
     } catch (IOException e) {
       e.printStackTrace();
     }
@@ -47,13 +106,24 @@ public class FileOutput implements IAgentOutput {
    * {@inheritDoc}
    */
   @Override
-  public void writeSpectrum(final ISpectrum spectrum) throws Exception {
-    final OutputStream output = this.openFile();
-    try {
-      final SpectrumWriter writer = new SpectrumWriter(output);
-      writer.writeSpectrum(spectrum);
-    } finally {
-      output.close();
+  public synchronized void writeSpectrum(final ISpectrum spectrum) throws Exception {
+    for (final Transaction transaction : spectrum.getTransactions()) {
+      this.writeTransaction(transaction);
+    }
+    this.flush();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void writeTransaction(final Transaction transaction) throws IOException {
+    if (this.writer == null) {
+      this.openSegment();
+    }
+    this.writer.writeTransaction(transaction);
+    if (++this.numberOfPendingTransactions >= FLUSH_INTERVAL) {
+      this.flush();
     }
   }
 
@@ -61,14 +131,223 @@ public class FileOutput implements IAgentOutput {
    * {@inheritDoc}
    */
   @Override
-  public void writeTransaction(final Transaction transaction) throws IOException {
-    final OutputStream output = this.openFile();
+  public synchronized void flush() throws IOException {
+    if (this.output != null) {
+      this.output.flush();
+    }
+    this.numberOfPendingTransactions = 0;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (this.output != null) {
+      this.output.write(SEGMENT_TRAILER);
+      this.output.close(); // also releases the lock of the segment file
+      this.output = null;
+      this.writer = null;
+      openSegments.remove(this.segment);
+      this.segment = null;
+    }
+    mergeSegments(this.destFile);
+  }
+
+  /**
+   * Appends the segment files of a destination file to the destination file, in order of creation,
+   * and deletes them. Merging stops at the first segment still in use by another agent, which
+   * merges the remaining ones when it shuts down. Segments that are no longer in use but have not
+   * been closed are moved aside.
+   * 
+   * @param destFile destination file
+   * @throws IOException
+   */
+  public static void mergeSegments(final File destFile) throws IOException {
+    // Note: this is usually called from a shutdown hook, when the class loader of the agent might
+    // have already been closed, therefore no other class of the agent should be loaded from here
+    final List<File> segments = listSegments(destFile);
+    if (segments.isEmpty()) {
+      return;
+    }
+
+    final FileOutputStream dest = new FileOutputStream(destFile, true);
     try {
-      final SpectrumWriter writer = new SpectrumWriter(output);
-      writer.writeTransaction(transaction);
+      // Avoid concurrent merges from different agents running in parallel, either in other JVMs
+      // or in this JVM but under other class loaders:
+      while (true) {
+        try {
+          dest.getChannel().lock();
+          break;
+        } catch (OverlappingFileLockException e) {
+          try {
+            Thread.sleep(10);
+          } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      }
+
+      final byte[] buffer = new byte[BUFFER_SIZE];
+      for (final File segment : segments) {
+        if (openSegments.contains(segment)) {
+          break; // still in use by this JVM
+        }
+
+        final long length;
+        final boolean closed;
+        // the segment is only read through the file that locks it, as closing any other would
+        // release its lock
+        final RandomAccessFile owner = new RandomAccessFile(segment, "rw");
+        try {
+          final FileLock lock;
+          try {
+            lock = owner.getChannel().tryLock();
+          } catch (OverlappingFileLockException e) {
+            break; // still in use by this JVM, under another class loader
+          }
+          if (lock == null) {
+            break; // still in use by another agent
+          }
+
+          length = owner.length();
+          closed = hasTrailer(owner);
+          if (closed) {
+            long remaining = length - SEGMENT_TRAILER.length;
+            owner.seek(0L);
+            while (remaining > 0L) {
+              final int n = owner.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+              if (n == -1) {
+                break;
+              }
+              dest.write(buffer, 0, n);
+              remaining -= n;
+            }
+          }
+        } finally {
+          owner.close();
+        }
+
+        if (length == 0L) {
+          continue; // just created by another agent, which has not locked it yet
+        }
+        if (!closed) {
+          moveAside(segment, "an agent that did not shut down");
+        } else if (!segment.delete()) {
+          segment.deleteOnExit();
+        }
+      }
     } finally {
-      output.close();
+      dest.close();
+    }
+  }
+
+  /**
+   * Moves aside all segment files of a destination file that are no longer in use, e.g., because
+   * they have been left behind by a previous run.
+   * 
+   * @param destFile destination file
+   * @throws IOException
+   */
+  private static void moveAsideSegments(final File destFile) throws IOException {
+    for (final File segment : listSegments(destFile)) {
+      if (openSegments.contains(segment)) {
+        continue; // still in use by this JVM
+      }
+      final RandomAccessFile owner = new RandomAccessFile(segment, "rw");
+      try {
+        final FileLock lock;
+        try {
+          lock = owner.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+          continue; // still in use by this JVM, under another class loader
+        }
+        if (lock == null || owner.length() == 0L) {
+          continue; // still in use by another agent, or just created by it
+        }
+      } finally {
+        owner.close();
+      }
+      moveAside(segment, "a previous run");
+    }
+  }
+
+  /**
+   * Returns the segment files of a destination file, in order of creation.
+   * 
+   * @param destFile destination file
+   * @return
+   */
+  private static List<File> listSegments(final File destFile) {
+    final String prefix = destFile.getName() + ".";
+    final List<File> segments = new ArrayList<File>();
+    final File[] files = destFile.getAbsoluteFile().getParentFile().listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        if (file.isFile() && file.getName().startsWith(prefix)
+            && file.getName().endsWith(SEGMENT_SUFFIX)) {
+          segments.add(file);
+        }
+      }
+    }
+    // segments are named after their creation time
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private static boolean hasTrailer(final RandomAccessFile segment) throws IOException {
+    final long length = segment.length();
+    if (length < SEGMENT_TRAILER.length) {
+      return false;
+    }
+    final byte[] trailer = new byte[SEGMENT_TRAILER.length];
+    segment.seek(length - trailer.length);
+    segment.readFully(trailer);
+    for (int i = 0; i < trailer.length; i++) {
+      if (trailer[i] != SEGMENT_TRAILER[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Renames a segment file so that it is no longer merged, and warns about it. Its content can
+   * still be read up to its last complete block.
+   * 
+   * @param segment
+   * @param origin who has left the segment behind
+   */
+  private static void moveAside(final File segment, final String origin) {
+    final String name = segment.getName();
+    final File orphan = new File(segment.getParentFile(),
+        name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + ORPHAN_SUFFIX);
+    if (segment.renameTo(orphan)) {
+      System.err.println("GZoltar has not merged a segment left behind by " + origin
+          + ", moved it to: " + orphan);
+    }
+  }
+
+  private void openSegment() throws IOException {
+    // Segments are merged in the same order as they have been created
+    final String prefix = String.format("%s.%013d-%016x-", this.destFile.getName(),
+        System.currentTimeMillis(), System.nanoTime());
+    final File segment =
+        File.createTempFile(prefix, SEGMENT_SUFFIX, this.destFile.getParentFile());
+    openSegments.add(segment);
+    final FileOutputStream file;
+    try {
+      file = new FileOutputStream(segment);
+      // Tell other agents that this segment is still being written:
+      file.getChannel().lock();
+    } catch (IOException e) {
+      openSegments.remove(segment);
+      throw e;
     }
+    this.segment = segment;
+    this.output = new BufferedOutputStream(file, BUFFER_SIZE);
+    this.writer = new SpectrumWriter(this.output, this.granularity);
   }
 
   private OutputStream openFile() throws IOException {
@@ -37,4 +37,18 @@ public interface IAgentOutput {
    * @throws IOException in case writing fails
    */
   public void writeTransaction(final Transaction transaction) throws IOException;
+
+  /**
+   * Forces any buffered data to be written to the location determined by the agent controller.
+   * 
+   * @throws IOException in case writing fails
+   */
+  public void flush() throws IOException;
+
+  /**
+   * Flushes and releases any resource held by the output. Called once, when the agent shuts down.
+   * 
+   * @throws IOException in case writing fails
+   */
+  public void close() throws IOException;
 }
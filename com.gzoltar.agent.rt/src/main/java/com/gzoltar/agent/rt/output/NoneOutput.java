@@ -37,4 +37,20 @@ public class NoneOutput implements IAgentOutput {
   public void writeTransaction(final Transaction transaction) throws IOException {
     // NO-OP
   }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void flush() throws IOException {
+    // NO-OP
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() throws IOException {
+    // NO-OP
+  }
 }
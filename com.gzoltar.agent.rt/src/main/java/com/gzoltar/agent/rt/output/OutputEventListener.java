@@ -16,16 +16,76 @@
  */
 package com.gzoltar.agent.rt.output;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import com.gzoltar.core.AgentOutputOverflow;
 import com.gzoltar.core.events.IEventListener;
 import com.gzoltar.core.model.Transaction;
 import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.spectrum.SpectrumWriter;
+import com.gzoltar.core.spectrum.TransactionReader;
 
+/**
+ * Writes transactions to an {@link com.gzoltar.agent.rt.output.IAgentOutput}. Unless the size of
+ * the queue is <code>0</code>, transactions are queued and written in batches by a background
+ * thread, so that tests do not wait for their transactions to be serialized. The background thread
+ * is started on demand and stops at the end of each session, once all queued (and spilled)
+ * transactions have been written.
+ */
 public class OutputEventListener implements IEventListener {
 
+  /** Maximum number of transactions written by the background thread in one go */
+  private static final int BATCH_SIZE = 64;
+
+  /** How long the background thread waits for new transactions before checking its state */
+  private static final long POLL_TIMEOUT_MS = 50L;
+
   private final IAgentOutput output;
 
+  private final BlockingQueue<Transaction> queue;
+
+  private final AgentOutputOverflow overflow;
+
+  // === State guarded by this listener ===
+
+  private boolean closed = false;
+
+  private Thread writer = null;
+
+  private boolean stopping = false;
+
+  private File spillFile = null;
+
+  private SpectrumWriter spillWriter = null;
+
+  private OutputStream spillStream = null;
+
   public OutputEventListener(final IAgentOutput output) {
+    this(output, 0, AgentOutputOverflow.BLOCK);
+  }
+
+  /**
+   * 
+   * @param output
+   * @param queueSize maximum number of transactions waiting to be written (<code>0</code> to write
+   *        them synchronously)
+   * @param overflow what to do when the queue is full
+   */
+  public OutputEventListener(final IAgentOutput output, final int queueSize,
+      final AgentOutputOverflow overflow) {
     this.output = output;
+    this.queue = queueSize > 0 ? new ArrayBlockingQueue<Transaction>(queueSize) : null;
+    this.overflow = overflow;
   }
 
   /**
@@ -40,7 +100,176 @@ public class OutputEventListener implements IEventListener {
    * {@inheritDoc}
    */
   @Override
-  public synchronized void endTransaction(final Transaction transaction) {
+  public void endTransaction(final Transaction transaction) {
+    if (this.queue == null) {
+      synchronized (this) {
+        if (!this.closed) {
+          this.write(transaction);
+        }
+      }
+      return;
+    }
+
+    if (this.overflow == AgentOutputOverflow.SPILL) {
+      synchronized (this) {
+        if (this.closed) {
+          return;
+        }
+        // once spilling has started, transactions keep being spilled until the writer has caught
+        // up, so that they are written in the same order as they have ended
+        if (this.spillWriter != null || !this.queue.offer(transaction)) {
+          this.spill(transaction);
+        }
+        this.startWriter();
+      }
+      return;
+    }
+
+    boolean interrupted = false;
+    try {
+      while (true) {
+        synchronized (this) {
+          if (this.closed) {
+            return;
+          }
+          this.startWriter();
+        }
+        // the queue is not waited on indefinitely, as the listener might be closed (and its writer
+        // stopped) in the meantime
+        try {
+          if (this.queue.offer(transaction, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            break;
+          }
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      synchronized (this) {
+        if (this.closed) {
+          // the listener has been closed after its writer had written all other transactions,
+          // therefore this one is not written either
+          this.queue.remove(transaction);
+          return;
+        }
+        // the writer might have stopped in the meantime
+        this.startWriter();
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Waits for all pending transactions to be written, and flushes the output.
+   * 
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void endSession() {
+    this.stopWriter();
+    try {
+      this.output.flush();
+    } catch (final Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Writes all pending transactions, and flushes and closes the output. No transaction is written
+   * afterwards.
+   */
+  public synchronized void close() {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    this.stopWriter();
+    try {
+      this.output.close();
+    } catch (final Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  // === Background writer ===
+
+  /**
+   * Starts the background writer, unless it is running or the listener has been closed. Must be
+   * called while holding the lock of this listener.
+   */
+  private void startWriter() {
+    if (this.writer != null || this.closed) {
+      return;
+    }
+    this.writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runWriter();
+      }
+    }, "GZoltar output writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /**
+   * Asks the background writer to stop once all pending transactions have been written, and waits
+   * for it. Must be called while holding the lock of this listener.
+   */
+  private void stopWriter() {
+    if (this.writer == null) {
+      return;
+    }
+    boolean interrupted = false;
+    this.stopping = true;
+    while (this.writer != null) {
+      try {
+        this.wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    this.stopping = false;
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void runWriter() {
+    final List<Transaction> batch = new ArrayList<Transaction>(BATCH_SIZE);
+    while (true) {
+      Transaction transaction = null;
+      try {
+        transaction = this.queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        // ignore, the state of the listener is checked below
+      }
+
+      if (transaction == null) {
+        if (this.writeSpilledTransactions()) {
+          continue;
+        }
+        synchronized (this) {
+          if (this.stopping && this.queue.isEmpty() && this.spillWriter == null) {
+            this.writer = null;
+            this.notifyAll();
+            return;
+          }
+        }
+        continue;
+      }
+
+      batch.add(transaction);
+      this.queue.drainTo(batch, BATCH_SIZE - 1);
+      for (final Transaction t : batch) {
+        this.write(t);
+      }
+      batch.clear();
+    }
+  }
+
+  private void write(final Transaction transaction) {
     try {
       this.output.writeTransaction(transaction);
     } catch (final Exception e) {
@@ -48,11 +277,66 @@ public class OutputEventListener implements IEventListener {
     }
   }
 
+  // === Spill ===
+
   /**
-   * {@inheritDoc}
+   * Serializes a transaction to the spill file. Must be called while holding the lock of this
+   * listener.
    */
-  @Override
-  public void endSession() {
-    // NO-OP
+  private void spill(final Transaction transaction) {
+    try {
+      if (this.spillWriter == null) {
+        this.spillFile = File.createTempFile("gzoltar", ".spill");
+        this.spillStream = new BufferedOutputStream(new FileOutputStream(this.spillFile));
+        this.spillWriter = new SpectrumWriter(this.spillStream);
+      }
+      this.spillWriter.writeTransaction(transaction);
+    } catch (final IOException e) {
+      e.printStackTrace();
+      this.write(transaction);
+    }
+  }
+
+  /**
+   * Writes all spilled transactions to the output, if the queue has been drained.
+   * 
+   * @return <code>true</code> if any spilled transaction has been written, <code>false</code>
+   *         otherwise
+   */
+  private boolean writeSpilledTransactions() {
+    final File file;
+    synchronized (this) {
+      if (this.spillWriter == null || !this.queue.isEmpty()) {
+        return false;
+      }
+      try {
+        this.spillStream.close();
+      } catch (final IOException e) {
+        e.printStackTrace();
+      }
+      file = this.spillFile;
+      this.spillFile = null;
+      this.spillStream = null;
+      this.spillWriter = null;
+    }
+
+    try {
+      final TransactionReader reader =
+          new TransactionReader(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        Transaction transaction;
+        while ((transaction = reader.read()) != null) {
+          this.write(transaction);
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (final IOException e) {
+      e.printStackTrace();
+    }
+    if (!file.delete()) {
+      file.deleteOnExit();
+    }
+    return true;
   }
 }
@@ -119,6 +119,27 @@ public class AbstractCoverageTask extends Task {
     this.agentConfigs.setInclNoLocationClasses(inclNoLocationClasses);
   }
 
+  /**
+   * Sets the granularity level at which coverage is collected, i.e., which probes are placed.
+   * Reports at a finer granularity level cannot be built from the collected coverage. Default is
+   * <code>line</code>.
+   * 
+   * @param granularity Granularity level
+   */
+  public void setGranularity(final String granularity) {
+    this.agentConfigs.setGranularity(granularity);
+  }
+
+  /**
+   * Sets whether probes whose hits can be inferred from other probes should not be placed. Default
+   * is <code>false</code>.
+   * 
+   * @param inferProbes <code>true</code> if probes that can be inferred should not be placed
+   */
+  public void setInferProbes(final boolean inferProbes) {
+    this.agentConfigs.setInferProbes(inferProbes);
+  }
+
   /**
    * Sets the output method. Default is <code>file</code>
    * 
@@ -128,6 +149,15 @@ public class AbstractCoverageTask extends Task {
     this.agentConfigs.setOutput(output);
   }
 
+  /**
+   * Sets the directory in which instrumented classes are cached. Default is no cache.
+   * 
+   * @param instrumentationCache directory of the instrumentation cache
+   */
+  public void setInstrumentationCache(final File instrumentationCache) {
+    this.agentConfigs.setInstrumentationCache(instrumentationCache.getAbsolutePath());
+  }
+
   /**
    * Creates JVM argument to launch with the specified GZoltar agent jar and the current options
    * 
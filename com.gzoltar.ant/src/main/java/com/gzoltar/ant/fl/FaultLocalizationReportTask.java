@@ -64,6 +64,10 @@ public class FaultLocalizationReportTask extends AbstractReportTask {
       configFlFamily.setMetrics(flFamily.getMetricsGroup().getNameOfMetrics());
       // set formatters
       configFlFamily.setFormatters(flFamily.getFormattersGroup().getFormatters());
+      // set parallelism
+      configFlFamily.setParallelism(flFamily.getParallelism());
+      // set indexed spectrum
+      configFlFamily.setIndexedSpectrum(flFamily.getIndexedSpectrum());
 
       configFlFamilies.add(configFlFamily);
     }
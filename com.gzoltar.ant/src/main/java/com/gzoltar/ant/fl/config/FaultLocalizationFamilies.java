@@ -60,6 +60,10 @@ public class FaultLocalizationFamilies extends Union {
 
     private final Formatters formatters = new Formatters();
 
+    private int parallelism = 0;
+
+    private boolean indexedSpectrum = false;
+
     /**
      * 
      * @param faultLocalizationFamilyName
@@ -136,5 +140,37 @@ public class FaultLocalizationFamilies extends Union {
     public Formatters getFormattersGroup() {
       return this.formatters;
     }
+
+    /**
+     * 
+     * @param parallelism
+     */
+    public void setParallelism(final int parallelism) {
+      this.parallelism = parallelism;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public int getParallelism() {
+      return this.parallelism;
+    }
+
+    /**
+     * 
+     * @param indexedSpectrum
+     */
+    public void setIndexedSpectrum(final boolean indexedSpectrum) {
+      this.indexedSpectrum = indexedSpectrum;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public boolean getIndexedSpectrum() {
+      return this.indexedSpectrum;
+    }
   }
 }
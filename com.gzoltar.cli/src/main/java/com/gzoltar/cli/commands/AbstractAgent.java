@@ -17,12 +17,18 @@
 package com.gzoltar.cli.commands;
 
 import java.io.PrintStream;
+import org.kohsuke.args4j.Option;
 import com.gzoltar.cli.Command;
 import com.gzoltar.core.AgentConfigs;
 import com.gzoltar.core.AgentOutput;
 
 public abstract class AbstractAgent extends Command {
 
+  @Option(name = "--granularity",
+      usage = "source code granularity level at which coverage is collected (reports cannot be finer)",
+      metaVar = "<line|basicblock|method|class>", required = false)
+  private String granularity = AgentConfigs.DEFAULT_GRANULARITY.name();
+
   /**
    * 
    * @return
@@ -30,6 +36,7 @@ public abstract class AbstractAgent extends Command {
   protected AgentConfigs prepareAgentOptions() {
     AgentConfigs agentConfigs = new AgentConfigs();
     agentConfigs.setOutput(AgentOutput.NONE.name());
+    agentConfigs.setGranularity(this.granularity);
     return agentConfigs;
   }
 
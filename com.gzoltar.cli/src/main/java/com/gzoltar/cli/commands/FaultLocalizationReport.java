@@ -71,6 +71,21 @@ public class FaultLocalizationReport extends AbstractReport {
       metaVar = "<formatter>", required = false)
   private String formatter = ReportFormatter.TXT.name();
 
+  @Option(name = "--parallelism",
+      usage = "number of threads used to diagnose the spectrum (0 means as many as available processors)",
+      metaVar = "<n>", required = false)
+  private int parallelism = 0;
+
+  @Option(name = "--indexedSpectrum",
+      usage = "specifies whether the spectrum should be read from an indexed, memory-mapped file instead of being loaded in memory",
+      metaVar = "<boolean>", required = false)
+  private Boolean indexedSpectrum = false;
+
+  @Option(name = "--streamingSpectrum",
+      usage = "specifies whether transactions should be read from the data file whenever they are needed instead of being loaded in memory (slower, as the file is read once per pass)",
+      metaVar = "<boolean>", required = false)
+  private Boolean streamingSpectrum = false;
+
   /**
    * {@inheritDoc}
    */
@@ -116,6 +131,12 @@ public class FaultLocalizationReport extends AbstractReport {
           .createReportFormatter(ReportFormatter.valueOf(formatter.toUpperCase(Locale.ENGLISH))));
     }
     configFlFamily.setFormatters(formatters);
+    // set parallelism
+    configFlFamily.setParallelism(this.parallelism);
+    // set indexed spectrum
+    configFlFamily.setIndexedSpectrum(this.indexedSpectrum);
+    // set streaming spectrum
+    configFlFamily.setStreamingSpectrum(this.streamingSpectrum);
 
     // build a fault localization report
     FaultLocalizationReportBuilder.build(this.buildLocation.getAbsolutePath(), this.agentConfigs,
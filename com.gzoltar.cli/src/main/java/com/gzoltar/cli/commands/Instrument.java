@@ -26,7 +26,7 @@ import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
 import com.gzoltar.core.AgentConfigs;
 import com.gzoltar.core.instr.InstrumentationLevel;
-import com.gzoltar.core.instr.Instrumenter;
+import com.gzoltar.core.instr.ParallelInstrumenter;
 
 /**
  * The <code>instrument</code> command.
@@ -44,6 +44,16 @@ public class Instrument extends AbstractAgent implements Serializable {
       required = true)
   private File outputDirectory;
 
+  @Option(name = "--parallelism",
+      usage = "number of threads used to instrument classes (0 means as many as available processors)",
+      metaVar = "<n>", required = false)
+  private int parallelism = 0;
+
+  @Option(name = "--instrumentationCache",
+      usage = "directory in which instrumented classes are cached, so that unchanged classes are not instrumented again",
+      metaVar = "<path>", required = false)
+  private File instrumentationCache = null;
+
   @Override
   public String description() {
     return "Off-line instrumentation of Java class files and jar files.";
@@ -62,7 +72,10 @@ public class Instrument extends AbstractAgent implements Serializable {
     // configure instrumentation
     AgentConfigs agentConfigs = this.prepareAgentOptions();
     agentConfigs.setInstrumentationLevel(InstrumentationLevel.OFFLINE);
-    Instrumenter instrumenter = new Instrumenter(agentConfigs);
+    if (this.instrumentationCache != null) {
+      agentConfigs.setInstrumentationCache(this.instrumentationCache.getAbsolutePath());
+    }
+    ParallelInstrumenter instrumenter = new ParallelInstrumenter(agentConfigs, this.parallelism);
 
     final File absoluteOut = this.outputDirectory.getAbsoluteFile();
 
@@ -19,11 +19,18 @@ package com.gzoltar.cli.commands;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import org.kohsuke.args4j.Option;
 import com.gzoltar.cli.Command;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.test.ClassLoaderPool;
+import com.gzoltar.core.test.ParallelTestRunner;
 import com.gzoltar.core.test.TestMethod;
 import com.gzoltar.core.test.TestRunner;
 import com.gzoltar.core.test.TestTask;
@@ -46,6 +53,11 @@ public class RunTestMethods extends Command {
       metaVar = "<boolean>", required = false)
   private Boolean collectCoverage = false;
 
+  @Option(name = "--failingTestMethods",
+      usage = "file with list of failing test methods, which are run first. coverage of all other test methods is then focused on the classes executed by them (requires the agent's option focused=true)",
+      metaVar = "<path>", required = false)
+  private File failingTestMethods = null;
+
   @Option(name = "--offline",
       usage = "inform GZoltar that classes have been instrumented using offline instrumentation",
       metaVar = "<boolean>", required = false)
@@ -55,6 +67,21 @@ public class RunTestMethods extends Command {
       metaVar = "<boolean>", required = false)
   private Boolean initTestClass = false;
 
+  @Option(name = "--parallelism",
+      usage = "number of test methods run at the same time (0 means as many as available processors)",
+      metaVar = "<n>", required = false)
+  private int parallelism = 1;
+
+  @Option(name = "--testsPerClassLoader",
+      usage = "number of test methods of the same test class run in the same class loader before it is recycled (0 means no limit)",
+      metaVar = "<n>", required = false)
+  private int testsPerClassLoader = 1;
+
+  @Option(name = "--timeout",
+      usage = "maximum number of milliseconds each test method may run for (0 means no limit)",
+      metaVar = "<ms>", required = false)
+  private long timeout = 0L;
+
   @Override
   public String description() {
     return "Run test methods in isolation.";
@@ -77,41 +104,106 @@ public class RunTestMethods extends Command {
     if (!this.testMethods.exists() || !this.testMethods.canRead()) {
       throw new RuntimeException(this.testMethods + " does not exist or cannot be read");
     }
+    if (this.failingTestMethods != null
+        && (!this.failingTestMethods.exists() || !this.failingTestMethods.canRead())) {
+      throw new RuntimeException(this.failingTestMethods + " does not exist or cannot be read");
+    }
 
     final URL[] classpathURLs = new ClassGraph().getClasspathURLs().toArray(new URL[0]);
 
-    try (BufferedReader br = new BufferedReader(new FileReader(this.testMethods))) {
-      String line;
-      while ((line = br.readLine()) != null) {
-        String[] split = line.split(",");
-
-        TestMethod testMethod = new TestMethod(ClassType.valueOf(split[0]), split[1]);
-        TestTask testTask = null;
-
-        switch (testMethod.getClassType()) {
-          case JUNIT:
-            testTask = new JUnitTestTask(this.offline, this.collectCoverage,
-                this.initTestClass, testMethod);
-            break;
-          case TESTNG:
-            testTask = new TestNGTestTask(this.offline, this.collectCoverage,
-                this.initTestClass, testMethod);
-            break;
-          default:
-            throw new RuntimeException(testMethod.getLongName() + " is not supported");
+    int parallelism = this.parallelism;
+    if (this.offline && parallelism != 1) {
+      // classes instrumented offline report to the collector of the class loader of each test
+      // method, therefore test methods cannot share the output of the agent
+      out.println("* Test methods instrumented offline are run one at a time");
+      parallelism = 1;
+    }
+
+    List<String> testMethods = readLines(this.testMethods);
+
+    try (ClassLoaderPool classLoaderPool =
+        new ClassLoaderPool(classpathURLs, this.testsPerClassLoader)) {
+      if (this.failingTestMethods != null) {
+        // failing test methods first, with full coverage
+        List<String> failingTestMethods = readLines(this.failingTestMethods);
+        this.run(failingTestMethods, classLoaderPool, parallelism, backupProperties);
+        testMethods.removeAll(failingTestMethods);
+
+        // then all other test methods, only with the coverage of the classes executed by the
+        // failing ones
+        if (this.offline || !this.collectCoverage) {
+          out.println("* Coverage is not focused, as it is not collected by the agent");
+        } else if (Collector.instance().focus()) {
+          out.println("* Coverage focused on "
+              + Collector.instance().getClassesExecutedByFailingTransactions().size()
+              + " classes executed by failing test methods");
+        } else {
+          out.println("* Coverage of test methods cannot be focused, as the agent has not been "
+              + "started with " + AgentConfigs.FOCUSED_KEY + "=true");
         }
-        assert testTask != null;
+      }
+
+      this.run(testMethods, classLoaderPool, parallelism, backupProperties);
+    }
+
+    out.println("* Done!");
+
+    return 0;
+  }
+
+  /**
+   * Runs test methods, one at a time or in parallel.
+   */
+  private void run(final List<String> testMethods, final ClassLoaderPool classLoaderPool,
+      final int parallelism, final Properties backupProperties) throws Exception {
+    List<TestTask> testTasks = new ArrayList<TestTask>();
+    for (String line : testMethods) {
+      String[] split = line.split(",");
+
+      TestMethod testMethod = new TestMethod(ClassType.valueOf(split[0]), split[1]);
+      TestTask testTask = null;
+
+      switch (testMethod.getClassType()) {
+        case JUNIT:
+          testTask = new JUnitTestTask(this.offline, this.collectCoverage,
+              this.initTestClass, testMethod);
+          break;
+        case TESTNG:
+          testTask = new TestNGTestTask(this.offline, this.collectCoverage,
+              this.initTestClass, testMethod);
+          break;
+        default:
+          throw new RuntimeException(testMethod.getLongName() + " is not supported");
+      }
+      assert testTask != null;
 
-        TestRunner.run(classpathURLs, testTask);
+      if (parallelism == 1) {
+        TestRunner.run(classLoaderPool, testTask, this.timeout);
         testTask = null;
 
         // restore system properties
         System.setProperties((Properties) backupProperties.clone());
+      } else {
+        testTasks.add(testTask);
       }
     }
 
-    out.println("* Done!");
+    if (!testTasks.isEmpty()) {
+      new ParallelTestRunner(classLoaderPool, parallelism, this.timeout).run(testTasks);
 
-    return 0;
+      // restore system properties
+      System.setProperties((Properties) backupProperties.clone());
+    }
+  }
+
+  private static List<String> readLines(final File file) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        lines.add(line);
+      }
+    }
+    return lines;
   }
 }
@@ -117,6 +117,26 @@ public final class AgentConfigs {
 
   public static final AgentOutput DEFAULT_OUTPUT = AgentOutput.FILE;
 
+  /**
+   * Specifies the maximum number of transactions waiting to be written to the output by a
+   * background thread. If <code>0</code>, transactions are written by the thread that ends them.
+   * Default is <code>1024</code>.
+   */
+  public static final String OUTPUTQUEUESIZE_KEY = "outputqueuesize";
+
+  public static final int DEFAULT_OUTPUTQUEUESIZE = 1024;
+
+  /**
+   * Specifies what happens when the output queue is full. Default is
+   * {@link AgentOutputOverflow#BLOCK}.
+   * 
+   * @see AgentOutputOverflow#BLOCK
+   * @see AgentOutputOverflow#SPILL
+   */
+  public static final String OUTPUTOVERFLOW_KEY = "outputoverflow";
+
+  public static final AgentOutputOverflow DEFAULT_OUTPUTOVERFLOW = AgentOutputOverflow.BLOCK;
+
   /**
    * Specifies the granularity level of instrumentation. Default is {@link GranularityLevel#line}.
    */
@@ -124,6 +144,25 @@ public final class AgentConfigs {
 
   public static final GranularityLevel DEFAULT_GRANULARITY = GranularityLevel.LINE;
 
+  /**
+   * Specifies whether probes whose hits can be inferred from other probes of the same method are
+   * not placed in the bytecode (their hits are inferred when each transaction is harvested). It
+   * only applies to the <code>full</code> instrumentation level. Default is <code>false</code>.
+   */
+  public static final String INFERPROBES_KEY = "inferprobes";
+
+  public static final boolean DEFAULT_INFERPROBES = false;
+
+  /**
+   * Specifies whether coverage may be focused on the classes executed by failing test cases, i.e.,
+   * whether instrumented classes may be retransformed without any probe once failing test cases
+   * have been run (see {@link com.gzoltar.core.runtime.Collector#focus()}). It requires an agent
+   * that can retransform classes. Default is <code>false</code>.
+   */
+  public static final String FOCUSED_KEY = "focused";
+
+  public static final boolean DEFAULT_FOCUSED = false;
+
   /**
    * Specifies whether public methods of each class under test should be instrumented. Default is
    * <code>true</code>.
@@ -148,6 +187,14 @@ public final class AgentConfigs {
 
   public static final boolean DEFAULT_INCLDEPRECATEDMETHODS = true;
 
+  /**
+   * Specifies a directory in which instrumented classes are cached, so that unchanged classes are
+   * not instrumented again by later runs. Default is <code>""</code> (no cache).
+   */
+  public static final String INSTRUMENTATIONCACHE_KEY = "instrumentationcache";
+
+  public static final String DEFAULT_INSTRUMENTATIONCACHE = "";
+
   /**
    * Specifies which level of instrumentation should be performed. Default is <code>full</code>.
    */
@@ -159,8 +206,10 @@ public final class AgentConfigs {
 
   private static final Collection<String> VALID_CONFIGS =
       Arrays.asList(BUILDLOCATION_KEY, DESTFILE_KEY, INCLUDES_KEY, EXCLUDES_KEY,
-          EXCLCLASSLOADER_KEY, INCLNOLOCATIONCLASSES_KEY, OUTPUT_KEY, GRANULARITY_KEY,
-          INCLPUBLICMETHODS_KEY, INCLSTATICCONSTRUCTORS_KEY, INCLDEPRECATEDMETHODS_KEY);
+          EXCLCLASSLOADER_KEY, INCLNOLOCATIONCLASSES_KEY, OUTPUT_KEY, OUTPUTQUEUESIZE_KEY,
+          OUTPUTOVERFLOW_KEY, GRANULARITY_KEY, INFERPROBES_KEY, FOCUSED_KEY,
+          INCLPUBLICMETHODS_KEY, INCLSTATICCONSTRUCTORS_KEY, INCLDEPRECATEDMETHODS_KEY,
+          INSTRUMENTATIONCACHE_KEY);
 
   private static final Pattern CONFIG_SPLIT = Pattern.compile(",(?=[a-zA-Z0-9_\\-]+=)");
 
@@ -229,6 +278,15 @@ public final class AgentConfigs {
     return value == null ? defaultValue : Boolean.parseBoolean(value);
   }
 
+  private void setConfig(final String key, final int value) {
+    this.setConfig(key, Integer.toString(value));
+  }
+
+  private int getConfig(final String key, final int defaultValue) {
+    final String value = this.configs.get(key);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
   /**
    * Returns the build location.
    * 
@@ -265,6 +323,25 @@ public final class AgentConfigs {
     this.setConfig(DESTFILE_KEY, destfile);
   }
 
+  /**
+   * Returns the directory of the instrumentation cache.
+   * 
+   * @return directory location, or <code>""</code> if instrumented classes are not cached
+   */
+  public String getInstrumentationCache() {
+    return this.getConfig(INSTRUMENTATIONCACHE_KEY, DEFAULT_INSTRUMENTATIONCACHE);
+  }
+
+  /**
+   * Sets the directory of the instrumentation cache.
+   * 
+   * @param instrumentationCache directory location, or <code>""</code> to not cache instrumented
+   *        classes
+   */
+  public void setInstrumentationCache(final String instrumentationCache) {
+    this.setConfig(INSTRUMENTATIONCACHE_KEY, instrumentationCache);
+  }
+
   /**
    * Returns the wildcard expression for classes to include.
    * 
@@ -384,7 +461,55 @@ public final class AgentConfigs {
   }
 
   /**
-   * Returns the granularity level
+   * Returns the maximum number of transactions waiting to be written to the output.
+   * 
+   * @return size of the output queue
+   */
+  public int getOutputQueueSize() {
+    return this.getConfig(OUTPUTQUEUESIZE_KEY, DEFAULT_OUTPUTQUEUESIZE);
+  }
+
+  /**
+   * Sets the maximum number of transactions waiting to be written to the output.
+   * 
+   * @param outputQueueSize size of the output queue (<code>0</code> to write synchronously)
+   */
+  public void setOutputQueueSize(final int outputQueueSize) {
+    this.setConfig(OUTPUTQUEUESIZE_KEY, outputQueueSize);
+  }
+
+  /**
+   * Returns the policy applied when the output queue is full.
+   * 
+   * @return output overflow policy
+   */
+  public AgentOutputOverflow getOutputOverflow() {
+    final String value = this.configs.get(OUTPUTOVERFLOW_KEY);
+    return value == null ? DEFAULT_OUTPUTOVERFLOW
+        : AgentOutputOverflow.valueOf(value.toUpperCase());
+  }
+
+  /**
+   * Sets the policy applied when the output queue is full.
+   * 
+   * @param outputOverflow output overflow policy
+   */
+  public void setOutputOverflow(final String outputOverflow) {
+    this.setOutputOverflow(AgentOutputOverflow.valueOf(outputOverflow.toUpperCase()));
+  }
+
+  /**
+   * Sets the policy applied when the output queue is full.
+   * 
+   * @param outputOverflow output overflow policy
+   */
+  public void setOutputOverflow(final AgentOutputOverflow outputOverflow) {
+    this.setConfig(OUTPUTOVERFLOW_KEY, outputOverflow.name());
+  }
+
+  /**
+   * Returns the granularity level. Classes are only instrumented with the probes this level
+   * requires, so a spectrum collected at a coarse level cannot be analysed at a finer one.
    * 
    * @return current granularity level
    */
@@ -411,6 +536,42 @@ public final class AgentConfigs {
     this.setConfig(GRANULARITY_KEY, granularity.name());
   }
 
+  /**
+   * Returns whether probes that can be inferred from other probes are not placed.
+   * 
+   * @return <code>true</code> if probes that can be inferred are not placed
+   */
+  public boolean getInferProbes() {
+    return this.getConfig(INFERPROBES_KEY, DEFAULT_INFERPROBES);
+  }
+
+  /**
+   * Sets whether probes that can be inferred from other probes are not placed.
+   * 
+   * @param inferProbes <code>true</code> if probes that can be inferred should not be placed
+   */
+  public void setInferProbes(final boolean inferProbes) {
+    this.setConfig(INFERPROBES_KEY, inferProbes);
+  }
+
+  /**
+   * Returns whether coverage may be focused on the classes executed by failing test cases.
+   * 
+   * @return <code>true</code> if instrumented classes may be retransformed without any probe
+   */
+  public boolean getFocused() {
+    return this.getConfig(FOCUSED_KEY, DEFAULT_FOCUSED);
+  }
+
+  /**
+   * Sets whether coverage may be focused on the classes executed by failing test cases.
+   * 
+   * @param focused <code>true</code> if instrumented classes may be retransformed without any probe
+   */
+  public void setFocused(final boolean focused) {
+    this.setConfig(FOCUSED_KEY, focused);
+  }
+
   /**
    * Returns whether public methods should be instrumented.
    * 
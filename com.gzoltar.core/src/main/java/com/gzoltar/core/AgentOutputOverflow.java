@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core;
+
+public enum AgentOutputOverflow {
+
+  /**
+   * Value for the {@link AgentConfigs#OUTPUTOVERFLOW_KEY} parameter: When the output queue is
+   * full, the thread that ends a transaction waits until there is room in the queue.
+   */
+  BLOCK,
+
+  /**
+   * Value for the {@link AgentConfigs#OUTPUTOVERFLOW_KEY} parameter: When the output queue is
+   * full, transactions are serialized to a temporary file, which is written to the output as soon
+   * as the queue has been drained.
+   */
+  SPILL
+
+}
@@ -16,15 +16,15 @@
  */
 package com.gzoltar.core.events;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import com.gzoltar.core.model.Transaction;
 import com.gzoltar.core.runtime.ProbeGroup;
 
 public class MultiEventListener implements IEventListener {
 
-  private List<IEventListener> eventListeners = new ArrayList<IEventListener>();
+  private List<IEventListener> eventListeners = new CopyOnWriteArrayList<IEventListener>();
 
   public MultiEventListener(final IEventListener... els) {
     Collections.addAll(this.eventListeners, els);
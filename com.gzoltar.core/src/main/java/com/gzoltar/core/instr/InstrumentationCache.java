@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.InferredProbe;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.spectrum.SpectrumWriter;
+import com.gzoltar.core.spectrum.TransactionReader;
+import com.gzoltar.core.util.MD5;
+
+/**
+ * On-disk cache of instrumented classes. Each entry is keyed by the hash of the original bytecode
+ * of a class (i.e., the hash of its {@link com.gzoltar.core.runtime.ProbeGroup}) and holds the
+ * instrumented bytecode of the class, its inferred probes (which are not part of the description of
+ * a probeGroup in spectrum streams), and a spectrum stream that describes its probeGroup.
+ * Entries of different configurations (e.g., instrumentation level) are kept in different
+ * directories.
+ * 
+ * Entries are written to a temporary file and then renamed, therefore a cache can be shared by
+ * several threads and JVMs.
+ */
+public class InstrumentationCache {
+
+  /**
+   * Version of the instrumentation, to be increased whenever the instrumented bytecode or the
+   * probes of a class change.
+   */
+  private static final int VERSION = 4;
+
+  private final File directory;
+
+  /**
+   * 
+   * @param directory root directory of the cache
+   * @param agentConfigs
+   */
+  public InstrumentationCache(final File directory, final AgentConfigs agentConfigs) {
+    this.directory = new File(directory, getConfigurationHash(agentConfigs));
+  }
+
+  private static String getConfigurationHash(final AgentConfigs agentConfigs) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(VERSION);
+    sb.append(':').append(agentConfigs.getInstrumentationLevel());
+    sb.append(':').append(agentConfigs.getGranularity());
+    sb.append(':').append(agentConfigs.getInferProbes());
+    sb.append(':').append(agentConfigs.getInclPublicMethods());
+    sb.append(':').append(agentConfigs.getInclStaticConstructors());
+    sb.append(':').append(agentConfigs.getInclDeprecatedMethods());
+    try {
+      return MD5.calculateHash(sb.toString().getBytes("UTF-8"));
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private File getEntry(final String hash) {
+    return new File(this.directory, hash);
+  }
+
+  /**
+   * Returns the instrumented bytecode of a class, and registers its probeGroup in the
+   * {@link com.gzoltar.core.runtime.Collector}.
+   * 
+   * @param hash hash of the original bytecode of the class
+   * @return instrumented bytecode, or <code>null</code> if the class has not been cached (or its
+   *         entry cannot be read)
+   */
+  public byte[] load(final String hash) {
+    final File entry = this.getEntry(hash);
+    if (!entry.isFile()) {
+      return null;
+    }
+
+    try {
+      final DataInputStream in =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+      try {
+        final byte[] bytecode = new byte[in.readInt()];
+        in.readFully(bytecode);
+
+        final int[][] inferredProbes = new int[in.readInt()][];
+        for (int i = 0; i < inferredProbes.length; i++) {
+          final int length = in.readInt();
+          if (length < 2) {
+            return null;
+          }
+          inferredProbes[i] = new int[length];
+          for (int j = 0; j < inferredProbes[i].length; j++) {
+            inferredProbes[i][j] = in.readInt();
+          }
+        }
+
+        final TransactionReader reader = new TransactionReader(in);
+        if (reader.read() != null) {
+          return null;
+        }
+        final ProbeGroup probeGroup = reader.getProbeGroupByHash(hash);
+        if (probeGroup == null) {
+          return null;
+        }
+        for (int[] inferredProbe : inferredProbes) {
+          // array index, followed by the array indexes of its sources
+          probeGroup.registerInferredProbe(inferredProbe[0],
+              Arrays.copyOfRange(inferredProbe, 1, inferredProbe.length));
+        }
+
+        Collector.instance().regiterProbeGroup(probeGroup);
+        return bytecode;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      // an invalid entry is just a miss, it is replaced once the class is instrumented again
+      return null;
+    }
+  }
+
+  /**
+   * Adds an instrumented class to the cache.
+   * 
+   * @param probeGroup probeGroup of the class
+   * @param bytecode instrumented bytecode of the class
+   * @throws IOException if the entry cannot be written
+   */
+  public void store(final ProbeGroup probeGroup, final byte[] bytecode) throws IOException {
+    this.directory.mkdirs();
+
+    final File tmp = File.createTempFile(probeGroup.getHash(), ".tmp", this.directory);
+    try {
+      final DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        out.writeInt(bytecode.length);
+        out.write(bytecode);
+
+        out.writeInt(probeGroup.getInferredProbes().size());
+        for (InferredProbe inferredProbe : probeGroup.getInferredProbes()) {
+          out.writeInt(inferredProbe.getSources().length + 1);
+          out.writeInt(inferredProbe.getArrayIndex());
+          for (int source : inferredProbe.getSources()) {
+            out.writeInt(source);
+          }
+        }
+
+        new SpectrumWriter(out).writeProbeGroup(probeGroup);
+      } finally {
+        out.close();
+      }
+
+      // another thread or JVM might have stored the same class in the meantime
+      if (!tmp.renameTo(this.getEntry(probeGroup.getHash()))) {
+        tmp.delete();
+      }
+    } catch (IOException e) {
+      tmp.delete();
+      throw e;
+    }
+  }
+
+}
@@ -35,6 +35,8 @@ public final class InstrumentationConstants {
 
   public static final String SYSTEM_CLASS_FIELD_DESC = "Object ";
 
+  public static final String SYSTEM_CLASS_FIELD_DESC_BYTECODE = "Ljava/lang/Object;";
+
   public static final int SYSTEM_CLASS_FIELD_ACC =
       AccessFlag.PUBLIC | AccessFlag.STATIC | AccessFlag.SYNTHETIC | AccessFlag.TRANSIENT;
 
@@ -42,11 +44,9 @@ public final class InstrumentationConstants {
 
   public static final String FIELD_NAME = "$gzoltarData";
 
-  public static final String FIELD_INIT_VALUE = "null";
-
   public static final String FIELD_DESC_BYTECODE = "[Z";
 
-  public static final String FIELD_DESC_HUMAN = "boolean[] ";
+  public static final String FIELD_DESC_HUMAN = "boolean[]";
 
   public static final int FIELD_ACC =
       AccessFlag.PRIVATE | AccessFlag.STATIC | AccessFlag.SYNTHETIC | AccessFlag.TRANSIENT;
@@ -58,9 +58,7 @@ public final class InstrumentationConstants {
 
   public static final String INIT_METHOD_NAME = "$gzoltarInit";
 
-  public static final String INIT_METHOD_NAME_WITH_ARGS = INIT_METHOD_NAME + "()";
-
-  public static final String INIT_METHOD_DESC_HUMAN = "void ";
+  public static final String INIT_METHOD_DESC = "()V";
 
   public static final int INIT_METHOD_ACC =
       AccessFlag.PRIVATE | AccessFlag.STATIC | AccessFlag.SYNTHETIC;
@@ -68,6 +66,46 @@ public final class InstrumentationConstants {
   public static final int INIT_METHOD_INTF_ACC =
       AccessFlag.PUBLIC | AccessFlag.STATIC | AccessFlag.SYNTHETIC;
 
+  // === Bootstrap method ===
+
+  /**
+   * Name of the bootstrap method that the system class gets, which links the hit array of an
+   * instrumented class (see {@link com.gzoltar.core.instr.pass.AbstractInitMethodPass}).
+   */
+  public static final String BOOTSTRAP_METHOD_NAME = "$gzoltarBootstrap";
+
+  /**
+   * <code>(Lookup lookup, String name, MethodType type, String hash, String className,
+   * int numberOfProbes)</code>, returning a <code>CallSite</code>.
+   */
+  public static final String BOOTSTRAP_METHOD_DESC =
+      "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+          + "Ljava/lang/String;Ljava/lang/String;I)Ljava/lang/invoke/CallSite;";
+
+  public static final int BOOTSTRAP_METHOD_ACC =
+      AccessFlag.PUBLIC | AccessFlag.STATIC | AccessFlag.SYNTHETIC;
+
+  /**
+   * Name of the bootstrap method that the system class gets, which links the call that marks an
+   * instrumented class as executed (see
+   * {@link com.gzoltar.core.instr.pass.AbstractInitMethodPass}).
+   */
+  public static final String DIRTY_BOOTSTRAP_METHOD_NAME = "$gzoltarBootstrapDirty";
+
+  /**
+   * <code>(Lookup lookup, String name, MethodType type, String hash)</code>, returning a
+   * <code>CallSite</code> of type <code>(boolean[])void</code>.
+   */
+  public static final String DIRTY_BOOTSTRAP_METHOD_DESC =
+      "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+          + "Ljava/lang/String;)Ljava/lang/invoke/CallSite;";
+
+  /**
+   * Name of the method of the collector that marks a class as executed, i.e.,
+   * <code>markDirty(String hash, boolean[] hitArray)</code>.
+   */
+  public static final String DIRTY_METHOD_NAME = "markDirty";
+
   private InstrumentationConstants() {
     // NO-OP
   }
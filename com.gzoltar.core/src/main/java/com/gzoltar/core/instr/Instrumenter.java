@@ -35,6 +35,9 @@ import org.jacoco.core.internal.instr.SignatureRemover;
 import com.gzoltar.core.AgentConfigs;
 import com.gzoltar.core.instr.pass.IPass;
 import com.gzoltar.core.instr.pass.CoveragePass;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.util.MD5;
 import javassist.ClassPool;
 import javassist.CtClass;
 
@@ -45,18 +48,48 @@ public class Instrumenter {
 
   private final IPass[] passes;
 
+  private final IPass[] passesWithoutProbes;
+
+  private final IPass[] passesForRedefinition;
+
   private final SignatureRemover signatureRemover;
 
+  private final ClassPool classPool;
+
+  private final InstrumentationCache cache;
+
   /**
    * 
    * @param agentConfigs
    */
   public Instrumenter(final AgentConfigs agentConfigs) {
+    this(agentConfigs, ClassPool.getDefault());
+  }
+
+  /**
+   * 
+   * @param agentConfigs
+   * @param classPool pool in which classes are created and looked up
+   */
+  public Instrumenter(final AgentConfigs agentConfigs, final ClassPool classPool) {
+    this.classPool = classPool;
     this.passes = new IPass[] {
         //new TestFilterPass(), // do not instrument test classes/cases
         new CoveragePass(agentConfigs)
     };
+    this.passesWithoutProbes = new IPass[] {
+        new CoveragePass(agentConfigs, false)
+    };
+    // classes being redefined have already been initialised, and their static initializer does
+    // not run again
+    CoveragePass redefinitionPass = new CoveragePass(agentConfigs);
+    redefinitionPass.setBindAtClassInitialisation(false);
+    this.passesForRedefinition = new IPass[] {
+        redefinitionPass
+    };
     this.signatureRemover = new SignatureRemover();
+    this.cache = agentConfigs.getInstrumentationCache().isEmpty() ? null
+        : new InstrumentationCache(new File(agentConfigs.getInstrumentationCache()), agentConfigs);
   }
 
   /**
@@ -87,7 +120,7 @@ public class Instrumenter {
    * @throws Exception
    */
   public byte[] instrument(final InputStream sourceStream) throws Exception {
-    CtClass cc = ClassPool.getDefault().makeClassIfNew(sourceStream);
+    CtClass cc = this.classPool.makeClassIfNew(sourceStream);
     return this.instrument(cc);
   }
 
@@ -98,19 +131,84 @@ public class Instrumenter {
    * @throws Exception
    */
   public byte[] instrument(final CtClass cc) throws Exception {
-    for (IPass p : this.passes) {
+    String hash = null;
+    if (this.cache != null) {
+      // same hash as the one of the class' probeGroup
+      byte[] originalBytes = cc.toBytecode();
+      cc.defrost();
+      hash = MD5.calculateHash(originalBytes);
+
+      byte[] cachedBytecode = this.cache.load(hash);
+      if (cachedBytecode != null) {
+        return cachedBytecode;
+      }
+    }
+
+    if (!this.transform(cc, this.passes)) {
+      return null;
+    }
+
+    byte[] bytecode = cc.toBytecode();
+
+    if (this.cache != null) {
+      ProbeGroup probeGroup = Collector.instance().getProbeGroupByHash(hash);
+      if (probeGroup != null) {
+        try {
+          this.cache.store(probeGroup, bytecode);
+        } catch (IOException e) {
+          // the class has been instrumented anyway, it is just not cached
+        }
+      }
+    }
+
+    return bytecode;
+  }
+
+  /**
+   * Instruments a class as {@link #instrument(CtClass)} does, i.e., the class gets the same fields
+   * and methods, but without placing any probe. Classes instrumented either way can therefore be
+   * retransformed from one into the other.
+   * 
+   * @param cc
+   * @return
+   * @throws Exception
+   */
+  public byte[] instrumentWithoutProbes(final CtClass cc) throws Exception {
+    if (!this.transform(cc, this.passesWithoutProbes)) {
+      return null;
+    }
+    return cc.toBytecode();
+  }
+
+  /**
+   * Instruments a class being redefined (e.g., retransformed) as {@link #instrument(CtClass)} does,
+   * except that all its methods call the init method of GZoltar's field, as the static initializer
+   * of the class, which has already been initialised, does not run again. The instrumented class is
+   * not cached.
+   * 
+   * @param cc
+   * @return
+   * @throws Exception
+   */
+  public byte[] instrumentRedefinedClass(final CtClass cc) throws Exception {
+    if (!this.transform(cc, this.passesForRedefinition)) {
+      return null;
+    }
+    return cc.toBytecode();
+  }
+
+  private boolean transform(final CtClass cc, final IPass[] passes) throws Exception {
+    for (IPass p : passes) {
       switch (p.transform(cc)) {
         case REJECT:
           cc.detach();
-          return null;
+          return false;
         case ACCEPT:
         default:
           continue;
       }
     }
-
-    byte[] bytecode = cc.toBytecode();
-    return bytecode;
+    return true;
   }
 
   /**
@@ -127,7 +225,15 @@ public class Instrumenter {
     final ContentTypeDetector detector = new ContentTypeDetector(input);
     switch (detector.getType()) {
       case ContentTypeDetector.CLASSFILE:
-        output.write(this.instrument(detector.getInputStream()));
+        final ByteArrayOutputStream classfileBuffer = new ByteArrayOutputStream();
+        this.copy(detector.getInputStream(), classfileBuffer);
+        final byte[] instrumented = this.instrument(classfileBuffer.toByteArray());
+        if (instrumented == null) {
+          // rejected by a pass, e.g., a Java-7 interface, therefore copied without modification
+          classfileBuffer.writeTo(output);
+          return 0;
+        }
+        output.write(instrumented);
         return 1;
       case ContentTypeDetector.GZFILE:
         return this.instrumentGzip(detector.getInputStream(), output);
@@ -164,7 +270,7 @@ public class Instrumenter {
     int numInstrumentedClasses = 0;
 
     if (source.isDirectory()) {
-      ClassPool.getDefault().appendClassPath(source.getAbsolutePath());
+      this.classPool.appendClassPath(source.getAbsolutePath());
       for (final File child : source.listFiles()) {
         numInstrumentedClasses += this.instrumentRecursively(child, new File(dest, child.getName()));
       }
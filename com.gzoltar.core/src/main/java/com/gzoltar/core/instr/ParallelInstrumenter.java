@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.jacoco.core.internal.ContentTypeDetector;
+import org.jacoco.core.internal.instr.SignatureRemover;
+import com.gzoltar.core.AgentConfigs;
+import javassist.ClassPath;
+import javassist.ClassPool;
+import javassist.NotFoundException;
+
+/**
+ * Instruments directories and archive files (.zip, .jar) on several threads. Each thread has its
+ * own {@link Instrumenter}, i.e., its own passes and its own {@link ClassPool} (which reads class
+ * files from the class path of {@link ClassPool#getDefault()}, but never shares a
+ * {@link javassist.CtClass} with other threads). Entries of an archive file are instrumented in
+ * parallel but written in their original order, so the output is the same as the one of
+ * {@link Instrumenter}.
+ */
+public class ParallelInstrumenter {
+
+  /** Maximum number of entries of an archive file held in memory, per thread */
+  private static final int MAX_PENDING_ENTRIES_PER_THREAD = 16;
+
+  private final AgentConfigs agentConfigs;
+
+  private final int parallelism;
+
+  private final SignatureRemover signatureRemover;
+
+  private boolean removeSignatures = true;
+
+  /**
+   * 
+   * @param agentConfigs
+   * @param parallelism number of threads, any value lower than 1 means one per available processor
+   */
+  public ParallelInstrumenter(final AgentConfigs agentConfigs, final int parallelism) {
+    this.agentConfigs = agentConfigs;
+    this.parallelism = parallelism < 1 ? Runtime.getRuntime().availableProcessors() : parallelism;
+    this.signatureRemover = new SignatureRemover();
+  }
+
+  /**
+   * Determines whether signatures should be removed from JAR files. Default is <code>true</code>.
+   * 
+   * @param flag <code>true</code> if signatures should be removed
+   */
+  public void setRemoveSignatures(final boolean flag) {
+    this.removeSignatures = flag;
+    this.signatureRemover.setActive(flag);
+  }
+
+  /**
+   * 
+   * @param source file or directory to instrument
+   * @param dest instrumented file or directory
+   * @return number of instrumented classes
+   * @throws Exception if reading or writing a file fails or a class cannot be instrumented
+   */
+  public int instrumentRecursively(final File source, final File dest) throws Exception {
+    final Session session = new Session();
+    try {
+      session.instrumentRecursively(source, dest);
+      return session.await();
+    } finally {
+      session.shutdown();
+    }
+  }
+
+  /**
+   * 
+   * @param source file to instrument
+   * @param dest instrumented file
+   * @return number of instrumented classes
+   * @throws Exception if reading or writing a file fails or a class cannot be instrumented
+   */
+  public int instrument(final File source, final File dest) throws Exception {
+    final Session session = new Session();
+    try {
+      session.instrument(source, dest);
+      return session.await();
+    } finally {
+      session.shutdown();
+    }
+  }
+
+  private static int get(final Future<Integer> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static byte[] toByteArray(final InputStream input) throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[1024];
+    int len;
+    while ((len = input.read(buffer)) != -1) {
+      output.write(buffer, 0, len);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Threads and tasks of a single call to {@link #instrument(File, File)} or
+   * {@link #instrumentRecursively(File, File)}.
+   */
+  private final class Session {
+
+    private final ExecutorService executor;
+
+    private final ThreadLocal<Instrumenter> instrumenters = new ThreadLocal<Instrumenter>();
+
+    private final List<Future<Integer>> tasks = new ArrayList<Future<Integer>>();
+
+    private int numInstrumentedClasses = 0;
+
+    private Session() {
+      this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+          final Thread thread = new Thread(runnable, "gzoltar-instrumenter");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+
+    private Instrumenter getInstrumenter() {
+      Instrumenter instrumenter = this.instrumenters.get();
+      if (instrumenter == null) {
+        final ClassPool classPool = new ClassPool();
+        classPool.appendClassPath(new DefaultClassPath());
+        instrumenter = new Instrumenter(agentConfigs, classPool);
+        instrumenter.setRemoveSignatures(removeSignatures);
+        this.instrumenters.set(instrumenter);
+      }
+      return instrumenter;
+    }
+
+    private void instrumentRecursively(final File source, final File dest) throws Exception {
+      // as in Instrumenter, classes of all visited directories can be looked up. directories are
+      // added to the default class pool before any thread reads from it
+      final List<File[]> files = new ArrayList<File[]>();
+      this.collect(source, dest, files);
+      for (final File[] file : files) {
+        this.instrument(file[0], file[1]);
+      }
+    }
+
+    private void collect(final File source, final File dest, final List<File[]> files)
+        throws Exception {
+      if (source.isDirectory()) {
+        ClassPool.getDefault().appendClassPath(source.getAbsolutePath());
+        for (final File child : source.listFiles()) {
+          this.collect(child, new File(dest, child.getName()), files);
+        }
+      } else {
+        files.add(new File[] {source, dest});
+      }
+    }
+
+    private void instrument(final File source, final File dest) throws Exception {
+      dest.getParentFile().mkdirs();
+
+      final InputStream input = new FileInputStream(source);
+      try {
+        final ContentTypeDetector detector = new ContentTypeDetector(input);
+        if (detector.getType() == ContentTypeDetector.ZIPFILE) {
+          final OutputStream output = new FileOutputStream(dest);
+          try {
+            this.numInstrumentedClasses += this.instrumentZip(detector.getInputStream(), output);
+          } finally {
+            output.close();
+          }
+          return;
+        }
+      } finally {
+        input.close();
+      }
+
+      this.tasks.add(this.executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return getInstrumenter().instrument(source, dest);
+        }
+      }));
+    }
+
+    private int instrumentZip(final InputStream input, final OutputStream output)
+        throws Exception {
+      final ZipInputStream zipInputStream = new ZipInputStream(input);
+      final ZipOutputStream zipOutputStream = new ZipOutputStream(output);
+      final Deque<PendingEntry> pendingEntries = new ArrayDeque<PendingEntry>();
+      final int maxPendingEntries = parallelism * MAX_PENDING_ENTRIES_PER_THREAD;
+      ZipEntry entry;
+      int count = 0;
+
+      while ((entry = zipInputStream.getNextEntry()) != null) {
+        final String entryName = entry.getName();
+        if (signatureRemover.removeEntry(entryName)) {
+          continue;
+        }
+
+        final byte[] content = toByteArray(zipInputStream);
+        final PendingEntry pendingEntry = new PendingEntry(entryName);
+        if (!signatureRemover.filterEntry(entryName, new ByteArrayInputStream(content),
+            pendingEntry.output)) {
+          pendingEntry.task = this.executor.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+              return getInstrumenter().instrumentToFile(new ByteArrayInputStream(content),
+                  pendingEntry.output);
+            }
+          });
+        }
+        pendingEntries.add(pendingEntry);
+
+        if (pendingEntries.size() >= maxPendingEntries) {
+          count += pendingEntries.poll().write(zipOutputStream);
+        }
+      }
+
+      while (!pendingEntries.isEmpty()) {
+        count += pendingEntries.poll().write(zipOutputStream);
+      }
+      zipOutputStream.finish();
+
+      return count;
+    }
+
+    private int await() throws Exception {
+      for (final Future<Integer> task : this.tasks) {
+        this.numInstrumentedClasses += get(task);
+      }
+      this.tasks.clear();
+      return this.numInstrumentedClasses;
+    }
+
+    private void shutdown() {
+      this.executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Class path of {@link ClassPool#getDefault()}, i.e., the system class path and any path appended
+   * to it.
+   */
+  private static final class DefaultClassPath implements ClassPath {
+
+    @Override
+    public InputStream openClassfile(final String classname) throws NotFoundException {
+      final URL url = this.find(classname);
+      if (url == null) {
+        return null;
+      }
+      try {
+        return url.openStream();
+      } catch (IOException e) {
+        throw new NotFoundException(classname, e);
+      }
+    }
+
+    @Override
+    public URL find(final String classname) {
+      return ClassPool.getDefault().find(classname);
+    }
+  }
+
+  /**
+   * An entry of an archive file, either filtered or being instrumented.
+   */
+  private static final class PendingEntry {
+
+    private final String name;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private Future<Integer> task = null;
+
+    private PendingEntry(final String name) {
+      this.name = name;
+    }
+
+    private int write(final ZipOutputStream zipOutputStream) throws Exception {
+      final int count = this.task == null ? 0 : get(this.task);
+      zipOutputStream.putNextEntry(new ZipEntry(this.name));
+      this.output.writeTo(zipOutputStream);
+      zipOutputStream.closeEntry();
+      return count;
+    }
+  }
+
+}
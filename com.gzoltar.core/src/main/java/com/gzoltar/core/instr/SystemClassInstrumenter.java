@@ -29,13 +29,21 @@ import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.CtConstructor;
 import javassist.CtField;
+import javassist.CtMethod;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
 import javassist.expr.ExprEditor;
 import javassist.expr.FieldAccess;
 
 /**
  * This class adds a new static field to a bootstrap class that will be used by instrumented
- * classes. As the system class itself needs to be instrumented this instrumenter requires a Java
- * agent.
+ * classes, and the bootstrap methods that link the hit array of instrumented classes of Java 7 or
+ * later, and the call that marks them as executed. As the system class itself needs to be
+ * instrumented this instrumenter requires a Java agent.
  */
 public final class SystemClassInstrumenter {
 
@@ -94,6 +102,9 @@ public final class SystemClassInstrumenter {
     f.setModifiers(f.getModifiers() | InstrumentationConstants.SYSTEM_CLASS_FIELD_ACC);
     ctClass.addField(f);
 
+    ctClass.addMethod(makeBootstrapMethod(ctClass, accessFieldName));
+    ctClass.addMethod(makeDirtyBootstrapMethod(ctClass, accessFieldName));
+
     CtConstructor clinit = ctClass.makeClassInitializer();
     clinit.instrument(new ExprEditor() {
       @Override
@@ -106,4 +117,180 @@ public final class SystemClassInstrumenter {
 
     return ctClass.toBytecode();
   }
+
+  /**
+   * Makes the bootstrap method that links the hit array of instrumented classes of Java 7 or later,
+   * which is equivalent to:
+   * 
+   * <pre>
+   * public static CallSite $gzoltarBootstrap(Lookup lookup, String name, MethodType type,
+   *     String hash, String className, int numberOfProbes) {
+   *   Object[] args = new Object[] { hash, className, Integer.valueOf(numberOfProbes) };
+   *   $gzoltarAccess.equals(args);
+   *   return new ConstantCallSite(MethodHandles.constant(type.returnType(), args[0]));
+   * }
+   * </pre>
+   */
+  private static CtMethod makeBootstrapMethod(final CtClass ctClass,
+      final String accessFieldName) throws CannotCompileException {
+    final int typeLocal = 2, hashLocal = 3, classNameLocal = 4, numberOfProbesLocal = 5,
+        argsLocal = 6;
+
+    MethodInfo methodInfo = new MethodInfo(ctClass.getClassFile().getConstPool(),
+        InstrumentationConstants.BOOTSTRAP_METHOD_NAME,
+        InstrumentationConstants.BOOTSTRAP_METHOD_DESC);
+    Bytecode b = new Bytecode(methodInfo.getConstPool());
+
+    b.addIconst(3);
+    b.addAnewarray("java.lang.Object");
+    b.addOpcode(Opcode.DUP);
+    b.addIconst(0);
+    b.addAload(hashLocal);
+    b.addOpcode(Opcode.AASTORE);
+    b.addOpcode(Opcode.DUP);
+    b.addIconst(1);
+    b.addAload(classNameLocal);
+    b.addOpcode(Opcode.AASTORE);
+    b.addOpcode(Opcode.DUP);
+    b.addIconst(2);
+    b.addIload(numberOfProbesLocal);
+    b.addInvokestatic("java.lang.Integer", "valueOf", "(I)Ljava/lang/Integer;");
+    b.addOpcode(Opcode.AASTORE);
+    b.addAstore(argsLocal);
+
+    b.addGetstatic(ctClass, accessFieldName,
+        InstrumentationConstants.SYSTEM_CLASS_FIELD_DESC_BYTECODE);
+    b.addAload(argsLocal);
+    b.addInvokevirtual("java.lang.Object", "equals", "(Ljava/lang/Object;)Z");
+    b.addOpcode(Opcode.POP);
+
+    b.addNew("java.lang.invoke.ConstantCallSite");
+    b.addOpcode(Opcode.DUP);
+    b.addAload(typeLocal);
+    b.addInvokevirtual("java.lang.invoke.MethodType", "returnType", "()Ljava/lang/Class;");
+    b.addAload(argsLocal);
+    b.addIconst(0);
+    b.addOpcode(Opcode.AALOAD);
+    b.addInvokestatic("java.lang.invoke.MethodHandles", "constant",
+        "(Ljava/lang/Class;Ljava/lang/Object;)Ljava/lang/invoke/MethodHandle;");
+    b.addInvokespecial("java.lang.invoke.ConstantCallSite", MethodInfo.nameInit,
+        "(Ljava/lang/invoke/MethodHandle;)V");
+    b.addOpcode(Opcode.ARETURN);
+    b.setMaxLocals(argsLocal + 1);
+
+    CodeAttribute ca = b.toCodeAttribute();
+    try {
+      ca.computeMaxStack();
+    } catch (BadBytecode e) {
+      throw new CannotCompileException(e);
+    }
+    methodInfo.setCodeAttribute(ca);
+    methodInfo.setAccessFlags(InstrumentationConstants.BOOTSTRAP_METHOD_ACC);
+
+    return CtMethod.make(methodInfo, ctClass);
+  }
+
+  /**
+   * Makes the bootstrap method that links the call that marks an instrumented class of Java 7 or
+   * later as executed, which is equivalent to:
+   * 
+   * <pre>
+   * public static CallSite $gzoltarBootstrapDirty(Lookup lookup, String name, MethodType type,
+   *     String hash) {
+   *   Class&lt;?&gt; collectorClass = $gzoltarAccess.getClass();
+   *   Lookup publicLookup = MethodHandles.publicLookup();
+   *   // (Collector, String, boolean[])void
+   *   MethodHandle markDirty = publicLookup.findVirtual(collectorClass, "markDirty",
+   *       MethodType.methodType(void.class, String.class, boolean[].class));
+   *   // ()Collector, i.e., the collector is read on every call, as by $gzoltarAccess.equals(args)
+   *   MethodHandle access = publicLookup
+   *       .findStaticGetter(UnknownError.class, "$gzoltarAccess", Object.class)
+   *       .asType(MethodType.methodType(collectorClass));
+   *   // (boolean[])void
+   *   return new ConstantCallSite(MethodHandles
+   *       .insertArguments(MethodHandles.foldArguments(markDirty, access), 0, hash));
+   * }
+   * </pre>
+   */
+  private static CtMethod makeDirtyBootstrapMethod(final CtClass ctClass,
+      final String accessFieldName) throws CannotCompileException {
+    final int hashLocal = 3, collectorClassLocal = 4, publicLookupLocal = 5, markDirtyLocal = 6;
+
+    MethodInfo methodInfo = new MethodInfo(ctClass.getClassFile().getConstPool(),
+        InstrumentationConstants.DIRTY_BOOTSTRAP_METHOD_NAME,
+        InstrumentationConstants.DIRTY_BOOTSTRAP_METHOD_DESC);
+    ConstPool constPool = methodInfo.getConstPool();
+    Bytecode b = new Bytecode(constPool);
+
+    b.addGetstatic(ctClass, accessFieldName,
+        InstrumentationConstants.SYSTEM_CLASS_FIELD_DESC_BYTECODE);
+    b.addInvokevirtual("java.lang.Object", "getClass", "()Ljava/lang/Class;");
+    b.addAstore(collectorClassLocal);
+    b.addInvokestatic("java.lang.invoke.MethodHandles", "publicLookup",
+        "()Ljava/lang/invoke/MethodHandles$Lookup;");
+    b.addAstore(publicLookupLocal);
+
+    b.addAload(publicLookupLocal);
+    b.addAload(collectorClassLocal);
+    b.addLdc(InstrumentationConstants.DIRTY_METHOD_NAME);
+    b.addGetstatic("java.lang.Void", "TYPE", "Ljava/lang/Class;");
+    b.addLdc(constPool.addClassInfo("java.lang.String"));
+    b.addIconst(1);
+    b.addAnewarray("java.lang.Class");
+    b.addOpcode(Opcode.DUP);
+    b.addIconst(0);
+    b.addLdc(constPool.addClassInfo(InstrumentationConstants.FIELD_DESC_BYTECODE));
+    b.addOpcode(Opcode.AASTORE);
+    b.addInvokestatic("java.lang.invoke.MethodType", "methodType",
+        "(Ljava/lang/Class;Ljava/lang/Class;[Ljava/lang/Class;)Ljava/lang/invoke/MethodType;");
+    b.addInvokevirtual("java.lang.invoke.MethodHandles$Lookup", "findVirtual",
+        "(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/invoke/MethodType;)"
+            + "Ljava/lang/invoke/MethodHandle;");
+    b.addAstore(markDirtyLocal);
+
+    b.addAload(markDirtyLocal);
+    b.addAload(publicLookupLocal);
+    b.addLdc(constPool.addClassInfo(ctClass.getName()));
+    b.addLdc(accessFieldName);
+    b.addLdc(constPool.addClassInfo("java.lang.Object"));
+    b.addInvokevirtual("java.lang.invoke.MethodHandles$Lookup", "findStaticGetter",
+        "(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/invoke/MethodHandle;");
+    b.addAload(collectorClassLocal);
+    b.addInvokestatic("java.lang.invoke.MethodType", "methodType",
+        "(Ljava/lang/Class;)Ljava/lang/invoke/MethodType;");
+    b.addInvokevirtual("java.lang.invoke.MethodHandle", "asType",
+        "(Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/MethodHandle;");
+    b.addInvokestatic("java.lang.invoke.MethodHandles", "foldArguments",
+        "(Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodHandle;)"
+            + "Ljava/lang/invoke/MethodHandle;");
+    b.addIconst(0);
+    b.addIconst(1);
+    b.addAnewarray("java.lang.Object");
+    b.addOpcode(Opcode.DUP);
+    b.addIconst(0);
+    b.addAload(hashLocal);
+    b.addOpcode(Opcode.AASTORE);
+    b.addInvokestatic("java.lang.invoke.MethodHandles", "insertArguments",
+        "(Ljava/lang/invoke/MethodHandle;I[Ljava/lang/Object;)Ljava/lang/invoke/MethodHandle;");
+    b.addAstore(markDirtyLocal);
+
+    b.addNew("java.lang.invoke.ConstantCallSite");
+    b.addOpcode(Opcode.DUP);
+    b.addAload(markDirtyLocal);
+    b.addInvokespecial("java.lang.invoke.ConstantCallSite", MethodInfo.nameInit,
+        "(Ljava/lang/invoke/MethodHandle;)V");
+    b.addOpcode(Opcode.ARETURN);
+    b.setMaxLocals(markDirtyLocal + 1);
+
+    CodeAttribute ca = b.toCodeAttribute();
+    try {
+      ca.computeMaxStack();
+    } catch (BadBytecode e) {
+      throw new CannotCompileException(e);
+    }
+    methodInfo.setCodeAttribute(ca);
+    methodInfo.setAccessFlags(InstrumentationConstants.BOOTSTRAP_METHOD_ACC);
+
+    return CtMethod.make(methodInfo, ctClass);
+  }
 }
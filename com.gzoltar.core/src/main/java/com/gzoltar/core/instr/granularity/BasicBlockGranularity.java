@@ -16,8 +16,10 @@
  */
 package com.gzoltar.core.instr.granularity;
 
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.Set;
 import javassist.CtClass;
 import javassist.bytecode.MethodInfo;
 import javassist.bytecode.analysis.ControlFlow;
@@ -27,6 +29,10 @@ public class BasicBlockGranularity extends AbstractGranularity {
 
   private Queue<Integer> blocks = new LinkedList<Integer>();
 
+  private boolean startBlock = false;
+
+  private final Set<Integer> lines = new HashSet<Integer>();
+
   public BasicBlockGranularity(final CtClass ctClass, final MethodInfo methodInfo) {
     super(ctClass, methodInfo);
     try {
@@ -41,11 +47,32 @@ public class BasicBlockGranularity extends AbstractGranularity {
 
   @Override
   public boolean instrumentAtIndex(final int index, final int instrumentationSize) {
-    boolean outcome = !this.blocks.isEmpty() && index >= instrumentationSize + this.blocks.peek();
-    if (outcome) {
+    boolean startBlock = this.nextBlock(index, instrumentationSize);
+    // as probes are identified by line, a block that starts on a line that already has a probe
+    // shares that probe
+    boolean newLine = this.lines.add(this.methodInfo.getLineNumber(index));
+    return startBlock && newLine;
+  }
+
+  /**
+   * Returns whether a new basic block starts at the given index.
+   * 
+   * @param index
+   * @param instrumentationSize number of bytes inserted before the index
+   * @return
+   */
+  protected boolean nextBlock(final int index, final int instrumentationSize) {
+    this.startBlock =
+        !this.blocks.isEmpty() && index >= instrumentationSize + this.blocks.peek();
+    if (this.startBlock) {
       this.blocks.poll();
     }
-    return outcome;
+    return this.startBlock;
+  }
+
+  @Override
+  public boolean isStartBlock() {
+    return this.startBlock;
   }
 
   @Override
@@ -27,6 +27,9 @@ public class GranularityFactory {
       case LINE:
         return new LineGranularity(ctClass, methodInfo);
       case METHOD:
+      case CLASS:
+        // a class is represented by the entry of one of its methods, which one depends on the
+        // filters applied when the spectrum is analysed
         return new MethodGranularity(ctClass, methodInfo);
       case BASICBLOCK:
       default:
@@ -21,21 +21,39 @@ public enum GranularityLevel {
   /**
    * 
    */
-  LINE,
+  LINE(0),
 
   /**
    * 
    */
-  METHOD,
+  METHOD(2),
 
   /**
    * 
    */
-  CLASS,
+  CLASS(3),
 
   /**
    * 
    */
-  BASICBLOCK
+  BASICBLOCK(1);
+
+  /** Rank of the level, from the finest to the coarsest one */
+  private final int coarseness;
+
+  private GranularityLevel(final int coarseness) {
+    this.coarseness = coarseness;
+  }
+
+  /**
+   * Checks whether this level is finer than another one, i.e., whether the probes placed at the
+   * other level are not enough to report coverage at this level.
+   * 
+   * @param level
+   * @return
+   */
+  public boolean isFinerThan(final GranularityLevel level) {
+    return this.coarseness < level.coarseness;
+  }
 
 }
@@ -26,6 +26,14 @@ public interface IGranularity {
    */
   public boolean instrumentAtIndex(final int index, final int instrumentationSize);
 
+  /**
+   * Whether the index last passed to {@link #instrumentAtIndex(int, int)} is the first instruction
+   * of a basic block.
+   * 
+   * @return
+   */
+  public boolean isStartBlock();
+
   /**
    * 
    * @return
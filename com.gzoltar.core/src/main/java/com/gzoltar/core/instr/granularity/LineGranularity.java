@@ -19,7 +19,10 @@ package com.gzoltar.core.instr.granularity;
 import javassist.CtClass;
 import javassist.bytecode.MethodInfo;
 
-public class LineGranularity extends AbstractGranularity {
+/**
+ * A probe per line, plus a probe per basic block that starts in the middle of a line.
+ */
+public class LineGranularity extends BasicBlockGranularity {
 
   private int currentLine = -1;
 
@@ -29,9 +32,10 @@ public class LineGranularity extends AbstractGranularity {
 
   @Override
   public boolean instrumentAtIndex(final int index, final int instrumentationSize) {
+    boolean startBlock = this.nextBlock(index, instrumentationSize);
     int previousLine = this.currentLine;
     this.currentLine = this.methodInfo.getLineNumber(index);
-    return this.currentLine != previousLine;
+    return this.currentLine != previousLine || startBlock;
   }
 
   @Override
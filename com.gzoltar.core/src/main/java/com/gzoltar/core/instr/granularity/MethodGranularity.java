@@ -19,6 +19,9 @@ package com.gzoltar.core.instr.granularity;
 import javassist.CtClass;
 import javassist.bytecode.MethodInfo;
 
+/**
+ * A single probe at the entry of a method.
+ */
 public class MethodGranularity extends AbstractGranularity {
 
   public MethodGranularity(final CtClass ctClass, final MethodInfo methodInfo) {
@@ -30,6 +33,12 @@ public class MethodGranularity extends AbstractGranularity {
     return true;
   }
 
+  @Override
+  public boolean isStartBlock() {
+    // the entry of a method is always the start of its first block
+    return true;
+  }
+
   @Override
   public boolean stopInstrumenting() {
     return true;
@@ -0,0 +1,321 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ *
+ * This file is part of GZoltar.
+ *
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr.granularity;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.ExceptionTable;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+
+/**
+ * Finds which probes of a method do not have to be placed, as whether they are hit can be inferred
+ * from other probes of the method.
+ *
+ * A probe X is inferred from a set of placed probes S if X is executed if and only if any probe of
+ * S is executed, i.e., if
+ * <ul>
+ * <li>X is not the entry of the method nor of an exception handler, and every path that reaches X
+ * goes through a probe of S (i.e., S dominates X), and</li>
+ * <li>every path from a probe of S reaches X (i.e., X post-dominates S), as the instructions
+ * between them have a single successor and cannot throw any exception.</li>
+ * </ul>
+ * Probes are analysed in the order of their instructions, and a probe inferred from other inferred
+ * probes is inferred from the probes these are inferred from. Only probes whose hit array slot is
+ * not shared with any other probe of the method (i.e., the only probe of their line) are used as
+ * sources, as other slots do not tell which of their probes has been executed.
+ *
+ * Asynchronous exceptions and errors of the virtual machine (e.g., {@link OutOfMemoryError}) are not
+ * taken into account.
+ */
+public class ProbePlacement {
+
+  /** Instructions that cannot throw any exception */
+  private static final boolean[] SAFE = new boolean[256];
+
+  static {
+    for (int opcode = Opcode.NOP; opcode <= Opcode.ALOAD_3; opcode++) {
+      SAFE[opcode] = true; // constants and loads from local variables
+    }
+    for (int opcode = Opcode.ISTORE; opcode <= Opcode.ASTORE_3; opcode++) {
+      SAFE[opcode] = true; // stores into local variables
+    }
+    for (int opcode = Opcode.POP; opcode <= Opcode.IF_ACMPNE; opcode++) {
+      SAFE[opcode] = true; // stack, arithmetic, conversion, comparison, and branch instructions
+    }
+    // constants that might have to be resolved
+    SAFE[Opcode.LDC] = false;
+    SAFE[Opcode.LDC_W] = false;
+    // integer division by zero
+    SAFE[Opcode.IDIV] = false;
+    SAFE[Opcode.LDIV] = false;
+    SAFE[Opcode.IREM] = false;
+    SAFE[Opcode.LREM] = false;
+    SAFE[Opcode.GOTO] = true;
+    SAFE[Opcode.IFNULL] = true;
+    SAFE[Opcode.IFNONNULL] = true;
+    SAFE[Opcode.GOTO_W] = true;
+  }
+
+  /** Instructions of the method, by index */
+  private final Set<Integer> instructions = new HashSet<Integer>();
+
+  /** Instructions that cannot throw any exception */
+  private final Set<Integer> safeInstructions = new HashSet<Integer>();
+
+  /** Number of successors of each instruction */
+  private final Map<Integer, Integer> numberOfSuccessors = new HashMap<Integer, Integer>();
+
+  /** Predecessors of each instruction */
+  private final Map<Integer, List<Integer>> predecessors = new HashMap<Integer, List<Integer>>();
+
+  /** Entries of exception handlers */
+  private final Set<Integer> handlers = new HashSet<Integer>();
+
+  /** Placed probes that each inferred probe is inferred from */
+  private final Map<Integer, Set<Integer>> inferred = new HashMap<Integer, Set<Integer>>();
+
+  /**
+   *
+   * @param methodInfo
+   * @param probes index and line number of each probe of the method, in the order of their
+   *        instructions
+   */
+  public ProbePlacement(final MethodInfo methodInfo, final Map<Integer, Integer> probes) {
+    boolean supported;
+    try {
+      supported = this.analyse(methodInfo);
+    } catch (BadBytecode e) {
+      supported = false;
+    }
+    if (!supported) {
+      // all probes have to be placed
+      return;
+    }
+
+    // slots shared by several probes of the method
+    Map<Integer, Integer> probesPerLine = new HashMap<Integer, Integer>();
+    for (Integer line : probes.values()) {
+      Integer count = probesPerLine.get(line);
+      probesPerLine.put(line, count == null ? 1 : count + 1);
+    }
+
+    for (Map.Entry<Integer, Integer> probe : probes.entrySet()) {
+      Set<Integer> sources = this.infer(probe.getKey(), probes, probesPerLine);
+      if (sources != null) {
+        this.inferred.put(probe.getKey(), sources);
+      }
+    }
+  }
+
+  /**
+   * Returns the indexes of the placed probes whose hits are also the hits of a probe, or
+   * <code>null</code> if the probe has to be placed.
+   *
+   * @param index index of the probe
+   * @return
+   */
+  public Set<Integer> getSources(final int index) {
+    return this.inferred.get(index);
+  }
+
+  /**
+   * Returns the number of probes that do not have to be placed.
+   *
+   * @return
+   */
+  public int getNumberOfInferredProbes() {
+    return this.inferred.size();
+  }
+
+  /**
+   * Builds the control flow graph of the method.
+   *
+   * @return <code>false</code> if the method has subroutines, <code>true</code> otherwise
+   * @throws BadBytecode
+   */
+  private boolean analyse(final MethodInfo methodInfo) throws BadBytecode {
+    CodeAttribute ca = methodInfo.getCodeAttribute();
+    ConstPool constPool = methodInfo.getConstPool();
+
+    ExceptionTable exceptionTable = ca.getExceptionTable();
+    for (int i = 0; i < exceptionTable.size(); i++) {
+      this.handlers.add(exceptionTable.handlerPc(i));
+    }
+
+    CodeIterator ci = ca.iterator();
+    while (ci.hasNext()) {
+      int index = ci.next();
+      int opcode = ci.byteAt(index);
+      this.instructions.add(index);
+
+      List<Integer> successors = new ArrayList<Integer>();
+      switch (opcode) {
+        case Opcode.JSR:
+        case Opcode.JSR_W:
+        case Opcode.RET:
+          return false;
+        case Opcode.WIDE:
+          if (ci.byteAt(index + 1) == Opcode.RET) {
+            return false;
+          }
+          // wide loads, stores, and iinc
+          this.safeInstructions.add(index);
+          successors.add(ci.lookAhead());
+          break;
+        case Opcode.LDC:
+        case Opcode.LDC_W: {
+          int constant = opcode == Opcode.LDC ? ci.byteAt(index + 1) : ci.u16bitAt(index + 1);
+          int tag = constPool.getTag(constant);
+          if (tag == ConstPool.CONST_Integer || tag == ConstPool.CONST_Float
+              || tag == ConstPool.CONST_String) {
+            // unlike classes, method handles, or method types, they are never resolved
+            this.safeInstructions.add(index);
+          }
+          successors.add(ci.lookAhead());
+          break;
+        }
+        case Opcode.GOTO:
+          successors.add(index + ci.s16bitAt(index + 1));
+          break;
+        case Opcode.GOTO_W:
+          successors.add(index + ci.s32bitAt(index + 1));
+          break;
+        case Opcode.TABLESWITCH: {
+          int pos = (index & ~3) + 4;
+          successors.add(index + ci.s32bitAt(pos));
+          int low = ci.s32bitAt(pos + 4);
+          int high = ci.s32bitAt(pos + 8);
+          for (int i = 0; i <= high - low; i++) {
+            successors.add(index + ci.s32bitAt(pos + 12 + 4 * i));
+          }
+          break;
+        }
+        case Opcode.LOOKUPSWITCH: {
+          int pos = (index & ~3) + 4;
+          successors.add(index + ci.s32bitAt(pos));
+          int npairs = ci.s32bitAt(pos + 4);
+          for (int i = 0; i < npairs; i++) {
+            successors.add(index + ci.s32bitAt(pos + 12 + 8 * i));
+          }
+          break;
+        }
+        case Opcode.IRETURN:
+        case Opcode.LRETURN:
+        case Opcode.FRETURN:
+        case Opcode.DRETURN:
+        case Opcode.ARETURN:
+        case Opcode.RETURN:
+        case Opcode.ATHROW:
+          break;
+        default:
+          if ((opcode >= Opcode.IFEQ && opcode <= Opcode.IF_ACMPNE) || opcode == Opcode.IFNULL
+              || opcode == Opcode.IFNONNULL) {
+            successors.add(index + ci.s16bitAt(index + 1));
+          }
+          successors.add(ci.lookAhead());
+          break;
+      }
+
+      if (SAFE[opcode]) {
+        this.safeInstructions.add(index);
+      }
+      // a branch to the next instruction is a single successor
+      Set<Integer> uniqueSuccessors = new LinkedHashSet<Integer>(successors);
+      this.numberOfSuccessors.put(index, uniqueSuccessors.size());
+      for (Integer successor : uniqueSuccessors) {
+        List<Integer> list = this.predecessors.get(successor);
+        if (list == null) {
+          list = new ArrayList<Integer>();
+          this.predecessors.put(successor, list);
+        }
+        list.add(index);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Walks the control flow graph backwards from a probe, until other probes are reached.
+   *
+   * @return the placed probes the probe is inferred from, or <code>null</code> if it cannot be
+   *         inferred
+   */
+  private Set<Integer> infer(final int index, final Map<Integer, Integer> probes,
+      final Map<Integer, Integer> probesPerLine) {
+    if (index == 0 || this.handlers.contains(index) || !this.instructions.contains(index)) {
+      return null;
+    }
+
+    Set<Integer> sources = new HashSet<Integer>();
+    Set<Integer> visited = new HashSet<Integer>();
+    Deque<Integer> worklist = new ArrayDeque<Integer>(this.getPredecessors(index));
+    while (!worklist.isEmpty()) {
+      Integer instruction = worklist.pop();
+      if (!visited.add(instruction)) {
+        continue;
+      }
+
+      // the instruction must lead to the probe
+      if (!this.safeInstructions.contains(instruction)
+          || this.numberOfSuccessors.get(instruction) != 1) {
+        return null;
+      }
+
+      if (probes.containsKey(instruction)) {
+        if (instruction >= index) {
+          // not analysed yet
+          return null;
+        }
+        Set<Integer> inferredFrom = this.inferred.get(instruction);
+        if (inferredFrom != null) {
+          sources.addAll(inferredFrom);
+        } else if (probesPerLine.get(probes.get(instruction)) == 1) {
+          sources.add(instruction);
+        } else {
+          return null;
+        }
+        continue;
+      }
+
+      if (instruction == 0 || this.handlers.contains(instruction)) {
+        return null;
+      }
+      worklist.addAll(this.getPredecessors(instruction));
+    }
+
+    return sources.isEmpty() ? null : sources;
+  }
+
+  private List<Integer> getPredecessors(final int index) {
+    List<Integer> list = this.predecessors.get(index);
+    return list == null ? new ArrayList<Integer>() : list;
+  }
+
+}
@@ -16,6 +16,7 @@
  */
 package com.gzoltar.core.instr.pass;
 
+import java.util.Arrays;
 import com.gzoltar.core.instr.InstrumentationConstants;
 import com.gzoltar.core.instr.Outcome;
 import com.gzoltar.core.instr.filter.EmptyMethodFilter;
@@ -23,50 +24,166 @@ import com.gzoltar.core.runtime.Collector;
 import javassist.CtBehavior;
 import javassist.CtClass;
 import javassist.CtMethod;
+import javassist.bytecode.BootstrapMethodsAttribute;
+import javassist.bytecode.BootstrapMethodsAttribute.BootstrapMethod;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
 
+/**
+ * Adds the init method of GZoltar's field to a class, and a call to it at the beginning of each
+ * method. Both are emitted as bytecode, i.e., javassist's compiler is not used. In class files of
+ * Java 7 or later, the hit array, and the call that marks the class as executed, are linked by
+ * <code>invokedynamic</code> instructions, and therefore no array of arguments is allocated.
+ * 
+ * Whenever the static initializer of a class is guaranteed to run before any other method of the
+ * class (see {@link #isBoundAtClassInitialisation(CtClass)}), the hit array is bound once by the
+ * static initializer, and all other methods only check whether the class has already been marked
+ * as executed in the current transaction before calling the init method.
+ */
 public abstract class AbstractInitMethodPass implements IPass {
 
-  private static final String METHOD_STR;
-
-  protected static final String ARRAY_OBJECT_NAME = "$tmpGZoltarData";
+  /** Local variable of the init method that holds the arrays passed to the collector */
+  protected static final int ARRAY_LOCAL = 0;
 
   private final EmptyMethodFilter emptyMethodFilter = new EmptyMethodFilter();
 
   private String classHash = null;
 
-  protected String collectorCall = null;
-
-  static {
-    METHOD_STR = 
-        InstrumentationConstants.INIT_METHOD_DESC_HUMAN + InstrumentationConstants.INIT_METHOD_NAME_WITH_ARGS + " { "
-              + "if (" + InstrumentationConstants.FIELD_NAME + " == " + InstrumentationConstants.FIELD_INIT_VALUE + ") { "
-                + "Object[] " + ARRAY_OBJECT_NAME + " = new Object[] { \"%s\",\"%s\",\"%d\" }; "
-                + "%s "
-                + InstrumentationConstants.FIELD_NAME + " = (" + InstrumentationConstants.FIELD_DESC_HUMAN + ") " + ARRAY_OBJECT_NAME + "[0]; "
-              + "}"
-            + "}";
-  }
+  private int numberOfProbes = -1;
+
+  private boolean bindAtClassInitialisation = true;
 
   /**
-   * {@inheritDoc}
+   * Adds the init method, which is equivalent to:
+   * 
+   * <pre>
+   * private static void $gzoltarInit() {
+   *   if ($gzoltarData == null) {
+   *     // class files of Java 7 or later
+   *     $gzoltarData = invokedynamic bootstrap(hash, className, numberOfProbes);
+   *     // otherwise
+   *     Object[] args = new Object[] { hash, className, numberOfProbes };
+   *     // collector call, which sets args[0]
+   *     $gzoltarData = (boolean[]) args[0];
+   *   }
+   *   // the last slot of the hit array is set (and reported to the collector) the first time the
+   *   // class is executed in a transaction
+   *   if (!$gzoltarData[numberOfProbes]) {
+   *     $gzoltarData[numberOfProbes] = true;
+   *     // class files of Java 7 or later, i.e., markDirty(hash, $gzoltarData)
+   *     invokedynamic bootstrapDirty(hash).markDirty($gzoltarData);
+   *     // otherwise
+   *     Object[] args = new Object[] { hash, $gzoltarData };
+   *     // collector dirty call
+   *   }
+   * }
+   * </pre>
    */
   @Override
   public Outcome transform(CtClass ctClass) throws Exception {
-    CtMethod gzoltarInit =
-        CtMethod.make(String.format(METHOD_STR, this.classHash, ctClass.getName(),
-            Collector.instance().getProbeGroupByHash(this.classHash).getNumberOfProbes(),
-            this.collectorCall), ctClass);
-    if (ctClass.isInterface()) {
-      gzoltarInit.setModifiers(gzoltarInit.getModifiers() | InstrumentationConstants.INIT_METHOD_INTF_ACC);
+    final int numberOfProbes =
+        Collector.instance().getProbeGroupByHash(this.classHash).getNumberOfProbes();
+    this.numberOfProbes = numberOfProbes;
+
+    MethodInfo methodInfo = new MethodInfo(ctClass.getClassFile().getConstPool(),
+        InstrumentationConstants.INIT_METHOD_NAME, InstrumentationConstants.INIT_METHOD_DESC);
+    Bytecode b = new Bytecode(methodInfo.getConstPool());
+
+    // init hit array
+    b.addGetstatic(ctClass, InstrumentationConstants.FIELD_NAME,
+        InstrumentationConstants.FIELD_DESC_BYTECODE);
+    int ifInitialised = b.currentPc();
+    b.addOpcode(Opcode.IFNONNULL);
+    b.addIndex(0);
+    if (supportsInvokedynamic(ctClass)) {
+      ConstPool constPool = ctClass.getClassFile().getConstPool();
+      int bootstrapMethod = this.addBootstrapMethod(ctClass, this.getBootstrapMethodName(),
+          InstrumentationConstants.BOOTSTRAP_METHOD_DESC,
+          constPool.addStringInfo(this.classHash), constPool.addStringInfo(ctClass.getName()),
+          constPool.addIntegerInfo(numberOfProbes));
+      b.addInvokedynamic(bootstrapMethod, InstrumentationConstants.FIELD_NAME,
+          "()" + InstrumentationConstants.FIELD_DESC_BYTECODE);
     } else {
-      gzoltarInit.setModifiers(gzoltarInit.getModifiers() | InstrumentationConstants.INIT_METHOD_ACC);
+      this.addArray(b, 3);
+      this.addArrayElement(b, 0, this.classHash);
+      this.addArrayElement(b, 1, ctClass.getName());
+      this.addArrayElement(b, 2, String.valueOf(numberOfProbes));
+      b.addAstore(ARRAY_LOCAL);
+      this.addCollectorCall(b);
+      b.addAload(ARRAY_LOCAL);
+      b.addIconst(0);
+      b.addOpcode(Opcode.AALOAD);
+      b.addCheckcast(InstrumentationConstants.FIELD_DESC_BYTECODE);
     }
-    ctClass.addMethod(gzoltarInit);
+    b.addPutstatic(ctClass, InstrumentationConstants.FIELD_NAME,
+        InstrumentationConstants.FIELD_DESC_BYTECODE);
+    b.write16bit(ifInitialised + 1, b.currentPc() - ifInitialised);
+
+    // mark class as executed
+    b.addGetstatic(ctClass, InstrumentationConstants.FIELD_NAME,
+        InstrumentationConstants.FIELD_DESC_BYTECODE);
+    b.addIconst(numberOfProbes);
+    b.addOpcode(Opcode.BALOAD);
+    int ifDirty = b.currentPc();
+    b.addOpcode(Opcode.IFNE);
+    b.addIndex(0);
+    b.addGetstatic(ctClass, InstrumentationConstants.FIELD_NAME,
+        InstrumentationConstants.FIELD_DESC_BYTECODE);
+    b.addIconst(numberOfProbes);
+    b.addIconst(1);
+    b.addOpcode(Opcode.BASTORE);
+    if (supportsInvokedynamic(ctClass)) {
+      int bootstrapMethod = this.addBootstrapMethod(ctClass, this.getDirtyBootstrapMethodName(),
+          InstrumentationConstants.DIRTY_BOOTSTRAP_METHOD_DESC,
+          ctClass.getClassFile().getConstPool().addStringInfo(this.classHash));
+      b.addGetstatic(ctClass, InstrumentationConstants.FIELD_NAME,
+          InstrumentationConstants.FIELD_DESC_BYTECODE);
+      b.addInvokedynamic(bootstrapMethod, InstrumentationConstants.DIRTY_METHOD_NAME,
+          "(" + InstrumentationConstants.FIELD_DESC_BYTECODE + ")V");
+    } else {
+      this.addArray(b, 2);
+      this.addArrayElement(b, 0, this.classHash);
+      b.addOpcode(Opcode.DUP);
+      b.addIconst(1);
+      b.addGetstatic(ctClass, InstrumentationConstants.FIELD_NAME,
+          InstrumentationConstants.FIELD_DESC_BYTECODE);
+      b.addOpcode(Opcode.AASTORE);
+      b.addAstore(ARRAY_LOCAL);
+      this.addCollectorDirtyCall(b);
+    }
+    b.write16bit(ifDirty + 1, b.currentPc() - ifDirty);
+
+    b.addOpcode(Opcode.RETURN);
+    b.setMaxLocals(ARRAY_LOCAL + 1);
+
+    CodeAttribute ca = b.toCodeAttribute();
+    ca.computeMaxStack();
+    methodInfo.setCodeAttribute(ca);
+    methodInfo.setAccessFlags(ctClass.isInterface() ? InstrumentationConstants.INIT_METHOD_INTF_ACC
+        : InstrumentationConstants.INIT_METHOD_ACC);
+    methodInfo.rebuildStackMapIf6(ctClass.getClassPool(), ctClass.getClassFile());
+
+    ctClass.addMethod(CtMethod.make(methodInfo, ctClass));
     return Outcome.ACCEPT;
   }
 
   /**
-   * {@inheritDoc}
+   * Adds a call to the init method at the beginning of a method. If the hit array is bound by the
+   * static initializer of the class, the call is only made the first time the method is executed
+   * in a transaction, i.e., the beginning of the method is equivalent to:
+   * 
+   * <pre>
+   * if (!$gzoltarData[numberOfProbes]) {
+   *   $gzoltarInit();
+   * }
+   * </pre>
+   * 
+   * Note that the stack map of the method is not rebuilt.
    */
   @Override
   public Outcome transform(CtClass ctClass, CtBehavior ctBehavior) throws Exception {
@@ -74,8 +191,29 @@ public abstract class AbstractInitMethodPass implements IPass {
       return Outcome.REJECT;
     }
 
-    ctBehavior.insertBefore(
-        InstrumentationConstants.INIT_METHOD_NAME_WITH_ARGS + InstrumentationConstants.EOL);
+    MethodInfo methodInfo = ctBehavior.getMethodInfo();
+    Bytecode b = new Bytecode(methodInfo.getConstPool());
+    int ifDirty = -1;
+    if (this.bindAtClassInitialisation && !methodInfo.isStaticInitializer()
+        && isBoundAtClassInitialisation(ctClass)) {
+      b.addGetstatic(ctClass, InstrumentationConstants.FIELD_NAME,
+          InstrumentationConstants.FIELD_DESC_BYTECODE);
+      b.addIconst(this.numberOfProbes);
+      b.addOpcode(Opcode.BALOAD);
+      ifDirty = b.currentPc();
+      b.addOpcode(Opcode.IFNE);
+      b.addIndex(0);
+    }
+    b.addInvokestatic(ctClass, InstrumentationConstants.INIT_METHOD_NAME,
+        InstrumentationConstants.INIT_METHOD_DESC);
+    if (ifDirty != -1) {
+      b.write16bit(ifDirty + 1, b.currentPc() - ifDirty);
+    }
+
+    // as javassist's insertBefore, branches to the first instruction are not redirected to the
+    // call
+    CodeIterator ci = methodInfo.getCodeAttribute().iterator();
+    ci.insertEx(b.get());
     return Outcome.ACCEPT;
   }
 
@@ -87,4 +225,149 @@ public abstract class AbstractInitMethodPass implements IPass {
     this.classHash = hash;
   }
 
+  /**
+   * Sets whether the hit array of a class may be bound by its static initializer, and therefore
+   * the init method be called by other methods only when the class has not been marked as executed
+   * yet. It must be disabled for classes that have already been initialised, e.g., classes being
+   * redefined, whose static initializer does not run again. Default is <code>true</code>.
+   * 
+   * @param flag
+   */
+  public void setBindAtClassInitialisation(final boolean flag) {
+    this.bindAtClassInitialisation = flag;
+  }
+
+  /**
+   * Whether the static initializer of a class always runs before any other of its methods, and
+   * therefore whether the hit array of the class is bound before any other method may be executed.
+   * 
+   * The JVM runs the static initializer of a class before any of its static methods and
+   * constructors, and blocks other threads until it has finished. However, the JVM initialises the
+   * superclass (and the superinterfaces that declare default methods) of a class after the class
+   * has been marked as being initialised, and before its static initializer runs. Any static
+   * method of the class called (by the same thread) from the static initializer of a superclass
+   * runs before the hit array has been bound. Therefore, only classes whose superclass and
+   * superinterfaces belong to the Java runtime (which does not call user code from its static
+   * initializers) are safe. Interfaces are never, as their static initializer does not run before
+   * their default methods.
+   * 
+   * @param ctClass
+   * @return <code>true</code> if the hit array of the class may be bound by its static initializer,
+   *         <code>false</code> otherwise
+   */
+  public static boolean isBoundAtClassInitialisation(final CtClass ctClass) {
+    if (ctClass.isInterface()) {
+      return false;
+    }
+
+    ClassFile classFile = ctClass.getClassFile2();
+    if (!isJavaRuntimeClass(classFile.getSuperclass())) {
+      return false;
+    }
+    for (String interfaceName : classFile.getInterfaces()) {
+      if (!isJavaRuntimeClass(interfaceName)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isJavaRuntimeClass(final String className) {
+    return className.startsWith("java.");
+  }
+
+  /**
+   * Whether a class file may use <code>invokedynamic</code>, i.e., whether it is a class file of
+   * Java 7 or later.
+   */
+  private static boolean supportsInvokedynamic(final CtClass ctClass) {
+    return ctClass.getClassFile().getMajorVersion() >= ClassFile.JAVA_7;
+  }
+
+  /**
+   * Adds a bootstrap method to a class, e.g., the one that links the hit array of the class, with
+   * the hash, name, and number of probes of the class as static arguments. As call sites are
+   * constant, each bootstrap method is only called once, and no arguments are allocated nor
+   * parsed.
+   * 
+   * @param ctClass
+   * @param methodName name of the bootstrap method
+   * @param methodDesc descriptor of the bootstrap method
+   * @param arguments constant pool indexes of the static arguments
+   * @return the index of the bootstrap method
+   */
+  private int addBootstrapMethod(final CtClass ctClass, final String methodName,
+      final String methodDesc, final int... arguments) {
+    ClassFile classFile = ctClass.getClassFile();
+    ConstPool constPool = classFile.getConstPool();
+
+    int methodRef = constPool.addMethodrefInfo(constPool.addClassInfo(this.getBootstrapClassName()),
+        methodName, methodDesc);
+    int methodHandle = constPool.addMethodHandleInfo(ConstPool.REF_invokeStatic, methodRef);
+
+    // keep the bootstrap methods of the class, e.g., of its lambdas
+    BootstrapMethodsAttribute attribute =
+        (BootstrapMethodsAttribute) classFile.getAttribute(BootstrapMethodsAttribute.tag);
+    BootstrapMethod[] methods =
+        attribute == null ? new BootstrapMethod[0] : attribute.getMethods();
+    BootstrapMethod[] newMethods = Arrays.copyOf(methods, methods.length + 1);
+    newMethods[methods.length] = new BootstrapMethod(methodHandle, arguments);
+    classFile.addAttribute(new BootstrapMethodsAttribute(constPool, newMethods));
+
+    return methods.length;
+  }
+
+  private void addArray(final Bytecode b, final int length) {
+    b.addIconst(length);
+    b.addAnewarray("java.lang.Object");
+  }
+
+  private void addArrayElement(final Bytecode b, final int index, final String value) {
+    b.addOpcode(Opcode.DUP);
+    b.addIconst(index);
+    b.addLdc(value);
+    b.addOpcode(Opcode.AASTORE);
+  }
+
+  /**
+   * Returns the name of the class of the bootstrap method that links the hit array of a class (see
+   * {@link com.gzoltar.core.instr.InstrumentationConstants#BOOTSTRAP_METHOD_DESC}).
+   * 
+   * @return
+   */
+  protected abstract String getBootstrapClassName();
+
+  /**
+   * Returns the name of the bootstrap method that links the hit array of a class.
+   * 
+   * @return
+   */
+  protected abstract String getBootstrapMethodName();
+
+  /**
+   * Returns the name of the bootstrap method, of the same class, that links the call that marks a
+   * class as executed (see
+   * {@link com.gzoltar.core.instr.InstrumentationConstants#DIRTY_BOOTSTRAP_METHOD_DESC}).
+   * 
+   * @return
+   */
+  protected abstract String getDirtyBootstrapMethodName();
+
+  /**
+   * Adds the bytecode that passes the array in {@link #ARRAY_LOCAL} (i.e., hash, class name, and
+   * number of probes) to the collector, which sets its first element to the hit array of the class.
+   * Only used by class files older than Java 7.
+   * 
+   * @param b
+   */
+  protected abstract void addCollectorCall(Bytecode b);
+
+  /**
+   * Adds the bytecode that passes the array in {@link #ARRAY_LOCAL} (i.e., hash and hit array) to
+   * the collector, which marks the class as executed. Only used by class files older than Java 7.
+   * 
+   * @param b
+   */
+  protected abstract void addCollectorDirtyCall(Bytecode b);
+
 }
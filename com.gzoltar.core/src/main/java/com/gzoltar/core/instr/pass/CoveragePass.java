@@ -17,9 +17,12 @@
 package com.gzoltar.core.instr.pass;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import com.gzoltar.core.AgentConfigs;
 import com.gzoltar.core.instr.InstrumentationConstants;
 import com.gzoltar.core.instr.InstrumentationLevel;
@@ -30,6 +33,10 @@ import com.gzoltar.core.instr.filter.EnumFilter;
 import com.gzoltar.core.instr.filter.IFilter;
 import com.gzoltar.core.instr.filter.SyntheticFilter;
 import com.gzoltar.core.instr.filter.Java7InterfaceFilter;
+import com.gzoltar.core.instr.granularity.GranularityFactory;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.instr.granularity.IGranularity;
+import com.gzoltar.core.instr.granularity.ProbePlacement;
 import com.gzoltar.core.model.Node;
 import com.gzoltar.core.model.NodeFactory;
 import com.gzoltar.core.runtime.Collector;
@@ -39,19 +46,24 @@ import com.gzoltar.core.util.MD5;
 import javassist.CtBehavior;
 import javassist.CtClass;
 import javassist.CtConstructor;
+import javassist.bytecode.BadBytecode;
 import javassist.bytecode.Bytecode;
 import javassist.bytecode.CodeAttribute;
 import javassist.bytecode.CodeIterator;
 import javassist.bytecode.ConstPool;
 import javassist.bytecode.MethodInfo;
 import javassist.bytecode.Opcode;
-import javassist.bytecode.analysis.ControlFlow;
-import javassist.bytecode.analysis.ControlFlow.Block;
 
 public class CoveragePass implements IPass {
 
   private final InstrumentationLevel instrumentationLevel;
 
+  private final GranularityLevel granularity;
+
+  private final boolean inferProbes;
+
+  private final boolean placeProbes;
+
   private final FieldPass fieldPass = new FieldPass();
 
   private AbstractInitMethodPass initMethodPass = null;
@@ -65,8 +77,25 @@ public class CoveragePass implements IPass {
   private ProbeGroup probeGroup;
 
   public CoveragePass(final AgentConfigs agentConfigs) {
+    this(agentConfigs, true);
+  }
+
+  /**
+   * 
+   * @param agentConfigs
+   * @param placeProbes <code>false</code> if classes should get the same fields and methods as if
+   *        they had been instrumented, but without any probe, e.g., to retransform an instrumented
+   *        class whose coverage is no longer required
+   */
+  public CoveragePass(final AgentConfigs agentConfigs, final boolean placeProbes) {
+    this.placeProbes = placeProbes;
 
     this.instrumentationLevel = agentConfigs.getInstrumentationLevel();
+    this.granularity = agentConfigs.getGranularity();
+    // the hits of inferred probes are inferred by the collector that instruments the class, which
+    // does not happen in offline instrumentation
+    this.inferProbes = agentConfigs.getInferProbes()
+        && this.instrumentationLevel == InstrumentationLevel.FULL;
     switch (this.instrumentationLevel) {
       case FULL:
       default:
@@ -96,6 +125,18 @@ public class CoveragePass implements IPass {
     this.filtersAtClassLevel.add(new Java7InterfaceFilter());
   }
 
+  /**
+   * Sets whether the hit array of a class may be bound by its static initializer, see
+   * {@link AbstractInitMethodPass#setBindAtClassInitialisation(boolean)}.
+   * 
+   * @param flag
+   */
+  public void setBindAtClassInitialisation(final boolean flag) {
+    if (this.initMethodPass != null) {
+      this.initMethodPass.setBindAtClassInitialisation(flag);
+    }
+  }
+
   @Override
   public synchronized Outcome transform(final CtClass ctClass) throws Exception {
     boolean instrumented = false;
@@ -118,14 +159,17 @@ public class CoveragePass implements IPass {
     String hash = MD5.calculateHash(originalBytes);
     this.probeGroup = new ProbeGroup(hash, ctClass);
 
+    // behaviours whose code has been modified, and therefore whose stack size and stack map have to
+    // be updated
+    Set<CtBehavior> modifiedBehaviors = new LinkedHashSet<CtBehavior>();
+
     for (CtBehavior ctBehavior : ctClass.getDeclaredBehaviors()) {
       boolean behaviorInstrumented =
           this.transform(ctClass, ctBehavior).equals(Outcome.REJECT) ? false : true;
       instrumented = instrumented || behaviorInstrumented;
 
       if (behaviorInstrumented) {
-        // update stack size
-        this.stackSizePass.transform(ctClass, ctBehavior);
+        modifiedBehaviors.add(ctBehavior);
       }
     }
 
@@ -140,33 +184,54 @@ public class CoveragePass implements IPass {
       this.initMethodPass.setHash(hash);
       this.initMethodPass.transform(ctClass);
 
-      // make sure GZoltar's field is initialised. note: the following code requires the init method
-      // to be in the instrumented class, otherwise a compilation error is thrown
+      if (this.placeProbes) {
+        // make sure GZoltar's field is initialised
+        this.initialiseField(ctClass, modifiedBehaviors);
+      } else {
+        // GZoltar's field is never initialised, but the class must have the same methods as if it
+        // had been instrumented, i.e., a static initializer as well
+        ctClass.makeClassInitializer();
+      }
+    }
 
-      boolean hasAnyStaticInitializerBeenInstrumented = false;
-      for (CtBehavior ctBehavior : ctClass.getDeclaredBehaviors()) {
-        if (ctBehavior.getName().equals(InstrumentationConstants.INIT_METHOD_NAME)) {
-          // for obvious reasons, init method cannot call itself
-          continue;
-        }
+    // update stack size and stack map, once per behaviour
+    for (CtBehavior ctBehavior : modifiedBehaviors) {
+      this.stackSizePass.transform(ctClass, ctBehavior);
+    }
 
-        // before executing the code of every single method, check whether FIELD_NAME has been
-        // initialised. if not, init method should initialise the field
-        this.initMethodPass.transform(ctClass, ctBehavior);
+    return Outcome.ACCEPT;
+  }
 
-        if (hasAnyStaticInitializerBeenInstrumented == false
-            && ctBehavior.getMethodInfo2().isStaticInitializer()) {
-          hasAnyStaticInitializerBeenInstrumented = true;
-        }
+  /**
+   * Calls the init method of GZoltar's field at the beginning of every method of a class.
+   */
+  private void initialiseField(final CtClass ctClass, final Set<CtBehavior> modifiedBehaviors)
+      throws Exception {
+    boolean hasAnyStaticInitializerBeenInstrumented = false;
+    for (CtBehavior ctBehavior : ctClass.getDeclaredBehaviors()) {
+      if (ctBehavior.getName().equals(InstrumentationConstants.INIT_METHOD_NAME)) {
+        // for obvious reasons, init method cannot call itself
+        continue;
       }
 
-      if (!hasAnyStaticInitializerBeenInstrumented) {
-        CtConstructor clinit = ctClass.makeClassInitializer();
-        this.initMethodPass.transform(ctClass, clinit);
+      // before executing the code of every single method, check whether FIELD_NAME has been
+      // initialised. if not, init method should initialise the field. the static initializer
+      // always initialises it, and therefore if the class allows it, other methods only check
+      // whether the class has been marked as executed
+      if (this.initMethodPass.transform(ctClass, ctBehavior) == Outcome.ACCEPT) {
+        modifiedBehaviors.add(ctBehavior);
+
+        if (ctBehavior.getMethodInfo2().isStaticInitializer()) {
+          hasAnyStaticInitializerBeenInstrumented = true;
+        }
       }
     }
 
-    return Outcome.ACCEPT;
+    if (!hasAnyStaticInitializerBeenInstrumented) {
+      CtConstructor clinit = ctClass.makeClassInitializer();
+      this.initMethodPass.transform(ctClass, clinit);
+      modifiedBehaviors.add(clinit);
+    }
   }
 
   @Override
@@ -193,17 +258,23 @@ public class CoveragePass implements IPass {
     assert ca != null;
     CodeIterator ci = ca.iterator();
 
-    Queue<Integer> blocks = new LinkedList<Integer>();
-    try {
-      ControlFlow cf = new ControlFlow(ctClass, methodInfo);
-      for (Block block : cf.basicBlocks()) {
-        blocks.add(block.position());
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
+    // the hit array is loaded once into a new local variable at the beginning of the method, and
+    // each probe stores into it
+    final int hitArrayLocal = ca.getMaxLocals();
+
+    // only place the probes required by the configured granularity
+    IGranularity granularity =
+        GranularityFactory.getGranularity(ctClass, methodInfo, this.granularity);
+
+    // and, if enabled, only those whose hits cannot be inferred from other probes
+    ProbePlacement probePlacement = null;
+    if (this.inferProbes) {
+      probePlacement = new ProbePlacement(methodInfo, this.findProbes(ctClass, methodInfo));
     }
+    // array index of the probe placed at each index of the original code
+    Map<Integer, Integer> placedProbes = new HashMap<Integer, Integer>();
 
-    int index = 0, prevLine = -1, curLine = -1, instrSize = 0;
+    int index = 0, curLine = -1, instrSize = 0;
     while (ci.hasNext()) {
       index = ci.next();
       curLine = methodInfo.getLineNumber(index);
@@ -212,40 +283,104 @@ public class CoveragePass implements IPass {
         continue;
       }
 
-      boolean isNewBlock = !blocks.isEmpty() && index >= instrSize + blocks.peek();
-      if (isNewBlock) {
-        blocks.poll();
-      }
-
-      if (prevLine != curLine || isNewBlock) {
-        // a line is always considered for instrumentation if and only if: 1) it's line number has
-        // not been instrumented; 2) or, if it's in a different block
-
-        Node node = NodeFactory.createNode(ctClass, ctBehavior, curLine, isNewBlock);
+      if (granularity.instrumentAtIndex(index, instrSize)) {
+        Node node =
+            NodeFactory.createNode(ctClass, ctBehavior, curLine, granularity.isStartBlock());
         assert node != null;
         Probe probe = this.probeGroup.registerProbe(node, ctBehavior);
         assert probe != null;
 
-        if (injectBytecode) {
-          Bytecode bc = this.getInstrumentationCode(ctClass, probe, methodInfo.getConstPool());
-          ci.insert(index, bc.get());
-          instrSize += bc.length();
+        int[] sources = probePlacement == null ? null
+            : this.getSources(probePlacement, index - instrSize, placedProbes);
+        if (injectBytecode && sources != null) {
+          this.probeGroup.registerInferredProbe(probe.getArrayIndex(), sources);
+        } else if (injectBytecode) {
+          placedProbes.put(index - instrSize, probe.getArrayIndex());
+          if (this.placeProbes) {
+            Bytecode bc =
+                this.getInstrumentationCode(probe, hitArrayLocal, methodInfo.getConstPool());
+            ci.insert(index, bc.get());
+            instrSize += bc.length();
+          }
           instrumented = Outcome.ACCEPT;
         } else {
           instrumented = Outcome.REJECT;
         }
 
-        prevLine = curLine;
+        if (granularity.stopInstrumenting()) {
+          break;
+        }
       }
     }
 
+    if (instrumented == Outcome.ACCEPT && this.placeProbes) {
+      Bytecode b = new Bytecode(methodInfo.getConstPool());
+      b.addGetstatic(ctClass, InstrumentationConstants.FIELD_NAME,
+          InstrumentationConstants.FIELD_DESC_BYTECODE);
+      b.addAstore(hitArrayLocal);
+      // branches to the first instruction are not redirected to the load. the call to the init
+      // method, later inserted before the load, therefore runs before it
+      ca.iterator().insertEx(b.get());
+      ca.setMaxLocals(hitArrayLocal + 1);
+    }
+
     return instrumented;
   }
 
-  private Bytecode getInstrumentationCode(CtClass ctClass, Probe probe, ConstPool constPool) {
+  /**
+   * Finds the index and line number of the probes the configured granularity places in a method,
+   * without placing them.
+   */
+  private Map<Integer, Integer> findProbes(final CtClass ctClass, final MethodInfo methodInfo)
+      throws BadBytecode {
+    Map<Integer, Integer> probes = new TreeMap<Integer, Integer>();
+    IGranularity granularity =
+        GranularityFactory.getGranularity(ctClass, methodInfo, this.granularity);
+
+    CodeIterator ci = methodInfo.getCodeAttribute().iterator();
+    while (ci.hasNext()) {
+      int index = ci.next();
+      int line = methodInfo.getLineNumber(index);
+      if (line == -1) {
+        continue;
+      }
+
+      if (granularity.instrumentAtIndex(index, 0)) {
+        probes.put(index, line);
+        if (granularity.stopInstrumenting()) {
+          break;
+        }
+      }
+    }
+    return probes;
+  }
+
+  /**
+   * Returns the array indexes of the placed probes a probe is inferred from, or <code>null</code>
+   * if the probe has to be placed.
+   */
+  private int[] getSources(final ProbePlacement probePlacement, final int index,
+      final Map<Integer, Integer> placedProbes) {
+    Set<Integer> sources = probePlacement.getSources(index);
+    if (sources == null) {
+      return null;
+    }
+
+    int[] arrayIndexes = new int[sources.size()];
+    int i = 0;
+    for (Integer source : sources) {
+      Integer arrayIndex = placedProbes.get(source);
+      if (arrayIndex == null) {
+        return null;
+      }
+      arrayIndexes[i++] = arrayIndex;
+    }
+    return arrayIndexes;
+  }
+
+  private Bytecode getInstrumentationCode(Probe probe, int hitArrayLocal, ConstPool constPool) {
     Bytecode b = new Bytecode(constPool);
-    b.addGetstatic(ctClass, InstrumentationConstants.FIELD_NAME,
-        InstrumentationConstants.FIELD_DESC_BYTECODE);
+    b.addAload(hitArrayLocal);
     b.addIconst(probe.getArrayIndex());
     b.addOpcode(Opcode.ICONST_1);
     b.addOpcode(Opcode.BASTORE);
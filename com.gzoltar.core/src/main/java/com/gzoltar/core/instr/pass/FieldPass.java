@@ -24,17 +24,18 @@ import javassist.CtField;
 
 public class FieldPass implements IPass {
 
-  private static final String fieldStr =
-      InstrumentationConstants.FIELD_DESC_HUMAN + InstrumentationConstants.FIELD_NAME + " = "
-          + InstrumentationConstants.FIELD_INIT_VALUE + InstrumentationConstants.EOL;
-
+  /**
+   * Adds GZoltar's field to a class. The field has no initialiser, as its default value (i.e.,
+   * <code>null</code>) tells the init method the field has not been initialised yet.
+   */
   @Override
   public Outcome transform(CtClass ctClass) throws Exception {
-    CtField f = CtField.make(fieldStr, ctClass);
+    CtField f = new CtField(ctClass.getClassPool().get(InstrumentationConstants.FIELD_DESC_HUMAN),
+        InstrumentationConstants.FIELD_NAME, ctClass);
     if (ctClass.isInterface()) {
-      f.setModifiers(f.getModifiers() | InstrumentationConstants.FIELD_INTF_ACC);
+      f.setModifiers(InstrumentationConstants.FIELD_INTF_ACC);
     } else {
-      f.setModifiers(f.getModifiers() | InstrumentationConstants.FIELD_ACC);
+      f.setModifiers(InstrumentationConstants.FIELD_ACC);
     }
     ctClass.addField(f);
 
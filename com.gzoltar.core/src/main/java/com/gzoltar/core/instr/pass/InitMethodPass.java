@@ -17,14 +17,51 @@
 package com.gzoltar.core.instr.pass;
 
 import com.gzoltar.core.instr.InstrumentationConstants;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.Opcode;
 
 public class InitMethodPass extends AbstractInitMethodPass {
 
-  private static final String call = InstrumentationConstants.SYSTEM_CLASS_NAME_JVM + "."
-      + InstrumentationConstants.SYSTEM_CLASS_FIELD_NAME + ".equals(" + ARRAY_OBJECT_NAME + "); ";
+  /**
+   * Calls the collector through the field of the system class, i.e.,
+   * <code>java.lang.UnknownError.$gzoltarAccess.equals(args)</code>.
+   */
+  private static void addSystemClassCall(final Bytecode b) {
+    b.addGetstatic(InstrumentationConstants.SYSTEM_CLASS_NAME_JVM,
+        InstrumentationConstants.SYSTEM_CLASS_FIELD_NAME,
+        InstrumentationConstants.SYSTEM_CLASS_FIELD_DESC_BYTECODE);
+    b.addAload(ARRAY_LOCAL);
+    b.addInvokevirtual("java.lang.Object", "equals", "(Ljava/lang/Object;)Z");
+    b.addOpcode(Opcode.POP);
+  }
+
+  /**
+   * The bootstrap method added to the system class by
+   * {@link com.gzoltar.core.instr.SystemClassInstrumenter}.
+   */
+  @Override
+  protected String getBootstrapClassName() {
+    return InstrumentationConstants.SYSTEM_CLASS_NAME_JVM;
+  }
+
+  @Override
+  protected String getBootstrapMethodName() {
+    return InstrumentationConstants.BOOTSTRAP_METHOD_NAME;
+  }
+
+  @Override
+  protected String getDirtyBootstrapMethodName() {
+    return InstrumentationConstants.DIRTY_BOOTSTRAP_METHOD_NAME;
+  }
+
+  @Override
+  protected void addCollectorCall(final Bytecode b) {
+    addSystemClassCall(b);
+  }
 
-  public InitMethodPass() {
-    this.collectorCall = call;
+  @Override
+  protected void addCollectorDirtyCall(final Bytecode b) {
+    addSystemClassCall(b);
   }
 
 }
@@ -16,11 +16,39 @@
  */
 package com.gzoltar.core.instr.pass;
 
+import javassist.bytecode.Bytecode;
+
 public class OfflineInitMethodPass extends AbstractInitMethodPass {
 
-  public OfflineInitMethodPass() {
-    this.collectorCall =
-        "com.gzoltar.internal.agent.rt.Offline.getHitArray(" + ARRAY_OBJECT_NAME + "); ";
+  private static final String OFFLINE_CLASS_NAME = "com.gzoltar.internal.agent.rt.Offline";
+
+  private static final String OFFLINE_METHOD_DESC = "([Ljava/lang/Object;)V";
+
+  @Override
+  protected String getBootstrapClassName() {
+    return OFFLINE_CLASS_NAME;
+  }
+
+  @Override
+  protected String getBootstrapMethodName() {
+    return "bootstrap";
+  }
+
+  @Override
+  protected String getDirtyBootstrapMethodName() {
+    return "bootstrapDirty";
+  }
+
+  @Override
+  protected void addCollectorCall(final Bytecode b) {
+    b.addAload(ARRAY_LOCAL);
+    b.addInvokestatic(OFFLINE_CLASS_NAME, "getHitArray", OFFLINE_METHOD_DESC);
+  }
+
+  @Override
+  protected void addCollectorDirtyCall(final Bytecode b) {
+    b.addAload(ARRAY_LOCAL);
+    b.addInvokestatic(OFFLINE_CLASS_NAME, "markDirty", OFFLINE_METHOD_DESC);
   }
 
 }
@@ -18,22 +18,35 @@ package com.gzoltar.core.listeners;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.runner.notification.RunListener;
 import com.gzoltar.core.model.TransactionOutcome;
 import com.gzoltar.core.runtime.Collector;
 
 /**
  * Test listener.
+ * 
+ * Each test is a transaction of the scope of the thread that runs it (see
+ * {@link com.gzoltar.core.runtime.Collector#getScope()}), which is the global scope unless the test
+ * runner binds a scope to it. Therefore, tests run in parallel by the same class loader (e.g.,
+ * TestNG with <code>parallel="methods"</code>, or JUnit 5 with parallel execution enabled) share
+ * the hit arrays of the classes they execute, and the coverage of overlapping tests is merged: a
+ * test that finishes collects the hits of all tests running at that time. A warning is printed the
+ * first time tests overlap. Run tests sequentially, or in separate JVMs (e.g., Surefire's
+ * <code>forkCount</code>), to get the coverage of each test on its own.
  */
 public class Listener extends RunListener {
 
   public static final String TEST_CLASS_NAME_SEPARATOR = "#";
 
-  private boolean hasFailed = false;
+  /** Outcome of the test running on each thread */
+  private final ThreadLocal<TestState> tests = new ThreadLocal<TestState>();
 
-  private long startTime;
+  /** Number of tests that have started and have not finished yet */
+  private final AtomicInteger runningTests = new AtomicInteger();
 
-  protected String stackTrace;
+  private final AtomicBoolean hasWarnedOverlap = new AtomicBoolean(false);
 
   /**
    * Called before any tests have been run.
@@ -53,9 +66,13 @@ public class Listener extends RunListener {
    * Called when an atomic test is about to be started.
    */
   public final void onTestStart() {
-    this.hasFailed = false;
-    this.startTime = System.nanoTime();
-    this.stackTrace = "";
+    TestState test = this.tests.get();
+    if ((test == null || !test.isRunning) && this.runningTests.incrementAndGet() > 1
+        && this.hasWarnedOverlap.compareAndSet(false, true)) {
+      System.err.println("GZoltar has detected tests running in parallel, the coverage of tests"
+          + " that overlap is merged");
+    }
+    this.tests.set(new TestState(System.nanoTime(), true));
   }
 
   /**
@@ -64,17 +81,33 @@ public class Listener extends RunListener {
    * @param testName
    */
   public final void onTestFinish(final String testName) {
+    TestState test = this.tests.get();
+    if (test == null) {
+      // e.g., a test skipped by TestNG without being started
+      test = new TestState(System.nanoTime(), false);
+    } else {
+      this.tests.remove();
+      if (test.isRunning) {
+        this.runningTests.decrementAndGet();
+      }
+    }
     Collector.instance().endTransaction(testName,
-        this.hasFailed ? TransactionOutcome.FAIL : TransactionOutcome.PASS,
-        System.nanoTime() - this.startTime, this.stackTrace);
+        test.hasFailed ? TransactionOutcome.FAIL : TransactionOutcome.PASS,
+        System.nanoTime() - test.startTime, test.stackTrace);
   }
 
   /**
    * Called when an atomic test fails.
    */
   public final void onTestFailure(String trace) {
-    this.hasFailed = true;
-    this.stackTrace = trace;
+    TestState test = this.tests.get();
+    if (test == null) {
+      // e.g., a failure of a class, reported by JUnit before any of its tests is started
+      test = new TestState(System.nanoTime(), false);
+      this.tests.set(test);
+    }
+    test.hasFailed = true;
+    test.stackTrace = trace;
   }
 
   /**
@@ -97,4 +130,21 @@ public class Listener extends RunListener {
     exception.printStackTrace(writer);
     return stringWriter.toString();
   }
+
+  private static final class TestState {
+
+    private final long startTime;
+
+    /** Whether the test has been started, i.e., it is counted as running */
+    private final boolean isRunning;
+
+    private boolean hasFailed = false;
+
+    private String stackTrace = "";
+
+    private TestState(final long startTime, final boolean isRunning) {
+      this.startTime = startTime;
+      this.isRunning = isRunning;
+    }
+  }
 }
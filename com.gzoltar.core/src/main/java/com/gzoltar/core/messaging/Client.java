@@ -16,127 +16,418 @@
  */
 package com.gzoltar.core.messaging;
 
-import java.io.ObjectOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import com.gzoltar.core.events.IEventListener;
 import com.gzoltar.core.messaging.Message.AddProbeGroupMessage;
 import com.gzoltar.core.messaging.Message.ByeMessage;
 import com.gzoltar.core.messaging.Message.EndTransactionMessage;
-import com.gzoltar.core.messaging.Message.HandshakeMessage;
 import com.gzoltar.core.model.Transaction;
 import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.spectrum.SpectrumWriter;
+import com.gzoltar.core.spectrum.TransactionReader;
 
+/**
+ * Sends probeGroups and transactions to a {@link com.gzoltar.core.messaging.Server}. Messages are
+ * queued in a bounded queue, and sent in batches by a long-lived sender thread, so that tests do
+ * not wait for the server.
+ * 
+ * If the server cannot be reached, the sender keeps trying to connect with an exponential backoff,
+ * and meanwhile spills all messages to a local spectrum data file (instead of keeping them in
+ * memory), which is sent as soon as the connection is established. If the server is still
+ * unreachable at the end of the session, the spill file is kept and its path is reported.
+ * 
+ * Messages are sent at most once. The server only handles complete frames, therefore a frame that
+ * could not be written is spilled and sent again as a whole, and spilled transactions sent in a
+ * frame before the connection failed are not sent again. However, the server does not acknowledge
+ * frames: those already written to the connection but not yet read when the server fails are lost.
+ */
 public class Client implements IEventListener {
 
+  public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+  /** Maximum number of messages sent by the sender thread in one frame */
+  private static final int BATCH_SIZE = 256;
+
+  /** How long the sender thread waits for new messages before checking the connection */
+  private static final long POLL_TIMEOUT_MS = 50L;
+
+  private static final long INITIAL_BACKOFF_MS = 100L;
+
+  private static final long MAX_BACKOFF_MS = 10000L;
+
+  /** How long the sender keeps trying to connect once the session has ended */
+  private static final long SHUTDOWN_TIMEOUT_MS = 10000L;
+
   private final String host;
 
   private final int port;
 
   private final String id;
 
-  private final Queue<Message> messages;
+  private final BlockingQueue<Message> messages;
+
+  private final File spillDirectory;
+
+  private final AtomicBoolean started = new AtomicBoolean(false);
+
+  private volatile boolean closed = false;
+
+  private final Thread sender;
 
-  private Boolean seenByeMessage = false;
+  // === State only accessed by the sender thread ===
 
   private Socket socket = null;
 
-  private Thread thread = null;
+  private MessageWriter writer = null;
+
+  private long backoff = INITIAL_BACKOFF_MS;
+
+  private long nextAttempt = 0L;
+
+  private File spillFile = null;
+
+  private OutputStream spillStream = null;
+
+  private SpectrumWriter spillWriter = null;
+
+  /** Number of spilled transactions already sent, in order, in complete frames */
+  private int numberOfSpilledTransactionsSent = 0;
 
   public Client(final String host, final int port) {
+    this(host, port, DEFAULT_QUEUE_SIZE, null);
+  }
+
+  public Client(final int port) {
+    this(null, port);
+  }
+
+  /**
+   * 
+   * @param host
+   * @param port
+   * @param queueSize maximum number of messages waiting to be sent
+   * @param spillDirectory directory of the spill file (<code>null</code> for the default temporary
+   *        directory)
+   */
+  public Client(final String host, final int port, final int queueSize,
+      final File spillDirectory) {
     this.host = host;
     this.port = port;
     this.id = UUID.randomUUID().toString();
-    this.messages = new LinkedList<Message>();
+    this.messages = new ArrayBlockingQueue<Message>(Math.max(1, queueSize));
+    this.spillDirectory = spillDirectory;
+    this.sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runSender();
+      }
+    }, "GZoltar messaging client");
+    this.sender.setDaemon(true);
   }
 
-  public Client(final int port) {
-    this(null, port);
+  @Override
+  public void regiterProbeGroup(final ProbeGroup probeGroup) {
+    this.postMessage(new AddProbeGroupMessage(probeGroup));
   }
 
-  private synchronized Thread postMessage(final Message m) {
-    this.messages.add(m);
+  @Override
+  public void endTransaction(final Transaction transaction) {
+    this.postMessage(new EndTransactionMessage(transaction));
+  }
+
+  /**
+   * Waits until all messages have been sent to the server or, if it is unreachable, spilled.
+   * 
+   * {@inheritDoc}
+   */
+  @Override
+  public void endSession() {
+    if (!this.postMessage(new ByeMessage())) {
+      return;
+    }
+    this.closed = true;
+
+    boolean interrupted = false;
+    while (this.sender.isAlive()) {
+      try {
+        this.sender.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
 
-    if (this.thread == null) {
-      this.thread = new Thread(new ClientDispatcher());
-      this.thread.start();
+  /**
+   * Queues a message, waiting for space in the queue if it is full.
+   * 
+   * @param message
+   * @return <code>false</code> if the session has already ended, <code>true</code> otherwise
+   */
+  private boolean postMessage(final Message message) {
+    if (this.closed) {
+      return false;
+    }
+    if (this.started.compareAndSet(false, true)) {
+      this.sender.start();
     }
 
-    return this.thread;
+    boolean interrupted = false;
+    while (true) {
+      try {
+        this.messages.put(message);
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    return true;
   }
 
-  private void postBlockingMessage(final Message m) {
-    try {
-      postMessage(new ByeMessage()).join(5000);
-    } catch (Exception e) {
-      e.printStackTrace();
+  // === Sender ===
+
+  private void runSender() {
+    final List<Message> batch = new ArrayList<Message>(BATCH_SIZE);
+    while (true) {
+      Message message = null;
+      try {
+        message = this.messages.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        // ignore, the sender only stops once the bye message has been handled
+      }
+
+      if (message == null) {
+        if (this.spillWriter != null) {
+          this.connect();
+        }
+        continue;
+      }
+
+      batch.add(message);
+      this.messages.drainTo(batch, BATCH_SIZE - 1);
+      boolean bye = false;
+      for (final Message m : batch) {
+        bye |= m instanceof ByeMessage;
+      }
+
+      if (bye) {
+        this.connectBeforeShutdown();
+      } else {
+        this.connect();
+      }
+      if (!this.send(batch)) {
+        this.spill(batch);
+      }
+      batch.clear();
+
+      if (bye) {
+        this.shutdown();
+        return;
+      }
     }
   }
 
-  private synchronized Message getMessage() {
-    if (this.messages.size() == 0) {
-      this.thread = null;
-      return null;
+  /**
+   * Connects to the server, unless it is already connected or the backoff period has not elapsed,
+   * and sends all spilled messages.
+   * 
+   * @return <code>true</code> if it is connected, <code>false</code> otherwise
+   */
+  private boolean connect() {
+    if (this.writer != null) {
+      return true;
+    }
+    if (System.currentTimeMillis() < this.nextAttempt) {
+      return false;
     }
 
-    return this.messages.poll();
+    try {
+      this.socket = new Socket(this.host, this.port);
+      this.writer = new MessageWriter(this.socket.getOutputStream());
+      this.writer.writeHandshake(this.id);
+      this.sendSpilledMessages();
+      this.backoff = INITIAL_BACKOFF_MS;
+      return true;
+    } catch (IOException e) {
+      this.disconnect(e);
+      return false;
+    }
   }
 
-  private class ClientDispatcher implements Runnable {
-
-    @Override
-    public void run() {
-      Message message = getMessage();
-
-      while (message != null) {
-        try {
-          if (socket == null) {
-            socket = new Socket(host, port);
-            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-            out.writeObject(new HandshakeMessage(id));
-            out.flush();
-          }
-
-          if (!seenByeMessage) {
-            seenByeMessage |= message instanceof ByeMessage;
-
-            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-            out.writeObject(message);
-            out.flush();
-          }
-
-          message = getMessage();
-        } catch (Exception e) {
-          System.err.println("Exception, reseting socket");
-          e.printStackTrace();
-
-          socket = null;
-          try {
-            Thread.sleep(10000);
-          } catch (Exception e2) {
-            e.printStackTrace();
-          }
-        }
+  /**
+   * Keeps trying to connect to the server, for a limited amount of time.
+   */
+  private void connectBeforeShutdown() {
+    final long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MS;
+    while (!this.connect()) {
+      long now = System.currentTimeMillis();
+      if (now >= deadline) {
+        return;
+      }
+      try {
+        Thread.sleep(Math.max(1L, Math.min(this.nextAttempt, deadline) - now));
+      } catch (InterruptedException e) {
+        // ignore
       }
     }
+  }
 
+  private void disconnect(final IOException e) {
+    System.err.println("Could not send messages to " + this.host + ":" + this.port
+        + ", retrying in " + this.backoff + " ms (" + e.getMessage() + ")");
+    if (this.socket != null) {
+      try {
+        this.socket.close();
+      } catch (IOException e2) {
+        // ignore
+      }
+    }
+    this.socket = null;
+    this.writer = null;
+    this.nextAttempt = System.currentTimeMillis() + this.backoff;
+    this.backoff = Math.min(this.backoff * 2, MAX_BACKOFF_MS);
   }
 
-  @Override
-  public void regiterProbeGroup(final ProbeGroup probeGroup) {
-    this.postMessage(new AddProbeGroupMessage(probeGroup));
+  /**
+   * Sends a batch of messages in a single frame, if it is connected and there are no spilled
+   * messages waiting to be sent before them.
+   * 
+   * @return <code>true</code> if the batch has been sent, <code>false</code> otherwise
+   */
+  private boolean send(final List<Message> batch) {
+    if (this.writer == null || this.spillWriter != null) {
+      return false;
+    }
+    try {
+      for (final Message message : batch) {
+        if (message instanceof ByeMessage) {
+          this.writer.writeBye();
+        } else if (message instanceof EndTransactionMessage) {
+          this.writer.writeTransaction(((EndTransactionMessage) message).transaction);
+        } else if (message instanceof AddProbeGroupMessage) {
+          this.writer.writeProbeGroup(((AddProbeGroupMessage) message).probeGroup);
+        }
+      }
+      this.writer.flush();
+      return true;
+    } catch (IOException e) {
+      // the frame has not been completely written, it is spilled and sent again as a whole
+      this.disconnect(e);
+      return false;
+    }
   }
 
-  @Override
-  public void endTransaction(final Transaction transaction) {
-    this.postMessage(new EndTransactionMessage(transaction));
+  private void shutdown() {
+    if (this.socket != null) {
+      try {
+        this.socket.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+    if (this.spillWriter != null) {
+      try {
+        this.spillStream.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      System.err.println("Could not send messages to " + this.host + ":" + this.port
+          + ", they have been written to " + this.spillFile.getAbsolutePath());
+    }
   }
 
-  @Override
-  public void endSession() {
-    this.postBlockingMessage(new ByeMessage());
+  // === Spill ===
+
+  /**
+   * Serializes a batch of messages to the spill file.
+   */
+  private void spill(final List<Message> batch) {
+    try {
+      if (this.spillWriter == null) {
+        this.spillFile = File.createTempFile("gzoltar", ".spill", this.spillDirectory);
+        this.spillStream = new BufferedOutputStream(new FileOutputStream(this.spillFile));
+        this.spillWriter = new SpectrumWriter(this.spillStream);
+      }
+      for (final Message message : batch) {
+        if (message instanceof EndTransactionMessage) {
+          this.spillWriter.writeTransaction(((EndTransactionMessage) message).transaction);
+        } else if (message instanceof AddProbeGroupMessage) {
+          this.spillWriter.writeProbeGroup(((AddProbeGroupMessage) message).probeGroup);
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("Could not spill " + batch.size() + " messages");
+      e.printStackTrace();
+    }
   }
 
+  /**
+   * Sends all spilled messages not sent yet, and deletes the spill file.
+   * 
+   * @throws IOException if they could not be sent
+   */
+  private void sendSpilledMessages() throws IOException {
+    if (this.spillWriter == null) {
+      return;
+    }
+    this.spillStream.close();
+
+    final TransactionReader reader =
+        new TransactionReader(new BufferedInputStream(new FileInputStream(this.spillFile)));
+    try {
+      int n = 0;
+      int pending = 0;
+      Transaction transaction;
+      while ((transaction = reader.read()) != null) {
+        if (n++ < this.numberOfSpilledTransactionsSent) {
+          continue; // already sent before the previous connection failed
+        }
+        this.writer.writeTransaction(transaction);
+        if (++pending == BATCH_SIZE) {
+          this.writer.flush();
+          this.numberOfSpilledTransactionsSent += pending;
+          pending = 0;
+        }
+      }
+      // probeGroups not executed by any transaction
+      for (final ProbeGroup probeGroup : reader.getProbeGroups()) {
+        this.writer.writeProbeGroup(probeGroup);
+      }
+      this.writer.flush();
+    } catch (IOException e) {
+      // keep spilling, the rest of the spill file is sent on the next connection
+      this.spillStream = new BufferedOutputStream(new FileOutputStream(this.spillFile, true));
+      this.spillWriter = new SpectrumWriter(this.spillStream);
+      throw e;
+    } finally {
+      reader.close();
+    }
+
+    if (!this.spillFile.delete()) {
+      this.spillFile.deleteOnExit();
+    }
+    this.spillFile = null;
+    this.spillStream = null;
+    this.spillWriter = null;
+    this.numberOfSpilledTransactionsSent = 0;
+  }
 }
@@ -16,36 +16,20 @@
  */
 package com.gzoltar.core.messaging;
 
-import java.io.Serializable;
 import com.gzoltar.core.model.Transaction;
 import com.gzoltar.core.runtime.ProbeGroup;
 
+/**
+ * Messages sent by a {@link com.gzoltar.core.messaging.Client}, which are written by a
+ * {@link com.gzoltar.core.messaging.MessageWriter}.
+ */
 public interface Message {
 
-  public static class HandshakeMessage implements Message, Serializable {
-
-    private static final long serialVersionUID = 4280869312305959655L;
-
-    public final String id;
-
-    public HandshakeMessage(final String id) {
-      this.id = id;
-    }
-
-    protected HandshakeMessage() {
-      this(null);
-    }
-  }
-
-  public static class ByeMessage implements Message, Serializable {
-
-    private static final long serialVersionUID = -4155285280206362746L;
+  public static class ByeMessage implements Message {
 
   }
 
-  public static class EndTransactionMessage implements Message, Serializable {
-
-    private static final long serialVersionUID = 214052749607422773L;
+  public static class EndTransactionMessage implements Message {
 
     public final Transaction transaction;
 
@@ -58,9 +42,7 @@ public interface Message {
     }
   }
 
-  public static class AddProbeGroupMessage implements Message, Serializable {
-
-    private static final long serialVersionUID = 3116251573538148450L;
+  public static class AddProbeGroupMessage implements Message {
 
     public final ProbeGroup probeGroup;
 
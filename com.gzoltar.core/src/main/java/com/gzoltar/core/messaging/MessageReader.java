@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.messaging;
+
+import static java.lang.String.format;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import org.jacoco.core.internal.data.CompactDataInput;
+import com.gzoltar.core.events.IEventListener;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.spectrum.TransactionReader;
+import com.gzoltar.core.util.SerialisationIdentifiers;
+
+/**
+ * Reads messages of the binary messaging protocol written by
+ * {@link com.gzoltar.core.messaging.MessageWriter}.
+ */
+public class MessageReader {
+
+  private final CompactDataInput in;
+
+  /** Content of the data frame being read */
+  private final FrameInputStream frame = new FrameInputStream();
+
+  /** Reader of the spectrum data stream made of the content of all data frames */
+  private final TransactionReader transactionReader;
+
+  /** Hashes of all probeGroups already handed to a listener */
+  private final Set<String> probeGroupsRead = new HashSet<String>();
+
+  /**
+   * Creates a new reader of the messages of a connection.
+   * 
+   * @param input binary stream of the connection
+   * @throws IOException
+   */
+  public MessageReader(final InputStream input) throws IOException {
+    this.in = new CompactDataInput(new BufferedInputStream(input));
+    this.transactionReader = new TransactionReader(this.frame);
+  }
+
+  /**
+   * Creates a new reader of the messages of a connection whose frames are read by the caller (see
+   * {@link #readHandshake(byte, byte[])} and {@link #read(byte, byte[], IEventListener)}).
+   * 
+   * @throws IOException
+   */
+  MessageReader() throws IOException {
+    this.in = null;
+    this.transactionReader = new TransactionReader(this.frame);
+  }
+
+  /**
+   * Reads the handshake message, which must be the first message of a connection.
+   * 
+   * @return the id of the client
+   * @throws IOException if the first message is not a handshake message
+   */
+  public String readHandshake() throws IOException {
+    return this.handshake(this.readFrame());
+  }
+
+  /**
+   * Reads the handshake message from a frame read by the caller.
+   * 
+   * @param type frame identifier
+   * @param content content of the frame
+   * @return the id of the client
+   * @throws IOException if the frame is not a handshake message
+   */
+  String readHandshake(final byte type, final byte[] content) throws IOException {
+    this.frame.setContent(content);
+    return this.handshake(type);
+  }
+
+  private String handshake(final byte type) throws IOException {
+    if (type != SerialisationIdentifiers.FRAME_HANDSHAKE) {
+      throw new IOException(
+          format("First message should be a handshake message. Received instead: %x.",
+              Byte.valueOf(type)));
+    }
+    return new CompactDataInput(this.frame).readUTF();
+  }
+
+  /**
+   * Reads the next message, and hands the probeGroups and transactions it has to a listener.
+   * 
+   * @param listener
+   * @return <code>false</code> if it was the bye message, <code>true</code> otherwise
+   * @throws IOException if the connection is closed before the bye message
+   */
+  public boolean read(final IEventListener listener) throws IOException {
+    return this.dispatch(this.readFrame(), listener);
+  }
+
+  /**
+   * Hands the probeGroups and transactions of a frame read by the caller to a listener.
+   * 
+   * @param type frame identifier
+   * @param content content of the frame
+   * @param listener
+   * @return <code>false</code> if it was the bye message, <code>true</code> otherwise
+   * @throws IOException
+   */
+  boolean read(final byte type, final byte[] content, final IEventListener listener)
+      throws IOException {
+    this.frame.setContent(content);
+    return this.dispatch(type, listener);
+  }
+
+  private boolean dispatch(final byte type, final IEventListener listener) throws IOException {
+    switch (type) {
+      case SerialisationIdentifiers.FRAME_DATA:
+        Transaction transaction;
+        while ((transaction = this.transactionReader.read()) != null) {
+          // probeGroups are described before the first transaction that executes them
+          for (int i = 0; i < transaction.getNumberOfActivities(); i++) {
+            this.handProbeGroup(listener,
+                this.transactionReader.getProbeGroupByHash(transaction.getProbeGroupHash(i)));
+          }
+          listener.endTransaction(transaction);
+        }
+        // probeGroups not executed by any transaction of the frame
+        if (this.probeGroupsRead.size() < this.transactionReader.getProbeGroups().size()) {
+          for (ProbeGroup probeGroup : this.transactionReader.getProbeGroups()) {
+            this.handProbeGroup(listener, probeGroup);
+          }
+        }
+        return true;
+      case SerialisationIdentifiers.FRAME_BYE:
+        listener.endSession();
+        return false;
+      default:
+        throw new IOException(format("Unknown frame type %x.", Byte.valueOf(type)));
+    }
+  }
+
+  private void handProbeGroup(final IEventListener listener, final ProbeGroup probeGroup) {
+    if (probeGroup != null && this.probeGroupsRead.add(probeGroup.getHash())) {
+      listener.regiterProbeGroup(probeGroup);
+    }
+  }
+
+  /**
+   * Reads the next frame, and makes its content available in {@link #frame}.
+   * 
+   * @return the frame identifier
+   * @throws IOException
+   */
+  private byte readFrame() throws IOException {
+    int type = this.in.read();
+    if (type == -1) {
+      throw new EOFException("Connection closed before the bye message.");
+    }
+    byte[] content = new byte[this.in.readVarInt()];
+    this.in.readFully(content);
+    this.frame.setContent(content);
+    return (byte) type;
+  }
+
+  /**
+   * Stream of the content of the current frame. Its end is the end of the frame.
+   */
+  private static final class FrameInputStream extends InputStream {
+
+    private ByteArrayInputStream content = new ByteArrayInputStream(new byte[0]);
+
+    private void setContent(final byte[] bytes) {
+      this.content = new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public int read() throws IOException {
+      return this.content.read();
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      return this.content.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+      return this.content.available();
+    }
+  }
+
+}
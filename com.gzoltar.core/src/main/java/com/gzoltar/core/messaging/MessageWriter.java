@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.messaging;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.jacoco.core.internal.data.CompactDataOutput;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.spectrum.SpectrumWriter;
+import com.gzoltar.core.util.SerialisationIdentifiers;
+
+/**
+ * Writes messages of the binary messaging protocol. Each message is a frame made of a frame
+ * identifier (see {@link com.gzoltar.core.util.SerialisationIdentifiers}), the length of its
+ * content, and its content.
+ * 
+ * ProbeGroups and transactions are buffered, and sent together in a single data frame once
+ * {@link #flush()} is called. The content of all data frames of a connection is a spectrum data
+ * stream (see {@link com.gzoltar.core.spectrum.SpectrumWriter}), therefore each probeGroup is
+ * described only once per connection and the activity of each transaction is sent as bit arrays.
+ */
+public class MessageWriter {
+
+  private final CompactDataOutput out;
+
+  /** Content of the next data frame */
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+  private final SpectrumWriter spectrumWriter;
+
+  /**
+   * Creates a new writer of the messages of a connection.
+   * 
+   * @param output binary stream of the connection
+   * @throws IOException
+   */
+  public MessageWriter(final OutputStream output) throws IOException {
+    this.out = new CompactDataOutput(new BufferedOutputStream(output));
+    // the header of the spectrum data stream is sent in the first data frame
+    this.spectrumWriter = new SpectrumWriter(this.buffer);
+  }
+
+  /**
+   * Sends the handshake message, i.e., the id of the client. It must be the first message of a
+   * connection.
+   * 
+   * @param id
+   * @throws IOException
+   */
+  public void writeHandshake(final String id) throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    new CompactDataOutput(content).writeUTF(id);
+    this.writeFrame(SerialisationIdentifiers.FRAME_HANDSHAKE, content);
+    this.out.flush();
+  }
+
+  /**
+   * Buffers the description of a probeGroup.
+   * 
+   * @param probeGroup
+   * @throws IOException
+   */
+  public void writeProbeGroup(final ProbeGroup probeGroup) throws IOException {
+    this.spectrumWriter.writeProbeGroup(probeGroup);
+  }
+
+  /**
+   * Buffers a transaction, and the description of all probeGroups it executes that have not been
+   * described yet.
+   * 
+   * @param transaction
+   * @throws IOException
+   */
+  public void writeTransaction(final Transaction transaction) throws IOException {
+    this.spectrumWriter.writeTransaction(transaction);
+  }
+
+  /**
+   * Sends all buffered probeGroups and transactions, if any, in a single data frame.
+   * 
+   * @throws IOException
+   */
+  public void flush() throws IOException {
+    if (this.buffer.size() > 0) {
+      this.writeFrame(SerialisationIdentifiers.FRAME_DATA, this.buffer);
+      this.buffer.reset();
+    }
+    this.out.flush();
+  }
+
+  /**
+   * Sends all buffered probeGroups and transactions, followed by the bye message. It must be the
+   * last message of a connection.
+   * 
+   * @throws IOException
+   */
+  public void writeBye() throws IOException {
+    if (this.buffer.size() > 0) {
+      this.writeFrame(SerialisationIdentifiers.FRAME_DATA, this.buffer);
+      this.buffer.reset();
+    }
+    this.writeFrame(SerialisationIdentifiers.FRAME_BYE, new ByteArrayOutputStream());
+    this.out.flush();
+  }
+
+  private void writeFrame(final byte type, final ByteArrayOutputStream content)
+      throws IOException {
+    this.out.writeByte(type);
+    this.out.writeVarInt(content.size());
+    content.writeTo(this.out);
+  }
+
+}
@@ -16,94 +16,342 @@
  */
 package com.gzoltar.core.messaging;
 
-import java.io.ObjectInputStream;
+import java.io.IOException;
 import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import com.gzoltar.core.events.IEventListener;
-import com.gzoltar.core.messaging.Message.AddProbeGroupMessage;
-import com.gzoltar.core.messaging.Message.ByeMessage;
-import com.gzoltar.core.messaging.Message.EndTransactionMessage;
-import com.gzoltar.core.messaging.Message.HandshakeMessage;
 import com.gzoltar.core.messaging.Service.ServiceFactory;
 
-public class Server extends ThreadedServer {
+/**
+ * Server of the messaging protocol (see {@link com.gzoltar.core.messaging.MessageWriter}). A single
+ * thread (the server itself) accepts connections and reads their frames without blocking, and a
+ * fixed number of worker threads hands the messages of each connection to its {@link Service}, in
+ * the order they have been sent. Therefore, the number of threads does not depend on the number
+ * of connections.
+ */
+public class Server extends Thread {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final ServerSocketChannel serverChannel;
+
+  private final ServiceFactory serviceFactory;
+
+  private final Selector selector;
 
-  private ServiceFactory serviceFactory;
+  private final ExecutorService workers;
 
-  public Server(final ServerSocket serverSocket, final ServiceFactory serviceFactory) {
-    super(serverSocket);
+  /**
+   * 
+   * @param serverSocket server socket created by a {@link ServerSocketChannel}
+   * @param serviceFactory
+   * @throws IOException
+   */
+  public Server(final ServerSocket serverSocket, final ServiceFactory serviceFactory)
+      throws IOException {
+    this(channelOf(serverSocket), serviceFactory, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * 
+   * @param serverChannel
+   * @param serviceFactory
+   * @param numberOfWorkers number of threads that hand messages to services
+   * @throws IOException
+   */
+  public Server(final ServerSocketChannel serverChannel, final ServiceFactory serviceFactory,
+      final int numberOfWorkers) throws IOException {
+    super("gzoltar-messaging-server");
+    this.serverChannel = serverChannel;
     this.serviceFactory = serviceFactory;
+    this.selector = Selector.open();
+    this.workers = Executors.newFixedThreadPool(Math.max(1, numberOfWorkers), new ThreadFactory() {
+      private final AtomicInteger counter = new AtomicInteger();
+
+      @Override
+      public Thread newThread(final Runnable runnable) {
+        Thread thread =
+            new Thread(runnable, "gzoltar-messaging-worker-" + this.counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    this.serverChannel.configureBlocking(false);
+    this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+  }
+
+  private static ServerSocketChannel channelOf(final ServerSocket serverSocket) {
+    if (serverSocket.getChannel() == null) {
+      throw new IllegalArgumentException(
+          "Server socket has not been created by a ServerSocketChannel");
+    }
+    return serverSocket.getChannel();
   }
 
   @Override
-  protected final Runnable handle(final Socket s) {
-    return new ServerDispatcher(s);
+  public final void run() {
+    try {
+      while (this.serverChannel.isOpen()) {
+        this.selector.select();
+
+        Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+
+          try {
+            if (!key.isValid()) {
+              continue;
+            }
+            if (key.isAcceptable()) {
+              this.accept();
+            } else if (key.isReadable()) {
+              ((Connection) key.attachment()).read(key);
+            }
+          } catch (IOException e) {
+            e.printStackTrace();
+            if (key.attachment() != null) {
+              ((Connection) key.attachment()).closed(key);
+            }
+          }
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      if (this.serverChannel.isOpen()) {
+        e.printStackTrace();
+      }
+    } finally {
+      this.workers.shutdown();
+      try {
+        this.selector.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
   }
 
-  private class ServerDispatcher implements Runnable {
+  /**
+   * Stops accepting connections. Messages already received are still handed to their services.
+   * 
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    this.serverChannel.close();
+    this.selector.wakeup();
+  }
 
-    private Socket socket;
+  private void accept() throws IOException {
+    SocketChannel channel = this.serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    channel.register(this.selector, SelectionKey.OP_READ, new Connection(channel));
+  }
+
+  /**
+   * Reads a varint in the same format as
+   * {@link org.jacoco.core.internal.data.CompactDataOutput#writeVarInt(int)}.
+   * 
+   * @param buffer
+   * @return the varint, or <code>-1</code> if the buffer does not have all its bytes yet
+   */
+  private static int readVarInt(final ByteBuffer buffer) {
+    int value = 0;
+    int shift = 0;
+    while (buffer.hasRemaining()) {
+      int b = buffer.get() & 0xFF;
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+      shift += 7;
+    }
+    return -1;
+  }
 
-    private Service service;
+  /**
+   * Frame of the messaging protocol.
+   */
+  private static final class Frame {
 
-    public ServerDispatcher(final Socket s) {
-      this.socket = s;
+    private final byte type;
+
+    private final byte[] content;
+
+    private Frame(final byte type, final byte[] content) {
+      this.type = type;
+      this.content = content;
     }
+  }
 
-    @Override
-    public void run() {
-      try {
-        this.service = handshake();
+  /**
+   * State of a connection. Its frames are read by the server thread, and handed to its service by
+   * at most one worker thread at a time.
+   */
+  private final class Connection implements Runnable {
 
-        while (true) {
-          Object o = new ObjectInputStream(this.socket.getInputStream()).readObject();
+    private final SocketChannel channel;
 
-          if (dispatch(o)) {
-            this.service.terminated();
-            break;
-          }
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final MessageReader reader;
+
+    /** Frames read but not handed to the service yet */
+    private final Queue<Frame> frames = new LinkedList<Frame>();
+
+    /** Whether the connection has been closed by the client */
+    private boolean eof = false;
+
+    /** Whether a worker thread has been asked to hand the frames to the service */
+    private boolean scheduled = false;
+
+    // only accessed by the worker thread
+    private Service service = null;
+
+    private IEventListener eventListener = null;
+
+    private boolean done = false;
+
+    private Connection(final SocketChannel channel) throws IOException {
+      this.channel = channel;
+      this.reader = new MessageReader();
+    }
+
+    /**
+     * Reads all available bytes of the connection, and schedules all complete frames.
+     */
+    private void read(final SelectionKey key) throws IOException {
+      int n;
+      while (true) {
+        if (!this.buffer.hasRemaining()) {
+          ByteBuffer larger = ByteBuffer.allocate(this.buffer.capacity() * 2);
+          this.buffer.flip();
+          larger.put(this.buffer);
+          this.buffer = larger;
         }
-      } catch (Throwable e) {
-        if (this.service != null) {
-          this.service.interrupted();
+        n = this.channel.read(this.buffer);
+        if (n <= 0) {
+          break;
         }
+      }
 
-        e.printStackTrace();
+      this.buffer.flip();
+      Queue<Frame> complete = new LinkedList<Frame>();
+      while (this.buffer.hasRemaining()) {
+        this.buffer.mark();
+        byte type = this.buffer.get();
+        int length = readVarInt(this.buffer);
+        if (length < 0 || this.buffer.remaining() < length) {
+          this.buffer.reset();
+          break;
+        }
+        byte[] content = new byte[length];
+        this.buffer.get(content);
+        complete.add(new Frame(type, content));
       }
+      this.buffer.compact();
 
-      try {
-        this.socket.close();
-      } catch (Throwable e) {
-        e.printStackTrace();
+      if (!complete.isEmpty()) {
+        this.schedule(complete, false);
+      }
+      if (n < 0) {
+        this.closed(key);
       }
     }
 
-    public Service handshake() throws Exception {
-      Object o = new ObjectInputStream(this.socket.getInputStream()).readObject();
+    /**
+     * Stops reading the connection, which has been closed by the client.
+     */
+    private void closed(final SelectionKey key) {
+      key.cancel();
+      this.schedule(new LinkedList<Frame>(), true);
+    }
 
-      if (!(o instanceof HandshakeMessage)) {
-        throw new Exception("First message should be a HandshakeMessage. Received instead: " + o);
+    private void schedule(final Queue<Frame> newFrames, final boolean closed) {
+      synchronized (this) {
+        this.frames.addAll(newFrames);
+        this.eof |= closed;
+        if (this.scheduled) {
+          return;
+        }
+        this.scheduled = true;
       }
+      workers.execute(this);
+    }
 
-      String id = ((HandshakeMessage) o).id;
-      return serviceFactory.create(id);
+    /**
+     * Hands all scheduled frames to the service.
+     */
+    @Override
+    public void run() {
+      while (true) {
+        Frame frame;
+        boolean closed;
+        synchronized (this) {
+          frame = this.frames.poll();
+          closed = this.eof;
+          if (frame == null) {
+            this.scheduled = false;
+          }
+        }
+
+        if (frame == null) {
+          if (closed) {
+            // connection has been closed before the bye message
+            this.finish(true);
+          }
+          return;
+        }
+
+        if (!this.done) {
+          this.handle(frame);
+        }
+      }
+    }
+
+    private void handle(final Frame frame) {
+      try {
+        if (this.service == null) {
+          this.service =
+              serviceFactory.create(this.reader.readHandshake(frame.type, frame.content));
+          this.eventListener = this.service.getEventListener();
+        } else if (!this.reader.read(frame.type, frame.content, this.eventListener)) {
+          this.service.terminated();
+          this.finish(false);
+        }
+      } catch (Throwable e) {
+        e.printStackTrace();
+        this.finish(true);
+      }
     }
 
-    private boolean dispatch(final Object o) {
-      IEventListener eventListener = service.getEventListener();
-
-      if (o instanceof ByeMessage) {
-        eventListener.endSession();
-        return true;
-      } else if (o instanceof EndTransactionMessage) {
-        EndTransactionMessage etm = (EndTransactionMessage) o;
-        eventListener.endTransaction(etm.transaction);
-      } else if (o instanceof AddProbeGroupMessage) {
-        AddProbeGroupMessage anm = (AddProbeGroupMessage) o;
-        eventListener.regiterProbeGroup(anm.probeGroup);
+    private void finish(final boolean interrupted) {
+      if (!this.done) {
+        this.done = true;
+        if (interrupted && this.service != null) {
+          this.service.interrupted();
+        }
       }
 
-      return false;
+      try {
+        this.channel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
     }
   }
 }
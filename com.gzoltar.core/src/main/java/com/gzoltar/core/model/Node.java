@@ -40,6 +40,7 @@ public class Node {
 
   private final Map<String, Node> children = new LinkedHashMap<String, Node>();
 
+  /** Guarded by this node, as formulas may be evaluated concurrently */
   private Map<String, Double> suspiciousnessValues = null;
 
   /**
@@ -249,7 +250,7 @@ public class Node {
    * @param formulaName
    * @param suspiciousnessValue
    */
-  public void addSuspiciousnessValue(String formulaName, Double suspiciousnessValue) {
+  public synchronized void addSuspiciousnessValue(String formulaName, Double suspiciousnessValue) {
     if (this.suspiciousnessValues == null) {
       this.suspiciousnessValues = new LinkedHashMap<String, Double>();
     }
@@ -260,7 +261,7 @@ public class Node {
    * 
    * @return
    */
-  public boolean hasSuspiciousnessValues() {
+  public synchronized boolean hasSuspiciousnessValues() {
     if (this.suspiciousnessValues == null) {
       return false;
     }
@@ -271,7 +272,7 @@ public class Node {
    * 
    * @return
    */
-  public Map<String, Double> getSuspiciousnessValues() {
+  public synchronized Map<String, Double> getSuspiciousnessValues() {
     return this.suspiciousnessValues;
   }
 
@@ -280,7 +281,7 @@ public class Node {
    * @param formulaName
    * @return
    */
-  public Double getSuspiciousnessValue(String formulaName) {
+  public synchronized Double getSuspiciousnessValue(String formulaName) {
     if (this.suspiciousnessValues == null && !this.children.isEmpty()) {
       Double maxSuspiciousnessValue = -1.0 * Double.MIN_VALUE;
       for (Node child : this.children.values()) {
@@ -297,7 +298,7 @@ public class Node {
    * 
    * @return
    */
-  public int getNumberOfSuspiciousnessValues() {
+  public synchronized int getNumberOfSuspiciousnessValues() {
     assert this.suspiciousnessValues != null;
     return this.suspiciousnessValues.size();
   }
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns {@link com.gzoltar.core.runtime.ProbeGroup} hashes as small integers, so that each
+ * {@link com.gzoltar.core.model.Transaction} does not have to keep its own copy of the hash and
+ * name of every probe group it has executed. Identifiers are assigned in the order probe groups are
+ * first seen.
+ * 
+ * New transactions use the current table (see {@link #current()}), which is replaced by an empty
+ * one every time the {@link com.gzoltar.core.runtime.Collector} restarts (see {@link #reset()}),
+ * so that probe groups of previous sessions are not kept forever. Each transaction keeps the table
+ * it has been created with.
+ */
+public final class ProbeGroupIds {
+
+  private static volatile ProbeGroupIds current = new ProbeGroupIds();
+
+  /** <ProbeGroup hash, identifier> */
+  private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+  private volatile String[] hashes = new String[64];
+
+  private volatile String[] names = new String[64];
+
+  private int size = 0;
+
+  private ProbeGroupIds() {
+    // see current()
+  }
+
+  /**
+   * Returns the table used by new transactions.
+   * 
+   * @return
+   */
+  public static ProbeGroupIds current() {
+    return current;
+  }
+
+  /**
+   * Replaces the table used by new transactions with an empty one.
+   */
+  public static void reset() {
+    current = new ProbeGroupIds();
+  }
+
+  /**
+   * Returns the identifier of a probe group, assigning a new one if it has not been seen before.
+   * 
+   * @param hash
+   * @param name
+   * @return
+   */
+  public int intern(final String hash, final String name) {
+    Integer id = this.ids.get(hash);
+    if (id != null) {
+      return id;
+    }
+
+    synchronized (this) {
+      id = this.ids.get(hash);
+      if (id != null) {
+        return id;
+      }
+
+      if (this.size == this.hashes.length) {
+        this.names = Arrays.copyOf(this.names, this.size * 2);
+        this.hashes = Arrays.copyOf(this.hashes, this.size * 2);
+      }
+      this.names[this.size] = name;
+      this.hashes[this.size] = hash;
+      id = this.size++;
+      this.ids.put(hash, id);
+      return id;
+    }
+  }
+
+  /**
+   * Returns the identifier of a probe group, or -1 if it has never been interned.
+   * 
+   * @param hash
+   * @return
+   */
+  public int get(final String hash) {
+    Integer id = this.ids.get(hash);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Returns the hash of the probe group with the given identifier.
+   * 
+   * @param id
+   * @return
+   */
+  public String getHash(final int id) {
+    return this.hashes[id];
+  }
+
+  /**
+   * Returns the name of the probe group with the given identifier.
+   * 
+   * @param id
+   * @return
+   */
+  public String getName(final int id) {
+    return this.names[id];
+  }
+
+  /**
+   * Returns the number of probe groups interned so far.
+   * 
+   * @return
+   */
+  public int size() {
+    return this.ids.size();
+  }
+}
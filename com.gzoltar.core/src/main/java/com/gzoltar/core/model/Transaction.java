@@ -22,20 +22,43 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.util.ArrayUtils;
 
 public class Transaction {
 
   private final String name;
 
-  /** <ProbeGroup hash, hitArray> */
-  private final Map<String, Pair<String, boolean[]>> activity;
+  private static final int[] EMPTY_IDS = new int[0];
+
+  private static final long[][] EMPTY_HIT_ARRAYS = new long[0][];
+
+  /** Table of the identifiers of the probe groups executed by the transaction */
+  private final ProbeGroupIds ids = ProbeGroupIds.current();
+
+  /**
+   * Sorted identifiers (see {@link com.gzoltar.core.model.ProbeGroupIds}) of the probe groups
+   * executed by the transaction
+   */
+  private int[] probeGroupIds = EMPTY_IDS;
+
+  /** Number of probes of each probe group */
+  private int[] numberOfProbes = EMPTY_IDS;
+
+  /** Hit array of each probe group, one bit per probe */
+  private long[][] hitArrays = EMPTY_HIT_ARRAYS;
+
+  private int numberOfProbeGroups = 0;
 
   private final TransactionOutcome outcome;
 
@@ -52,7 +75,10 @@ public class Transaction {
    */
   public Transaction(final String name, final TransactionOutcome outcome, final long runtime,
       final String stackTrace) {
-    this(name, new LinkedHashMap<String, Pair<String, boolean[]>>(), outcome, runtime, stackTrace);
+    this.name = name;
+    this.outcome = outcome;
+    this.runtime = runtime;
+    this.stackTrace = this.getNormalizedStackTrace(stackTrace);
   }
 
   /**
@@ -65,11 +91,10 @@ public class Transaction {
    */
   public Transaction(final String name, final Map<String, Pair<String, boolean[]>> activity,
       final TransactionOutcome outcome, final long runtime, final String stackTrace) {
-    this.name = name;
-    this.activity = activity;
-    this.outcome = outcome;
-    this.runtime = runtime;
-    this.stackTrace = this.getNormalizedStackTrace(stackTrace);
+    this(name, outcome, runtime, stackTrace);
+    for (Entry<String, Pair<String, boolean[]>> entry : activity.entrySet()) {
+      this.addActivity(entry.getKey(), entry.getValue());
+    }
   }
 
   /**
@@ -85,52 +110,190 @@ public class Transaction {
    * Returns all probeGroups hash.
    */
   public Set<String> getProbeGroupsHash() {
-    return this.activity.keySet();
+    Set<String> hashes = new LinkedHashSet<String>();
+    for (int i = 0; i < this.numberOfProbeGroups; i++) {
+      hashes.add(this.getProbeGroupHash(i));
+    }
+    return hashes;
   }
 
   /**
    * Returns true if a transaction has any activity, false otherwise.
    */
   public boolean hasActivations() {
-    return !this.activity.isEmpty();
+    return this.numberOfProbeGroups > 0;
   }
 
   /**
-   * Returns the activities of a transaction.
+   * Returns the activities of a transaction. Note: the returned map is built on every call and
+   * changes to it are not reflected in the transaction.
    */
   public Map<String, Pair<String, boolean[]>> getActivity() {
-    return this.activity;
+    Map<String, Pair<String, boolean[]>> activity =
+        new LinkedHashMap<String, Pair<String, boolean[]>>();
+    for (int i = 0; i < this.numberOfProbeGroups; i++) {
+      int id = this.probeGroupIds[i];
+      activity.put(this.ids.getHash(id), new ImmutablePair<String, boolean[]>(
+          this.ids.getName(id), this.getHitArrayAt(i)));
+    }
+    return activity;
   }
 
   /**
-   * Adds an activity to a transaction.
+   * Adds an activity to a transaction. If the transaction already has an activity for the same
+   * probeGroup, both are merged.
    */
   public void addActivity(final String hash, final Pair<String, boolean[]> hitArray) {
-    this.activity.put(hash, hitArray);
+    boolean[] hits = hitArray.getRight();
+    this.addActivity(hash, hitArray.getLeft(), ArrayUtils.toBitArray(hits), hits.length);
+  }
+
+  /**
+   * Adds an activity to a transaction. If the transaction already has an activity for the same
+   * probeGroup, both are merged.
+   * 
+   * @param hash hash of the probeGroup
+   * @param name name of the probeGroup
+   * @param hitArray hit array of the probeGroup, one bit per probe
+   * @param numberOfProbes number of probes of the probeGroup
+   */
+  public void addActivity(final String hash, final String name, final long[] hitArray,
+      final int numberOfProbes) {
+    int id = this.ids.intern(hash, name);
+    int index = this.indexOf(id);
+
+    if (index >= 0) {
+      long[] existing = this.hitArrays[index];
+      for (int i = 0; i < existing.length; i++) {
+        existing[i] |= hitArray[i];
+      }
+      return;
+    }
+
+    index = -(index + 1);
+    if (this.numberOfProbeGroups == this.probeGroupIds.length) {
+      int capacity = Math.max(4, this.numberOfProbeGroups + (this.numberOfProbeGroups >> 1));
+      this.probeGroupIds = Arrays.copyOf(this.probeGroupIds, capacity);
+      this.numberOfProbes = Arrays.copyOf(this.numberOfProbes, capacity);
+      this.hitArrays = Arrays.copyOf(this.hitArrays, capacity);
+    }
+
+    int tail = this.numberOfProbeGroups - index;
+    System.arraycopy(this.probeGroupIds, index, this.probeGroupIds, index + 1, tail);
+    System.arraycopy(this.numberOfProbes, index, this.numberOfProbes, index + 1, tail);
+    System.arraycopy(this.hitArrays, index, this.hitArrays, index + 1, tail);
+
+    this.probeGroupIds[index] = id;
+    this.numberOfProbes[index] = numberOfProbes;
+    this.hitArrays[index] = hitArray;
+    this.numberOfProbeGroups++;
   }
 
   /**
    * Returns a boolean hit array of a probeGroup.
    */
   public boolean[] getHitArray(final ProbeGroup probeGroup) {
-    return this.activity.get(probeGroup.getHash()).getRight();
+    return this.getHitArrayByProbeGroupHash(probeGroup.getHash());
   }
 
   /**
-   * Returns a boolean hit array of a probeGroup.
+   * Returns a boolean hit array of a probeGroup, or null if the probeGroup has not been executed.
    */
   public boolean[] getHitArrayByProbeGroupHash(final String hash) {
-    return this.activity.get(hash).getRight();
+    int index = this.indexOf(this.ids.get(hash));
+    return index < 0 ? null : this.getHitArrayAt(index);
+  }
+
+  /**
+   * Returns the hit array of a probeGroup (one bit per probe), or null if the probeGroup has not
+   * been executed. Note: the returned array is not a copy.
+   */
+  public long[] getHitBitsByProbeGroupHash(final String hash) {
+    int index = this.indexOf(this.ids.get(hash));
+    return index < 0 ? null : this.hitArrays[index];
+  }
+
+  /**
+   * Returns the number of probeGroups executed by the transaction.
+   */
+  public int getNumberOfActivities() {
+    return this.numberOfProbeGroups;
+  }
+
+  /**
+   * Returns the table of the identifiers of the probeGroups executed by the transaction.
+   */
+  public ProbeGroupIds getProbeGroupIds() {
+    return this.ids;
+  }
+
+  /**
+   * Returns the identifier (see {@link #getProbeGroupIds()}) of the i-th probeGroup executed by
+   * the transaction.
+   */
+  public int getProbeGroupId(final int index) {
+    return this.probeGroupIds[index];
+  }
+
+  /**
+   * Returns the hash of the i-th probeGroup executed by the transaction.
+   */
+  public String getProbeGroupHash(final int index) {
+    return this.ids.getHash(this.probeGroupIds[index]);
+  }
+
+  /**
+   * Returns the name of the i-th probeGroup executed by the transaction.
+   */
+  public String getProbeGroupName(final int index) {
+    return this.ids.getName(this.probeGroupIds[index]);
+  }
+
+  /**
+   * Returns the number of probes of the i-th probeGroup executed by the transaction.
+   */
+  public int getNumberOfProbes(final int index) {
+    return this.numberOfProbes[index];
+  }
+
+  /**
+   * Returns the hit array (one bit per probe) of the i-th probeGroup executed by the transaction.
+   * Note: the returned array is not a copy.
+   */
+  public long[] getHitBits(final int index) {
+    return this.hitArrays[index];
   }
 
   /**
    * Returns true if a specific probe of a probeGroup has been executed, false otherwise.
    */
   public boolean isProbeActived(final ProbeGroup probeGroup, final int probeIndex) {
-    if (!this.activity.containsKey(probeGroup.getHash())) {
+    int index = this.indexOf(this.ids.get(probeGroup.getHash()));
+    if (index < 0) {
       return false;
     }
-    return this.activity.get(probeGroup.getHash()).getRight()[probeIndex];
+    return ArrayUtils.isBitSet(this.hitArrays[index], probeIndex);
+  }
+
+  /**
+   * Returns the index of the first probeGroup executed by the transaction whose identifier is
+   * greater than or equal to the one provided, or {@link #getNumberOfActivities()} if there is no
+   * such probeGroup.
+   */
+  public int lowerBoundOf(final int probeGroupId) {
+    int index = Arrays.binarySearch(this.probeGroupIds, 0, this.numberOfProbeGroups, probeGroupId);
+    return index < 0 ? -(index + 1) : index;
+  }
+
+  private int indexOf(final int probeGroupId) {
+    if (probeGroupId < 0) {
+      return -1;
+    }
+    return Arrays.binarySearch(this.probeGroupIds, 0, this.numberOfProbeGroups, probeGroupId);
+  }
+
+  private boolean[] getHitArrayAt(final int index) {
+    return ArrayUtils.toBooleanArray(this.hitArrays[index], this.numberOfProbes[index]);
   }
 
   // === Outcome ===
@@ -221,7 +384,7 @@ public class Transaction {
     sb.append(this.name);
     sb.append("\n");
     sb.append("  Executed ");
-    sb.append(this.activity.size());
+    sb.append(this.numberOfProbeGroups);
     sb.append(" probeGroups");
     sb.append("\n");
     sb.append("  Pass/Fail ");
@@ -245,7 +408,13 @@ public class Transaction {
   public int hashCode() {
     HashCodeBuilder builder = new HashCodeBuilder();
     builder.append(this.name);
-    builder.append(this.activity);
+    // identifiers depend on the table of the transaction, hashes do not (and neither does their
+    // order)
+    int activity = 0;
+    for (int i = 0; i < this.numberOfProbeGroups; i++) {
+      activity += this.getProbeGroupHash(i).hashCode() ^ Arrays.hashCode(this.hitArrays[i]);
+    }
+    builder.append(activity);
     builder.append(this.outcome);
     builder.append(this.runtime);
     builder.append(this.stackTrace);
@@ -268,7 +437,16 @@ public class Transaction {
 
     EqualsBuilder builder = new EqualsBuilder();
     builder.append(this.name, transaction.name);
-    builder.append(this.activity, transaction.activity);
+    builder.append(this.numberOfProbeGroups, transaction.numberOfProbeGroups);
+    for (int i = 0; builder.isEquals() && i < this.numberOfProbeGroups; i++) {
+      // both transactions might not share the same table of identifiers
+      int j = transaction.indexOf(transaction.ids.get(this.getProbeGroupHash(i)));
+      if (j < 0) {
+        return false;
+      }
+      builder.append(this.numberOfProbes[i], transaction.numberOfProbes[j]);
+      builder.append(this.hitArrays[i], transaction.hitArrays[j]);
+    }
     builder.append(this.runtime, transaction.runtime);
     builder.append(this.outcome, transaction.outcome);
     builder.append(this.stackTrace, transaction.stackTrace);
@@ -16,48 +16,72 @@
  */
 package com.gzoltar.core.runtime;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import com.gzoltar.core.events.IEventListener;
 import com.gzoltar.core.events.MultiEventListener;
+import com.gzoltar.core.model.ProbeGroupIds;
 import com.gzoltar.core.model.Transaction;
 import com.gzoltar.core.model.TransactionOutcome;
 import com.gzoltar.core.spectrum.Spectrum;
-import com.gzoltar.core.util.ArrayUtils;
 
 public class Collector {
 
-  private static Collector collector;
+  private static volatile Collector collector;
 
   private MultiEventListener listener;
 
   private final Spectrum spectrum;
 
-  /** <ProbeGroup hash, hitArray> */
-  private final Map<String, Pair<String, boolean[]>> hitArrays;
+  /** <ProbeGroup hash, ProbeGroup> */
+  private final ConcurrentMap<String, ProbeGroup> probeGroups;
+
+  /** Scope used by threads that have not been bound to any other scope */
+  private final TransactionScope globalScope;
+
+  /** Scope bound to each thread (and inherited by the threads it creates) */
+  private final InheritableThreadLocal<TransactionScope> scopes;
+
+  /** Scope that has handed out (or taken over) each hit array */
+  private final HitArrayOwners owners;
+
+  /** Hashes of the probeGroups executed by any failing transaction */
+  private final Set<String> failingProbeGroups;
+
+  /** Agent's handler to focus coverage on some classes, if it is able to */
+  private IFocusHandler focusHandler;
 
   /**
    * 
    * @return
    */
   public static Collector instance() {
-    if (collector == null) {
-      collector = new Collector();
+    Collector instance = collector;
+    if (instance == null) {
+      synchronized (Collector.class) {
+        if (collector == null) {
+          collector = new Collector();
+        }
+        instance = collector;
+      }
     }
-    return collector;
+    return instance;
   }
 
   /**
    * 
    */
-  public static void restart() {
+  public static synchronized void restart() {
     if (collector != null) {
       Collector newCollector = new Collector();
       newCollector.listener = collector.listener;
+      newCollector.focusHandler = collector.focusHandler;
       collector = newCollector;
+      // forget the probe groups of the previous session
+      ProbeGroupIds.reset();
     }
   }
 
@@ -68,7 +92,12 @@ public class Collector {
   private Collector() {
     this.listener = new MultiEventListener();
     this.spectrum = new Spectrum();
-    this.hitArrays = new LinkedHashMap<String, Pair<String, boolean[]>>();
+    this.probeGroups = new ConcurrentHashMap<String, ProbeGroup>();
+    this.globalScope = new TransactionScope();
+    this.scopes = new InheritableThreadLocal<TransactionScope>();
+    this.owners = new HitArrayOwners();
+    this.failingProbeGroups =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
   }
 
   /**
@@ -89,16 +118,67 @@ public class Collector {
     return this.spectrum;
   }
 
+  // === Scopes ===
+
+  /**
+   * Binds a {@link com.gzoltar.core.runtime.TransactionScope} to the current thread and to all
+   * threads it creates from now on. Classes initialised by those threads get their hit arrays from
+   * the given scope, and transactions ended by those threads only collect the coverage of that
+   * scope.
+   * 
+   * @param scope
+   */
+  public void bindScope(final TransactionScope scope) {
+    this.scopes.set(scope);
+  }
+
+  /**
+   * Unbinds the {@link com.gzoltar.core.runtime.TransactionScope} of the current thread, if any.
+   */
+  public void unbindScope() {
+    this.scopes.remove();
+  }
+
+  /**
+   * Checks whether a {@link com.gzoltar.core.runtime.TransactionScope} has been bound to the
+   * current thread (or inherited from the thread that has created it).
+   * 
+   * @return
+   */
+  public boolean isScopeBound() {
+    return this.scopes.get() != null;
+  }
+
+  /**
+   * Returns the {@link com.gzoltar.core.runtime.TransactionScope} of the current thread.
+   * 
+   * @return
+   */
+  public TransactionScope getScope() {
+    TransactionScope scope = this.scopes.get();
+    return scope == null ? this.globalScope : scope;
+  }
+
+  // === ProbeGroups ===
+
   /**
    * 
    * @param probeGroup
    */
-  public synchronized void regiterProbeGroup(final ProbeGroup probeGroup) {
+  public void regiterProbeGroup(final ProbeGroup probeGroup) {
     if (probeGroup.isEmpty()) {
       return;
     }
 
-    this.spectrum.addProbeGroup(probeGroup);
+    if (this.probeGroups.putIfAbsent(probeGroup.getHash(), probeGroup) != null) {
+      // Mocking frameworks, application servers, or persistence frameworks may cause GZoltar to see
+      // the same class several times
+      return;
+    }
+
+    synchronized (this.spectrum) {
+      this.spectrum.addProbeGroup(probeGroup);
+    }
     this.listener.regiterProbeGroup(probeGroup);
   }
 
@@ -107,8 +187,8 @@ public class Collector {
    * @param probeGroup
    * @return
    */
-  public synchronized ProbeGroup getProbeGroup(final ProbeGroup probeGroup) {
-    return this.spectrum.getProbeGroup(probeGroup);
+  public ProbeGroup getProbeGroup(final ProbeGroup probeGroup) {
+    return this.probeGroups.get(probeGroup.getHash());
   }
 
   /**
@@ -116,10 +196,12 @@ public class Collector {
    * @param probeGroupHash
    * @return
    */
-  public synchronized ProbeGroup getProbeGroupByHash(final String probeGroupHash) {
-    return this.spectrum.getProbeGroupByHash(probeGroupHash);
+  public ProbeGroup getProbeGroupByHash(final String probeGroupHash) {
+    return this.probeGroups.get(probeGroupHash);
   }
 
+  // === Transactions ===
+
   /**
    * 
    * @param transactionName
@@ -127,53 +209,98 @@ public class Collector {
    * @param runtime
    * @param stackTrace
    */
-  public synchronized void endTransaction(final String transactionName,
-      final TransactionOutcome outcome, final long runtime, final String stackTrace) {
+  public void endTransaction(final String transactionName, final TransactionOutcome outcome,
+      final long runtime, final String stackTrace) {
 
-    if (this.hitArrays.isEmpty()) {
+    TransactionScope scope = this.getScope();
+    if (scope.isEmpty()) {
       return;
     }
 
-    // collect coverage
-    Map<String, Pair<String, boolean[]>> activity =
-        new LinkedHashMap<String, Pair<String, boolean[]>>();
-    for (Entry<String, Pair<String, boolean[]>> entry : this.hitArrays.entrySet()) {
-      String hash = entry.getKey();
-      boolean[] hitArray = entry.getValue().getRight();
+    // create a new transaction and collect coverage
+    Transaction transaction = new Transaction(transactionName, outcome, runtime, stackTrace);
+    scope.harvest(transaction, this.probeGroups);
+    if (!transaction.hasActivations()) {
+      return;
+    }
+    if (transaction.hasFailed()) {
+      this.failingProbeGroups.addAll(transaction.getProbeGroupsHash());
+    }
 
-      if (!ArrayUtils.containsValue(hitArray, true)) {
-        // although the class has been loaded and instrumented, no line has been covered
-        activity.put(hash,
-            new ImmutablePair<String, boolean[]>(entry.getValue().getLeft(), hitArray));
-        continue;
-      }
+    if (scope.defer(transaction)) {
+      return;
+    }
 
-      boolean[] cloneHitArray = new boolean[hitArray.length];
-      System.arraycopy(hitArray, 0, cloneHitArray, 0, hitArray.length);
-      activity.put(hash,
-          new ImmutablePair<String, boolean[]>(entry.getValue().getLeft(), cloneHitArray));
+    this.addTransaction(transaction);
+  }
 
-      // reset probes
-      for (int i = 0; i < hitArray.length; i++) {
-        hitArray[i] = false;
-      }
+  /**
+   * Adds all transactions deferred by a {@link com.gzoltar.core.runtime.TransactionScope} to the
+   * spectrum, in the order they have ended.
+   * 
+   * @param scope
+   */
+  public void endDeferredTransactions(final TransactionScope scope) {
+    for (Transaction transaction : scope.takeDeferredTransactions()) {
+      this.addTransaction(transaction);
     }
+  }
 
-    if (activity.isEmpty()) {
-      return;
+  private void addTransaction(final Transaction transaction) {
+    synchronized (this.spectrum) {
+      this.spectrum.addTransaction(transaction);
     }
-
-    // create a new transaction
-    Transaction transaction = new Transaction(transactionName, activity, outcome, runtime, stackTrace);
-    this.spectrum.addTransaction(transaction);
     // and inform all listeners
     this.listener.endTransaction(transaction);
   }
 
+  // === Focus ===
+
+  /**
+   * 
+   * @param focusHandler
+   */
+  public void setFocusHandler(final IFocusHandler focusHandler) {
+    this.focusHandler = focusHandler;
+  }
+
   /**
+   * Returns the names of the classes executed by any failing transaction so far.
    * 
+   * @return
    */
-  public synchronized void endSession() {
+  public Set<String> getClassesExecutedByFailingTransactions() {
+    Set<String> classNames = new HashSet<String>();
+    for (String hash : this.failingProbeGroups) {
+      ProbeGroup probeGroup = this.probeGroups.get(hash);
+      if (probeGroup != null) {
+        classNames.add(probeGroup.getName());
+      }
+    }
+    return classNames;
+  }
+
+  /**
+   * Focuses coverage on the classes executed by any failing transaction so far, i.e., removes the
+   * probes of all other classes. As most formulas (e.g., Ochiai) do not consider a component that
+   * no failing transaction executes suspicious at all, its coverage does not have to be collected.
+   * 
+   * @return <code>false</code> if the agent is not able to focus coverage, <code>true</code>
+   *         otherwise
+   * @throws Exception if classes cannot be retransformed
+   */
+  public boolean focus() throws Exception {
+    if (this.focusHandler == null) {
+      return false;
+    }
+    this.focusHandler.focus(this.getClassesExecutedByFailingTransactions());
+    return true;
+  }
+
+  /**
+   * 
+   */
+  public void endSession() {
     this.listener.endSession();
   }
 
@@ -181,19 +308,78 @@ public class Collector {
    * 
    * @param args
    */
-  public synchronized void getHitArray(final Object[] args) {
+  public void getHitArray(final Object[] args) {
     assert args.length == 3;
 
     final String hash = (String) args[0];
     final String probeGroupName = (String) args[1];
-    final Integer numberOfProbes = Integer.valueOf((String) args[2]);
+    // the bootstrap method of the system class passes the number of probes as an Integer
+    final int numberOfProbes = args[2] instanceof Integer ? ((Integer) args[2]).intValue()
+        : Integer.parseInt((String) args[2]);
+
+    args[0] = this.getHitArray(hash, probeGroupName, numberOfProbes);
+  }
+
+  /**
+   * Returns the hit array of a probeGroup in the scope bound to the current thread.
+   * 
+   * @param hash
+   * @param probeGroupName
+   * @param numberOfProbes
+   * @return
+   */
+  public boolean[] getHitArray(final String hash, final String probeGroupName,
+      final int numberOfProbes) {
+    TransactionScope scope = this.getScope();
+    boolean[] hitArray = scope.getHitArray(hash, probeGroupName, numberOfProbes);
+    this.owners.put(hitArray, scope);
+    return hitArray;
+  }
 
-    if (!this.hitArrays.containsKey(hash)) {
-      this.hitArrays.put(hash,
-          new ImmutablePair<String, boolean[]>(probeGroupName, new boolean[numberOfProbes]));
+  /**
+   * 
+   * @param args
+   */
+  public void markDirty(final Object[] args) {
+    assert args.length == 2;
+    this.markDirty((String) args[0], (boolean[]) args[1]);
+  }
+
+  /**
+   * Records that the probeGroup of a hit array has been executed in the current transaction. Called
+   * by instrumented classes of Java 7 or later through a bootstrapped call site, i.e., without
+   * allocating any array of arguments.
+   * 
+   * @param hash
+   * @param hitArray
+   */
+  public void markDirty(final String hash, final boolean[] hitArray) {
+    TransactionScope scope = this.getScope();
+    if (scope.markDirty(hash, hitArray)) {
+      return;
     }
 
-    args[0] = this.hitArrays.get(hash).getRight();
+    // the class has been initialised in a scope other than the one bound to the current thread
+    TransactionScope owner = this.owners.get(hitArray);
+    if (owner != null && (owner == this.globalScope || scope == this.globalScope)
+        && owner.markDirty(hash, hitArray)) {
+      return;
+    }
+
+    // the scope that has initialised the class is no longer used (e.g., it was bound to a previous
+    // test method run in the same class loader, and has already been harvested or even collected),
+    // therefore the scope of the current thread takes over its hit array
+    String probeGroupName = owner == null ? null : owner.getProbeGroupName(hash, hitArray);
+    if (probeGroupName == null) {
+      ProbeGroup probeGroup = this.probeGroups.get(hash);
+      probeGroupName = probeGroup == null ? hash : probeGroup.getName();
+    }
+    scope.adopt(hash, probeGroupName, hitArray);
+    this.owners.put(hitArray, scope);
+    if (owner != null) {
+      // so that its hits are not swept by the previous scope, if it is ever harvested again
+      owner.release(hash, hitArray);
+    }
   }
 
   /**
@@ -206,7 +392,12 @@ public class Collector {
   @Override
   public boolean equals(final Object args) {
     if (args instanceof Object[]) {
-      this.getHitArray((Object[]) args);
+      Object[] objects = (Object[]) args;
+      if (objects.length == 2) {
+        this.markDirty(objects);
+      } else {
+        this.getHitArray(objects);
+      }
     }
     return super.equals(args);
   }
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.runtime;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Scope that owns each hit array handed out so far, looked up by the identity of the hit array.
+ * Neither hit arrays (e.g., of classes that have been unloaded) nor scopes (e.g., of test methods
+ * that have finished) are kept alive by this map.
+ */
+final class HitArrayOwners {
+
+  /** <hitArray, scope> */
+  private final ConcurrentMap<Key, WeakReference<TransactionScope>> owners;
+
+  /** Keys whose hit array has been garbage collected */
+  private final ReferenceQueue<boolean[]> collected;
+
+  HitArrayOwners() {
+    this.owners = new ConcurrentHashMap<Key, WeakReference<TransactionScope>>();
+    this.collected = new ReferenceQueue<boolean[]>();
+  }
+
+  /**
+   * Returns the scope that owns a hit array.
+   * 
+   * @param hitArray
+   * @return the scope, or <code>null</code> if the hit array has not been handed out by any scope
+   *         that is still alive
+   */
+  TransactionScope get(final boolean[] hitArray) {
+    WeakReference<TransactionScope> owner = this.owners.get(new Key(hitArray, null));
+    return owner == null ? null : owner.get();
+  }
+
+  /**
+   * Records that a hit array is owned by a scope, unless it is already owned by that scope.
+   * 
+   * @param hitArray
+   * @param scope
+   */
+  void put(final boolean[] hitArray, final TransactionScope scope) {
+    if (this.get(hitArray) == scope) {
+      return;
+    }
+    this.expunge();
+    this.owners.put(new Key(hitArray, this.collected),
+        new WeakReference<TransactionScope>(scope));
+  }
+
+  private void expunge() {
+    Reference<? extends boolean[]> key;
+    while ((key = this.collected.poll()) != null) {
+      this.owners.remove(key);
+    }
+  }
+
+  /**
+   * Weak reference to a hit array, compared by the identity of the hit array.
+   */
+  private static final class Key extends WeakReference<boolean[]> {
+
+    private final int hashCode;
+
+    private Key(final boolean[] hitArray, final ReferenceQueue<boolean[]> queue) {
+      super(hitArray, queue);
+      this.hashCode = System.identityHashCode(hitArray);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      boolean[] hitArray = this.get();
+      return hitArray != null && hitArray == ((Key) obj).get();
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.runtime;
+
+import java.util.Set;
+
+/**
+ * Focuses coverage on some classes, i.e., from now on, only those classes report their coverage.
+ * Implemented by agents that are able to retransform classes that have already been loaded.
+ */
+public interface IFocusHandler {
+
+  /**
+   * Removes the probes of all instrumented classes but the given ones, i.e., of all classes that
+   * have been and will be loaded.
+   * 
+   * @param classNames names of the classes whose probes are kept
+   * @throws Exception if classes cannot be retransformed
+   */
+  public void focus(final Set<String> classNames) throws Exception;
+}
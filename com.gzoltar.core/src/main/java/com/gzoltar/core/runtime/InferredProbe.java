@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.runtime;
+
+/**
+ * A probe that is not placed in the bytecode of its class, as it is executed if and only if any of
+ * a set of placed probes (its sources) is executed. Its slot of the hit array is set when the hit
+ * array is harvested.
+ */
+public final class InferredProbe {
+
+  private final int arrayIndex;
+
+  private final int[] sources;
+
+  /**
+   * Creates a new {@link com.gzoltar.core.runtime.InferredProbe} object.
+   * 
+   * @param arrayIndex
+   * @param sources array indexes of the probes it is inferred from
+   */
+  public InferredProbe(final int arrayIndex, final int[] sources) {
+    this.arrayIndex = arrayIndex;
+    this.sources = sources;
+  }
+
+  /**
+   * Returns the array index.
+   */
+  public int getArrayIndex() {
+    return this.arrayIndex;
+  }
+
+  /**
+   * Returns the array indexes of the probes it is inferred from.
+   */
+  public int[] getSources() {
+    return this.sources;
+  }
+
+  /**
+   * Sets the slot of a hit array if any of its sources has been hit.
+   * 
+   * @param hitArray
+   */
+  public void infer(final boolean[] hitArray) {
+    if (hitArray[this.arrayIndex]) {
+      return;
+    }
+    for (int source : this.sources) {
+      if (hitArray[source]) {
+        hitArray[this.arrayIndex] = true;
+        return;
+      }
+    }
+  }
+
+}
@@ -32,6 +32,8 @@ public final class ProbeGroup {
 
   private final List<Probe> probes;
 
+  private final List<InferredProbe> inferredProbes = new ArrayList<InferredProbe>();
+
   /**
    * Constructs a new ProbeGroup.
    * 
@@ -125,6 +127,36 @@ public final class ProbeGroup {
     return null;
   }
 
+  /**
+   * Registers a probe that is not placed in the bytecode of the class, as it is inferred from other
+   * probes.
+   * 
+   * @param arrayIndex array index of a registered probe
+   * @param sources array indexes of the probes it is inferred from
+   */
+  public void registerInferredProbe(final int arrayIndex, final int[] sources) {
+    this.inferredProbes.add(new InferredProbe(arrayIndex, sources));
+  }
+
+  /**
+   * Returns all {@link com.gzoltar.core.runtime.InferredProbe} objects that have been registered.
+   */
+  public List<InferredProbe> getInferredProbes() {
+    return this.inferredProbes;
+  }
+
+  /**
+   * Sets the slots of a hit array of this probeGroup whose probes are inferred from other probes
+   * that have been hit.
+   * 
+   * @param hitArray
+   */
+  public void inferHits(final boolean[] hitArray) {
+    for (InferredProbe inferredProbe : this.inferredProbes) {
+      inferredProbe.infer(hitArray);
+    }
+  }
+
   // === Nodes ===
 
   /**
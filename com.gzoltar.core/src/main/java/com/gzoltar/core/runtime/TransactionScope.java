@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.util.ArrayUtils;
+
+/**
+ * Set of hit arrays handed out to instrumented classes while the scope was bound to the running
+ * thread (see {@link Collector#bindScope(TransactionScope)}). Each scope is harvested on its own,
+ * therefore transactions executed at the same time in different scopes (e.g., tests running on
+ * different threads with their own class loaders) do not pollute each other's coverage.
+ * 
+ * Each hit array has one extra slot, after the last probe, which instrumented classes set (and
+ * report through {@link #markDirty(String, boolean[])}) the first time they are executed in a
+ * transaction. Those hit arrays are collected first when a transaction ends, the remaining ones
+ * are only checked for hits of frames that span more than one transaction.
+ * 
+ * A scope may also defer the transactions ended in it, which are then only added to the spectrum
+ * when {@link Collector#endDeferredTransactions(TransactionScope)} is called (e.g., so that
+ * transactions executed concurrently are reported in a deterministic order).
+ */
+public class TransactionScope {
+
+  /** <ProbeGroup hash, <ProbeGroup name, hitArray>> */
+  private final ConcurrentMap<String, Pair<String, boolean[]>> hitArrays;
+
+  /** Hashes of the ProbeGroups executed since the last harvest */
+  private final ConcurrentLinkedQueue<String> dirty;
+
+  /** Transactions ended in this scope, or <code>null</code> if they are not deferred */
+  private final List<Transaction> deferred;
+
+  /**
+   * Constructs a new {@link com.gzoltar.core.runtime.TransactionScope}.
+   */
+  public TransactionScope() {
+    this(false);
+  }
+
+  /**
+   * Constructs a new {@link com.gzoltar.core.runtime.TransactionScope}.
+   * 
+   * @param deferTransactions whether transactions ended in this scope are deferred
+   */
+  public TransactionScope(final boolean deferTransactions) {
+    this.hitArrays = new ConcurrentHashMap<String, Pair<String, boolean[]>>();
+    this.dirty = new ConcurrentLinkedQueue<String>();
+    this.deferred = deferTransactions ? new ArrayList<Transaction>() : null;
+  }
+
+  /**
+   * Returns the hit array of a probe group, creating it if it does not exist yet. The returned
+   * array has <code>numberOfProbes + 1</code> slots, the last one being the dirty flag of the
+   * probe group.
+   * 
+   * @param hash
+   * @param probeGroupName
+   * @param numberOfProbes
+   * @return
+   */
+  public boolean[] getHitArray(final String hash, final String probeGroupName,
+      final int numberOfProbes) {
+    Pair<String, boolean[]> hitArray = this.hitArrays.get(hash);
+    if (hitArray == null) {
+      Pair<String, boolean[]> newHitArray =
+          new ImmutablePair<String, boolean[]>(probeGroupName, new boolean[numberOfProbes + 1]);
+      hitArray = this.hitArrays.putIfAbsent(hash, newHitArray);
+      if (hitArray == null) {
+        hitArray = newHitArray;
+      }
+    }
+    return hitArray.getRight();
+  }
+
+  /**
+   * Records that a probe group has been executed in the current transaction.
+   * 
+   * @param hash
+   * @param hitArray
+   * @return <code>true</code> if the hit array has been handed out by this scope,
+   *         <code>false</code> otherwise
+   */
+  public boolean markDirty(final String hash, final boolean[] hitArray) {
+    Pair<String, boolean[]> entry = this.hitArrays.get(hash);
+    if (entry == null || entry.getRight() != hitArray) {
+      return false;
+    }
+    this.dirty.add(hash);
+    return true;
+  }
+
+  /**
+   * Takes over a hit array handed out by another scope that is no longer used (e.g., the scope of
+   * a previous test method run in the same class loader), and records that its probe group has
+   * been executed in the current transaction.
+   * 
+   * @param hash
+   * @param probeGroupName
+   * @param hitArray
+   */
+  public void adopt(final String hash, final String probeGroupName, final boolean[] hitArray) {
+    this.hitArrays.put(hash, new ImmutablePair<String, boolean[]>(probeGroupName, hitArray));
+    this.dirty.add(hash);
+  }
+
+  /**
+   * Forgets a hit array that has been taken over by another scope (see
+   * {@link #adopt(String, String, boolean[])}), so that it is no longer harvested by this one.
+   * 
+   * @param hash
+   * @param hitArray
+   */
+  public void release(final String hash, final boolean[] hitArray) {
+    Pair<String, boolean[]> entry = this.hitArrays.get(hash);
+    if (entry != null && entry.getRight() == hitArray) {
+      this.hitArrays.remove(hash, entry);
+    }
+  }
+
+  /**
+   * Returns the name of the probe group of a hit array handed out by this scope.
+   * 
+   * @param hash
+   * @param hitArray
+   * @return the name of the probe group, or <code>null</code> if the hit array has not been handed
+   *         out by this scope
+   */
+  public String getProbeGroupName(final String hash, final boolean[] hitArray) {
+    Pair<String, boolean[]> entry = this.hitArrays.get(hash);
+    if (entry == null || entry.getRight() != hitArray) {
+      return null;
+    }
+    return entry.getLeft();
+  }
+
+  /**
+   * Checks whether any hit array has been handed out in this scope.
+   * 
+   * @return
+   */
+  public boolean isEmpty() {
+    return this.hitArrays.isEmpty();
+  }
+
+  /**
+   * Collects the coverage of all hit arrays executed since the last harvest into a transaction and
+   * resets them.
+   * 
+   * Hit arrays are only marked as executed when a method of their class is entered, therefore a
+   * frame that was already running when the last harvest reset them (e.g., a long loop, or a
+   * background thread started before the transaction) keeps hitting probes without marking them
+   * again. All other hit arrays of this scope are swept for those hits once the marked ones have
+   * been collected.
+   * 
+   * @param transaction
+   * @param probeGroups all probeGroups known so far, by hash, which complete the hit arrays with
+   *        the hits of their inferred probes
+   */
+  public synchronized void harvest(final Transaction transaction,
+      final Map<String, ProbeGroup> probeGroups) {
+    String hash;
+    while ((hash = this.dirty.poll()) != null) {
+      Pair<String, boolean[]> entry = this.hitArrays.get(hash);
+      if (entry == null) {
+        // released to another scope
+        continue;
+      }
+      boolean[] hitArray = entry.getRight();
+
+      if (!hitArray[hitArray.length - 1]) {
+        // already collected
+        continue;
+      }
+
+      this.collect(transaction, hash, entry, probeGroups);
+    }
+
+    for (Map.Entry<String, Pair<String, boolean[]>> entry : this.hitArrays.entrySet()) {
+      boolean[] hitArray = entry.getValue().getRight();
+      int numberOfProbes = hitArray.length - 1;
+      if (hitArray[numberOfProbes]) {
+        // marked as executed after it has been polled, it is collected by the next harvest
+        continue;
+      }
+      for (int i = 0; i < numberOfProbes; i++) {
+        if (hitArray[i]) {
+          this.collect(transaction, entry.getKey(), entry.getValue(), probeGroups);
+          break;
+        }
+      }
+    }
+  }
+
+  private static void collect(final Transaction transaction, final String hash,
+      final Pair<String, boolean[]> entry, final Map<String, ProbeGroup> probeGroups) {
+    boolean[] hitArray = entry.getRight();
+    int numberOfProbes = hitArray.length - 1;
+
+    ProbeGroup probeGroup = probeGroups.get(hash);
+    if (probeGroup != null) {
+      probeGroup.inferHits(hitArray);
+    }
+
+    long[] hits = ArrayUtils.toBitArray(hitArray, numberOfProbes);
+    // reset probes, and only then the dirty flag
+    Arrays.fill(hitArray, 0, numberOfProbes, false);
+    hitArray[numberOfProbes] = false;
+
+    // note: if the probe group has been executed again while this scope was being harvested,
+    // both activities are merged
+    transaction.addActivity(hash, entry.getLeft(), hits, numberOfProbes);
+  }
+
+  /**
+   * Defers a transaction ended in this scope, if this scope defers transactions.
+   * 
+   * @param transaction
+   * @return <code>true</code> if the transaction has been deferred, <code>false</code> otherwise
+   */
+  public boolean defer(final Transaction transaction) {
+    if (this.deferred == null) {
+      return false;
+    }
+    synchronized (this.deferred) {
+      this.deferred.add(transaction);
+    }
+    return true;
+  }
+
+  /**
+   * Returns and forgets all transactions deferred so far, in the order they have ended.
+   * 
+   * @return
+   */
+  public List<Transaction> takeDeferredTransactions() {
+    if (this.deferred == null) {
+      return new ArrayList<Transaction>();
+    }
+    synchronized (this.deferred) {
+      List<Transaction> transactions = new ArrayList<Transaction>(this.deferred);
+      this.deferred.clear();
+      return transactions;
+    }
+  }
+}
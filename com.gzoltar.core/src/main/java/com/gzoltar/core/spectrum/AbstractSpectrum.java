@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.spectrum;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.gzoltar.core.model.Node;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.runtime.Probe;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.util.ArrayUtils;
+
+/**
+ * Probe groups and nodes of a spectrum, independently of how its transactions are stored.
+ */
+public abstract class AbstractSpectrum implements ISpectrum {
+
+  /** <ProbeGroup hash, ProbeGroup> */
+  protected final Map<String, ProbeGroup> probeGroups = new LinkedHashMap<String, ProbeGroup>();
+
+  // === ProbeGroups ===
+
+  /**
+   * Register a new probe group.
+   */
+  public void addProbeGroup(final ProbeGroup probeGroup) {
+    // Mocking frameworks, application servers, or persistence frameworks may cause GZoltar to see
+    // the same class several times
+    if (!this.probeGroups.containsKey(probeGroup.getHash())) {
+      this.probeGroups.put(probeGroup.getHash(), probeGroup);
+    }
+  }
+
+  /**
+   * Checks whether a probe group has been registered.
+   */
+  public boolean containsProbeGroup(final ProbeGroup probeGroup) {
+    return this.probeGroups.containsKey(probeGroup.getHash());
+  }
+
+  /**
+   * Checks whether a probe group has been registered.
+   */
+  public boolean containsProbeGroupByHash(final String hash) {
+    return this.probeGroups.containsKey(hash);
+  }
+
+  /**
+   * Returns the {@link com.gzoltar.core.runtime.ProbeGroup} with a given name, or null if there is
+   * not any.
+   */
+  public ProbeGroup getProbeGroup(final ProbeGroup probeGroup) {
+    return this.containsProbeGroup(probeGroup) ? this.probeGroups.get(probeGroup.getHash()) : null;
+  }
+
+  /**
+   * Returns the {@link com.gzoltar.core.runtime.ProbeGroup} with a given name, or null if there is
+   * not any.
+   */
+  public ProbeGroup getProbeGroupByHash(final String hash) {
+    return this.containsProbeGroupByHash(hash) ? this.probeGroups.get(hash) : null;
+  }
+
+  /**
+   * Returns all {@link com.gzoltar.core.runtime.ProbeGroup} that have been registered.
+   */
+  public Collection<ProbeGroup> getProbeGroups() {
+    return this.probeGroups.values();
+  }
+
+  /**
+   * Returns a {@link com.gzoltar.core.runtime.ProbeGroup} that matches a given name,
+   * or null if there is not any.
+   */
+  public ProbeGroup findProbeGroupByName(final String name) {
+    for (ProbeGroup probeGroup : this.probeGroups.values()) {
+      if (name.equals(probeGroup.getName())) {
+        return probeGroup;
+      }
+    }
+    return null;
+  }
+
+  // === Nodes ===
+
+  /**
+   * Returns all {@link com.gzoltar.core.model.Node} objects registered in each
+   * {@link com.gzoltar.core.runtime.ProbeGroup}.
+   */
+  public List<Node> getNodes() {
+    List<Node> nodes = new ArrayList<Node>();
+    for (ProbeGroup probeGroup : this.probeGroups.values()) {
+      nodes.addAll(probeGroup.getNodes());
+    }
+    return nodes;
+  }
+
+  /**
+   * Returns the number of all {@link com.gzoltar.core.model.Node} objects registered in each
+   * {@link com.gzoltar.core.runtime.ProbeGroup}.
+   */
+  public int getNumberOfNodes() {
+    return this.getNodes().size();
+  }
+
+  /**
+   * Returns all executed {@link com.gzoltar.core.model.Node} objects of a particular
+   * {@link com.gzoltar.core.model.Transaction} object.
+   */
+  public List<Node> getHitNodes(Transaction transaction) {
+    List<Node> nodes = new ArrayList<Node>();
+
+    for (String probeGroupHash : transaction.getProbeGroupsHash()) {
+      ProbeGroup probeGroup = this.probeGroups.get(probeGroupHash);
+      long[] hitArray = transaction.getHitBitsByProbeGroupHash(probeGroupHash);
+
+      for (Probe probe : probeGroup.getProbes()) {
+        if (ArrayUtils.isBitSet(hitArray, probe.getArrayIndex())) {
+          nodes.add(probe.getNode());
+        }
+      }
+    }
+
+    return nodes;
+  }
+
+  // === Transactions ===
+
+  /**
+   * Returns a {@link com.gzoltar.core.model.Transaction} that matches a given name,
+   * or null if there is not any.
+   */
+  public Transaction findTransactionByName(final String name) {
+    Iterator<Transaction> it = this.getTransactions().iterator();
+    try {
+      while (it.hasNext()) {
+        Transaction transaction = it.next();
+        if (name.equals(transaction.getName())) {
+          return transaction;
+        }
+      }
+      return null;
+    } finally {
+      // transactions might be read from a file (see StreamingSpectrum)
+      if (it instanceof Closeable) {
+        try {
+          ((Closeable) it).close();
+        } catch (IOException e) {
+          // the transaction has been found anyway
+        }
+      }
+    }
+  }
+}
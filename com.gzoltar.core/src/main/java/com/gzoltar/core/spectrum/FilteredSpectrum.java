@@ -16,7 +16,9 @@
  */
 package com.gzoltar.core.spectrum;
 
-import org.apache.commons.lang3.tuple.ImmutablePair;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import com.gzoltar.core.AgentConfigs;
 import com.gzoltar.core.instr.Outcome;
 import com.gzoltar.core.instr.actions.BlackList;
@@ -89,7 +91,10 @@ public class FilteredSpectrum {
       return null;
     }
 
-    ISpectrum filteredSpectrum = new Spectrum();
+    Spectrum filteredSpectrum = new Spectrum();
+
+    /** <ProbeGroup hash, new index of each probe (or -1 if the probe has been removed)> */
+    Map<String, int[]> newArrayIndexes = new HashMap<String, int[]>();
 
     // === Filter probeGroups and probes ===
 
@@ -100,6 +105,8 @@ public class FilteredSpectrum {
       }
 
       ProbeGroup newProbeGroup = new ProbeGroup(probeGroup.getHash(), probeGroup.getCtClass());
+      int[] newArrayIndex = new int[probeGroup.getNumberOfProbes()];
+      Arrays.fill(newArrayIndex, -1);
 
       Filter granularityMethodFilter = new Filter();
       for (Probe probe : probeGroup.getProbes()) {
@@ -116,14 +123,17 @@ public class FilteredSpectrum {
 
         if (this.granularity == GranularityLevel.LINE) {
           // register Line probe
-          newProbeGroup.registerProbe(probe.getNode(), probe.getCtBehavior());
+          newArrayIndex[probe.getArrayIndex()] =
+              newProbeGroup.registerProbe(probe.getNode(), probe.getCtBehavior()).getArrayIndex();
         } else if (this.granularity == GranularityLevel.CLASS) {
           // register Class probe
-          newProbeGroup.registerProbe(probe.getNode(), probe.getCtBehavior());
+          newArrayIndex[probe.getArrayIndex()] =
+              newProbeGroup.registerProbe(probe.getNode(), probe.getCtBehavior()).getArrayIndex();
           break;
         } else if (this.granularity == GranularityLevel.METHOD) {
           // register Method probe
-          newProbeGroup.registerProbe(probe.getNode(), probe.getCtBehavior());
+          newArrayIndex[probe.getArrayIndex()] =
+              newProbeGroup.registerProbe(probe.getNode(), probe.getCtBehavior()).getArrayIndex();
 
           Node node = probe.getNode();
           String methodName =
@@ -133,60 +143,39 @@ public class FilteredSpectrum {
           granularityMethodFilter.add(new BlackList(new MethodNameMatcher(methodName)));
         } else if (this.granularity == GranularityLevel.BASICBLOCK && probe.getNode().isStartBlock()) {
           // register BasicBlock probe
-          newProbeGroup.registerProbe(probe.getNode(), probe.getCtBehavior());
+          newArrayIndex[probe.getArrayIndex()] =
+              newProbeGroup.registerProbe(probe.getNode(), probe.getCtBehavior()).getArrayIndex();
         }
       }
 
       if (!newProbeGroup.isEmpty()) {
         filteredSpectrum.addProbeGroup(newProbeGroup);
+        newArrayIndexes.put(probeGroup.getHash(), newArrayIndex);
       }
     }
 
     // === Filter transactions ===
 
-    for (Transaction transaction : source.getTransactions()) {
-      Transaction newTransaction =
-          new Transaction(transaction.getName(), transaction.getTransactionOutcome(),
-              transaction.getRuntime(), transaction.getStackTrace());
-
-      for (String hash : transaction.getProbeGroupsHash()) {
-        if (!filteredSpectrum.containsProbeGroupByHash(hash)) {
-          // probeGroup has been ignored, therefore it could also be ignore here
-          continue;
-        }
-
-        // shrink hitArray
-
-        ProbeGroup probeGroup = source.getProbeGroupByHash(hash);
-        boolean[] hitArray = transaction.getHitArrayByProbeGroupHash(hash);
-
-        ProbeGroup newProbeGroup = filteredSpectrum.getProbeGroupByHash(hash);
-        boolean[] newHitArray = new boolean[newProbeGroup.getNumberOfProbes()];
-
-        for (Probe probe : probeGroup.getProbes()) {
-          Probe newProbe = newProbeGroup.findProbeByNode(probe.getNode());
-          if (newProbe == null) {
-            // probe has been removed, therefore it could also be ignore here
-            continue;
-          }
-
-          newHitArray[newProbe.getArrayIndex()] = hitArray[probe.getArrayIndex()];
-        }
-
-        if (ArrayUtils.containsValue(newHitArray, true)) {
-          newTransaction.addActivity(hash,
-              new ImmutablePair<String, boolean[]>(newProbeGroup.getName(), newHitArray));
-        }
+    ISpectrum result = filteredSpectrum;
+    if (source instanceof IndexedSpectrum) {
+      // transactions of indexed spectra are only filtered when they are read
+      result =
+          ((IndexedSpectrum) source).filter(filteredSpectrum.getProbeGroups(), newArrayIndexes);
+    } else if (source instanceof StreamingSpectrum) {
+      // likewise, transactions of streaming spectra are only filtered when they are read
+      result =
+          ((StreamingSpectrum) source).filter(filteredSpectrum.getProbeGroups(), newArrayIndexes);
+    } else {
+      for (Transaction transaction : source.getTransactions()) {
+        // check whether it has any activation is performed in the method itself
+        filteredSpectrum.addTransaction(filter(transaction, newArrayIndexes, filteredSpectrum));
       }
-
-      // check whether it has any activation is performed in the method itself
-      filteredSpectrum.addTransaction(newTransaction);
     }
 
     // === Reset name and type according to a granularity level ===
 
     if (this.granularity != GranularityLevel.LINE) {
-      for (ProbeGroup probeGroup : filteredSpectrum.getProbeGroups()) {
+      for (ProbeGroup probeGroup : result.getProbeGroups()) {
         for (Probe probe : probeGroup.getProbes()) {
           Node node = probe.getNode();
 
@@ -218,7 +207,58 @@ public class FilteredSpectrum {
       }
     }
 
-    return filteredSpectrum;
+    return result;
+  }
+
+  /**
+   * Returns a transaction with the activity of a given transaction over the probes that have not
+   * been filtered out.
+   * 
+   * @param transaction
+   * @param newArrayIndexes <ProbeGroup hash, new index of each probe (or -1 if the probe has been
+   *        removed)>
+   * @param filteredSpectrum spectrum with the filtered probeGroups
+   * @return
+   */
+  static Transaction filter(final Transaction transaction,
+      final Map<String, int[]> newArrayIndexes, final ISpectrum filteredSpectrum) {
+    Transaction newTransaction =
+        new Transaction(transaction.getName(), transaction.getTransactionOutcome(),
+            transaction.getRuntime(), transaction.getStackTrace());
+
+    for (int i = 0; i < transaction.getNumberOfActivities(); i++) {
+      String hash = transaction.getProbeGroupHash(i);
+      int[] newArrayIndex = newArrayIndexes.get(hash);
+      if (newArrayIndex == null) {
+        // probeGroup has been ignored, therefore it could also be ignore here
+        continue;
+      }
+
+      // shrink hitArray
+
+      long[] hitArray = transaction.getHitBits(i);
+
+      ProbeGroup newProbeGroup = filteredSpectrum.getProbeGroupByHash(hash);
+      long[] newHitArray = new long[ArrayUtils.numberOfWords(newProbeGroup.getNumberOfProbes())];
+
+      for (int arrayIndex = 0; arrayIndex < newArrayIndex.length; arrayIndex++) {
+        if (newArrayIndex[arrayIndex] == -1) {
+          // probe has been removed, therefore it could also be ignore here
+          continue;
+        }
+
+        if (ArrayUtils.isBitSet(hitArray, arrayIndex)) {
+          ArrayUtils.setBit(newHitArray, newArrayIndex[arrayIndex]);
+        }
+      }
+
+      if (ArrayUtils.containsBit(newHitArray)) {
+        newTransaction.addActivity(hash, newProbeGroup.getName(), newHitArray,
+            newProbeGroup.getNumberOfProbes());
+      }
+    }
+
+    return newTransaction;
   }
 
 }
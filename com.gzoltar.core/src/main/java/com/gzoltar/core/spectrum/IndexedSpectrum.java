@@ -0,0 +1,400 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.spectrum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import org.jacoco.core.internal.data.CompactDataInput;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.util.ArrayUtils;
+import com.gzoltar.core.util.SerialisationIdentifiers;
+
+/**
+ * Read-only spectrum backed by a memory-mapped file written by
+ * {@link com.gzoltar.core.spectrum.IndexedSpectrumWriter}. ProbeGroups are kept in memory, but
+ * transactions are only deserialised when they are accessed, and the activity of each probe can
+ * be read as a column, i.e., as a bit array of all transactions that execute it, without reading
+ * any transaction at all.
+ * 
+ * Columns are indexed by the position of each transaction in the file, which is the same as its
+ * position in {@link #getTransactions()} unless the spectrum has been filtered (see
+ * {@link #getFailingTransactions()} and {@link #getPassingTransactions()}).
+ */
+public class IndexedSpectrum extends AbstractSpectrum {
+
+  private final MappedFile file;
+
+  /** <ProbeGroup hash, column of its first probe>, of all probeGroups of the file */
+  private final Map<String, Integer> firstColumns;
+
+  private final long transactionsPosition;
+
+  private final long columnsPosition;
+
+  /** Number of words of each column */
+  private final int words;
+
+  /** Column of each probe of the spectrum, in the order of {@link #getNodes()} */
+  private final int[] columns;
+
+  /** Position in the file of each transaction of the spectrum */
+  private final int[] transactions;
+
+  private final long[] failingTransactions;
+
+  private final long[] passingTransactions;
+
+  /** Granularity level at which coverage has been collected, or <code>null</code> if unknown */
+  private final GranularityLevel granularity;
+
+  /**
+   * <ProbeGroup hash, new index of each probe (or -1 if the probe has been removed)>, or
+   * <code>null</code> if the spectrum has not been filtered
+   */
+  private final Map<String, int[]> newArrayIndexes;
+
+  private final List<Transaction> transactionList = new TransactionList();
+
+  /**
+   * Opens an indexed spectrum file.
+   * 
+   * @param file
+   * @throws IOException if the file is not a valid indexed spectrum file
+   */
+  public IndexedSpectrum(final File file) throws IOException {
+    long size = file.length();
+    if (size < IndexedSpectrumWriter.FOOTER_SIZE) {
+      throw new IOException("Invalid indexed spectrum file.");
+    }
+    this.file = new MappedFile(file, size);
+
+    try {
+      long footer = size - IndexedSpectrumWriter.FOOTER_SIZE;
+      if (this.file.getChar(footer + 24) != SerialisationIdentifiers.INDEX_MAGIC_NUMBER
+          || this.file.getChar(footer + 26) != SerialisationIdentifiers.FORMAT_VERSION) {
+        throw new IOException("Invalid indexed spectrum file.");
+      }
+      long indexPosition = this.file.getLong(footer);
+      int numberOfProbeGroups = this.file.getInt(footer + 8);
+      int numberOfTransactions = this.file.getInt(footer + 12);
+      int numberOfProbes = this.file.getInt(footer + 16);
+      int granularity = this.file.getInt(footer + 20);
+      if (granularity >= GranularityLevel.values().length) {
+        throw new IOException("Invalid indexed spectrum file.");
+      }
+      this.granularity = granularity < 0 ? null : GranularityLevel.values()[granularity];
+
+      // === ProbeGroups ===
+
+      this.firstColumns = new HashMap<String, Integer>();
+
+      MappedFile.Cursor cursor = this.file.newInputStream(0L);
+      TransactionReader reader = new TransactionReader(new CompactDataInput(cursor));
+      int column = 0;
+      for (int i = 0; i < numberOfProbeGroups; i++) {
+        long position = this.file.getLong(indexPosition + 8L * i);
+        if (this.file.get(position) != SerialisationIdentifiers.BLOCK_PROBE_GROUP) {
+          throw new IOException("Invalid indexed spectrum file.");
+        }
+        cursor.seek(position + 1);
+        ProbeGroup probeGroup = reader.readProbeGroup();
+        this.probeGroups.put(probeGroup.getHash(), probeGroup);
+        this.firstColumns.put(probeGroup.getHash(), column);
+        column += probeGroup.getNumberOfProbes();
+      }
+      if (column != numberOfProbes) {
+        throw new IOException("Invalid indexed spectrum file.");
+      }
+
+      // === Index ===
+
+      this.transactionsPosition = indexPosition + 8L * numberOfProbeGroups;
+      this.words = ArrayUtils.numberOfWords(numberOfTransactions);
+      long failingPosition = this.transactionsPosition + 8L * numberOfTransactions;
+      this.columnsPosition = failingPosition + 8L * this.words;
+
+      this.failingTransactions = new long[this.words];
+      this.passingTransactions = new long[this.words];
+      for (int w = 0; w < this.words; w++) {
+        this.failingTransactions[w] = this.file.getLong(failingPosition + 8L * w);
+        this.passingTransactions[w] = ~this.failingTransactions[w];
+      }
+      if ((numberOfTransactions & 63) != 0) {
+        this.passingTransactions[this.words - 1] &= (1L << (numberOfTransactions & 63)) - 1L;
+      }
+
+      this.columns = new int[numberOfProbes];
+      for (int i = 0; i < numberOfProbes; i++) {
+        this.columns[i] = i;
+      }
+      this.transactions = new int[numberOfTransactions];
+      for (int i = 0; i < numberOfTransactions; i++) {
+        this.transactions[i] = i;
+      }
+      this.newArrayIndexes = null;
+    } catch (IOException e) {
+      this.file.close();
+      throw e;
+    } catch (RuntimeException e) {
+      this.file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Creates a filtered view of an indexed spectrum.
+   * 
+   * @param source
+   * @param probeGroups filtered probeGroups
+   * @param newArrayIndexes <ProbeGroup hash, new index of each probe (or -1 if the probe has been
+   *        removed)>
+   */
+  private IndexedSpectrum(final IndexedSpectrum source, final Collection<ProbeGroup> probeGroups,
+      final Map<String, int[]> newArrayIndexes) {
+    this.file = source.file;
+    this.firstColumns = source.firstColumns;
+    this.transactionsPosition = source.transactionsPosition;
+    this.columnsPosition = source.columnsPosition;
+    this.words = source.words;
+    this.granularity = source.granularity;
+    this.newArrayIndexes = newArrayIndexes;
+
+    List<Integer> columns = new ArrayList<Integer>();
+    for (ProbeGroup probeGroup : probeGroups) {
+      this.probeGroups.put(probeGroup.getHash(), probeGroup);
+
+      int firstColumn = this.firstColumns.get(probeGroup.getHash());
+      int[] newArrayIndex = newArrayIndexes.get(probeGroup.getHash());
+      int[] oldArrayIndex = new int[probeGroup.getNumberOfProbes()];
+      for (int arrayIndex = 0; arrayIndex < newArrayIndex.length; arrayIndex++) {
+        if (newArrayIndex[arrayIndex] != -1) {
+          oldArrayIndex[newArrayIndex[arrayIndex]] = arrayIndex;
+        }
+      }
+      for (int arrayIndex : oldArrayIndex) {
+        columns.add(firstColumn + arrayIndex);
+      }
+    }
+
+    this.columns = new int[columns.size()];
+    for (int i = 0; i < this.columns.length; i++) {
+      this.columns[i] = columns.get(i);
+    }
+
+    // only transactions that execute any of the remaining probes are kept
+    long[] kept = new long[this.words];
+    for (int i = 0; i < this.columns.length; i++) {
+      long position = this.getColumnPosition(i);
+      for (int w = 0; w < this.words; w++) {
+        kept[w] |= this.file.getLong(position + 8L * w);
+      }
+    }
+
+    this.failingTransactions = new long[this.words];
+    this.passingTransactions = new long[this.words];
+    int numberOfTransactions = 0;
+    for (int w = 0; w < this.words; w++) {
+      this.failingTransactions[w] = source.failingTransactions[w] & kept[w];
+      this.passingTransactions[w] = source.passingTransactions[w] & kept[w];
+      numberOfTransactions += Long.bitCount(kept[w]);
+    }
+
+    this.transactions = new int[numberOfTransactions];
+    int t = 0;
+    for (int w = 0; w < this.words; w++) {
+      long word = kept[w];
+      while (word != 0L) {
+        this.transactions[t++] = (w << 6) + Long.numberOfTrailingZeros(word);
+        word &= word - 1L;
+      }
+    }
+  }
+
+  /**
+   * Returns a view of this spectrum with a subset of its probes, and the transactions that
+   * execute any of them.
+   * 
+   * @param probeGroups filtered probeGroups
+   * @param newArrayIndexes <ProbeGroup hash, new index of each probe (or -1 if the probe has been
+   *        removed)>
+   * @return
+   */
+  IndexedSpectrum filter(final Collection<ProbeGroup> probeGroups,
+      final Map<String, int[]> newArrayIndexes) {
+    return new IndexedSpectrum(this, probeGroups, newArrayIndexes);
+  }
+
+  /**
+   * Returns the granularity level at which the coverage of the spectrum has been collected.
+   * 
+   * @return the granularity level, or <code>null</code> if it has not been recorded
+   */
+  public GranularityLevel getGranularity() {
+    return this.granularity;
+  }
+
+  /**
+   * Closes the file. Neither this spectrum nor any of its filtered views can be read afterwards.
+   * 
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    this.file.close();
+  }
+
+  // === ProbeGroups ===
+
+  /**
+   * Indexed spectra are read-only.
+   * 
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void addProbeGroup(final ProbeGroup probeGroup) {
+    throw new UnsupportedOperationException("Indexed spectra are read-only");
+  }
+
+  // === Nodes ===
+
+  /**
+   * Returns the number of all {@link com.gzoltar.core.model.Node} objects registered in each
+   * {@link com.gzoltar.core.runtime.ProbeGroup}.
+   */
+  @Override
+  public int getNumberOfNodes() {
+    return this.columns.length;
+  }
+
+  // === Columns ===
+
+  /**
+   * Returns the column of the i-th probe of the spectrum (in the order of {@link #getNodes()}),
+   * i.e., a bit array of all transactions that execute it, indexed by their position in the file.
+   * 
+   * @param index
+   * @return
+   */
+  public long[] getProbeColumn(final int index) {
+    long position = this.getColumnPosition(index);
+    long[] column = new long[this.words];
+    for (int w = 0; w < this.words; w++) {
+      column[w] = this.file.getLong(position + 8L * w);
+    }
+    return column;
+  }
+
+  /**
+   * Returns a bit array of all failing transactions of the spectrum, indexed by their position in
+   * the file.
+   * 
+   * @return
+   */
+  public long[] getFailingTransactions() {
+    return this.failingTransactions.clone();
+  }
+
+  /**
+   * Returns a bit array of all passing transactions of the spectrum, indexed by their position in
+   * the file.
+   * 
+   * @return
+   */
+  public long[] getPassingTransactions() {
+    return this.passingTransactions.clone();
+  }
+
+  private long getColumnPosition(final int index) {
+    return this.columnsPosition + 8L * this.words * this.columns[index];
+  }
+
+  // === Transactions ===
+
+  /**
+   * Indexed spectra are read-only.
+   * 
+   * @throws UnsupportedOperationException
+   */
+  public void addTransaction(final Transaction transaction) {
+    throw new UnsupportedOperationException("Indexed spectra are read-only");
+  }
+
+  /**
+   * Returns all {@link com.gzoltar.core.model.Transaction} of the spectrum. Each transaction is
+   * deserialised from the file every time it is accessed.
+   */
+  public List<Transaction> getTransactions() {
+    return this.transactionList;
+  }
+
+  /**
+   * Returns the i-th {@link com.gzoltar.core.model.Transaction} of the spectrum.
+   * 
+   * @param index
+   * @return
+   */
+  public Transaction getTransaction(final int index) {
+    long position = this.file.getLong(this.transactionsPosition + 8L * this.transactions[index]);
+    if (this.file.get(position) != SerialisationIdentifiers.BLOCK_TRANSACTION) {
+      throw new IllegalStateException("Invalid indexed spectrum file.");
+    }
+
+    Transaction transaction;
+    try {
+      transaction = new TransactionReader(
+          new CompactDataInput(this.file.newInputStream(position + 1))).readTransaction();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+
+    if (this.newArrayIndexes != null) {
+      transaction = FilteredSpectrum.filter(transaction, this.newArrayIndexes, this);
+    }
+    return transaction;
+  }
+
+  /**
+   * Returns the number of all {@link com.gzoltar.core.model.Transaction} of the spectrum.
+   */
+  public int getNumberOfTransactions() {
+    return this.transactions.length;
+  }
+
+  /**
+   * Read-only list of the transactions of the spectrum, deserialised on demand.
+   */
+  private final class TransactionList extends AbstractList<Transaction> implements RandomAccess {
+
+    @Override
+    public Transaction get(final int index) {
+      return getTransaction(index);
+    }
+
+    @Override
+    public int size() {
+      return transactions.length;
+    }
+  }
+}
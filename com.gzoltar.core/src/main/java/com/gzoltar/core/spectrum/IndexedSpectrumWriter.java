@@ -0,0 +1,353 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.spectrum;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jacoco.core.internal.data.CompactDataInput;
+import com.gzoltar.core.events.IEventListener;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.util.ArrayUtils;
+import com.gzoltar.core.util.SerialisationIdentifiers;
+
+/**
+ * Writes a spectrum into an indexed file that can be read, without loading it in memory, by
+ * {@link com.gzoltar.core.spectrum.IndexedSpectrum}. The file is made of:
+ * <ul>
+ * <li>a spectrum data stream, as written by {@link com.gzoltar.core.spectrum.SpectrumWriter}, with
+ * the description of every probeGroup and every transaction;</li>
+ * <li>the position of each probeGroup block in the stream, in the order of the probeGroups of the
+ * spectrum;</li>
+ * <li>the position of each transaction block in the stream;</li>
+ * <li>a bit array of all failing transactions;</li>
+ * <li>one bit array per probe (i.e., a column of the spectrum), of all transactions that execute
+ * it;</li>
+ * <li>a fixed-size footer with the number of probeGroups, transactions and probes, and the
+ * granularity level at which coverage has been collected.</li>
+ * </ul>
+ * Columns are built once all transactions have been written, by re-reading the stream as many
+ * times as required to keep at most a given number of bytes of columns in memory.
+ */
+public class IndexedSpectrumWriter implements IEventListener {
+
+  private static final long DEFAULT_COLUMNS_BUFFER_SIZE = 64L * 1024L * 1024L;
+
+  /** Number of bytes of the footer */
+  static final int FOOTER_SIZE = 28;
+
+  private final File file;
+
+  private final ISpectrum spectrum;
+
+  private final long columnsBufferSize;
+
+  private final CountingOutputStream out;
+
+  private final SpectrumWriter writer;
+
+  /** <ProbeGroup hash, position of its block> */
+  private final Map<String, Long> probeGroupPositions = new HashMap<String, Long>();
+
+  private long[] transactionPositions = new long[1024];
+
+  private long[] failingTransactions = new long[16];
+
+  private int numberOfTransactions = 0;
+
+  private GranularityLevel granularity = null;
+
+  private boolean closed = false;
+
+  /**
+   * Creates a new writer of an indexed spectrum file.
+   * 
+   * @param file indexed spectrum file
+   * @param spectrum spectrum that describes the probeGroups of all transactions written
+   * @throws IOException
+   */
+  public IndexedSpectrumWriter(final File file, final ISpectrum spectrum) throws IOException {
+    this(file, spectrum, DEFAULT_COLUMNS_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a new writer of an indexed spectrum file.
+   * 
+   * @param file indexed spectrum file
+   * @param spectrum spectrum that describes the probeGroups of all transactions written
+   * @param columnsBufferSize maximum number of bytes of columns built in memory at once
+   * @throws IOException
+   */
+  public IndexedSpectrumWriter(final File file, final ISpectrum spectrum,
+      final long columnsBufferSize) throws IOException {
+    this.file = file;
+    this.spectrum = spectrum;
+    this.columnsBufferSize = columnsBufferSize;
+    this.out = new CountingOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+    this.writer = new SpectrumWriter(this.out, spectrum);
+  }
+
+  /**
+   * Writes a transaction (and the probeGroups it executes, if they have not been written yet).
+   * 
+   * @param transaction
+   * @throws IOException
+   */
+  public void writeTransaction(final Transaction transaction) throws IOException {
+    if (!transaction.hasActivations()) {
+      return;
+    }
+
+    for (int i = 0; i < transaction.getNumberOfActivities(); i++) {
+      String hash = transaction.getProbeGroupHash(i);
+      if (!this.probeGroupPositions.containsKey(hash)) {
+        ProbeGroup probeGroup = this.spectrum.getProbeGroupByHash(hash);
+        if (probeGroup != null) {
+          this.writeProbeGroup(probeGroup);
+        }
+      }
+    }
+
+    if (this.numberOfTransactions == this.transactionPositions.length) {
+      this.transactionPositions =
+          Arrays.copyOf(this.transactionPositions, this.transactionPositions.length * 2);
+    }
+    this.transactionPositions[this.numberOfTransactions] = this.out.getCount();
+
+    if (transaction.hasFailed()) {
+      int words = ArrayUtils.numberOfWords(this.numberOfTransactions + 1);
+      if (words > this.failingTransactions.length) {
+        this.failingTransactions = Arrays.copyOf(this.failingTransactions,
+            Math.max(words, this.failingTransactions.length * 2));
+      }
+      ArrayUtils.setBit(this.failingTransactions, this.numberOfTransactions);
+    }
+
+    this.numberOfTransactions++;
+    this.writer.writeTransactionBlock(transaction);
+  }
+
+  /**
+   * Sets the granularity level at which the coverage of the transactions written has been
+   * collected, as recorded by their spectrum data stream (see
+   * {@link com.gzoltar.core.spectrum.SpectrumReader#getGranularity()}).
+   * 
+   * @param granularity granularity level, or <code>null</code> if unknown
+   */
+  public void setGranularity(final GranularityLevel granularity) {
+    this.granularity = granularity;
+  }
+
+  private void writeProbeGroup(final ProbeGroup probeGroup) throws IOException {
+    this.probeGroupPositions.put(probeGroup.getHash(), this.out.getCount());
+    this.writer.writeProbeGroup(probeGroup);
+  }
+
+  /**
+   * Writes all probeGroups of the spectrum that have not been written yet, builds the index and
+   * the columns of all transactions written, and closes the file.
+   * 
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+
+    try {
+      // === ProbeGroups, in the order of the spectrum ===
+
+      Map<String, Integer> firstColumns = new LinkedHashMap<String, Integer>();
+      int numberOfProbes = 0;
+      for (ProbeGroup probeGroup : this.spectrum.getProbeGroups()) {
+        if (!this.probeGroupPositions.containsKey(probeGroup.getHash())) {
+          this.writeProbeGroup(probeGroup);
+        }
+        firstColumns.put(probeGroup.getHash(), numberOfProbes);
+        numberOfProbes += probeGroup.getNumberOfProbes();
+      }
+      this.out.flush();
+      long dataSize = this.out.getCount();
+
+      DataOutputStream index = new DataOutputStream(this.out);
+      long indexPosition = this.out.getCount();
+
+      for (String hash : firstColumns.keySet()) {
+        index.writeLong(this.probeGroupPositions.get(hash));
+      }
+      for (int i = 0; i < this.numberOfTransactions; i++) {
+        index.writeLong(this.transactionPositions[i]);
+      }
+
+      int words = ArrayUtils.numberOfWords(this.numberOfTransactions);
+      for (int w = 0; w < words; w++) {
+        index.writeLong(w < this.failingTransactions.length ? this.failingTransactions[w] : 0L);
+      }
+
+      // === Columns ===
+
+      if (words > 0 && numberOfProbes > 0) {
+        index.flush();
+        MappedFile data = new MappedFile(this.file, dataSize);
+        try {
+          this.writeColumns(index, data, firstColumns, numberOfProbes, words);
+        } finally {
+          data.close();
+        }
+      }
+
+      // === Footer ===
+
+      index.writeLong(indexPosition);
+      index.writeInt(firstColumns.size());
+      index.writeInt(this.numberOfTransactions);
+      index.writeInt(numberOfProbes);
+      index.writeInt(this.granularity == null ? -1 : this.granularity.ordinal());
+      index.writeChar(SerialisationIdentifiers.INDEX_MAGIC_NUMBER);
+      index.writeChar(SerialisationIdentifiers.FORMAT_VERSION);
+      index.flush();
+    } finally {
+      this.out.close();
+    }
+  }
+
+  /**
+   * Builds and writes the columns of all probes, as many at once as fit in the columns buffer.
+   */
+  private void writeColumns(final DataOutputStream index, final MappedFile data,
+      final Map<String, Integer> firstColumns, final int numberOfProbes, final int words)
+      throws IOException {
+    int probesPerPass = (int) Math.max(1L,
+        Math.min(numberOfProbes, this.columnsBufferSize / (words * 8L)));
+    long[] columns = new long[probesPerPass * words];
+
+    MappedFile.Cursor cursor = data.newInputStream(0L);
+    TransactionReader reader = new TransactionReader(new CompactDataInput(cursor));
+
+    for (int fromProbe = 0; fromProbe < numberOfProbes; fromProbe += probesPerPass) {
+      int toProbe = Math.min(numberOfProbes, fromProbe + probesPerPass);
+      Arrays.fill(columns, 0L);
+
+      for (int t = 0; t < this.numberOfTransactions; t++) {
+        cursor.seek(this.transactionPositions[t] + 1);
+        Transaction transaction = reader.readTransaction();
+
+        for (int i = 0; i < transaction.getNumberOfActivities(); i++) {
+          Integer firstColumn = firstColumns.get(transaction.getProbeGroupHash(i));
+          if (firstColumn == null) {
+            continue;
+          }
+          int numberOfProbesOfGroup = transaction.getNumberOfProbes(i);
+          if (firstColumn >= toProbe || firstColumn + numberOfProbesOfGroup <= fromProbe) {
+            continue;
+          }
+
+          long[] hitArray = transaction.getHitBits(i);
+          for (int w = 0; w < hitArray.length; w++) {
+            long word = hitArray[w];
+            while (word != 0L) {
+              int arrayIndex = (w << 6) + Long.numberOfTrailingZeros(word);
+              int column = firstColumn + arrayIndex;
+              if (arrayIndex < numberOfProbesOfGroup && column >= fromProbe && column < toProbe) {
+                columns[(column - fromProbe) * words + (t >>> 6)] |= 1L << t;
+              }
+              word &= word - 1L;
+            }
+          }
+        }
+      }
+
+      for (int i = 0; i < (toProbe - fromProbe) * words; i++) {
+        index.writeLong(columns[i]);
+      }
+    }
+  }
+
+  // === IEventListener ===
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void regiterProbeGroup(final ProbeGroup probeGroup) {
+    // empty, probeGroups are looked up in the spectrum
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void endTransaction(final Transaction transaction) {
+    try {
+      this.writeTransaction(transaction);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void endSession() {
+    try {
+      this.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Output stream that counts the number of bytes written.
+   */
+  private static final class CountingOutputStream extends FilterOutputStream {
+
+    private long count = 0L;
+
+    private CountingOutputStream(final OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      this.out.write(b);
+      this.count++;
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+      this.out.write(b, off, len);
+      this.count += len;
+    }
+
+    private long getCount() {
+      return this.count;
+    }
+  }
+}
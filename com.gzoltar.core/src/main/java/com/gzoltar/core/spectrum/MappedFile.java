@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.spectrum;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only, random access view of a file mapped in memory. As a single
+ * {@link java.nio.MappedByteBuffer} cannot address more than 2 GB, the file is mapped in several
+ * chunks and values that span two chunks are read byte by byte. All reads are absolute, and
+ * therefore thread-safe.
+ */
+final class MappedFile {
+
+  private static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+  private final RandomAccessFile file;
+
+  private final MappedByteBuffer[] chunks;
+
+  private final int chunkSize;
+
+  private final long size;
+
+  /**
+   * Maps the first bytes of a file in memory.
+   * 
+   * @param file
+   * @param size number of bytes to map
+   * @throws IOException
+   */
+  MappedFile(final File file, final long size) throws IOException {
+    this(file, size, DEFAULT_CHUNK_SIZE);
+  }
+
+  MappedFile(final File file, final long size, final int chunkSize) throws IOException {
+    this.file = new RandomAccessFile(file, "r");
+    this.chunkSize = chunkSize;
+    this.size = size;
+
+    FileChannel channel = this.file.getChannel();
+    this.chunks = new MappedByteBuffer[(int) ((size + chunkSize - 1) / chunkSize)];
+    for (int i = 0; i < this.chunks.length; i++) {
+      long position = (long) i * chunkSize;
+      this.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+          Math.min(chunkSize, size - position));
+    }
+  }
+
+  /**
+   * Returns the number of bytes mapped.
+   * 
+   * @return
+   */
+  long size() {
+    return this.size;
+  }
+
+  /**
+   * Returns the byte at a given position.
+   * 
+   * @param position
+   * @return
+   */
+  byte get(final long position) {
+    return this.chunks[(int) (position / this.chunkSize)].get((int) (position % this.chunkSize));
+  }
+
+  /**
+   * Returns the (big-endian) long at a given position.
+   * 
+   * @param position
+   * @return
+   */
+  long getLong(final long position) {
+    int offset = (int) (position % this.chunkSize);
+    if (offset <= this.chunkSize - 8) {
+      return this.chunks[(int) (position / this.chunkSize)].getLong(offset);
+    }
+    long value = 0L;
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | (this.get(position + i) & 0xFFL);
+    }
+    return value;
+  }
+
+  /**
+   * Returns the (big-endian) int at a given position.
+   * 
+   * @param position
+   * @return
+   */
+  int getInt(final long position) {
+    int offset = (int) (position % this.chunkSize);
+    if (offset <= this.chunkSize - 4) {
+      return this.chunks[(int) (position / this.chunkSize)].getInt(offset);
+    }
+    int value = 0;
+    for (int i = 0; i < 4; i++) {
+      value = (value << 8) | (this.get(position + i) & 0xFF);
+    }
+    return value;
+  }
+
+  /**
+   * Returns the (big-endian) char at a given position.
+   * 
+   * @param position
+   * @return
+   */
+  char getChar(final long position) {
+    return (char) (((this.get(position) & 0xFF) << 8) | (this.get(position + 1) & 0xFF));
+  }
+
+  /**
+   * Returns a stream that reads the mapped bytes from a given position.
+   * 
+   * @param position
+   * @return
+   */
+  Cursor newInputStream(final long position) {
+    return new Cursor(position);
+  }
+
+  /**
+   * Closes the file. Mapped chunks are released once they are garbage collected.
+   * 
+   * @throws IOException
+   */
+  void close() throws IOException {
+    this.file.close();
+  }
+
+  /**
+   * Sequential stream over the mapped bytes, which can be moved to any position.
+   */
+  final class Cursor extends InputStream {
+
+    private long position;
+
+    private Cursor(final long position) {
+      this.position = position;
+    }
+
+    /**
+     * Moves the stream to a given position.
+     * 
+     * @param position
+     */
+    void seek(final long position) {
+      this.position = position;
+    }
+
+    @Override
+    public int read() {
+      if (this.position >= size) {
+        return -1;
+      }
+      return get(this.position++) & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (this.position >= size) {
+        return -1;
+      }
+      int n = (int) Math.min(len, size - this.position);
+      int read = 0;
+      while (read < n) {
+        MappedByteBuffer chunk = chunks[(int) (this.position / chunkSize)];
+        int offset = (int) (this.position % chunkSize);
+        int length = Math.min(n - read, chunk.limit() - offset);
+        for (int i = 0; i < length; i++) {
+          b[off + read + i] = chunk.get(offset + i);
+        }
+        read += length;
+        this.position += length;
+      }
+      return n;
+    }
+  }
+}
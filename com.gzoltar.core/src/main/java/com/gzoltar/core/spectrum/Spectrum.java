@@ -17,21 +17,11 @@
 package com.gzoltar.core.spectrum;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import org.apache.commons.lang3.tuple.Pair;
 import com.gzoltar.core.model.Node;
 import com.gzoltar.core.model.Transaction;
-import com.gzoltar.core.runtime.Probe;
-import com.gzoltar.core.runtime.ProbeGroup;
 
-public class Spectrum implements ISpectrum {
-
-  /** <ProbeGroup hash, ProbeGroup> */
-  private final Map<String, ProbeGroup> probeGroups;
+public class Spectrum extends AbstractSpectrum {
 
   private final List<Transaction> transactions;
 
@@ -39,118 +29,9 @@ public class Spectrum implements ISpectrum {
    * Constructs a new {@link com.gzoltar.core.spectrum.Spectrum}.
    */
   public Spectrum() {
-    this.probeGroups = new LinkedHashMap<String, ProbeGroup>();
     this.transactions = new ArrayList<Transaction>();
   }
 
-  // === ProbeGroups ===
-
-  /**
-   * Register a new probe group.
-   */
-  public void addProbeGroup(final ProbeGroup probeGroup) {
-    // Mocking frameworks, application servers, or persistence frameworks may cause GZoltar to see
-    // the same class several times
-    if (!this.probeGroups.containsKey(probeGroup.getHash())) {
-      this.probeGroups.put(probeGroup.getHash(), probeGroup);
-    }
-  }
-
-  /**
-   * Checks whether a probe group has been registered.
-   */
-  public boolean containsProbeGroup(final ProbeGroup probeGroup) {
-    return this.probeGroups.containsKey(probeGroup.getHash());
-  }
-
-  /**
-   * Checks whether a probe group has been registered.
-   */
-  public boolean containsProbeGroupByHash(final String hash) {
-    return this.probeGroups.containsKey(hash);
-  }
-
-  /**
-   * Returns the {@link com.gzoltar.core.runtime.ProbeGroup} with a given name, or null if there is
-   * not any.
-   */
-  public ProbeGroup getProbeGroup(final ProbeGroup probeGroup) {
-    return this.containsProbeGroup(probeGroup) ? this.probeGroups.get(probeGroup.getHash()) : null;
-  }
-
-  /**
-   * Returns the {@link com.gzoltar.core.runtime.ProbeGroup} with a given name, or null if there is
-   * not any.
-   */
-  public ProbeGroup getProbeGroupByHash(final String hash) {
-    return this.containsProbeGroupByHash(hash) ? this.probeGroups.get(hash) : null;
-  } 
-
-  /**
-   * Returns all {@link com.gzoltar.core.runtime.ProbeGroup} that have been registered.
-   */
-  public Collection<ProbeGroup> getProbeGroups() {
-    return this.probeGroups.values();
-  }
-
-  /**
-   * Returns a {@link com.gzoltar.core.runtime.ProbeGroup} that matches a given name,
-   * or null if there is not any.
-   */
-  public ProbeGroup findProbeGroupByName(final String name) {
-    for (ProbeGroup probeGroup : this.probeGroups.values()) {
-      if (name.equals(probeGroup.getName())) {
-        return probeGroup;
-      }
-    }
-    return null;
-  }
-
-  // === Nodes ===
-
-  /**
-   * Returns all {@link com.gzoltar.core.model.Node} objects registered in each
-   * {@link com.gzoltar.core.runtime.ProbeGroup}.
-   */
-  public List<Node> getNodes() {
-    List<Node> nodes = new ArrayList<Node>();
-    for (ProbeGroup probeGroup : this.probeGroups.values()) {
-      nodes.addAll(probeGroup.getNodes());
-    }
-    return nodes;
-  }
-
-  /**
-   * Returns the number of all {@link com.gzoltar.core.model.Node} objects registered in each
-   * {@link com.gzoltar.core.runtime.ProbeGroup}.
-   */
-  public int getNumberOfNodes() {
-    return this.getNodes().size();
-  }
-
-  /**
-   * Returns all executed {@link com.gzoltar.core.model.Node} objects of a particular
-   * {@link com.gzoltar.core.model.Transaction} object.
-   */
-  public List<Node> getHitNodes(Transaction transaction) {
-    List<Node> nodes = new ArrayList<Node>();
-
-    for (Entry<String, Pair<String, boolean[]>> activity : transaction.getActivity().entrySet()) {
-      String probeGroupHash = activity.getKey();
-      ProbeGroup probeGroup = this.probeGroups.get(probeGroupHash);
-      boolean[] hitArray = activity.getValue().getRight();
-      assert hitArray.length == probeGroup.getNumberOfProbes();
-
-      for (Probe probe : probeGroup.getProbes()) {
-        if (hitArray[probe.getArrayIndex()]) {
-          nodes.add(probe.getNode());
-        }
-      }
-    }
-
-    return nodes;
-  }
-
   // === Transactions ===
 
   /**
@@ -169,19 +50,6 @@ public class Spectrum implements ISpectrum {
     return this.transactions;
   }
 
-  /**
-   * Returns a {@link com.gzoltar.core.model.Transaction} that matches a given name,
-   * or null if there is not any.
-   */
-  public Transaction findTransactionByName(final String name) {
-    for (Transaction transaction : this.transactions) {
-      if (name.equals(transaction.getName())) {
-        return transaction;
-      }
-    }
-    return null;
-  }
-
   /**
    * Returns the number of all {@link com.gzoltar.core.model.Transaction} that have been registered.
    */
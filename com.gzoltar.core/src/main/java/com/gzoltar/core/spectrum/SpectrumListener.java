@@ -37,12 +37,12 @@ public class SpectrumListener implements IEventListener {
   }
 
   @Override
-  public void regiterProbeGroup(final ProbeGroup probeGroup) {
+  public synchronized void regiterProbeGroup(final ProbeGroup probeGroup) {
     this.spectrum.addProbeGroup(probeGroup);
   }
 
   @Override
-  public void endTransaction(final Transaction transaction) {
+  public synchronized void endTransaction(final Transaction transaction) {
     this.spectrum.addTransaction(transaction);
   }
 
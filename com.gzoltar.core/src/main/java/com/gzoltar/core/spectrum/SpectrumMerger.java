@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.spectrum;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.runtime.ProbeGroup;
+
+/**
+ * Merges spectrum files (e.g., written by different JVMs) into a single stream. Each probeGroup is
+ * described only once, and transactions can be sorted by name, so that the merged stream does not
+ * depend on how transactions have been distributed among the files.
+ */
+public class SpectrumMerger {
+
+  /** <transaction name, position> */
+  private final Map<String, Integer> order = new HashMap<String, Integer>();
+
+  /**
+   * Sorts the transactions of the merged stream by the position of their name in the given list.
+   * Transactions whose name is not in the list stay right after the transaction that precedes them
+   * in their file. Without any order, files are simply concatenated.
+   * 
+   * @param transactionNames
+   */
+  public void setOrder(final List<String> transactionNames) {
+    this.order.clear();
+    for (String name : transactionNames) {
+      if (!this.order.containsKey(name)) {
+        this.order.put(name, this.order.size());
+      }
+    }
+  }
+
+  /**
+   * Merges spectrum files into a stream. Files that do not exist are ignored.
+   * 
+   * @param files
+   * @param output binary stream to write the merged spectrum to, which is not closed
+   * @return number of transactions written
+   * @throws IOException if a file is not a valid spectrum file, or the stream cannot be written
+   */
+  public int merge(final List<File> files, final OutputStream output) throws IOException {
+    final Set<String> probeGroupsWritten = new HashSet<String>();
+    final PriorityQueue<Segment> segments = new PriorityQueue<Segment>();
+
+    int numberOfTransactions = 0;
+    GranularityLevel granularity = null;
+    try {
+      for (File file : files) {
+        if (!file.exists()) {
+          continue;
+        }
+        Segment segment = new Segment(segments.size(), file);
+        if (segment.next()) {
+          segments.add(segment);
+        } else {
+          segment.close();
+        }
+        // the headers of a file have been read along with its first transaction
+        GranularityLevel fileGranularity = segment.reader.getGranularity();
+        if (fileGranularity != null
+            && (granularity == null || granularity.isFinerThan(fileGranularity))) {
+          granularity = fileGranularity;
+        }
+      }
+
+      // the merged coverage is only as fine as the coarsest coverage of all files
+      final SpectrumWriter writer = new SpectrumWriter(output, granularity);
+
+      Segment segment;
+      while ((segment = segments.poll()) != null) {
+        Transaction transaction = segment.transaction;
+
+        // describe the probeGroups of the transaction that have not been described yet
+        for (int i = 0; i < transaction.getNumberOfActivities(); i++) {
+          String hash = transaction.getProbeGroupHash(i);
+          if (!probeGroupsWritten.contains(hash)) {
+            ProbeGroup probeGroup = segment.reader.getProbeGroupByHash(hash);
+            if (probeGroup != null) {
+              writer.writeProbeGroup(probeGroup);
+              probeGroupsWritten.add(hash);
+            }
+            // otherwise, readers have to instrument the class of the probeGroup
+          }
+        }
+        writer.writeTransactionBlock(transaction);
+        numberOfTransactions++;
+
+        if (segment.next()) {
+          segments.add(segment);
+        } else {
+          segment.close();
+        }
+      }
+    } finally {
+      for (Segment segment : segments) {
+        segment.close();
+      }
+    }
+
+    return numberOfTransactions;
+  }
+
+  /**
+   * Next transaction of a spectrum file.
+   */
+  private final class Segment implements Comparable<Segment> {
+
+    private final int index;
+
+    private final TransactionReader reader;
+
+    private Transaction transaction = null;
+
+    private int position = -1;
+
+    private Segment(final int index, final File file) throws IOException {
+      this.index = index;
+      this.reader = new TransactionReader(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    private boolean next() throws IOException {
+      this.transaction = this.reader.read();
+      if (this.transaction == null) {
+        return false;
+      }
+      Integer position = order.get(this.transaction.getName());
+      if (position != null) {
+        this.position = position;
+      }
+      return true;
+    }
+
+    private void close() throws IOException {
+      this.reader.close();
+    }
+
+    @Override
+    public int compareTo(final Segment other) {
+      if (this.position != other.position) {
+        return this.position < other.position ? -1 : 1;
+      }
+      return this.index < other.index ? -1 : (this.index == other.index ? 0 : 1);
+    }
+  }
+
+}
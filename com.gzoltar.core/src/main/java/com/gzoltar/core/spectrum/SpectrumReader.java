@@ -19,16 +19,14 @@ package com.gzoltar.core.spectrum;
 import static java.lang.String.format;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 import org.jacoco.core.internal.data.CompactDataInput;
 import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.events.IEventListener;
 import com.gzoltar.core.instr.Instrumenter;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
 import com.gzoltar.core.model.Transaction;
-import com.gzoltar.core.model.TransactionOutcome;
 import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.ProbeGroup;
 import com.gzoltar.core.util.SerialisationIdentifiers;
 import javassist.ClassPool;
 import javassist.CtClass;
@@ -42,9 +40,14 @@ public class SpectrumReader {
 
   private boolean firstBlock = true;
 
+  /** Configuration used to instrument the classes of probeGroups that have not been described */
+  private final AgentConfigs instrumentationConfigs;
+
   private Instrumenter instrumenter = null;
 
-  private final TransactionDeserialize transactionDeserialize = new TransactionDeserialize();
+  private final TransactionReader transactionReader;
+
+  private final IEventListener listener;
 
   /**
    * Creates a new reader based on the given input stream input. Depending on the nature of the
@@ -56,9 +59,29 @@ public class SpectrumReader {
    */
   public SpectrumReader(final String buildLocation, final AgentConfigs agentConfigs,
       final InputStream input) {
+    this(buildLocation, agentConfigs, input, null);
+  }
+
+  /**
+   * Creates a new reader based on the given input stream input, which hands each transaction read
+   * to a listener (instead of adding it to the spectrum), and ends the listener's session once the
+   * end of the stream is reached. ProbeGroups are still added to the spectrum.
+   * 
+   * @param buildLocation
+   * @param agentConfigs
+   * @param input input stream to read execution data from
+   * @param listener listener of all transactions read, or <code>null</code> to add them to the
+   *        spectrum
+   */
+  public SpectrumReader(final String buildLocation, final AgentConfigs agentConfigs,
+      final InputStream input, final IEventListener listener) {
+    this.listener = listener;
     this.spectrum = Collector.instance().getSpectrum();
     this.in = new CompactDataInput(input);
-    this.instrumenter = new Instrumenter(agentConfigs);
+    this.transactionReader = new TransactionReader(this.in);
+
+    // the configured granularity is only applied once the spectrum has been read
+    this.instrumentationConfigs = new AgentConfigs(agentConfigs.toString());
 
     try {
       ClassPool.getDefault().appendClassPath(buildLocation);
@@ -71,94 +94,150 @@ public class SpectrumReader {
     return this.spectrum;
   }
 
+  /**
+   * Returns the coarsest granularity level at which the coverage of the stream has been collected,
+   * according to the headers read so far.
+   * 
+   * @return the granularity level, or <code>null</code> if no header has recorded it
+   */
+  public GranularityLevel getGranularity() {
+    return this.transactionReader.getGranularity();
+  }
+
   public boolean read() throws Exception {
-    byte type;
-    do {
+    Transaction transaction;
+    while ((transaction = this.nextTransaction()) != null) {
+      if (this.listener == null) {
+        this.spectrum.addTransaction(transaction);
+      } else {
+        this.listener.endTransaction(transaction);
+      }
+    }
+    if (this.listener != null) {
+      this.listener.endSession();
+    }
+    return false;
+  }
+
+  /**
+   * Returns the next transaction of the stream, or <code>null</code> if the end of the stream has
+   * been reached (the stream is then closed). ProbeGroups described before the transaction, or
+   * executed by it, are added to the spectrum, but the transaction itself is not. This allows
+   * consumers to process a spectrum one transaction at a time.
+   * 
+   * @return a {@link com.gzoltar.core.model.Transaction} object or <code>null</code>
+   * @throws IOException
+   */
+  public Transaction nextTransaction() throws IOException {
+    while (true) {
       int i = this.in.read();
       if (i == -1) {
-        return false; // EOF
+        this.in.close();
+        return null; // EOF
       }
-      type = (byte) i;
+      byte type = (byte) i;
       if (this.firstBlock && type != SerialisationIdentifiers.BLOCK_HEADER) {
         throw new IOException("Invalid spectrum data file.");
       }
       this.firstBlock = false;
-    } while (this.readBlock(type));
-    this.in.close();
-    return true;
-  }
 
-  private boolean readBlock(final byte blocktype) throws Exception {
-    switch (blocktype) {
-      case SerialisationIdentifiers.BLOCK_HEADER:
-        this.readHeader();
-        return true;
-      case SerialisationIdentifiers.BLOCK_TRANSACTION:
-        this.spectrum.addTransaction(this.transactionDeserialize.deserialize());
-        return true;
-      default:
-        throw new IOException(format("Unknown block type %x.", Byte.valueOf(blocktype)));
+      switch (type) {
+        case SerialisationIdentifiers.BLOCK_HEADER:
+          this.readHeader();
+          break;
+        case SerialisationIdentifiers.BLOCK_PROBE_GROUP:
+          this.readProbeGroup();
+          break;
+        case SerialisationIdentifiers.BLOCK_TRANSACTION:
+          return this.readTransaction();
+        default:
+          throw new IOException(format("Unknown block type %x.", Byte.valueOf(type)));
+      }
     }
   }
 
   private void readHeader() throws IOException {
-    if (this.in.readChar() != SerialisationIdentifiers.MAGIC_NUMBER) {
-      throw new IOException("Invalid execution data file.");
-    }
-    final char version = this.in.readChar();
-    if (version != SerialisationIdentifiers.FORMAT_VERSION) {
+    final char version = this.transactionReader.readHeader();
+    if (version != SerialisationIdentifiers.FORMAT_VERSION
+        && version != SerialisationIdentifiers.FORMAT_VERSION_1) {
       throw new IncompatibleSpectrumVersionException(version);
     }
   }
 
   /**
+   * Deserialises a probeGroup and adds it to the spectrum, unless a probeGroup with the same hash
+   * is already known (e.g., if it was written by more than one agent).
    * 
+   * @throws IOException
    */
-  private final class TransactionDeserialize {
+  private void readProbeGroup() throws IOException {
+    ProbeGroup probeGroup = this.transactionReader.readProbeGroup();
+    if (this.spectrum.getProbeGroupByHash(probeGroup.getHash()) == null) {
+      Collector.instance().regiterProbeGroup(probeGroup);
+    }
+  }
 
-    /**
-     * Deserialises and create an instance of {@link com.gzoltar.core.model.Transaction}.
-     * 
-     * @return a {@link com.gzoltar.core.model.Transaction} object
-     * @throws IOException
-     */
-    public Transaction deserialize() throws IOException, CloneNotSupportedException {
-      String transactionName = in.readUTF();
-
-      Map<String, Pair<String, boolean[]>> activity = new LinkedHashMap<String, Pair<String, boolean[]>>();
-      int numberActivities = in.readVarInt();
-      while (numberActivities > 0) {
-        String probeGroupHash = in.readUTF();
-        String probeGroupName = in.readUTF();
-        boolean[] hitArray = in.readBooleanArray();
-
-        // instrument probeGroup (in case it has been not been instrumented)
-        if (spectrum.getProbeGroupByHash(probeGroupHash) == null) {
-          // probeGroup has not been instrumented
-          try {
-            CtClass ctClass = ClassPool.getDefault().get(probeGroupName);
-            instrumenter.instrument(ctClass);
-          } catch (Exception e) {
-            throw new RuntimeException(e);
-          }
-
-          // sanity check
-          if (spectrum.getProbeGroupByHash(probeGroupHash) == null) {
-            throw new RuntimeException("ProbeGroup '" + probeGroupHash + "' | '" + probeGroupName
-                + "' has not been added to the spectrum instance!");
-          }
+  /**
+   * Deserialises a transaction and instruments the classes of its probeGroups which are still
+   * unknown, i.e., which have not been described by a probeGroup block (e.g., in spectra written
+   * in the first version of the format).
+   * 
+   * @return a {@link com.gzoltar.core.model.Transaction} object
+   * @throws IOException
+   */
+  private Transaction readTransaction() throws IOException {
+    Transaction transaction = this.transactionReader.readTransaction();
+
+    for (int i = 0; i < transaction.getNumberOfActivities(); i++) {
+      String probeGroupHash = transaction.getProbeGroupHash(i);
+      String probeGroupName = transaction.getProbeGroupName(i);
+
+      // instrument probeGroup (in case it has been not been instrumented)
+      if (this.spectrum.getProbeGroupByHash(probeGroupHash) == null) {
+        // probeGroup has not been instrumented
+        try {
+          CtClass ctClass = ClassPool.getDefault().get(probeGroupName);
+          this.getInstrumenter().instrument(ctClass);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
         }
 
-        activity.put(probeGroupHash, new ImmutablePair<String, boolean[]>(probeGroupName, hitArray));
-        numberActivities--;
+        // sanity check
+        ProbeGroup probeGroup = this.spectrum.getProbeGroupByHash(probeGroupHash);
+        if (probeGroup == null) {
+          throw new RuntimeException("ProbeGroup '" + probeGroupHash + "' | '" + probeGroupName
+              + "' has not been added to the spectrum instance!");
+        }
+        if (probeGroup.getNumberOfProbes() != transaction.getNumberOfProbes(i)) {
+          // e.g., classes instrumented offline at a granularity level other than the one given
+          // to the agent that collected their coverage
+          throw new IOException("ProbeGroup '" + probeGroupName + "' has "
+              + transaction.getNumberOfProbes(i) + " probes, but "
+              + probeGroup.getNumberOfProbes() + " have been placed at "
+              + this.instrumentationConfigs.getGranularity() + " granularity");
+        }
       }
+    }
 
-      TransactionOutcome transactionOutcome = TransactionOutcome.valueOf(in.readUTF());
-      long runtime = in.readLong();
-      String stackTrace = in.readUTF();
+    return transaction;
+  }
 
-      return new Transaction(transactionName, activity, transactionOutcome, runtime, stackTrace);
+  /**
+   * Returns the instrumenter of the classes of probeGroups that have not been described, which
+   * places the same probes as the ones placed to collect coverage, i.e., at the granularity level
+   * recorded by the stream (or, if it has not been recorded, at the default one, as classes
+   * instrumented offline used to have a probe per line).
+   * 
+   * @return
+   */
+  private Instrumenter getInstrumenter() {
+    if (this.instrumenter == null) {
+      GranularityLevel granularity = this.getGranularity();
+      this.instrumentationConfigs.setGranularity(
+          granularity == null ? AgentConfigs.DEFAULT_GRANULARITY : granularity);
+      this.instrumenter = new Instrumenter(this.instrumentationConfigs);
     }
+    return this.instrumenter;
   }
 
   /**
@@ -18,12 +18,22 @@ package com.gzoltar.core.spectrum;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import org.apache.commons.lang3.tuple.Pair;
+import java.util.Set;
 import org.jacoco.core.internal.data.CompactDataOutput;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
 import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.Probe;
+import com.gzoltar.core.runtime.ProbeGroup;
 import com.gzoltar.core.util.SerialisationIdentifiers;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.annotation.Annotation;
 
 /**
  * Serialization of a spectrum instance into binary streams.
@@ -32,6 +42,12 @@ public class SpectrumWriter {
 
   private final CompactDataOutput out;
 
+  /** Hashes of all probeGroups already written to the stream */
+  private final Set<String> probeGroupsWritten = new HashSet<String>();
+
+  /** Spectrum being written, if any, to look up probeGroups */
+  private ISpectrum spectrum = null;
+
   /**
    * Creates a new writer based on the given output stream. Depending on the nature of the
    * underlying stream output should be buffered as most data is written in single bytes.
@@ -41,19 +57,49 @@ public class SpectrumWriter {
    */
   public SpectrumWriter(final OutputStream output)
       throws IOException {
+    this(output, (GranularityLevel) null);
+  }
+
+  /**
+   * Creates a new writer based on the given output stream, of the coverage collected at the given
+   * granularity level.
+   * 
+   * @param output binary stream to write execution data to
+   * @param granularity granularity level of the probes placed to collect coverage, or
+   *        <code>null</code> if unknown
+   * @throws IOException if the header can't be written
+   */
+  public SpectrumWriter(final OutputStream output, final GranularityLevel granularity)
+      throws IOException {
     this.out = new CompactDataOutput(output);
-    this.writeHeader();
+    this.writeHeader(granularity);
   }
 
   /**
-   * Writes an file header to identify the stream and its protocol version.
+   * Creates a new writer of the transactions of a spectrum, which is used to look up the
+   * probeGroups executed by each transaction.
    * 
+   * @param output binary stream to write execution data to
+   * @param spectrum
    * @throws IOException if the header can't be written
    */
-  private void writeHeader() throws IOException {
+  SpectrumWriter(final OutputStream output, final ISpectrum spectrum) throws IOException {
+    this(output);
+    this.spectrum = spectrum;
+  }
+
+  /**
+   * Writes an file header to identify the stream, its protocol version, and the granularity level
+   * at which its coverage has been collected (an empty string if unknown).
+   * 
+   * @param granularity
+   * @throws IOException if the header can't be written
+   */
+  private void writeHeader(final GranularityLevel granularity) throws IOException {
     this.out.writeByte(SerialisationIdentifiers.BLOCK_HEADER);
     this.out.writeChar(SerialisationIdentifiers.MAGIC_NUMBER);
     this.out.writeChar(SerialisationIdentifiers.FORMAT_VERSION);
+    this.out.writeUTF(granularity == null ? "" : granularity.name());
   }
 
   /**
@@ -63,6 +109,7 @@ public class SpectrumWriter {
    * @throws IOException if the data can't be written
    */
   public void writeSpectrum(final ISpectrum spectrum) throws IOException {
+    this.spectrum = spectrum;
     for (final Transaction transaction : spectrum.getTransactions()) {
       this.writeTransaction(transaction);
     }
@@ -76,9 +123,127 @@ public class SpectrumWriter {
    * @throws IOException
    */
   public void writeTransaction(final Transaction transaction) throws IOException {
+    if (!transaction.hasActivations()) {
+      return;
+    }
+
+    // describe all probeGroups executed by the transaction that have not been described yet
+    for (int i = 0; i < transaction.getNumberOfActivities(); i++) {
+      String hash = transaction.getProbeGroupHash(i);
+      if (this.probeGroupsWritten.add(hash)) {
+        ProbeGroup probeGroup = this.spectrum == null ? null
+            : this.spectrum.getProbeGroupByHash(hash);
+        if (probeGroup == null) {
+          probeGroup = Collector.instance().getProbeGroupByHash(hash);
+        }
+        if (probeGroup != null) {
+          ProbeGroupSerialize.serialize(this.out, probeGroup);
+        }
+        // otherwise, readers have to instrument the class of the probeGroup to find out its
+        // probes
+      }
+    }
+
     TransactionSerialize.serialize(this.out, transaction);
   }
 
+  /**
+   * Serializes a transaction instance into binary streams, without describing any of the
+   * probeGroups it executes.
+   * 
+   * @param transaction
+   * @throws IOException
+   */
+  void writeTransactionBlock(final Transaction transaction) throws IOException {
+    TransactionSerialize.serialize(this.out, transaction);
+  }
+
+  /**
+   * Serializes a probeGroup instance into binary streams, even if it has already been written.
+   * 
+   * @param probeGroup
+   * @throws IOException
+   */
+  public void writeProbeGroup(final ProbeGroup probeGroup) throws IOException {
+    this.probeGroupsWritten.add(probeGroup.getHash());
+    ProbeGroupSerialize.serialize(this.out, probeGroup);
+  }
+
+  /**
+   * 
+   */
+  private static final class ProbeGroupSerialize {
+
+    /**
+     * Serialises an instance of {@link com.gzoltar.core.runtime.ProbeGroup}, i.e., its class, the
+     * methods of its probes, and the method, line number and whether each probe starts a block.
+     * 
+     * @param out binary stream to write bytes to
+     * @param probeGroup
+     * @throws IOException
+     */
+    public static void serialize(final CompactDataOutput out, final ProbeGroup probeGroup)
+        throws IOException {
+      // methods, by name and descriptor, in the order they are first used by a probe
+      Map<String, Integer> methodIndexes = new LinkedHashMap<String, Integer>();
+      List<MethodInfo> methods = new ArrayList<MethodInfo>();
+      int[] probeMethods = new int[probeGroup.getNumberOfProbes()];
+
+      for (Probe probe : probeGroup.getProbes()) {
+        MethodInfo methodInfo = probe.getCtBehavior().getMethodInfo2();
+        String key = methodInfo.getName() + methodInfo.getDescriptor();
+        Integer index = methodIndexes.get(key);
+        if (index == null) {
+          index = methods.size();
+          methodIndexes.put(key, index);
+          methods.add(methodInfo);
+        }
+        probeMethods[probe.getArrayIndex()] = index;
+      }
+
+      out.writeByte(SerialisationIdentifiers.BLOCK_PROBE_GROUP);
+      out.writeUTF(probeGroup.getHash());
+      out.writeUTF(probeGroup.getName());
+      out.writeVarInt(probeGroup.getCtClass().getClassFile2().getAccessFlags());
+
+      out.writeVarInt(methods.size());
+      for (MethodInfo methodInfo : methods) {
+        out.writeUTF(methodInfo.getName());
+        out.writeUTF(methodInfo.getDescriptor());
+        out.writeVarInt(methodInfo.getAccessFlags());
+        writeAnnotations(out, methodInfo, AnnotationsAttribute.visibleTag);
+        writeAnnotations(out, methodInfo, AnnotationsAttribute.invisibleTag);
+      }
+
+      out.writeVarInt(probeGroup.getNumberOfProbes());
+      for (Probe probe : probeGroup.getProbes()) {
+        out.writeVarInt(probeMethods[probe.getArrayIndex()]);
+        out.writeVarInt(probe.getNode().getLineNumber());
+        out.writeBoolean(probe.getNode().isStartBlock());
+      }
+    }
+
+    /**
+     * Writes the type names of the (visible or invisible) annotations of a method.
+     * 
+     * @param out binary stream to write bytes to
+     * @param methodInfo
+     * @param tag {@link javassist.bytecode.AnnotationsAttribute#visibleTag} or
+     *        {@link javassist.bytecode.AnnotationsAttribute#invisibleTag}
+     * @throws IOException
+     */
+    private static void writeAnnotations(final CompactDataOutput out, final MethodInfo methodInfo,
+        final String tag) throws IOException {
+      AnnotationsAttribute attribute = (AnnotationsAttribute) methodInfo.getAttribute(tag);
+      Annotation[] annotations =
+          attribute == null ? new Annotation[0] : attribute.getAnnotations();
+      out.writeVarInt(annotations.length);
+      for (Annotation annotation : annotations) {
+        out.writeUTF(annotation.getTypeName());
+      }
+    }
+  }
+
   /**
    * 
    */
@@ -97,13 +262,13 @@ public class SpectrumWriter {
         out.writeByte(SerialisationIdentifiers.BLOCK_TRANSACTION);
         out.writeUTF(transaction.getName());
 
-        Map<String, Pair<String, boolean[]>> activity = transaction.getActivity();
-        out.writeVarInt(activity.size());
+        int numberActivities = transaction.getNumberOfActivities();
+        out.writeVarInt(numberActivities);
 
-        for (Entry<String, Pair<String, boolean[]>> entry : activity.entrySet()) {
-          out.writeUTF(entry.getKey()); // hash
-          out.writeUTF(entry.getValue().getLeft()); // name
-          out.writeBooleanArray(entry.getValue().getRight()); // hitArray
+        for (int i = 0; i < numberActivities; i++) {
+          out.writeUTF(transaction.getProbeGroupHash(i)); // hash
+          out.writeUTF(transaction.getProbeGroupName(i)); // name
+          writeBitArray(out, transaction.getHitBits(i), transaction.getNumberOfProbes(i)); // hitArray
         }
 
         out.writeUTF(transaction.getTransactionOutcome().name());
@@ -111,6 +276,24 @@ public class SpectrumWriter {
         out.writeUTF(transaction.getStackTrace());
       }
     }
+
+    /**
+     * Writes a bit array in the same format as
+     * {@link org.jacoco.core.internal.data.CompactDataOutput#writeBooleanArray(boolean[])}.
+     * 
+     * @param out binary stream to write bytes to
+     * @param bits bit array
+     * @param length number of bits
+     * @throws IOException
+     */
+    private static void writeBitArray(final CompactDataOutput out, final long[] bits,
+        final int length) throws IOException {
+      out.writeVarInt(length);
+      int numberOfBytes = (length + 7) >>> 3;
+      for (int i = 0; i < numberOfBytes; i++) {
+        out.writeByte((int) (bits[i >>> 3] >>> ((i & 7) << 3)) & 0xFF);
+      }
+    }
   }
 
 }
@@ -0,0 +1,283 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.spectrum;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.jacoco.core.internal.data.CompactDataInput;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.runtime.ProbeGroup;
+
+/**
+ * Read-only spectrum backed by a spectrum data file. ProbeGroups are kept in memory, but
+ * transactions are read from the file, one at a time, every time they are iterated. Therefore, the
+ * memory required to process a spectrum (e.g., to count the activity of each probe, or to report
+ * its matrix) does not depend on its number of transactions.
+ * 
+ * Transactions should be accessed sequentially, as {@link java.util.List#get(int)} reads the file
+ * up to the requested transaction. Iterators of the transactions are {@link java.io.Closeable},
+ * and should be closed if they are not iterated to the end, so that the file is closed as well.
+ * This spectrum is therefore meant for code that makes a single pass over all transactions.
+ */
+public class StreamingSpectrum extends AbstractSpectrum {
+
+  private final File file;
+
+  private final int numberOfTransactions;
+
+  /** Granularity level at which coverage has been collected, or <code>null</code> if unknown */
+  private final GranularityLevel granularity;
+
+  /**
+   * <ProbeGroup hash, new index of each probe (or -1 if the probe has been removed)>, or
+   * <code>null</code> if the spectrum has not been filtered
+   */
+  private final Map<String, int[]> newArrayIndexes;
+
+  private final List<Transaction> transactionList = new TransactionList();
+
+  /**
+   * Reads all probeGroups of a spectrum data file (instrumenting, if required, their classes) and
+   * counts its transactions.
+   * 
+   * @param buildLocation
+   * @param agentConfigs
+   * @param file spectrum data file
+   * @throws IOException
+   */
+  public StreamingSpectrum(final String buildLocation, final AgentConfigs agentConfigs,
+      final File file) throws IOException {
+    this.file = file;
+    this.newArrayIndexes = null;
+
+    SpectrumReader spectrumReader = new SpectrumReader(buildLocation, agentConfigs,
+        new BufferedInputStream(new FileInputStream(file)));
+    int numberOfTransactions = 0;
+    Transaction transaction;
+    while ((transaction = spectrumReader.nextTransaction()) != null) {
+      if (transaction.hasActivations()) {
+        numberOfTransactions++;
+      }
+    }
+    this.numberOfTransactions = numberOfTransactions;
+    this.granularity = spectrumReader.getGranularity();
+
+    for (ProbeGroup probeGroup : spectrumReader.getSpectrum().getProbeGroups()) {
+      this.probeGroups.put(probeGroup.getHash(), probeGroup);
+    }
+  }
+
+  /**
+   * Creates a filtered view of a streaming spectrum.
+   * 
+   * @param source
+   * @param probeGroups filtered probeGroups
+   * @param newArrayIndexes <ProbeGroup hash, new index of each probe (or -1 if the probe has been
+   *        removed)>
+   */
+  private StreamingSpectrum(final StreamingSpectrum source,
+      final Collection<ProbeGroup> probeGroups, final Map<String, int[]> newArrayIndexes) {
+    this.file = source.file;
+    this.granularity = source.granularity;
+    this.newArrayIndexes = newArrayIndexes;
+    for (ProbeGroup probeGroup : probeGroups) {
+      this.probeGroups.put(probeGroup.getHash(), probeGroup);
+    }
+
+    // only transactions that execute any of the remaining probes are kept
+    int numberOfTransactions = 0;
+    for (Iterator<Transaction> it = this.transactionList.iterator(); it.hasNext(); it.next()) {
+      numberOfTransactions++;
+    }
+    this.numberOfTransactions = numberOfTransactions;
+  }
+
+  /**
+   * Returns a view of this spectrum with a subset of its probes, and the transactions that
+   * execute any of them.
+   * 
+   * @param probeGroups filtered probeGroups
+   * @param newArrayIndexes <ProbeGroup hash, new index of each probe (or -1 if the probe has been
+   *        removed)>
+   * @return
+   */
+  StreamingSpectrum filter(final Collection<ProbeGroup> probeGroups,
+      final Map<String, int[]> newArrayIndexes) {
+    return new StreamingSpectrum(this, probeGroups, newArrayIndexes);
+  }
+
+  /**
+   * Returns the granularity level at which the coverage of the spectrum has been collected.
+   * 
+   * @return the granularity level, or <code>null</code> if it has not been recorded
+   */
+  public GranularityLevel getGranularity() {
+    return this.granularity;
+  }
+
+  // === ProbeGroups ===
+
+  /**
+   * Streaming spectra are read-only.
+   * 
+   * @throws UnsupportedOperationException
+   */
+  @Override
+  public void addProbeGroup(final ProbeGroup probeGroup) {
+    throw new UnsupportedOperationException("Streaming spectra are read-only");
+  }
+
+  // === Transactions ===
+
+  /**
+   * Streaming spectra are read-only.
+   * 
+   * @throws UnsupportedOperationException
+   */
+  public void addTransaction(final Transaction transaction) {
+    throw new UnsupportedOperationException("Streaming spectra are read-only");
+  }
+
+  /**
+   * Returns all {@link com.gzoltar.core.model.Transaction} of the spectrum. Each iteration reads
+   * the spectrum data file again.
+   */
+  public List<Transaction> getTransactions() {
+    return this.transactionList;
+  }
+
+  /**
+   * Returns the number of all {@link com.gzoltar.core.model.Transaction} of the spectrum.
+   */
+  public int getNumberOfTransactions() {
+    return this.numberOfTransactions;
+  }
+
+  /**
+   * Read-only list of the transactions of the spectrum, read on demand.
+   */
+  private final class TransactionList extends AbstractList<Transaction> {
+
+    @Override
+    public Iterator<Transaction> iterator() {
+      return new TransactionIterator();
+    }
+
+    @Override
+    public Transaction get(final int index) {
+      if (index < 0 || index >= numberOfTransactions) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + numberOfTransactions);
+      }
+      TransactionIterator it = new TransactionIterator();
+      try {
+        for (int i = 0; i < index; i++) {
+          it.next();
+        }
+        return it.next();
+      } finally {
+        it.close();
+      }
+    }
+
+    @Override
+    public int size() {
+      return numberOfTransactions;
+    }
+  }
+
+  /**
+   * Iterator over the transactions of the spectrum data file. The file is closed once all
+   * transactions have been read, or once the iterator is closed.
+   */
+  private final class TransactionIterator implements Iterator<Transaction>, Closeable {
+
+    private TransactionReader reader;
+
+    private Transaction next = null;
+
+    private TransactionIterator() {
+      try {
+        this.reader = new TransactionReader(
+            new CompactDataInput(new BufferedInputStream(new FileInputStream(file))), true);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (this.next == null && this.reader != null) {
+        try {
+          Transaction transaction = this.reader.read();
+          if (transaction == null) {
+            this.close();
+            break;
+          }
+          if (newArrayIndexes != null) {
+            transaction = FilteredSpectrum.filter(transaction, newArrayIndexes,
+                StreamingSpectrum.this);
+          }
+          if (transaction.hasActivations()) {
+            this.next = transaction;
+          }
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      return this.next != null;
+    }
+
+    @Override
+    public Transaction next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Transaction transaction = this.next;
+      this.next = null;
+      return transaction;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+      if (this.reader != null) {
+        try {
+          this.reader.close();
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        } finally {
+          this.reader = null;
+        }
+      }
+    }
+  }
+}
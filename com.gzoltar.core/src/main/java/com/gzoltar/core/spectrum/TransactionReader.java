@@ -0,0 +1,368 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.spectrum;
+
+import static java.lang.String.format;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.jacoco.core.internal.data.CompactDataInput;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.model.NodeFactory;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.util.ArrayUtils;
+import com.gzoltar.core.util.SerialisationIdentifiers;
+import javassist.ClassPool;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.DuplicateMemberException;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.annotation.Annotation;
+
+/**
+ * Deserialization of transactions from binary streams written by
+ * {@link com.gzoltar.core.spectrum.SpectrumWriter}. Unlike
+ * {@link com.gzoltar.core.spectrum.SpectrumReader}, it does not instrument the classes of the
+ * probeGroups it reads, nor does it add transactions to any spectrum.
+ */
+public class TransactionReader {
+
+  private final CompactDataInput in;
+
+  /** Pool of the classes described by probeGroup blocks */
+  private ClassPool classPool = null;
+
+  /** ProbeGroups described so far, by hash */
+  private final Map<String, ProbeGroup> probeGroups = new LinkedHashMap<String, ProbeGroup>();
+
+  /** Whether probeGroup blocks are skipped instead of deserialised */
+  private final boolean skipProbeGroups;
+
+  /** Coarsest granularity level recorded by the headers read so far, if any */
+  private GranularityLevel granularity = null;
+
+  /**
+   * Creates a new reader based on the given input stream. Depending on the nature of the
+   * underlying stream input should be buffered as most data is read in single bytes.
+   * 
+   * @param input input stream to read execution data from
+   * @throws IOException
+   */
+  public TransactionReader(final InputStream input) throws IOException {
+    this(new CompactDataInput(input));
+  }
+
+  TransactionReader(final CompactDataInput in) {
+    this(in, false);
+  }
+
+  /**
+   * Creates a new reader that, if requested, skips all probeGroup blocks (e.g., if they have
+   * already been read from the same stream).
+   * 
+   * @param in
+   * @param skipProbeGroups
+   */
+  TransactionReader(final CompactDataInput in, final boolean skipProbeGroups) {
+    this.in = in;
+    this.skipProbeGroups = skipProbeGroups;
+  }
+
+  /**
+   * Returns the next transaction of the stream, skipping any header, or <code>null</code> if the
+   * end of the stream has been reached.
+   * 
+   * @return a {@link com.gzoltar.core.model.Transaction} object or <code>null</code>
+   * @throws IOException if the stream is not a valid spectrum data stream
+   */
+  public Transaction read() throws IOException {
+    while (true) {
+      int i = this.in.read();
+      if (i == -1) {
+        return null; // EOF
+      }
+      byte type = (byte) i;
+      switch (type) {
+        case SerialisationIdentifiers.BLOCK_HEADER:
+          final char version = this.readHeader();
+          if (version != SerialisationIdentifiers.FORMAT_VERSION
+              && version != SerialisationIdentifiers.FORMAT_VERSION_1) {
+            throw new IOException("Invalid spectrum data stream.");
+          }
+          break;
+        case SerialisationIdentifiers.BLOCK_PROBE_GROUP:
+          if (this.skipProbeGroups) {
+            this.skipProbeGroup();
+          } else {
+            this.readProbeGroup();
+          }
+          break;
+        case SerialisationIdentifiers.BLOCK_TRANSACTION:
+          return this.readTransaction();
+        default:
+          throw new IOException(format("Unknown block type %x.", Byte.valueOf(type)));
+      }
+    }
+  }
+
+  /**
+   * Deserialises the content of a header block. The rest of the header is only read if the stream
+   * is in the current version of the format.
+   * 
+   * @return the version of the format of the stream
+   * @throws IOException if the stream is not a spectrum data stream
+   */
+  char readHeader() throws IOException {
+    if (this.in.readChar() != SerialisationIdentifiers.MAGIC_NUMBER) {
+      throw new IOException("Invalid spectrum data stream.");
+    }
+    final char version = this.in.readChar();
+    if (version == SerialisationIdentifiers.FORMAT_VERSION) {
+      final String granularity = this.in.readUTF();
+      if (!granularity.isEmpty()) {
+        final GranularityLevel level;
+        try {
+          level = GranularityLevel.valueOf(granularity);
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Unknown granularity level '" + granularity + "'.");
+        }
+        if (this.granularity == null || this.granularity.isFinerThan(level)) {
+          this.granularity = level;
+        }
+      }
+    }
+    return version;
+  }
+
+  /**
+   * Returns the coarsest granularity level at which the coverage of the stream has been collected,
+   * according to the headers read so far (a stream might be made of several ones, e.g., written by
+   * different agents).
+   * 
+   * @return the granularity level, or <code>null</code> if no header has recorded it
+   */
+  public GranularityLevel getGranularity() {
+    return this.granularity;
+  }
+
+  /**
+   * Returns all probeGroups described in the stream so far, in the order they have been read.
+   * 
+   * @return
+   */
+  public Collection<ProbeGroup> getProbeGroups() {
+    return this.probeGroups.values();
+  }
+
+  /**
+   * Returns the probeGroup with the given hash if it has already been described in the stream, or
+   * <code>null</code> otherwise.
+   * 
+   * @param hash
+   * @return
+   */
+  public ProbeGroup getProbeGroupByHash(final String hash) {
+    return this.probeGroups.get(hash);
+  }
+
+  /**
+   * Closes the underlying stream.
+   * 
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    this.in.close();
+  }
+
+  /**
+   * Deserialises the content of a probeGroup block and creates an instance of
+   * {@link com.gzoltar.core.runtime.ProbeGroup}. Its class is rebuilt from the names, modifiers and
+   * annotations of the methods written in the block (i.e., no bytecode is required), which is
+   * enough to create its nodes and to filter its probes.
+   * 
+   * @return a {@link com.gzoltar.core.runtime.ProbeGroup} object
+   * @throws IOException
+   */
+  ProbeGroup readProbeGroup() throws IOException {
+    String hash = this.in.readUTF();
+    String name = this.in.readUTF();
+
+    ClassFile classFile = new ClassFile(false, name, null);
+    classFile.setAccessFlags(this.in.readVarInt());
+    ConstPool constPool = classFile.getConstPool();
+
+    MethodInfo[] methods = new MethodInfo[this.in.readVarInt()];
+    for (int i = 0; i < methods.length; i++) {
+      methods[i] = new MethodInfo(constPool, this.in.readUTF(), this.in.readUTF());
+      methods[i].setAccessFlags(this.in.readVarInt());
+      this.readAnnotations(methods[i], AnnotationsAttribute.visibleTag);
+      this.readAnnotations(methods[i], AnnotationsAttribute.invisibleTag);
+      try {
+        classFile.addMethod(methods[i]);
+      } catch (DuplicateMemberException e) {
+        throw new IOException(e);
+      }
+    }
+
+    if (this.classPool == null) {
+      this.classPool = new ClassPool(true);
+    }
+    CtClass ctClass = this.classPool.makeClass(classFile, false);
+
+    // find the behaviour of each method
+    Map<MethodInfo, CtBehavior> behaviours = new HashMap<MethodInfo, CtBehavior>();
+    for (CtBehavior ctBehavior : ctClass.getDeclaredBehaviors()) {
+      behaviours.put(ctBehavior.getMethodInfo2(), ctBehavior);
+    }
+    if (ctClass.getClassInitializer() != null) {
+      behaviours.put(ctClass.getClassInitializer().getMethodInfo2(),
+          ctClass.getClassInitializer());
+    }
+
+    ProbeGroup probeGroup = new ProbeGroup(hash, ctClass);
+    int numberOfProbes = this.in.readVarInt();
+    for (int i = 0; i < numberOfProbes; i++) {
+      CtBehavior ctBehavior = behaviours.get(methods[this.in.readVarInt()]);
+      int lineNumber = this.in.readVarInt();
+      boolean startBlock = this.in.readBoolean();
+      probeGroup.registerProbe(NodeFactory.createNode(ctClass, ctBehavior, lineNumber, startBlock),
+          ctBehavior);
+    }
+    if (probeGroup.getNumberOfProbes() != numberOfProbes) {
+      throw new IOException("Invalid probeGroup block of '" + name + "'.");
+    }
+
+    if (!this.probeGroups.containsKey(hash)) {
+      this.probeGroups.put(hash, probeGroup);
+    }
+
+    return probeGroup;
+  }
+
+  /**
+   * Skips the content of a probeGroup block.
+   * 
+   * @throws IOException
+   */
+  private void skipProbeGroup() throws IOException {
+    this.in.readUTF(); // hash
+    this.in.readUTF(); // name
+    this.in.readVarInt(); // access flags
+
+    int numberOfMethods = this.in.readVarInt();
+    for (int i = 0; i < numberOfMethods; i++) {
+      this.in.readUTF(); // name
+      this.in.readUTF(); // descriptor
+      this.in.readVarInt(); // access flags
+      for (int tag = 0; tag < 2; tag++) {
+        int numberOfAnnotations = this.in.readVarInt();
+        for (int j = 0; j < numberOfAnnotations; j++) {
+          this.in.readUTF();
+        }
+      }
+    }
+
+    int numberOfProbes = this.in.readVarInt();
+    for (int i = 0; i < numberOfProbes; i++) {
+      this.in.readVarInt(); // method
+      this.in.readVarInt(); // line number
+      this.in.readBoolean(); // start block
+    }
+  }
+
+  /**
+   * Reads the type names of the (visible or invisible) annotations of a method, and adds them to
+   * it.
+   * 
+   * @param methodInfo
+   * @param tag {@link javassist.bytecode.AnnotationsAttribute#visibleTag} or
+   *        {@link javassist.bytecode.AnnotationsAttribute#invisibleTag}
+   * @throws IOException
+   */
+  private void readAnnotations(final MethodInfo methodInfo, final String tag) throws IOException {
+    int numberOfAnnotations = this.in.readVarInt();
+    if (numberOfAnnotations == 0) {
+      return;
+    }
+    ConstPool constPool = methodInfo.getConstPool();
+    AnnotationsAttribute attribute = new AnnotationsAttribute(constPool, tag);
+    for (int i = 0; i < numberOfAnnotations; i++) {
+      attribute.addAnnotation(new Annotation(this.in.readUTF(), constPool));
+    }
+    methodInfo.addAttribute(attribute);
+  }
+
+  /**
+   * Deserialises the content of a transaction block and creates an instance of
+   * {@link com.gzoltar.core.model.Transaction}.
+   * 
+   * @return a {@link com.gzoltar.core.model.Transaction} object
+   * @throws IOException
+   */
+  Transaction readTransaction() throws IOException {
+    String transactionName = this.in.readUTF();
+
+    String[] probeGroupHashes = new String[this.in.readVarInt()];
+    String[] probeGroupNames = new String[probeGroupHashes.length];
+    int[] numberOfProbes = new int[probeGroupHashes.length];
+    long[][] hitArrays = new long[probeGroupHashes.length][];
+
+    for (int i = 0; i < probeGroupHashes.length; i++) {
+      probeGroupHashes[i] = this.in.readUTF();
+      probeGroupNames[i] = this.in.readUTF();
+      numberOfProbes[i] = this.in.readVarInt();
+      hitArrays[i] = this.readBitArray(numberOfProbes[i]);
+    }
+
+    TransactionOutcome transactionOutcome = TransactionOutcome.valueOf(this.in.readUTF());
+    long runtime = this.in.readLong();
+    String stackTrace = this.in.readUTF();
+
+    Transaction transaction =
+        new Transaction(transactionName, transactionOutcome, runtime, stackTrace);
+    for (int i = 0; i < probeGroupHashes.length; i++) {
+      transaction.addActivity(probeGroupHashes[i], probeGroupNames[i], hitArrays[i],
+          numberOfProbes[i]);
+    }
+    return transaction;
+  }
+
+  /**
+   * Reads a bit array written as a boolean array by
+   * {@link org.jacoco.core.internal.data.CompactDataOutput#writeBooleanArray(boolean[])}.
+   * 
+   * @param length number of bits
+   * @return
+   * @throws IOException
+   */
+  private long[] readBitArray(final int length) throws IOException {
+    long[] bits = new long[ArrayUtils.numberOfWords(length)];
+    int numberOfBytes = (length + 7) >>> 3;
+    for (int i = 0; i < numberOfBytes; i++) {
+      bits[i >>> 3] |= ((long) this.in.readByte() & 0xFF) << ((i & 7) << 3);
+    }
+    return bits;
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import com.gzoltar.core.util.IsolatingClassLoader;
+
+/**
+ * Pool of {@link IsolatingClassLoader}s shared by the test methods of the same isolation group
+ * (see {@link TestTask#getIsolationGroup()}). Test methods that share a class loader do not have to
+ * load, define, and instrument again the classes loaded by previous test methods, and benefit from
+ * the JIT warm-up of previous test methods.
+ * 
+ * As test methods that share a class loader also share the static state of the classes it has
+ * loaded, each class loader is recycled (i.e., closed and replaced by a new one) after it has run a
+ * given number of test methods. A class loader is never used by two test methods at the same time,
+ * and a class loader whose test method could not be run or has timed out is never reused.
+ */
+public class ClassLoaderPool implements Closeable {
+
+  private final URL[] classpathURLs;
+
+  private final int testsPerClassLoader;
+
+  /**
+   * Idle class loaders of each isolation group.
+   */
+  private final Map<String, Deque<IsolatingClassLoader>> idle =
+      new HashMap<String, Deque<IsolatingClassLoader>>();
+
+  /**
+   * Number of test methods run by each class loader, either idle or in use.
+   */
+  private final Map<IsolatingClassLoader, Integer> usages =
+      new IdentityHashMap<IsolatingClassLoader, Integer>();
+
+  private boolean closed = false;
+
+  /**
+   * 
+   * @param classpathURLs
+   * @param testsPerClassLoader maximum number of test methods run by each class loader before it
+   *        is recycled (<code>1</code> for a new class loader per test method, any value lower than 1
+   *        means no limit)
+   */
+  public ClassLoaderPool(final URL[] classpathURLs, final int testsPerClassLoader) {
+    this.classpathURLs = classpathURLs;
+    this.testsPerClassLoader = testsPerClassLoader < 1 ? Integer.MAX_VALUE : testsPerClassLoader;
+  }
+
+  /**
+   * Returns an idle class loader of an isolation group, or a new one if there is none.
+   * 
+   * @param isolationGroup
+   * @return a class loader that is not used by any other test method
+   */
+  public synchronized IsolatingClassLoader acquire(final String isolationGroup) {
+    if (this.closed) {
+      throw new IllegalStateException("Class loader pool has been closed");
+    }
+
+    Deque<IsolatingClassLoader> classLoaders = this.idle.get(isolationGroup);
+    if (classLoaders != null && !classLoaders.isEmpty()) {
+      return classLoaders.pop();
+    }
+
+    // Create a new isolated classloader with the one that runs GZoltar as base classloader.
+    IsolatingClassLoader classLoader =
+        new IsolatingClassLoader(this.classpathURLs, ClassLoader.getSystemClassLoader());
+    this.usages.put(classLoader, 0);
+    return classLoader;
+  }
+
+  /**
+   * Returns a class loader to the pool once its test method has finished.
+   * 
+   * @param isolationGroup the isolation group for which the class loader has been acquired
+   * @param classLoader
+   * @param reusable whether the class loader may run other test methods, i.e., whether its test
+   *        method has finished normally
+   * @throws IOException
+   */
+  public void release(final String isolationGroup, final IsolatingClassLoader classLoader,
+      final boolean reusable) throws IOException {
+    synchronized (this) {
+      Integer usage = this.usages.get(classLoader);
+      if (usage == null) {
+        throw new IllegalArgumentException("Class loader does not belong to this pool");
+      }
+      usage = usage + 1;
+
+      if (reusable && !this.closed && usage < this.testsPerClassLoader) {
+        this.usages.put(classLoader, usage);
+        Deque<IsolatingClassLoader> classLoaders = this.idle.get(isolationGroup);
+        if (classLoaders == null) {
+          classLoaders = new ArrayDeque<IsolatingClassLoader>();
+          this.idle.put(isolationGroup, classLoaders);
+        }
+        classLoaders.push(classLoader);
+        return;
+      }
+
+      this.usages.remove(classLoader);
+    }
+
+    if (reusable) {
+      classLoader.close();
+    }
+    // otherwise, its test method might still be running
+  }
+
+  /**
+   * Returns the number of class loaders created by this pool that have not been recycled yet.
+   * 
+   * @return
+   */
+  public synchronized int size() {
+    return this.usages.size();
+  }
+
+  /**
+   * Closes all idle class loaders. Class loaders in use are closed once they are released.
+   * 
+   * {@inheritDoc}
+   */
+  @Override
+  public void close() throws IOException {
+    Deque<IsolatingClassLoader> classLoaders = new ArrayDeque<IsolatingClassLoader>();
+    synchronized (this) {
+      this.closed = true;
+      for (Iterator<Deque<IsolatingClassLoader>> it = this.idle.values().iterator(); it
+          .hasNext();) {
+        for (IsolatingClassLoader classLoader : it.next()) {
+          this.usages.remove(classLoader);
+          classLoaders.add(classLoader);
+        }
+        it.remove();
+      }
+    }
+
+    IOException exception = null;
+    for (IsolatingClassLoader classLoader : classLoaders) {
+      try {
+        classLoader.close();
+      } catch (IOException e) {
+        exception = e;
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+}
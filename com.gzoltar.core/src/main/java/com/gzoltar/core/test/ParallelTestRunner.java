@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.test;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.TransactionScope;
+
+/**
+ * Runs test methods on several threads. As with {@link TestRunner}, each test method runs on its
+ * own thread with a {@link com.gzoltar.core.util.IsolatingClassLoader} of a {@link ClassLoaderPool}
+ * that no other test method uses at the same time. Each test method is also bound to its own
+ * {@link TransactionScope}, so the coverage of test methods running at the same time is collected
+ * separately (the classes loaded by a previous test method in the same class loader hand their hit
+ * arrays over to the scope of the current one). Transactions are added to the spectrum in the order
+ * of the test methods, not in the order in which they finish.
+ * 
+ * Test methods share the JVM, therefore the ones that depend on global state (e.g., system
+ * properties, the working directory) should be run with {@link TestRunner}.
+ */
+public class ParallelTestRunner {
+
+  private final ClassLoaderPool classLoaderPool;
+
+  private final int parallelism;
+
+  private final long timeout;
+
+  /**
+   * 
+   * @param classpathURLs
+   * @param parallelism number of test methods run at the same time, any value lower than 1 means
+   *        one per available processor
+   * @param timeout maximum number of milliseconds each test method may run for (<code>0</code> for
+   *        no limit)
+   */
+  public ParallelTestRunner(final URL[] classpathURLs, final int parallelism, final long timeout) {
+    this(new ClassLoaderPool(classpathURLs, 1), parallelism, timeout);
+  }
+
+  /**
+   * 
+   * @param classLoaderPool pool of the class loaders in which test methods are run
+   * @param parallelism number of test methods run at the same time, any value lower than 1 means
+   *        one per available processor
+   * @param timeout maximum number of milliseconds each test method may run for (<code>0</code> for
+   *        no limit)
+   */
+  public ParallelTestRunner(final ClassLoaderPool classLoaderPool, final int parallelism,
+      final long timeout) {
+    this.classLoaderPool = classLoaderPool;
+    this.parallelism = parallelism < 1 ? Runtime.getRuntime().availableProcessors() : parallelism;
+    this.timeout = timeout;
+  }
+
+  /**
+   * Runs all test methods and waits for them to finish.
+   * 
+   * @param testTasks
+   * @return the result of each test method, in the same order as the test methods (
+   *         <code>null</code> for test methods that could not be run or have timed out)
+   * @throws InterruptedException
+   */
+  public List<TestResult> run(final List<TestTask> testTasks) throws InterruptedException {
+    final TestResult[] results = new TestResult[testTasks.size()];
+    final OrderedTransactions transactions = new OrderedTransactions(testTasks.size());
+
+    ExecutorService executor =
+        Executors.newFixedThreadPool(this.parallelism, new ThreadFactory() {
+          private final AtomicInteger counter = new AtomicInteger();
+
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            Thread thread =
+                new Thread(runnable, "gzoltar-test-runner-" + this.counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+
+    try {
+      for (int i = 0; i < testTasks.size(); i++) {
+        final int index = i;
+        final TestTask testTask = testTasks.get(i);
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            // bound to the thread of the test method as well, as it is created by this thread
+            TransactionScope scope = new TransactionScope(true);
+            Collector.instance().bindScope(scope);
+            try {
+              results[index] = TestRunner.run(classLoaderPool, testTask, timeout);
+            } finally {
+              Collector.instance().unbindScope();
+              transactions.end(index, scope);
+            }
+          }
+        });
+      }
+    } finally {
+      executor.shutdown();
+    }
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Adds the transactions of each test method to the spectrum once the transactions of all
+   * previous test methods have been added.
+   */
+  private static final class OrderedTransactions {
+
+    private final TransactionScope[] scopes;
+
+    private int next = 0;
+
+    private OrderedTransactions(final int numberOfTestMethods) {
+      this.scopes = new TransactionScope[numberOfTestMethods];
+    }
+
+    private synchronized void end(final int index, final TransactionScope scope) {
+      this.scopes[index] = scope;
+      while (this.next < this.scopes.length && this.scopes[this.next] != null) {
+        Collector.instance().endDeferredTransactions(this.scopes[this.next]);
+        // release the scope, and its hit arrays
+        this.scopes[this.next] = null;
+        this.next++;
+      }
+    }
+  }
+
+}
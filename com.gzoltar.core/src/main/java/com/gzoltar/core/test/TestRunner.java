@@ -16,38 +16,108 @@
  */
 package com.gzoltar.core.test;
 
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.TransactionScope;
 import com.gzoltar.core.util.IsolatingClassLoader;
 
 import java.io.IOException;
 import java.net.URL;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class TestRunner {
 
   public static TestResult run(final URL[] classpathURLs, final TestTask testTask) {
+    return run(classpathURLs, testTask, 0L);
+  }
+
+  /**
+   * Runs a test method on its own thread, with its own {@link IsolatingClassLoader}.
+   * 
+   * @param classpathURLs
+   * @param testTask
+   * @param timeout maximum number of milliseconds the test method may run for (<code>0</code> for
+   *        no limit)
+   * @return the result of the test method, or <code>null</code> if it could not be run or has
+   *         timed out
+   */
+  public static TestResult run(final URL[] classpathURLs, final TestTask testTask,
+      final long timeout) {
+    ClassLoaderPool classLoaderPool = new ClassLoaderPool(classpathURLs, 1);
+    return run(classLoaderPool, testTask, timeout);
+  }
+
+  /**
+   * Runs a test method on its own thread, with an {@link IsolatingClassLoader} of the provided
+   * pool that is not used by any other test method at the same time.
+   * 
+   * @param classLoaderPool
+   * @param testTask
+   * @param timeout maximum number of milliseconds the test method may run for (<code>0</code> for
+   *        no limit)
+   * @return the result of the test method, or <code>null</code> if it could not be run or has
+   *         timed out
+   */
+  public static TestResult run(final ClassLoaderPool classLoaderPool, final TestTask testTask,
+      final long timeout) {
     FutureTask<TestResult> task = new FutureTask<TestResult>(testTask);
     ThreadGroup group = new ThreadGroup("[thread group for " + testTask.toString() + "]");
-    Thread thread = new Thread(group, task, "[thread for " + testTask.toString() + "]");
-    // Create a new isolated classloader with the one that runs GZoltar as base classloader.
-    IsolatingClassLoader classLoader = new IsolatingClassLoader(classpathURLs, ClassLoader.getSystemClassLoader());
+    // unless a scope has already been bound (e.g., by ParallelTestRunner), the test method is bound
+    // to a scope of its own, so that a test method that has timed out (and that might still be
+    // running) does not add its coverage to the transactions of the next test methods
+    boolean bindScope = !Collector.instance().isScopeBound();
+    if (bindScope) {
+      Collector.instance().bindScope(new TransactionScope());
+    }
+    Thread thread;
+    try {
+      // the scope is inherited by the thread of the test method
+      thread = new Thread(group, task, "[thread for " + testTask.toString() + "]");
+    } finally {
+      if (bindScope) {
+        Collector.instance().unbindScope();
+      }
+    }
+    String isolationGroup = testTask.getIsolationGroup();
+    IsolatingClassLoader classLoader = classLoaderPool.acquire(isolationGroup);
     // Make the isolating classloader the thread's new classloader.
     thread.setContextClassLoader(classLoader);
     // Start
     thread.start();
     try {
-      TestResult result = task.get();
-      classLoader.close();
+      TestResult result = timeout > 0L ? task.get(timeout, TimeUnit.MILLISECONDS) : task.get();
+      classLoaderPool.release(isolationGroup, classLoader, true);
       return result;
+    } catch (TimeoutException e) {
+      System.err.println(testTask.toString() + " has timed out after " + timeout + " ms");
+      // the thread group cannot be destroyed while the test is still running
+      killThreadGroup(group);
+      thread.interrupt();
+      discard(classLoaderPool, isolationGroup, classLoader);
     } catch (ExecutionException | InterruptedException | IOException e) {
       e.printStackTrace();
       killThreadGroup(group);
       thread.interrupt();
       group.destroy();
+      discard(classLoaderPool, isolationGroup, classLoader);
     }
     return null;
   }
 
+  /**
+   * Makes sure a class loader whose test method has not finished normally is not reused.
+   */
+  private static void discard(final ClassLoaderPool classLoaderPool, final String isolationGroup,
+      final IsolatingClassLoader classLoader) {
+    try {
+      classLoaderPool.release(isolationGroup, classLoader, false);
+    } catch (IOException | IllegalArgumentException e) {
+      // already released
+    }
+  }
+
   /**
    * Iterates over all threads in provided group and interrupts each thread.
    */
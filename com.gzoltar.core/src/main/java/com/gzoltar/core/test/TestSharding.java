@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.spectrum.TransactionReader;
+
+/**
+ * Partitions test methods into shards of similar runtime, e.g., to run each shard in its own JVM.
+ */
+public final class TestSharding {
+
+  private TestSharding() {
+    // no instance
+  }
+
+  /**
+   * Reads the runtime of each transaction of a spectrum file.
+   * 
+   * @param dataFile
+   * @return <transaction name, runtime in nanoseconds>
+   * @throws IOException if the file is not a valid spectrum file
+   */
+  public static Map<String, Long> readRuntimes(final File dataFile) throws IOException {
+    Map<String, Long> runtimes = new HashMap<String, Long>();
+    TransactionReader reader =
+        new TransactionReader(new BufferedInputStream(new FileInputStream(dataFile)));
+    try {
+      Transaction transaction;
+      while ((transaction = reader.read()) != null) {
+        runtimes.put(transaction.getName(), transaction.getRuntime());
+      }
+    } finally {
+      reader.close();
+    }
+    return runtimes;
+  }
+
+  /**
+   * Partitions test methods into shards. The longest test methods are assigned first, each one to
+   * the shard with the lowest total runtime so far. Test methods without a known runtime are
+   * assumed to take as long as the average known one. Within a shard, test methods keep their
+   * original order.
+   * 
+   * @param testMethods
+   * @param runtimes <test method name, runtime>, e.g., from {@link #readRuntimes(File)}
+   * @param numberOfShards
+   * @return at most <code>numberOfShards</code> non-empty shards
+   */
+  public static List<List<TestMethod>> partition(final List<TestMethod> testMethods,
+      final Map<String, Long> runtimes, final int numberOfShards) {
+    final long[] testRuntimes = new long[testMethods.size()];
+    long knownRuntime = 0L;
+    int numberOfKnownRuntimes = 0;
+    for (int i = 0; i < testMethods.size(); i++) {
+      Long runtime = runtimes.get(testMethods.get(i).getLongName());
+      if (runtime != null) {
+        testRuntimes[i] = runtime;
+        knownRuntime += runtime;
+        numberOfKnownRuntimes++;
+      } else {
+        testRuntimes[i] = -1L;
+      }
+    }
+    long defaultRuntime = numberOfKnownRuntimes == 0 ? 1L : knownRuntime / numberOfKnownRuntimes;
+    List<Integer> indexes = new ArrayList<Integer>();
+    for (int i = 0; i < testRuntimes.length; i++) {
+      if (testRuntimes[i] < 0L) {
+        testRuntimes[i] = defaultRuntime;
+      }
+      // every test method counts, however short it is
+      testRuntimes[i] = Math.max(1L, testRuntimes[i]);
+      indexes.add(i);
+    }
+
+    // longest first, ties in original order
+    Collections.sort(indexes, new Comparator<Integer>() {
+      @Override
+      public int compare(final Integer a, final Integer b) {
+        if (testRuntimes[a] != testRuntimes[b]) {
+          return testRuntimes[a] > testRuntimes[b] ? -1 : 1;
+        }
+        return a.compareTo(b);
+      }
+    });
+
+    final int n = Math.max(1, Math.min(numberOfShards, testMethods.size()));
+    long[] shardRuntimes = new long[n];
+    int[] shardOf = new int[testMethods.size()];
+    for (int index : indexes) {
+      int shard = 0;
+      for (int i = 1; i < n; i++) {
+        if (shardRuntimes[i] < shardRuntimes[shard]) {
+          shard = i;
+        }
+      }
+      shardRuntimes[shard] += testRuntimes[index];
+      shardOf[index] = shard;
+    }
+
+    List<List<TestMethod>> shards = new ArrayList<List<TestMethod>>();
+    for (int i = 0; i < n; i++) {
+      shards.add(new ArrayList<TestMethod>());
+    }
+    for (int i = 0; i < testMethods.size(); i++) {
+      shards.get(shardOf[i]).add(testMethods.get(i));
+    }
+    for (int i = shards.size() - 1; i >= 0; i--) {
+      if (shards.get(i).isEmpty()) {
+        shards.remove(i);
+      }
+    }
+    return shards;
+  }
+
+}
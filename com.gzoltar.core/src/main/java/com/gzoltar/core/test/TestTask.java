@@ -55,6 +55,16 @@ public abstract class TestTask implements Callable<TestResult> {
     return this.testMethod;
   }
 
+  /**
+   * Returns the isolation group of the test method, i.e., the test methods that may share a class
+   * loader (see {@link ClassLoaderPool}). By default, the test methods of the same test class.
+   * 
+   * @return
+   */
+  public String getIsolationGroup() {
+    return this.testMethod.getTestClassName();
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -40,4 +40,101 @@ public final class ArrayUtils {
     return false;
   }
 
+  // === Bit arrays ===
+
+  /**
+   * Returns the number of <code>long</code> words required to store a given number of bits.
+   * 
+   * @param numberOfBits
+   * @return
+   */
+  public static int numberOfWords(final int numberOfBits) {
+    return (numberOfBits + 63) >>> 6;
+  }
+
+  /**
+   * Packs the first <code>length</code> values of a boolean array into a bit array.
+   * 
+   * @param arr boolean array
+   * @param length number of values to pack
+   * @return a bit array in which bit <code>i</code> is set iff <code>arr[i]</code> is
+   *         <code>true</code>
+   */
+  public static long[] toBitArray(final boolean[] arr, final int length) {
+    long[] bits = new long[numberOfWords(length)];
+    for (int i = 0; i < length; i++) {
+      if (arr[i]) {
+        bits[i >>> 6] |= 1L << i;
+      }
+    }
+    return bits;
+  }
+
+  /**
+   * Packs a boolean array into a bit array.
+   * 
+   * @param arr boolean array
+   * @return a bit array in which bit <code>i</code> is set iff <code>arr[i]</code> is
+   *         <code>true</code>
+   */
+  public static long[] toBitArray(final boolean[] arr) {
+    return toBitArray(arr, arr.length);
+  }
+
+  /**
+   * Unpacks a bit array into a boolean array.
+   * 
+   * @param bits bit array
+   * @param length number of values to unpack
+   * @return
+   */
+  public static boolean[] toBooleanArray(final long[] bits, final int length) {
+    boolean[] arr = new boolean[length];
+    for (int i = 0; i < length; i++) {
+      arr[i] = (bits[i >>> 6] & (1L << i)) != 0;
+    }
+    return arr;
+  }
+
+  /**
+   * Checks whether a specific bit of a bit array is set.
+   * 
+   * @param bits bit array
+   * @param index index of the bit
+   * @return
+   */
+  public static boolean isBitSet(final long[] bits, final int index) {
+    return (bits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   * Sets a specific bit of a bit array.
+   * 
+   * @param bits bit array
+   * @param index index of the bit
+   */
+  public static void setBit(final long[] bits, final int index) {
+    bits[index >>> 6] |= 1L << index;
+  }
+
+  /**
+   * Checks whether any bit of a bit array is set.
+   * 
+   * @param bits bit array
+   * @return
+   */
+  public static boolean containsBit(final long[] bits) {
+    if (bits == null) {
+      return false;
+    }
+
+    for (int i = 0; i < bits.length; i++) {
+      if (bits[i] != 0L) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
 }
@@ -23,16 +23,46 @@ public final class SerialisationIdentifiers {
 
   static {
     // Runtime initialise to ensure the compiler does not inline the value.
-    FORMAT_VERSION = 0x0001;
+    FORMAT_VERSION = 0x0002;
   }
 
+  /**
+   * First file format version, without probeGroup blocks. Spectra in this version can only be read
+   * by re-instrumenting the classes of the build location.
+   */
+  public static final char FORMAT_VERSION_1 = 0x0001;
+
   /** Magic number in header for file format identification. */
   public static final char MAGIC_NUMBER = 0xC0C0;
 
+  /** Magic number in the footer of indexed spectrum files. */
+  public static final char INDEX_MAGIC_NUMBER = 0xC0C1;
+
   /** Block identifier for file headers. */
   public static final byte BLOCK_HEADER = 0x01;
 
   /** Block identifier for transaction information. */
   public static final byte BLOCK_TRANSACTION = 0x10;
 
+  /**
+   * Block identifier for probeGroup information, i.e., the class, methods, and probes of a
+   * probeGroup. Written once per stream, before the first transaction that executes it.
+   */
+  public static final byte BLOCK_PROBE_GROUP = 0x20;
+
+  /**
+   * Frame identifier for the first message of a connection of the messaging protocol, i.e., the id
+   * of the client.
+   */
+  public static final byte FRAME_HANDSHAKE = 0x40;
+
+  /**
+   * Frame identifier for spectrum data of the messaging protocol, i.e., a batch of probeGroup and
+   * transaction blocks in the same format as spectrum data files.
+   */
+  public static final byte FRAME_DATA = 0x41;
+
+  /** Frame identifier for the last message of a connection of the messaging protocol. */
+  public static final byte FRAME_BYE = 0x42;
+
 }
@@ -45,8 +45,14 @@ public class TestAgentConfigs {
     assertEquals(AgentConfigs.DEFAULT_INCLNOLOCATIONCLASSES,
         agentConfigs.getInclNoLocationClasses());
     assertEquals(AgentConfigs.DEFAULT_OUTPUT, agentConfigs.getOutput());
+    assertEquals(AgentConfigs.DEFAULT_OUTPUTQUEUESIZE, agentConfigs.getOutputQueueSize());
+    assertEquals(AgentConfigs.DEFAULT_OUTPUTOVERFLOW, agentConfigs.getOutputOverflow());
     assertEquals(AgentConfigs.DEFAULT_GRANULARITY, agentConfigs.getGranularity());
+    assertEquals(AgentConfigs.DEFAULT_INFERPROBES, agentConfigs.getInferProbes());
+    assertEquals(AgentConfigs.DEFAULT_FOCUSED, agentConfigs.getFocused());
     assertEquals(AgentConfigs.DEFAULT_INCLPUBLICMETHODS, agentConfigs.getInclPublicMethods());
+    assertEquals(AgentConfigs.DEFAULT_INSTRUMENTATIONCACHE,
+        agentConfigs.getInstrumentationCache());
   }
 
   @Test
@@ -135,6 +141,30 @@ public class TestAgentConfigs {
     assertEquals(value, agentConfigs.getInclNoLocationClasses());
   }
 
+  @Test
+  public void testInferProbes() {
+    String key = AgentConfigs.INFERPROBES_KEY;
+    Boolean value = true;
+    AgentConfigs agentConfigs = new AgentConfigs(key + "=" + value);
+    assertEquals(value, agentConfigs.getInferProbes());
+
+    agentConfigs = new AgentConfigs();
+    agentConfigs.setInferProbes(value);
+    assertEquals(value, agentConfigs.getInferProbes());
+  }
+
+  @Test
+  public void testFocused() {
+    String key = AgentConfigs.FOCUSED_KEY;
+    Boolean value = true;
+    AgentConfigs agentConfigs = new AgentConfigs(key + "=" + value);
+    assertEquals(value, agentConfigs.getFocused());
+
+    agentConfigs = new AgentConfigs();
+    agentConfigs.setFocused(value);
+    assertEquals(value, agentConfigs.getFocused());
+  }
+
   @Test
   public void testOutput() {
     String key = AgentConfigs.OUTPUT_KEY;
@@ -151,6 +181,46 @@ public class TestAgentConfigs {
     assertEquals(value, agentConfigs.getOutput());
   }
 
+  @Test
+  public void testOutputQueueSize() {
+    String key = AgentConfigs.OUTPUTQUEUESIZE_KEY;
+    int value = 16;
+    AgentConfigs agentConfigs = new AgentConfigs(key + "=" + value);
+    assertEquals(value, agentConfigs.getOutputQueueSize());
+
+    agentConfigs = new AgentConfigs();
+    agentConfigs.setOutputQueueSize(value);
+    assertEquals(value, agentConfigs.getOutputQueueSize());
+  }
+
+  @Test
+  public void testOutputOverflow() {
+    String key = AgentConfigs.OUTPUTOVERFLOW_KEY;
+    AgentOutputOverflow value = AgentOutputOverflow.SPILL;
+    AgentConfigs agentConfigs = new AgentConfigs(key + "=" + value);
+    assertEquals(value, agentConfigs.getOutputOverflow());
+
+    agentConfigs = new AgentConfigs();
+    agentConfigs.setOutputOverflow(value);
+    assertEquals(value, agentConfigs.getOutputOverflow());
+
+    agentConfigs = new AgentConfigs();
+    agentConfigs.setOutputOverflow(value.toString());
+    assertEquals(value, agentConfigs.getOutputOverflow());
+  }
+
+  @Test
+  public void testInstrumentationCache() {
+    String key = AgentConfigs.INSTRUMENTATIONCACHE_KEY;
+    String value = "/tmp/gzoltar-cache";
+    AgentConfigs agentConfigs = new AgentConfigs(key + "=" + value);
+    assertEquals(value, agentConfigs.getInstrumentationCache());
+
+    agentConfigs = new AgentConfigs();
+    agentConfigs.setInstrumentationCache(value);
+    assertEquals(value, agentConfigs.getInstrumentationCache());
+  }
+
   @Test
   public void testGranularity() {
     String key = AgentConfigs.GRANULARITY_KEY;
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.gzoltar.examples.AnonymousClass;
+import org.gzoltar.examples.EnumClass;
+import org.gzoltar.examples.InnerClass;
+import org.gzoltar.examples.PublicModifiers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.model.Node;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.ProbeGroup;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+
+public class TestInstrumentationCache {
+
+  private static final String[] CLASSES = new String[] {AnonymousClass.class.getName(),
+      EnumClass.class.getName(), InnerClass.class.getName(), PublicModifiers.class.getName()};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File runtime;
+
+  @Before
+  public void beforeEachUnitTest() throws Exception {
+    Collector.restart();
+
+    // offline instrumented classes call the agent's runtime, which is not available to this
+    // module, therefore a stub is created
+    this.runtime = this.folder.newFolder("runtime");
+    CtClass offline = new ClassPool(true).makeClass("com.gzoltar.internal.agent.rt.Offline");
+    offline.addMethod(CtNewMethod.make("public static void getHitArray(Object[] a) {}", offline));
+    offline.addMethod(CtNewMethod.make("public static void markDirty(Object[] a) {}", offline));
+    offline.writeFile(this.runtime.getAbsolutePath());
+  }
+
+  private AgentConfigs createAgentConfigs(final File cache) {
+    AgentConfigs configs = new AgentConfigs();
+    configs.setInstrumentationLevel(InstrumentationLevel.OFFLINE);
+    configs.setInstrumentationCache(cache.getAbsolutePath());
+    return configs;
+  }
+
+  /**
+   * Instruments some classes, each one loaded by a brand new class pool.
+   */
+  private List<byte[]> instrument(final AgentConfigs configs) throws Exception {
+    ClassPool classPool = new ClassPool(true);
+    classPool.appendClassPath(this.runtime.getAbsolutePath());
+    Instrumenter instrumenter = new Instrumenter(configs, classPool);
+
+    List<byte[]> bytecodes = new ArrayList<byte[]>();
+    for (String className : CLASSES) {
+      bytecodes.add(instrumenter.instrument(classPool.get(className)));
+    }
+    return bytecodes;
+  }
+
+  private static List<Node> getNodes() {
+    List<Node> nodes = new ArrayList<Node>();
+    for (ProbeGroup probeGroup : Collector.instance().getSpectrum().getProbeGroups()) {
+      nodes.addAll(probeGroup.getNodes());
+    }
+    return nodes;
+  }
+
+  @Test
+  public void testCachedClasses() throws Exception {
+    File cache = this.folder.newFolder("cache");
+
+    List<byte[]> instrumented = this.instrument(this.createAgentConfigs(cache));
+    List<Node> nodes = getNodes();
+    assertEquals(CLASSES.length, cache.listFiles()[0].listFiles().length);
+
+    Collector.restart();
+
+    List<byte[]> cached = this.instrument(this.createAgentConfigs(cache));
+    assertEquals(instrumented.size(), cached.size());
+    for (int i = 0; i < instrumented.size(); i++) {
+      assertArrayEquals(instrumented.get(i), cached.get(i));
+    }
+
+    // probeGroups are registered as if classes had been instrumented
+    List<Node> cachedNodes = getNodes();
+    assertEquals(nodes.size(), cachedNodes.size());
+    for (int i = 0; i < nodes.size(); i++) {
+      assertEquals(nodes.get(i).getName(), cachedNodes.get(i).getName());
+      assertEquals(nodes.get(i).getLineNumber(), cachedNodes.get(i).getLineNumber());
+    }
+  }
+
+  @Test
+  public void testConfigurations() throws Exception {
+    File cache = this.folder.newFolder("cache");
+
+    AgentConfigs configs = this.createAgentConfigs(cache);
+    this.instrument(configs);
+    configs.setGranularity(GranularityLevel.METHOD);
+    this.instrument(configs);
+
+    // entries of different configurations are kept apart
+    assertEquals(2, cache.listFiles().length);
+  }
+
+  @Test
+  public void testInvalidEntry() throws Exception {
+    File cache = this.folder.newFolder("cache");
+    AgentConfigs configs = this.createAgentConfigs(cache);
+    this.instrument(configs);
+
+    InstrumentationCache instrumentationCache = new InstrumentationCache(cache, configs);
+    File entry = cache.listFiles()[0].listFiles()[0];
+    assertNotNull(instrumentationCache.load(entry.getName()));
+
+    FileOutputStream out = new FileOutputStream(entry);
+    out.write(new byte[] {0, 0, 0, 1});
+    out.close();
+    assertNull(instrumentationCache.load(entry.getName()));
+  }
+
+}
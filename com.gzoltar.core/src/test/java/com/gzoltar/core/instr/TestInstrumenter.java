@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.gzoltar.examples.AnonymousClass;
+import org.gzoltar.examples.EnumClass;
+import org.gzoltar.examples.InnerClass;
+import org.gzoltar.examples.PublicModifiers;
+import org.gzoltar.examples.PublicStaticModifiers;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.runtime.Collector;
+import javassist.ClassPool;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.FieldInfo;
+import javassist.bytecode.MethodInfo;
+
+public class TestInstrumenter {
+
+  private static final String[] CLASSES = new String[] {AnonymousClass.class.getName(),
+      EnumClass.class.getName(), InnerClass.class.getName(), PublicModifiers.class.getName(),
+      PublicStaticModifiers.class.getName()};
+
+  @Before
+  public void beforeEachUnitTest() {
+    Collector.restart();
+  }
+
+  private static ClassFile toClassFile(final byte[] bytecode) throws Exception {
+    return new ClassFile(new DataInputStream(new ByteArrayInputStream(bytecode)));
+  }
+
+  private static List<String> getFields(final ClassFile classFile) {
+    List<String> fields = new ArrayList<String>();
+    for (FieldInfo fieldInfo : classFile.getFields()) {
+      fields.add(
+          fieldInfo.getAccessFlags() + " " + fieldInfo.getName() + fieldInfo.getDescriptor());
+    }
+    return fields;
+  }
+
+  private static List<String> getMethods(final ClassFile classFile) {
+    List<String> methods = new ArrayList<String>();
+    for (MethodInfo methodInfo : classFile.getMethods()) {
+      methods.add(methodInfo.getAccessFlags() + " " + methodInfo.getName()
+          + methodInfo.getDescriptor());
+    }
+    return methods;
+  }
+
+  @Test
+  public void testInstrumentWithoutProbes() throws Exception {
+    Instrumenter instrumenter = new Instrumenter(new AgentConfigs());
+
+    for (String className : CLASSES) {
+      byte[] original = new ClassPool(true).get(className).toBytecode();
+      byte[] withProbes = instrumenter.instrument(new ClassPool(true).get(className));
+      byte[] withoutProbes =
+          instrumenter.instrumentWithoutProbes(new ClassPool(true).get(className));
+      assertNotNull(className, withProbes);
+      assertNotNull(className, withoutProbes);
+
+      // same fields and methods, so that one can be retransformed into the other
+      ClassFile instrumented = toClassFile(withProbes);
+      ClassFile stripped = toClassFile(withoutProbes);
+      assertEquals(className, getFields(instrumented), getFields(stripped));
+      assertEquals(className, getMethods(instrumented), getMethods(stripped));
+      assertFalse(className, getMethods(instrumented).equals(getMethods(toClassFile(original))));
+
+      // but the code of the original methods is left untouched
+      List<MethodInfo> originalMethods = toClassFile(original).getMethods();
+      for (MethodInfo methodInfo : originalMethods) {
+        if (methodInfo.getCodeAttribute() == null) {
+          continue;
+        }
+        for (MethodInfo strippedMethodInfo : stripped.getMethods()) {
+          if (strippedMethodInfo.getName().equals(methodInfo.getName())
+              && strippedMethodInfo.getDescriptor().equals(methodInfo.getDescriptor())) {
+            assertArrayEquals(className + "." + methodInfo.getName(),
+                methodInfo.getCodeAttribute().getCode(),
+                strippedMethodInfo.getCodeAttribute().getCode());
+          }
+        }
+      }
+    }
+  }
+
+}
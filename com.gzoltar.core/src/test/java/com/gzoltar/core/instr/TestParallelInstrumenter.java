@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.gzoltar.examples.EnumClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.runtime.Collector;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+
+public class TestParallelInstrumenter {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File examples;
+
+  private File runtime;
+
+  @Before
+  public void beforeEachUnitTest() throws Exception {
+    Collector.restart();
+    this.examples = new File(
+        new File(EnumClass.class.getProtectionDomain().getCodeSource().getLocation().toURI()),
+        "org" + File.separator + "gzoltar" + File.separator + "examples");
+
+    // offline instrumented classes call the agent's runtime, which is not available to this
+    // module, therefore a stub is created
+    this.runtime = this.folder.newFolder("runtime");
+    CtClass offline = new ClassPool(true).makeClass("com.gzoltar.internal.agent.rt.Offline");
+    offline.addMethod(CtNewMethod.make("public static void getHitArray(Object[] a) {}", offline));
+    offline.addMethod(CtNewMethod.make("public static void markDirty(Object[] a) {}", offline));
+    offline.writeFile(this.runtime.getAbsolutePath());
+    ClassPool.getDefault().appendClassPath(this.runtime.getAbsolutePath());
+  }
+
+  private static AgentConfigs createAgentConfigs() {
+    AgentConfigs configs = new AgentConfigs();
+    configs.setInstrumentationLevel(InstrumentationLevel.OFFLINE);
+    return configs;
+  }
+
+  /**
+   * Instrumenter on a brand new class pool, as classes of the default one might have been
+   * instrumented by other tests.
+   */
+  private Instrumenter createSerialInstrumenter() throws Exception {
+    ClassPool classPool = new ClassPool(true);
+    classPool.appendClassPath(this.runtime.getAbsolutePath());
+    return new Instrumenter(createAgentConfigs(), classPool);
+  }
+
+  private static byte[] read(final InputStream input) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int len;
+    while ((len = input.read(buffer)) != -1) {
+      output.write(buffer, 0, len);
+    }
+    return output.toByteArray();
+  }
+
+  private static List<Object[]> readEntries(final File jar) throws IOException {
+    List<Object[]> entries = new ArrayList<Object[]>();
+    ZipInputStream zip = new ZipInputStream(new FileInputStream(jar));
+    try {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        entries.add(new Object[] {entry.getName(), read(zip)});
+      }
+    } finally {
+      zip.close();
+    }
+    return entries;
+  }
+
+  @Test
+  public void testDirectory() throws Exception {
+    File serial = this.folder.newFolder("serial");
+    int numSerialClasses = createSerialInstrumenter().instrumentRecursively(this.examples, serial);
+
+    Collector.restart();
+
+    File parallel = this.folder.newFolder("parallel");
+    int numParallelClasses = new ParallelInstrumenter(createAgentConfigs(), 4)
+        .instrumentRecursively(this.examples, parallel);
+
+    assertTrue(numSerialClasses > 0);
+    assertEquals(numSerialClasses, numParallelClasses);
+
+    List<File> serialFiles = new ArrayList<File>(FileUtils.listFiles(serial, null, true));
+    assertEquals(serialFiles.size(), FileUtils.listFiles(parallel, null, true).size());
+    for (File serialFile : serialFiles) {
+      String path = serialFile.getAbsolutePath().substring(serial.getAbsolutePath().length());
+      File parallelFile = new File(parallel, path);
+      assertArrayEquals(serialFile.getPath(), FileUtils.readFileToByteArray(serialFile),
+          FileUtils.readFileToByteArray(parallelFile));
+    }
+  }
+
+  @Test
+  public void testJar() throws Exception {
+    File jar = this.folder.newFile("examples.jar");
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      for (File file : FileUtils.listFiles(this.examples, null, true)) {
+        zip.putNextEntry(new ZipEntry(
+            file.getAbsolutePath().substring(this.examples.getAbsolutePath().length() + 1)));
+        zip.write(FileUtils.readFileToByteArray(file));
+        zip.closeEntry();
+      }
+    } finally {
+      zip.close();
+    }
+
+    File serial = new File(this.folder.getRoot(), "serial.jar");
+    int numSerialClasses = createSerialInstrumenter().instrument(jar, serial);
+
+    Collector.restart();
+
+    // fewer threads than entries, so that entries wait to be written
+    File parallel = new File(this.folder.getRoot(), "parallel.jar");
+    int numParallelClasses =
+        new ParallelInstrumenter(createAgentConfigs(), 2).instrument(jar, parallel);
+
+    assertTrue(numSerialClasses > 0);
+    assertEquals(numSerialClasses, numParallelClasses);
+
+    List<Object[]> serialEntries = readEntries(serial);
+    List<Object[]> parallelEntries = readEntries(parallel);
+    assertEquals(serialEntries.size(), parallelEntries.size());
+    for (int i = 0; i < serialEntries.size(); i++) {
+      assertEquals(serialEntries.get(i)[0], parallelEntries.get(i)[0]);
+      assertArrayEquals((String) serialEntries.get(i)[0], (byte[]) serialEntries.get(i)[1],
+          (byte[]) parallelEntries.get(i)[1]);
+    }
+  }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ *
+ * This file is part of GZoltar.
+ *
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr.granularity;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import org.junit.Test;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.Loader;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+
+public class TestProbePlacement {
+
+  private static final String CLASS_NAME = "org.gzoltar.examples.ProbePlacement";
+
+  private static final String METHOD = "public static int run(int x) { "
+      + "int s = 0; "
+      + "for (int i = 0; i < x; i++) { s += i; if (s > 10) { s -= 3; } } "
+      + "if (x < 0) { s = 100 / (x + 5); } "
+      + "switch (x) { case 1: s++; break; case 7: s--; break; default: s += 2; } "
+      + "try { s += Integer.parseInt(x == 3 ? \"foo\" : \"1\"); } "
+      + "catch (RuntimeException e) { s = 0; } "
+      + "return s; }";
+
+  private static final int[] INPUTS = new int[] {-5, -1, 0, 1, 3, 7, 20};
+
+  /**
+   * Instrumented version of {@link #METHOD}.
+   */
+  private static final class Instrumented {
+
+    private final Method method;
+
+    private final boolean allProbes;
+
+    private final boolean[] hits;
+
+    private final ProbePlacement probePlacement;
+
+    private final NavigableMap<Integer, Integer> probes;
+
+    Instrumented(final Method method, final boolean allProbes,
+        final ProbePlacement probePlacement, final NavigableMap<Integer, Integer> probes)
+        throws Exception {
+      this.method = method;
+      this.allProbes = allProbes;
+      this.hits = (boolean[]) method.getDeclaringClass().getField("hits").get(null);
+      this.probePlacement = probePlacement;
+      this.probes = probes;
+    }
+
+    /**
+     * Runs the method, and returns the hits of all probes, i.e., placed and inferred.
+     */
+    boolean[] run(final int x) throws Exception {
+      Arrays.fill(this.hits, false);
+      try {
+        this.method.invoke(null, x);
+      } catch (InvocationTargetException e) {
+        // e.g., division by zero
+      }
+
+      boolean[] hits = this.hits.clone();
+      if (this.allProbes) {
+        return hits;
+      }
+      for (Map.Entry<Integer, Integer> probe : this.probes.entrySet()) {
+        if (this.probePlacement.getSources(probe.getKey()) == null) {
+          continue;
+        }
+        for (Integer source : this.probePlacement.getSources(probe.getKey())) {
+          if (this.hits[this.probes.get(source)]) {
+            hits[probe.getValue()] = true;
+          }
+        }
+      }
+      return hits;
+    }
+  }
+
+  /**
+   * Places a probe before every instruction of {@link #METHOD}, or only the probes that cannot be
+   * inferred. Probes of every three instructions share their slot, as probes of the same line do.
+   */
+  private static Instrumented instrument(final boolean allProbes) throws Exception {
+    ClassPool classPool = new ClassPool(true);
+    CtClass ctClass = classPool.makeClass(CLASS_NAME);
+    CtMethod ctMethod = CtMethod.make(METHOD, ctClass);
+    ctClass.addMethod(ctMethod);
+
+    MethodInfo methodInfo = ctMethod.getMethodInfo();
+    CodeAttribute ca = methodInfo.getCodeAttribute();
+    NavigableMap<Integer, Integer> probes = new TreeMap<Integer, Integer>();
+    CodeIterator ci = ca.iterator();
+    while (ci.hasNext()) {
+      int index = ci.next();
+      probes.put(index, index / 3);
+    }
+    ProbePlacement probePlacement = new ProbePlacement(methodInfo, probes);
+
+    // from the last instruction, so that the indexes of the others do not change
+    int numberOfSlots = 0;
+    for (Map.Entry<Integer, Integer> probe : probes.descendingMap().entrySet()) {
+      numberOfSlots = Math.max(numberOfSlots, probe.getValue() + 1);
+      if (!allProbes && probePlacement.getSources(probe.getKey()) != null) {
+        continue;
+      }
+      Bytecode b = new Bytecode(methodInfo.getConstPool());
+      b.addGetstatic(ctClass, "hits", "[Z");
+      b.addIconst(probe.getValue());
+      b.addOpcode(Opcode.ICONST_1);
+      b.addOpcode(Opcode.BASTORE);
+      ca.iterator().insert(probe.getKey(), b.get());
+    }
+
+    ctClass.addField(CtField.make("public static boolean[] hits;", ctClass),
+        CtField.Initializer.byExpr("new boolean[" + numberOfSlots + "]"));
+    ca.setMaxStack(ca.computeMaxStack());
+    methodInfo.rebuildStackMapIf6(classPool, ctClass.getClassFile());
+
+    Method method = new Loader(classPool).loadClass(CLASS_NAME).getMethod("run", int.class);
+    return new Instrumented(method, allProbes, probePlacement, probes);
+  }
+
+  @Test
+  public void testInferredProbes() throws Exception {
+    Instrumented all = instrument(true);
+    assertTrue(all.probePlacement.getNumberOfInferredProbes() > 0);
+  }
+
+  @Test
+  public void testSameHits() throws Exception {
+    Instrumented all = instrument(true);
+    Instrumented placed = instrument(false);
+
+    for (int x : INPUTS) {
+      assertArrayEquals("x = " + x, all.run(x), placed.run(x));
+    }
+  }
+
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr.pass;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.gzoltar.core.instr.InstrumentationConstants;
+import com.gzoltar.core.instr.Outcome;
+import com.gzoltar.core.instr.filter.EmptyMethodFilter;
+import com.gzoltar.core.model.NodeFactory;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.util.MD5;
+import javassist.ClassPool;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+
+/**
+ * Compares the time taken to add GZoltar's field and init method (and a call to it in every
+ * method) to a class by emitting bytecode, i.e., {@link FieldPass} and
+ * {@link OfflineInitMethodPass}, with the time taken by compiling the equivalent source code with
+ * javassist's compiler (as GZoltar used to do). Usage:
+ * 
+ * <pre>
+ * InitMethodPassBenchmark [iterations] [class names]
+ * </pre>
+ */
+public final class InitMethodPassBenchmark {
+
+  private static final String OFFLINE_CLASS_NAME = "com.gzoltar.internal.agent.rt.Offline";
+
+  private static final String[] DEFAULT_CLASSES = new String[] {
+      "org.gzoltar.examples.PublicModifiers", "org.gzoltar.examples.AnonymousClass",
+      "org.gzoltar.examples.InnerClass", "org.apache.commons.lang3.StringUtils",
+      "javassist.bytecode.CodeIterator", "javassist.CtClassType"};
+
+  private static final String SOURCE_FIELD = "boolean[] " + InstrumentationConstants.FIELD_NAME
+      + " = null;";
+
+  private static final String SOURCE_INIT_METHOD = "void "
+      + InstrumentationConstants.INIT_METHOD_NAME + "() { "
+      + "if (" + InstrumentationConstants.FIELD_NAME + " == null) { "
+      + "Object[] $tmpGZoltarData = new Object[] { \"%1$s\",\"%2$s\",\"%3$d\" }; "
+      + OFFLINE_CLASS_NAME + ".getHitArray($tmpGZoltarData); "
+      + InstrumentationConstants.FIELD_NAME + " = (boolean[]) $tmpGZoltarData[0]; "
+      + "} "
+      + "if (!" + InstrumentationConstants.FIELD_NAME + "[%3$d]) { "
+      + InstrumentationConstants.FIELD_NAME + "[%3$d] = true; "
+      + "Object[] $tmpGZoltarDirty = new Object[] { \"%1$s\", "
+      + InstrumentationConstants.FIELD_NAME + " }; "
+      + OFFLINE_CLASS_NAME + ".markDirty($tmpGZoltarDirty); "
+      + "}"
+      + "}";
+
+  private static final EmptyMethodFilter EMPTY_METHOD_FILTER = new EmptyMethodFilter();
+
+  private InitMethodPassBenchmark() {
+    // no instance
+  }
+
+  private interface Backend {
+    void transform(CtClass ctClass, String hash, int numberOfProbes) throws Exception;
+  }
+
+  /**
+   * Compiles source code, as GZoltar used to do.
+   */
+  private static final Backend SOURCE = new Backend() {
+    @Override
+    public void transform(final CtClass ctClass, final String hash, final int numberOfProbes)
+        throws Exception {
+      CtField field = CtField.make(SOURCE_FIELD, ctClass);
+      field.setModifiers(field.getModifiers() | InstrumentationConstants.FIELD_ACC);
+      ctClass.addField(field);
+
+      CtMethod init = CtMethod.make(
+          String.format(SOURCE_INIT_METHOD, hash, ctClass.getName(), numberOfProbes), ctClass);
+      init.setModifiers(init.getModifiers() | InstrumentationConstants.INIT_METHOD_ACC);
+      ctClass.addMethod(init);
+
+      for (CtBehavior ctBehavior : getBehaviors(ctClass)) {
+        ctBehavior.insertBefore(InstrumentationConstants.INIT_METHOD_NAME + "();");
+      }
+    }
+  };
+
+  /**
+   * Emits bytecode.
+   */
+  private static final Backend BYTECODE = new Backend() {
+    @Override
+    public void transform(final CtClass ctClass, final String hash, final int numberOfProbes)
+        throws Exception {
+      new FieldPass().transform(ctClass);
+
+      OfflineInitMethodPass initMethodPass = new OfflineInitMethodPass();
+      initMethodPass.setHash(hash);
+      initMethodPass.transform(ctClass);
+
+      StackSizePass stackSizePass = new StackSizePass();
+      for (CtBehavior ctBehavior : getBehaviors(ctClass)) {
+        initMethodPass.transform(ctClass, ctBehavior);
+        stackSizePass.transform(ctClass, ctBehavior);
+      }
+    }
+  };
+
+  private static List<CtBehavior> getBehaviors(final CtClass ctClass) {
+    List<CtBehavior> behaviors = new ArrayList<CtBehavior>();
+    for (CtBehavior ctBehavior : ctClass.getDeclaredBehaviors()) {
+      if (!ctBehavior.getName().equals(InstrumentationConstants.INIT_METHOD_NAME)
+          && EMPTY_METHOD_FILTER.filter(ctBehavior) == Outcome.ACCEPT) {
+        behaviors.add(ctBehavior);
+      }
+    }
+    return behaviors;
+  }
+
+  /**
+   * Returns the time (in nanoseconds) taken to transform all classes, each one loaded by a brand
+   * new class pool.
+   */
+  private static long run(final Backend backend, final String[] classNames) throws Exception {
+    long time = 0L;
+    for (String className : classNames) {
+      ClassPool classPool = new ClassPool(true);
+      CtClass offline = classPool.makeClass(OFFLINE_CLASS_NAME);
+      offline.addMethod(CtMethod.make("public static void getHitArray(Object[] a) {}", offline));
+      offline.addMethod(CtMethod.make("public static void markDirty(Object[] a) {}", offline));
+
+      CtClass ctClass = classPool.get(className);
+      String hash = MD5.calculateHash(ctClass.toBytecode());
+      ctClass.defrost();
+      // a probe per behaviour, just so the probeGroup is registered
+      ProbeGroup probeGroup = new ProbeGroup(hash, ctClass);
+      for (CtBehavior ctBehavior : getBehaviors(ctClass)) {
+        probeGroup.registerProbe(NodeFactory.createNode(ctClass, ctBehavior,
+            ctBehavior.getMethodInfo2().getLineNumber(0), true), ctBehavior);
+      }
+      Collector.restart();
+      Collector.instance().regiterProbeGroup(probeGroup);
+
+      long start = System.nanoTime();
+      backend.transform(ctClass, hash, probeGroup.getNumberOfProbes());
+      ctClass.toBytecode();
+      time += System.nanoTime() - start;
+    }
+    return time;
+  }
+
+  public static void main(final String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    String[] classNames = DEFAULT_CLASSES;
+    if (args.length > 1) {
+      classNames = new String[args.length - 1];
+      System.arraycopy(args, 1, classNames, 0, classNames.length);
+    }
+
+    // warm up
+    for (int i = 0; i < iterations / 10 + 1; i++) {
+      run(SOURCE, classNames);
+      run(BYTECODE, classNames);
+    }
+
+    long source = 0L;
+    long bytecode = 0L;
+    for (int i = 0; i < iterations; i++) {
+      source += run(SOURCE, classNames);
+      bytecode += run(BYTECODE, classNames);
+    }
+
+    System.out.println(String.format("%d classes, %d iterations", classNames.length, iterations));
+    System.out.println(String.format("source:   %8.3f ms/iteration", source / 1e6 / iterations));
+    System.out.println(String.format("bytecode: %8.3f ms/iteration", bytecode / 1e6 / iterations));
+    System.out.println(String.format("speedup:  %8.2fx", (double) source / bytecode));
+  }
+
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ *
+ * This file is part of GZoltar.
+ *
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr.pass;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import com.gzoltar.core.instr.InstrumentationConstants;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.util.MD5;
+import javassist.ClassPool;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.CtNewMethod;
+
+/**
+ * Compares the time taken to execute call-heavy code instrumented offline when the init method is
+ * called at the beginning of every method, with the time taken when the hit array is bound by the
+ * static initializer and every method only checks whether the class has been marked as executed
+ * (see {@link AbstractInitMethodPass#setBindAtClassInitialisation(boolean)}). Usage:
+ *
+ * <pre>
+ * MethodEntryBenchmark [iterations] [calls per iteration]
+ * </pre>
+ */
+public final class MethodEntryBenchmark {
+
+  private static final String OFFLINE_CLASS_NAME = "com.gzoltar.internal.agent.rt.Offline";
+
+  private static final String CLASS_NAME = "org.gzoltar.examples.CallHeavy";
+
+  private MethodEntryBenchmark() {
+    // no instance
+  }
+
+  /**
+   * Links the hit array of the instrumented class, on behalf of the stub of the agent's runtime.
+   */
+  public static CallSite link(final int numberOfProbes) {
+    return new ConstantCallSite(
+        MethodHandles.constant(boolean[].class, new boolean[numberOfProbes + 1]));
+  }
+
+  /**
+   * Links the call that marks the instrumented class as executed to a no-op, on behalf of the stub
+   * of the agent's runtime.
+   */
+  public static CallSite linkDirty() {
+    return new ConstantCallSite(MethodHandles.identity(boolean[].class)
+        .asType(MethodType.methodType(void.class, boolean[].class)));
+  }
+
+  /**
+   * Loads the given classes before delegating to its parent.
+   */
+  private static final class ClassesLoader extends ClassLoader {
+
+    private final Map<String, byte[]> classes;
+
+    private ClassesLoader(final Map<String, byte[]> classes) {
+      super(MethodEntryBenchmark.class.getClassLoader());
+      this.classes = classes;
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(final String name, final boolean resolve)
+        throws ClassNotFoundException {
+      byte[] bytecode = this.classes.get(name);
+      if (bytecode == null) {
+        return super.loadClass(name, resolve);
+      }
+      Class<?> clazz = this.findLoadedClass(name);
+      if (clazz == null) {
+        clazz = this.defineClass(name, bytecode, 0, bytecode.length);
+      }
+      return clazz;
+    }
+  }
+
+  /**
+   * Creates a class whose <code>run</code> method calls a tiny method a given number of times, and
+   * the stub of the agent's runtime, and instruments the former offline.
+   *
+   * @return the <code>run</code> method of the instrumented class
+   */
+  private static Method instrument(final boolean bindAtClassInitialisation) throws Exception {
+    ClassPool classPool = new ClassPool(true);
+    Map<String, byte[]> classes = new HashMap<String, byte[]>();
+
+    CtClass offline = classPool.makeClass(OFFLINE_CLASS_NAME);
+    offline.addMethod(CtMethod.make("public static void getHitArray(Object[] a) {}", offline));
+    offline.addMethod(CtMethod.make("public static void markDirty(Object[] a) {}", offline));
+    offline.addMethod(CtNewMethod.make(classPool.get("java.lang.invoke.CallSite"), "bootstrap",
+        new CtClass[] {classPool.get("java.lang.invoke.MethodHandles$Lookup"),
+            classPool.get("java.lang.String"), classPool.get("java.lang.invoke.MethodType"),
+            classPool.get("java.lang.String"), classPool.get("java.lang.String"), CtClass.intType},
+        new CtClass[0], "{ return " + MethodEntryBenchmark.class.getName() + ".link($6); }",
+        offline));
+    offline.addMethod(CtNewMethod.make(classPool.get("java.lang.invoke.CallSite"),
+        "bootstrapDirty",
+        new CtClass[] {classPool.get("java.lang.invoke.MethodHandles$Lookup"),
+            classPool.get("java.lang.String"), classPool.get("java.lang.invoke.MethodType"),
+            classPool.get("java.lang.String")},
+        new CtClass[0], "{ return " + MethodEntryBenchmark.class.getName() + ".linkDirty(); }",
+        offline));
+    classes.put(OFFLINE_CLASS_NAME, offline.toBytecode());
+
+    CtClass ctClass = classPool.makeClass(CLASS_NAME);
+    ctClass.addMethod(CtMethod.make("public static int inc(int x) { return x + 1; }", ctClass));
+    ctClass.addMethod(CtMethod.make("public static int run(int n) { int s = 0; "
+        + "for (int i = 0; i < n; i++) { s = inc(s); } return s; }", ctClass));
+    String hash = MD5.calculateHash(ctClass.toBytecode());
+    ctClass.defrost();
+
+    Collector.restart();
+    Collector.instance().regiterProbeGroup(new ProbeGroup(hash, ctClass));
+
+    new FieldPass().transform(ctClass);
+    OfflineInitMethodPass initMethodPass = new OfflineInitMethodPass();
+    initMethodPass.setHash(hash);
+    initMethodPass.setBindAtClassInitialisation(bindAtClassInitialisation);
+    initMethodPass.transform(ctClass);
+    ctClass.makeClassInitializer();
+
+    StackSizePass stackSizePass = new StackSizePass();
+    for (CtBehavior ctBehavior : ctClass.getDeclaredBehaviors()) {
+      if (!ctBehavior.getName().equals(InstrumentationConstants.INIT_METHOD_NAME)) {
+        initMethodPass.transform(ctClass, ctBehavior);
+        stackSizePass.transform(ctClass, ctBehavior);
+      }
+    }
+    classes.put(CLASS_NAME, ctClass.toBytecode());
+
+    return new ClassesLoader(classes).loadClass(CLASS_NAME).getMethod("run", int.class);
+  }
+
+  /**
+   * Returns the time (in nanoseconds) taken to run all iterations, after as many warm-up ones.
+   */
+  private static long run(final Method method, final int iterations, final int calls)
+      throws Exception {
+    for (int i = 0; i < iterations; i++) {
+      method.invoke(null, calls);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      method.invoke(null, calls);
+    }
+    return System.nanoTime() - start;
+  }
+
+  public static void main(final String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int calls = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+    long guard = run(instrument(false), iterations, calls);
+    long classInitialisation = run(instrument(true), iterations, calls);
+
+    double totalCalls = (double) iterations * calls;
+    System.out.println(String.format("%d iterations, %d calls per iteration", iterations, calls));
+    System.out.println(String.format("init method call:     %8.3f ns/call", guard / totalCalls));
+    System.out.println(
+        String.format("class initialisation: %8.3f ns/call", classInitialisation / totalCalls));
+    System.out.println(
+        String.format("speedup:              %8.2fx", (double) guard / classInitialisation));
+  }
+
+}
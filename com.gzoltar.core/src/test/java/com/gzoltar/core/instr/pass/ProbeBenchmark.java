@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ *
+ * This file is part of GZoltar.
+ *
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr.pass;
+
+import java.lang.reflect.Method;
+import com.gzoltar.core.instr.InstrumentationConstants;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.Loader;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+
+/**
+ * Compares the time taken to execute a tight loop with a probe before each of its instructions
+ * when each probe loads GZoltar's field (as GZoltar used to do), with the time taken when the field
+ * is loaded once into a local variable at the beginning of the method (see {@link CoveragePass}).
+ * Usage:
+ *
+ * <pre>
+ * ProbeBenchmark [iterations] [loop iterations per iteration]
+ * </pre>
+ */
+public final class ProbeBenchmark {
+
+  private static final String CLASS_NAME = "org.gzoltar.examples.TightLoop";
+
+  private ProbeBenchmark() {
+    // no instance
+  }
+
+  /**
+   * Creates a class whose <code>run</code> method is a tight loop, and places a probe before each
+   * instruction of the method.
+   *
+   * @param localVariable whether probes store into a local variable or into GZoltar's field
+   * @return the <code>run</code> method of the instrumented class
+   */
+  private static Method instrument(final boolean localVariable) throws Exception {
+    ClassPool classPool = new ClassPool(true);
+    CtClass ctClass = classPool.makeClass(CLASS_NAME);
+    CtMethod run = CtMethod.make("public static int run(int n) { int s = 0; "
+        + "for (int i = 0; i < n; i++) { s += i; s ^= i >> 1; s -= 3; } return s; }", ctClass);
+    ctClass.addMethod(run);
+
+    MethodInfo methodInfo = run.getMethodInfo();
+    CodeAttribute ca = methodInfo.getCodeAttribute();
+    final int hitArrayLocal = ca.getMaxLocals();
+
+    int numberOfProbes = 0;
+    CodeIterator ci = ca.iterator();
+    while (ci.hasNext()) {
+      int index = ci.next();
+      Bytecode b = new Bytecode(methodInfo.getConstPool());
+      if (localVariable) {
+        b.addAload(hitArrayLocal);
+      } else {
+        b.addGetstatic(ctClass, InstrumentationConstants.FIELD_NAME,
+            InstrumentationConstants.FIELD_DESC_BYTECODE);
+      }
+      b.addIconst(numberOfProbes++);
+      b.addOpcode(Opcode.ICONST_1);
+      b.addOpcode(Opcode.BASTORE);
+      ci.insert(index, b.get());
+    }
+
+    if (localVariable) {
+      Bytecode b = new Bytecode(methodInfo.getConstPool());
+      b.addGetstatic(ctClass, InstrumentationConstants.FIELD_NAME,
+          InstrumentationConstants.FIELD_DESC_BYTECODE);
+      b.addAstore(hitArrayLocal);
+      ca.iterator().insertEx(b.get());
+      ca.setMaxLocals(hitArrayLocal + 1);
+    }
+
+    CtField field = CtField.make("public static boolean[] " + InstrumentationConstants.FIELD_NAME
+        + ";", ctClass);
+    ctClass.addField(field, CtField.Initializer.byExpr("new boolean[" + numberOfProbes + "]"));
+    new StackSizePass().transform(ctClass, run);
+
+    return new Loader(classPool).loadClass(CLASS_NAME).getMethod("run", int.class);
+  }
+
+  /**
+   * Returns the time (in nanoseconds) taken to run all iterations, after as many warm-up ones.
+   */
+  private static long run(final Method method, final int iterations, final int loops)
+      throws Exception {
+    for (int i = 0; i < iterations; i++) {
+      method.invoke(null, loops);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      method.invoke(null, loops);
+    }
+    return System.nanoTime() - start;
+  }
+
+  public static void main(final String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int loops = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+    long field = run(instrument(false), iterations, loops);
+    long local = run(instrument(true), iterations, loops);
+
+    double totalLoops = (double) iterations * loops;
+    System.out.println(String.format("%d iterations, %d loops per iteration", iterations, loops));
+    System.out.println(String.format("static field:   %8.3f ns/loop", field / totalLoops));
+    System.out.println(String.format("local variable: %8.3f ns/loop", local / totalLoops));
+    System.out.println(String.format("speedup:        %8.2fx", (double) field / local));
+  }
+
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr.pass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.gzoltar.examples.ControlFlow;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.instr.InstrumentationConstants;
+import com.gzoltar.core.instr.InstrumentationLevel;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.Probe;
+import com.gzoltar.core.runtime.ProbeGroup;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.bytecode.ClassFile;
+
+public class TestCoveragePass {
+
+  private static final String OFFLINE_CLASS_NAME = "com.gzoltar.internal.agent.rt.Offline";
+
+  /** Lines executed by {@link #run(Class)} */
+  private static final List<Integer> EXECUTED_LINES = Arrays.asList(26, 29, 33, 34, 45, 46, 47, 49);
+
+  /** Lines not executed by {@link #run(Class)} */
+  private static final List<Integer> NOT_EXECUTED_LINES = Arrays.asList(27, 36, 37, 39, 51);
+
+  @Before
+  public void beforeEachUnitTest() {
+    Collector.restart();
+  }
+
+  /**
+   * Links the hit array of a class instrumented offline, on behalf of the stub of the agent's
+   * runtime.
+   */
+  public static CallSite link(final String hash, final String className,
+      final int numberOfProbes) {
+    return new ConstantCallSite(
+        MethodHandles.constant(boolean[].class, new boolean[numberOfProbes + 1]));
+  }
+
+  /**
+   * Links the call that marks the instrumented class as executed to a no-op, on behalf of the stub
+   * of the agent's runtime.
+   */
+  public static CallSite linkDirty() {
+    return new ConstantCallSite(MethodHandles.identity(boolean[].class)
+        .asType(MethodType.methodType(void.class, boolean[].class)));
+  }
+
+  /**
+   * Stub of the agent's runtime.
+   */
+  private static byte[] createOfflineStub(final ClassPool classPool) throws Exception {
+    CtClass offline = classPool.makeClass(OFFLINE_CLASS_NAME);
+    offline.addMethod(CtNewMethod.make("public static void getHitArray(Object[] a) { "
+        + "a[0] = new boolean[Integer.parseInt((String) a[2]) + 1]; }", offline));
+    offline.addMethod(
+        CtNewMethod.make("public static void markDirty(Object[] a) { }", offline));
+    offline.addMethod(CtNewMethod.make(classPool.get("java.lang.invoke.CallSite"), "bootstrap",
+        new CtClass[] {classPool.get("java.lang.invoke.MethodHandles$Lookup"),
+            classPool.get("java.lang.String"), classPool.get("java.lang.invoke.MethodType"),
+            classPool.get("java.lang.String"), classPool.get("java.lang.String"), CtClass.intType},
+        new CtClass[0], "{ return " + TestCoveragePass.class.getName() + ".link($4, $5, $6); }",
+        offline));
+    offline.addMethod(CtNewMethod.make(classPool.get("java.lang.invoke.CallSite"),
+        "bootstrapDirty",
+        new CtClass[] {classPool.get("java.lang.invoke.MethodHandles$Lookup"),
+            classPool.get("java.lang.String"), classPool.get("java.lang.invoke.MethodType"),
+            classPool.get("java.lang.String")},
+        new CtClass[0], "{ return " + TestCoveragePass.class.getName() + ".linkDirty(); }",
+        offline));
+    return offline.toBytecode();
+  }
+
+  /**
+   * Loads the given classes before delegating to its parent.
+   */
+  private static final class ClassesLoader extends ClassLoader {
+
+    private final Map<String, byte[]> classes;
+
+    private ClassesLoader(final Map<String, byte[]> classes) {
+      super(TestCoveragePass.class.getClassLoader());
+      this.classes = classes;
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(final String name, final boolean resolve)
+        throws ClassNotFoundException {
+      byte[] bytecode = this.classes.get(name);
+      if (bytecode == null) {
+        return super.loadClass(name, resolve);
+      }
+      Class<?> clazz = this.findLoadedClass(name);
+      if (clazz == null) {
+        clazz = this.defineClass(name, bytecode, 0, bytecode.length);
+      }
+      return clazz;
+    }
+  }
+
+  /**
+   * Executes a constructor, several returns of a method, and the exception handler (and the
+   * finally block) of a static method.
+   */
+  private static void run(final Class<?> clazz) throws Exception {
+    Object instance = clazz.getConstructor(int.class).newInstance(1);
+    assertEquals(1, clazz.getMethod("compareTo", int.class).invoke(instance, 0));
+    assertEquals(-1, clazz.getMethod("parse", String.class).invoke(null, "x"));
+  }
+
+  /**
+   * Instruments {@link ControlFlow} offline, loads (and therefore verifies) it, runs it, and
+   * checks the probes it has hit.
+   * 
+   * @param majorVersion class file version of the instrumented class
+   */
+  private static void testHits(final int majorVersion) throws Exception {
+    ClassPool classPool = new ClassPool(true);
+    Map<String, byte[]> classes = new HashMap<String, byte[]>();
+    classes.put(OFFLINE_CLASS_NAME, createOfflineStub(classPool));
+
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(GranularityLevel.LINE);
+    configs.setInstrumentationLevel(InstrumentationLevel.OFFLINE);
+    CtClass ctClass = classPool.get(ControlFlow.class.getName());
+    ctClass.getClassFile().setMajorVersion(majorVersion);
+    new CoveragePass(configs).transform(ctClass);
+    classes.put(ControlFlow.class.getName(), ctClass.toBytecode());
+
+    Class<?> clazz = new ClassesLoader(classes).loadClass(ControlFlow.class.getName());
+    run(clazz);
+
+    Field field = clazz.getDeclaredField(InstrumentationConstants.FIELD_NAME);
+    field.setAccessible(true);
+    boolean[] hitArray = (boolean[]) field.get(null);
+    assertNotNull(hitArray);
+
+    ProbeGroup probeGroup = Collector.instance().getSpectrum().getProbeGroups().iterator().next();
+    assertEquals(probeGroup.getNumberOfProbes() + 1, hitArray.length);
+
+    Set<Integer> hitLines = new HashSet<Integer>();
+    Set<Integer> lines = new HashSet<Integer>();
+    for (Probe probe : probeGroup.getProbes()) {
+      int line = probe.getNode().getLineNumber();
+      lines.add(line);
+      if (hitArray[probe.getArrayIndex()]) {
+        hitLines.add(line);
+      }
+    }
+
+    for (Integer line : EXECUTED_LINES) {
+      assertTrue("line " + line, hitLines.contains(line));
+    }
+    for (Integer line : NOT_EXECUTED_LINES) {
+      assertTrue("line " + line, lines.contains(line));
+      assertFalse("line " + line, hitLines.contains(line));
+    }
+  }
+
+  @Test
+  public void testHits() throws Exception {
+    testHits(ClassFile.JAVA_6);
+  }
+
+  @Test
+  public void testHitsWithStackMap() throws Exception {
+    // class files of Java 7 or later must have a valid stack map, which includes the local variable
+    // of the hit array
+    testHits(ClassFile.JAVA_7);
+  }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr.pass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import org.gzoltar.examples.AnonymousClass;
+import org.gzoltar.examples.EnumClass;
+import org.gzoltar.examples.InnerClass;
+import org.gzoltar.examples.PrivateModifiers;
+import org.gzoltar.examples.PublicModifiers;
+import org.gzoltar.examples.PublicStaticModifiers;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.events.EmptyEventListener;
+import com.gzoltar.core.instr.InstrumentationLevel;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.model.Node;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.spectrum.FilteredSpectrum;
+import com.gzoltar.core.spectrum.ISpectrum;
+import javassist.ClassPool;
+
+public class TestGranularityInstrumentation {
+
+  private final static ClassPool pool = ClassPool.getDefault();
+
+  private final static String[] CLASSES_UNDER_TEST = new String[] {
+      AnonymousClass.class.getCanonicalName(), AnonymousClass.class.getCanonicalName() + "$1",
+      EnumClass.class.getCanonicalName(), InnerClass.class.getCanonicalName(),
+      InnerClass.class.getCanonicalName() + "$InnerPublicClass",
+      PrivateModifiers.class.getCanonicalName(), PublicModifiers.class.getCanonicalName(),
+      PublicStaticModifiers.class.getCanonicalName()};
+
+  @Before
+  public void beforeEachUnitTest() {
+    Collector.restart();
+  }
+
+  private ISpectrum instrument(final GranularityLevel granularity) throws Exception {
+    Collector.restart();
+    Collector.instance().addListener(new EmptyEventListener());
+
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(granularity);
+    configs.setInstrumentationLevel(InstrumentationLevel.NONE);
+
+    CoveragePass instrumentationPass = new CoveragePass(configs);
+    for (String classUnderTest : CLASSES_UNDER_TEST) {
+      instrumentationPass.transform(pool.get(classUnderTest));
+    }
+
+    return Collector.instance().getSpectrum();
+  }
+
+  private static List<String> filter(final ISpectrum spectrum, final GranularityLevel granularity) {
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(granularity);
+
+    List<String> nodes = new ArrayList<String>();
+    for (Node node : new FilteredSpectrum(configs).filter(spectrum).getNodes()) {
+      nodes.add(node.getName());
+    }
+    return nodes;
+  }
+
+  private void test(final GranularityLevel granularity) throws Exception {
+    ISpectrum lineSpectrum = this.instrument(GranularityLevel.LINE);
+    int numberOfLineProbes = lineSpectrum.getNumberOfNodes();
+    List<String> expected = filter(lineSpectrum, granularity);
+
+    ISpectrum spectrum = this.instrument(granularity);
+    assertTrue(spectrum.getNumberOfNodes() < numberOfLineProbes);
+    assertEquals(expected, filter(spectrum, granularity));
+  }
+
+  @Test
+  public void testBasicBlockGranularity() throws Exception {
+    this.test(GranularityLevel.BASICBLOCK);
+  }
+
+  @Test
+  public void testMethodGranularity() throws Exception {
+    this.test(GranularityLevel.METHOD);
+  }
+
+  @Test
+  public void testClassGranularity() throws Exception {
+    this.test(GranularityLevel.CLASS);
+  }
+
+  @Test
+  public void testOneProbePerMethod() throws Exception {
+    ISpectrum spectrum = this.instrument(GranularityLevel.METHOD);
+    assertEquals(filter(spectrum, GranularityLevel.METHOD).size(), spectrum.getNumberOfNodes());
+  }
+
+}
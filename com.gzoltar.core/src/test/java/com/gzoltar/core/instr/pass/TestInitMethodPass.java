@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.instr.pass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+import org.gzoltar.examples.InterfaceClass;
+import org.gzoltar.examples.PublicModifiers;
+import org.gzoltar.examples.PublicStaticModifiers;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.instr.InstrumentationLevel;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.ProbeGroup;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewMethod;
+import javassist.bytecode.ClassFile;
+
+public class TestInitMethodPass {
+
+  private static final String OFFLINE_CLASS_NAME = "com.gzoltar.internal.agent.rt.Offline";
+
+  @Before
+  public void beforeEachUnitTest() {
+    Collector.restart();
+  }
+
+  /**
+   * Arguments of the last call to the stub's bootstrap method, i.e., hit array, class name, and
+   * number of probes.
+   */
+  public static Object[] bootstrapArgs;
+
+  /**
+   * Links the hit array of a class instrumented offline, on behalf of the stub of the agent's
+   * runtime.
+   */
+  public static CallSite link(final String hash, final String className,
+      final int numberOfProbes) {
+    boolean[] hitArray = new boolean[numberOfProbes + 1];
+    bootstrapArgs = new Object[] {hitArray, className, numberOfProbes};
+    return new ConstantCallSite(MethodHandles.constant(boolean[].class, hitArray));
+  }
+
+  /**
+   * Links the call that marks a class instrumented offline as executed to the typed
+   * <code>markDirty</code> method of the stub of the agent's runtime.
+   */
+  public static CallSite linkDirty(final Class<?> offline, final String hash) throws Exception {
+    return new ConstantCallSite(MethodHandles.insertArguments(
+        MethodHandles.publicLookup().findStatic(offline, "markDirty",
+            MethodType.methodType(void.class, String.class, boolean[].class)),
+        0, hash));
+  }
+
+  /**
+   * Stub of the agent's runtime, which keeps the arguments of its last calls.
+   */
+  private static byte[] createOfflineStub(final ClassPool classPool) throws Exception {
+    CtClass offline = classPool.makeClass(OFFLINE_CLASS_NAME);
+    offline.addField(CtField.make("public static Object[] hitArgs;", offline));
+    offline.addField(CtField.make("public static Object[] dirtyArgs;", offline));
+    offline.addField(CtField.make("public static boolean dirtyLinked;", offline));
+    offline.addMethod(CtNewMethod.make("public static void getHitArray(Object[] a) { "
+        + "a[0] = new boolean[Integer.parseInt((String) a[2]) + 1]; hitArgs = a; }", offline));
+    offline.addMethod(
+        CtNewMethod.make("public static void markDirty(Object[] a) { dirtyArgs = a; }", offline));
+    offline.addMethod(CtNewMethod.make("public static void markDirty(String h, boolean[] a) { "
+        + "dirtyArgs = new Object[] { h, a }; dirtyLinked = true; }", offline));
+    offline.addMethod(CtNewMethod.make(classPool.get("java.lang.invoke.CallSite"), "bootstrap",
+        new CtClass[] {classPool.get("java.lang.invoke.MethodHandles$Lookup"),
+            classPool.get("java.lang.String"), classPool.get("java.lang.invoke.MethodType"),
+            classPool.get("java.lang.String"), classPool.get("java.lang.String"), CtClass.intType},
+        new CtClass[0], "{ return " + TestInitMethodPass.class.getName() + ".link($4, $5, $6); }",
+        offline));
+    offline.addMethod(CtNewMethod.make(classPool.get("java.lang.invoke.CallSite"),
+        "bootstrapDirty",
+        new CtClass[] {classPool.get("java.lang.invoke.MethodHandles$Lookup"),
+            classPool.get("java.lang.String"), classPool.get("java.lang.invoke.MethodType"),
+            classPool.get("java.lang.String")},
+        new CtClass[0],
+        "{ return " + TestInitMethodPass.class.getName() + ".linkDirty($class, $4); }", offline));
+    return offline.toBytecode();
+  }
+
+  /**
+   * Loads the given classes before delegating to its parent.
+   */
+  private static final class ClassesLoader extends ClassLoader {
+
+    private final Map<String, byte[]> classes;
+
+    private ClassesLoader(final Map<String, byte[]> classes) {
+      super(TestInitMethodPass.class.getClassLoader());
+      this.classes = classes;
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(final String name, final boolean resolve)
+        throws ClassNotFoundException {
+      byte[] bytecode = this.classes.get(name);
+      if (bytecode == null) {
+        return super.loadClass(name, resolve);
+      }
+      Class<?> clazz = this.findLoadedClass(name);
+      if (clazz == null) {
+        clazz = this.defineClass(name, bytecode, 0, bytecode.length);
+      }
+      return clazz;
+    }
+  }
+
+  /**
+   * Instruments {@link PublicModifiers} offline, loads (and verifies) it, and executes one of its
+   * branches.
+   * 
+   * @param majorVersion class file version of the instrumented class
+   * @return the stub of the agent's runtime
+   */
+  private static Class<?> runOfflineInstrumentedClass(final int majorVersion) throws Exception {
+    return runOfflineInstrumentedClass(PublicModifiers.class, majorVersion)
+        .loadClass(OFFLINE_CLASS_NAME);
+  }
+
+  /**
+   * Instruments an example class offline, loads (and verifies) it, and executes one of the
+   * branches of its <code>isNegative</code> method.
+   * 
+   * @param example
+   * @param majorVersion class file version of the instrumented class
+   * @return the class loader of the instrumented class and of the stub of the agent's runtime
+   */
+  private static ClassLoader runOfflineInstrumentedClass(final Class<?> example,
+      final int majorVersion) throws Exception {
+    ClassPool classPool = new ClassPool(true);
+    Map<String, byte[]> classes = new HashMap<String, byte[]>();
+    classes.put(OFFLINE_CLASS_NAME, createOfflineStub(classPool));
+
+    AgentConfigs configs = new AgentConfigs();
+    configs.setInstrumentationLevel(InstrumentationLevel.OFFLINE);
+    CtClass ctClass = classPool.get(example.getName());
+    ctClass.getClassFile().setMajorVersion(majorVersion);
+    new CoveragePass(configs).transform(ctClass);
+    classes.put(example.getName(), ctClass.toBytecode());
+
+    ClassLoader loader = new ClassesLoader(classes);
+    Class<?> clazz = loader.loadClass(example.getName());
+    Object instance = clazz.newInstance();
+    assertEquals(Boolean.TRUE, clazz.getMethod("isNegative", int.class).invoke(instance, -1));
+
+    return loader;
+  }
+
+  @Test
+  public void testOfflineInstrumentedClass() throws Exception {
+    bootstrapArgs = null;
+    Class<?> offline = runOfflineInstrumentedClass(ClassFile.JAVA_6);
+
+    // the collector call replaces the first argument, i.e., the hash, by the hit array
+    ProbeGroup probeGroup = Collector.instance().getSpectrum().getProbeGroups().iterator().next();
+    Object[] hitArgs = (Object[]) offline.getField("hitArgs").get(null);
+    assertNotNull(hitArgs);
+    assertNull(bootstrapArgs);
+    assertEquals(PublicModifiers.class.getName(), hitArgs[1]);
+    assertEquals(String.valueOf(probeGroup.getNumberOfProbes()), hitArgs[2]);
+
+    assertHitArray(offline, probeGroup, (boolean[]) hitArgs[0]);
+    // the class has been marked as executed through an array of arguments
+    assertFalse(offline.getField("dirtyLinked").getBoolean(null));
+  }
+
+  @Test
+  public void testOfflineInstrumentedClassLinksHitArray() throws Exception {
+    bootstrapArgs = null;
+    Class<?> offline = runOfflineInstrumentedClass(ClassFile.JAVA_7);
+
+    // the hit array is linked by the bootstrap method instead
+    ProbeGroup probeGroup = Collector.instance().getSpectrum().getProbeGroups().iterator().next();
+    assertNull(offline.getField("hitArgs").get(null));
+    assertNotNull(bootstrapArgs);
+    assertEquals(PublicModifiers.class.getName(), bootstrapArgs[1]);
+    assertEquals(probeGroup.getNumberOfProbes(), bootstrapArgs[2]);
+
+    assertHitArray(offline, probeGroup, (boolean[]) bootstrapArgs[0]);
+    // and so is the call that marks the class as executed, which does not allocate any array
+    assertTrue(offline.getField("dirtyLinked").getBoolean(null));
+  }
+
+  @Test
+  public void testIsBoundAtClassInitialisation() throws Exception {
+    ClassPool classPool = ClassPool.getDefault();
+    assertTrue(AbstractInitMethodPass
+        .isBoundAtClassInitialisation(classPool.get(PublicStaticModifiers.class.getName())));
+    // its superclass might call it while being initialised
+    assertFalse(AbstractInitMethodPass
+        .isBoundAtClassInitialisation(classPool.get(PublicModifiers.class.getName())));
+    assertFalse(AbstractInitMethodPass
+        .isBoundAtClassInitialisation(classPool.get(InterfaceClass.class.getName())));
+  }
+
+  @Test
+  public void testOfflineInstrumentedClassBoundAtClassInitialisation() throws Exception {
+    bootstrapArgs = null;
+    ClassLoader loader =
+        runOfflineInstrumentedClass(PublicStaticModifiers.class, ClassFile.JAVA_7);
+    Class<?> offline = loader.loadClass(OFFLINE_CLASS_NAME);
+
+    ProbeGroup probeGroup = Collector.instance().getSpectrum().getProbeGroups().iterator().next();
+    assertNotNull(bootstrapArgs);
+    boolean[] hitArray = (boolean[]) bootstrapArgs[0];
+    assertHitArray(offline, probeGroup, hitArray);
+
+    // once the transaction has been harvested, the class is reported as executed again, without
+    // binding its hit array again
+    bootstrapArgs = null;
+    hitArray[probeGroup.getNumberOfProbes()] = false;
+    offline.getField("dirtyArgs").set(null, null);
+    Class<?> clazz = loader.loadClass(PublicStaticModifiers.class.getName());
+    assertEquals(Boolean.FALSE, clazz.getMethod("isNegative", int.class).invoke(null, 1));
+
+    assertNull(bootstrapArgs);
+    Object[] dirtyArgs = (Object[]) offline.getField("dirtyArgs").get(null);
+    assertNotNull(dirtyArgs);
+    assertSame(hitArray, dirtyArgs[1]);
+    assertTrue(hitArray[probeGroup.getNumberOfProbes()]);
+  }
+
+  private static void assertHitArray(final Class<?> offline, final ProbeGroup probeGroup,
+      final boolean[] hitArray) throws Exception {
+    assertEquals(probeGroup.getNumberOfProbes() + 1, hitArray.length);
+
+    // the class has been reported as executed
+    Object[] dirtyArgs = (Object[]) offline.getField("dirtyArgs").get(null);
+    assertNotNull(dirtyArgs);
+    assertEquals(probeGroup.getHash(), dirtyArgs[0]);
+    assertSame(hitArray, dirtyArgs[1]);
+    assertTrue(hitArray[probeGroup.getNumberOfProbes()]);
+
+    // some, but not all, probes have been hit
+    int numberOfHitProbes = 0;
+    for (int i = 0; i < probeGroup.getNumberOfProbes(); i++) {
+      if (hitArray[i]) {
+        numberOfHitProbes++;
+      }
+    }
+    assertTrue(numberOfHitProbes > 0);
+    assertFalse(numberOfHitProbes == probeGroup.getNumberOfProbes());
+  }
+
+}
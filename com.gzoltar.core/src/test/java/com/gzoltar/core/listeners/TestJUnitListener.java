@@ -16,6 +16,9 @@
  */
 package com.gzoltar.core.listeners;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import java.util.ArrayList;
 import java.util.List;
 import org.gzoltar.examples.EnumClass;
@@ -27,6 +30,7 @@ import com.gzoltar.core.events.EmptyEventListener;
 import com.gzoltar.core.instr.InstrumentationLevel;
 import com.gzoltar.core.instr.Instrumenter;
 import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.model.Transaction;
 import com.gzoltar.core.runtime.Collector;
 import com.gzoltar.core.spectrum.ISpectrum;
 import javassist.ClassPool;
@@ -66,4 +70,49 @@ public class TestJUnitListener {
     spectrum.toString();
   }
 
+  /**
+   * Mimics an instrumented class executed by a test.
+   */
+  private static void hit() {
+    Object[] args = new Object[] {"c0ffee", "org.gzoltar.examples.Foo", "1"};
+    Collector.instance().getHitArray(args);
+    boolean[] hitArray = (boolean[]) args[0];
+    hitArray[1] = true;
+    Collector.instance().markDirty(new Object[] {"c0ffee", hitArray});
+    hitArray[0] = true;
+  }
+
+  @Test
+  public void testOverlappingTests() throws Exception {
+    Collector.instance();
+    Collector.restart();
+
+    final Listener listener = new JUnitListener();
+    listener.onTestStart();
+
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        listener.onTestStart();
+        listener.onTestFailure("trace");
+        hit();
+        listener.onTestFinish("Foo#failing");
+      }
+    });
+    thread.start();
+    thread.join();
+
+    hit();
+    listener.onTestFinish("Foo#passing");
+
+    // the outcome of each test is not affected by the other one
+    List<Transaction> transactions = Collector.instance().getSpectrum().getTransactions();
+    assertEquals(2, transactions.size());
+    assertEquals("Foo#failing", transactions.get(0).getName());
+    assertTrue(transactions.get(0).hasFailed());
+    assertEquals("trace", transactions.get(0).getStackTrace());
+    assertEquals("Foo#passing", transactions.get(1).getName());
+    assertFalse(transactions.get(1).hasFailed());
+  }
+
 }
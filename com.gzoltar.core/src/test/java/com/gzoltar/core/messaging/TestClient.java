@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.gzoltar.core.events.EmptyEventListener;
+import com.gzoltar.core.events.IEventListener;
+import com.gzoltar.core.messaging.Service.ServiceFactory;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.runtime.Collector;
+
+public class TestClient {
+
+  private static final int NUMBER_OF_TRANSACTIONS = 100;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private final List<String> transactions =
+      Collections.synchronizedList(new ArrayList<String>());
+
+  private Server server = null;
+
+  @Before
+  public void setUp() {
+    Collector.instance();
+    Collector.restart();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (this.server != null) {
+      this.server.close();
+      this.server.join(5000L);
+    }
+  }
+
+  private void startServer(final int port) throws Exception {
+    ServerSocketChannel channel = ServerSocketChannel.open();
+    channel.socket().setReuseAddress(true);
+    channel.socket().bind(new InetSocketAddress("localhost", port));
+
+    this.server = new Server(channel, new ServiceFactory() {
+      @Override
+      public Service create(final String id) {
+        return new Service() {
+          @Override
+          public IEventListener getEventListener() {
+            return new EmptyEventListener() {
+              @Override
+              public void endTransaction(final Transaction transaction) {
+                transactions.add(transaction.getName());
+              }
+            };
+          }
+
+          @Override
+          public void interrupted() {
+            // empty
+          }
+
+          @Override
+          public void terminated() {
+            // empty
+          }
+        };
+      }
+    }, 1);
+    this.server.start();
+  }
+
+  private static int freePort() throws Exception {
+    ServerSocketChannel channel = ServerSocketChannel.open();
+    try {
+      channel.socket().bind(new InetSocketAddress("localhost", 0));
+      return channel.socket().getLocalPort();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static Transaction createTransaction(final String name) {
+    Transaction transaction = new Transaction(name, TransactionOutcome.PASS, 1L, "");
+    transaction.addActivity("c0ffee",
+        new ImmutablePair<String, boolean[]>("Foo", new boolean[] {true, false}));
+    return transaction;
+  }
+
+  @Test
+  public void testAllTransactionsAreSentOnEndSession() throws Exception {
+    int port = freePort();
+    this.startServer(port);
+
+    // a queue smaller than the number of transactions
+    Client client = new Client("localhost", port, 8, this.tempFolder.getRoot());
+    for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+      client.endTransaction(createTransaction("test" + i));
+    }
+    client.endSession();
+
+    // endSession waits for the bye message to be sent, not for the server to handle it
+    Thread.sleep(500L);
+
+    assertEquals(NUMBER_OF_TRANSACTIONS, this.transactions.size());
+    for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+      assertEquals("test" + i, this.transactions.get(i));
+    }
+  }
+
+  @Test
+  public void testTransactionsAreSpilledWhileServerIsUnreachable() throws Exception {
+    int port = freePort();
+
+    Client client = new Client("localhost", port, 8, this.tempFolder.getRoot());
+    for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+      client.endTransaction(createTransaction("test" + i));
+    }
+    // transactions do not pile up in the queue
+    Thread.sleep(200L);
+    assertEquals(1, this.tempFolder.getRoot().listFiles().length);
+
+    this.startServer(port);
+    client.endSession();
+    Thread.sleep(500L);
+
+    assertEquals(NUMBER_OF_TRANSACTIONS, this.transactions.size());
+    for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+      assertEquals("test" + i, this.transactions.get(i));
+    }
+    // the spill file has been sent and deleted
+    assertEquals(0, this.tempFolder.getRoot().listFiles().length);
+  }
+
+  @Test
+  public void testSpillFileIsKeptIfServerIsNeverReachable() throws Exception {
+    Client client = new Client("localhost", freePort(), 8, this.tempFolder.getRoot());
+    client.endTransaction(createTransaction("test"));
+    client.endSession();
+
+    File[] files = this.tempFolder.getRoot().listFiles();
+    assertEquals(1, files.length);
+    assertTrue(files[0].length() > 0);
+  }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.gzoltar.examples.EnumClass;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.events.EmptyEventListener;
+import com.gzoltar.core.instr.InstrumentationLevel;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.instr.pass.CoveragePass;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.ProbeGroup;
+import javassist.ClassPool;
+
+public class TestMessageReader {
+
+  /**
+   * Records all events, in the order they are received.
+   */
+  private static class RecordingEventListener extends EmptyEventListener {
+
+    private final List<Object> events = new ArrayList<Object>();
+
+    private boolean endSession = false;
+
+    @Override
+    public void regiterProbeGroup(final ProbeGroup probeGroup) {
+      this.events.add(probeGroup.getHash());
+    }
+
+    @Override
+    public void endTransaction(final Transaction transaction) {
+      this.events.add(transaction);
+    }
+
+    @Override
+    public void endSession() {
+      this.endSession = true;
+    }
+  }
+
+  @Before
+  public void beforeEachUnitTest() {
+    Collector.restart();
+  }
+
+  private ProbeGroup instrument(final String classUnderTest) throws Exception {
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(GranularityLevel.LINE);
+    configs.setInstrumentationLevel(InstrumentationLevel.NONE);
+
+    Collector.instance().addListener(new EmptyEventListener());
+    new CoveragePass(configs).transform(ClassPool.getDefault().get(classUnderTest));
+
+    return Collector.instance().getSpectrum().getProbeGroups().iterator().next();
+  }
+
+  private static Transaction createTransaction(final String name, final ProbeGroup probeGroup) {
+    Transaction transaction = new Transaction(name, TransactionOutcome.PASS, 1L, "");
+    boolean[] hitArray = new boolean[probeGroup.getNumberOfProbes()];
+    hitArray[0] = true;
+    transaction.addActivity(probeGroup.getHash(),
+        new ImmutablePair<String, boolean[]>(probeGroup.getName(), hitArray));
+    return transaction;
+  }
+
+  @Test
+  public void testBatchedTransactions() throws Exception {
+    ProbeGroup probeGroup = this.instrument(EnumClass.class.getCanonicalName());
+    Transaction t1 = createTransaction("t1", probeGroup);
+    Transaction t2 = createTransaction("t2", probeGroup);
+    Transaction t3 = createTransaction("t3", probeGroup);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageWriter writer = new MessageWriter(bytes);
+    writer.writeHandshake("client");
+    writer.writeTransaction(t1);
+    writer.writeTransaction(t2);
+    writer.flush();
+    int firstFrames = bytes.size();
+    writer.writeTransaction(t3);
+    writer.writeBye();
+
+    // the probeGroup is only described in the first data frame
+    assertTrue(bytes.size() - firstFrames < firstFrames / 2);
+
+    RecordingEventListener listener = new RecordingEventListener();
+    MessageReader reader = new MessageReader(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals("client", reader.readHandshake());
+    assertTrue(reader.read(listener));
+    assertEquals(3, listener.events.size());
+    assertTrue(reader.read(listener));
+    assertFalse(reader.read(listener));
+    assertTrue(listener.endSession);
+
+    // probeGroups are handed to the listener once, before the transactions that execute them
+    assertEquals(4, listener.events.size());
+    assertEquals(probeGroup.getHash(), listener.events.get(0));
+    assertEquals(t1, listener.events.get(1));
+    assertEquals(t2, listener.events.get(2));
+    assertEquals(t3, listener.events.get(3));
+  }
+
+  @Test
+  public void testProbeGroupWithoutTransactions() throws Exception {
+    ProbeGroup probeGroup = this.instrument(EnumClass.class.getCanonicalName());
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    MessageWriter writer = new MessageWriter(bytes);
+    writer.writeHandshake("client");
+    writer.writeProbeGroup(probeGroup);
+    writer.writeBye();
+
+    RecordingEventListener listener = new RecordingEventListener();
+    MessageReader reader = new MessageReader(new ByteArrayInputStream(bytes.toByteArray()));
+    reader.readHandshake();
+    assertTrue(reader.read(listener));
+    assertFalse(reader.read(listener));
+
+    assertEquals(1, listener.events.size());
+    assertEquals(probeGroup.getHash(), listener.events.get(0));
+  }
+
+  @Test(expected = IOException.class)
+  public void testFirstMessageIsNotHandshake() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new MessageWriter(bytes).writeBye();
+
+    new MessageReader(new ByteArrayInputStream(bytes.toByteArray())).readHandshake();
+  }
+}
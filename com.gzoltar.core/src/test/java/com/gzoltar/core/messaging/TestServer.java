@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.events.EmptyEventListener;
+import com.gzoltar.core.events.IEventListener;
+import com.gzoltar.core.messaging.Service.ServiceFactory;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+
+public class TestServer {
+
+  private static final int NUMBER_OF_CLIENTS = 32;
+
+  private static final int NUMBER_OF_TRANSACTIONS = 50;
+
+  /**
+   * Records the name of all transactions of a client, in the order they are received.
+   */
+  private static class RecordingService implements Service {
+
+    private final List<String> transactions = new ArrayList<String>();
+
+    private final CountDownLatch latch;
+
+    private boolean terminated = false;
+
+    private boolean interrupted = false;
+
+    RecordingService(final CountDownLatch latch) {
+      this.latch = latch;
+    }
+
+    @Override
+    public IEventListener getEventListener() {
+      return new EmptyEventListener() {
+        @Override
+        public void endTransaction(final Transaction transaction) {
+          transactions.add(transaction.getName());
+        }
+      };
+    }
+
+    @Override
+    public void interrupted() {
+      this.interrupted = true;
+      this.latch.countDown();
+    }
+
+    @Override
+    public void terminated() {
+      this.terminated = true;
+      this.latch.countDown();
+    }
+  }
+
+  private final ConcurrentHashMap<String, RecordingService> services =
+      new ConcurrentHashMap<String, RecordingService>();
+
+  private Server server;
+
+  private int port;
+
+  private CountDownLatch latch;
+
+  private void startServer(final int numberOfConnections) throws Exception {
+    this.latch = new CountDownLatch(numberOfConnections);
+    ServerSocketChannel channel = ServerSocketChannel.open();
+    channel.socket().bind(new InetSocketAddress("localhost", 0));
+    this.port = channel.socket().getLocalPort();
+
+    this.server = new Server(channel, new ServiceFactory() {
+      @Override
+      public Service create(final String id) {
+        RecordingService service = new RecordingService(latch);
+        services.put(id, service);
+        return service;
+      }
+    }, 2);
+    this.server.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    this.server.close();
+    this.server.join(5000L);
+  }
+
+  private static Transaction createTransaction(final String name) {
+    Transaction transaction = new Transaction(name, TransactionOutcome.PASS, 1L, "");
+    transaction.addActivity("c0ffee",
+        new ImmutablePair<String, boolean[]>("Foo", new boolean[] {true, false}));
+    return transaction;
+  }
+
+  @Test
+  public void testManyConcurrentClients() throws Exception {
+    this.startServer(NUMBER_OF_CLIENTS);
+
+    List<Socket> sockets = new ArrayList<Socket>();
+    List<MessageWriter> writers = new ArrayList<MessageWriter>();
+    for (int i = 0; i < NUMBER_OF_CLIENTS; i++) {
+      Socket socket = new Socket("localhost", this.port);
+      MessageWriter writer = new MessageWriter(socket.getOutputStream());
+      writer.writeHandshake("client-" + i);
+      sockets.add(socket);
+      writers.add(writer);
+    }
+
+    // interleave the messages of all clients
+    for (int j = 0; j < NUMBER_OF_TRANSACTIONS; j++) {
+      for (int i = 0; i < NUMBER_OF_CLIENTS; i++) {
+        writers.get(i).writeTransaction(createTransaction("test" + j));
+        writers.get(i).flush();
+      }
+    }
+    for (int i = 0; i < NUMBER_OF_CLIENTS; i++) {
+      writers.get(i).writeBye();
+    }
+
+    assertTrue(this.latch.await(30, TimeUnit.SECONDS));
+    assertEquals(NUMBER_OF_CLIENTS, this.services.size());
+    for (RecordingService service : this.services.values()) {
+      assertTrue(service.terminated);
+      assertEquals(NUMBER_OF_TRANSACTIONS, service.transactions.size());
+      for (int j = 0; j < NUMBER_OF_TRANSACTIONS; j++) {
+        assertEquals("test" + j, service.transactions.get(j));
+      }
+    }
+
+    for (Socket socket : sockets) {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testConnectionClosedBeforeBye() throws Exception {
+    this.startServer(1);
+
+    Socket socket = new Socket("localhost", this.port);
+    MessageWriter writer = new MessageWriter(socket.getOutputStream());
+    writer.writeHandshake("client");
+    writer.writeTransaction(createTransaction("test"));
+    writer.flush();
+    socket.close();
+
+    assertTrue(this.latch.await(30, TimeUnit.SECONDS));
+    RecordingService service = this.services.get("client");
+    assertTrue(service.interrupted);
+    assertEquals(1, service.transactions.size());
+  }
+}
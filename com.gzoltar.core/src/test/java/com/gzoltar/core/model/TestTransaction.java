@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Map;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+import com.gzoltar.core.util.ArrayUtils;
+
+public class TestTransaction {
+
+  private static boolean[] hitArray(final int numberOfProbes, final int... hits) {
+    boolean[] hitArray = new boolean[numberOfProbes];
+    for (int hit : hits) {
+      hitArray[hit] = true;
+    }
+    return hitArray;
+  }
+
+  @Test
+  public void testHitArrayView() {
+    boolean[] a = hitArray(70, 0, 63, 64, 69);
+    boolean[] b = hitArray(3, 1);
+
+    Transaction transaction = new Transaction("test", TransactionOutcome.PASS, 0L, "");
+    transaction.addActivity("hashA", new ImmutablePair<String, boolean[]>("A", a));
+    transaction.addActivity("hashB", new ImmutablePair<String, boolean[]>("B", b));
+
+    assertTrue(transaction.hasActivations());
+    assertEquals(2, transaction.getNumberOfActivities());
+    assertArrayEquals(a, transaction.getHitArrayByProbeGroupHash("hashA"));
+    assertArrayEquals(b, transaction.getHitArrayByProbeGroupHash("hashB"));
+    assertNull(transaction.getHitArrayByProbeGroupHash("hashC"));
+
+    Map<String, Pair<String, boolean[]>> activity = transaction.getActivity();
+    assertEquals(2, activity.size());
+    assertEquals("A", activity.get("hashA").getLeft());
+    assertArrayEquals(a, activity.get("hashA").getRight());
+  }
+
+  @Test
+  public void testMergeActivity() {
+    Transaction transaction = new Transaction("test", TransactionOutcome.FAIL, 0L, "");
+    transaction.addActivity("hashA", "A", ArrayUtils.toBitArray(hitArray(4, 0)), 4);
+    transaction.addActivity("hashA", "A", ArrayUtils.toBitArray(hitArray(4, 3)), 4);
+
+    assertEquals(1, transaction.getNumberOfActivities());
+    assertArrayEquals(hitArray(4, 0, 3), transaction.getHitArrayByProbeGroupHash("hashA"));
+  }
+
+  @Test
+  public void testEquals() {
+    Transaction t1 = new Transaction("test", TransactionOutcome.PASS, 1L, "");
+    t1.addActivity("hashA", "A", ArrayUtils.toBitArray(hitArray(4, 2)), 4);
+    Transaction t2 = new Transaction("test", TransactionOutcome.PASS, 1L, "");
+    t2.addActivity("hashA", "A", ArrayUtils.toBitArray(hitArray(4, 2)), 4);
+    Transaction t3 = new Transaction("test", TransactionOutcome.PASS, 1L, "");
+    t3.addActivity("hashA", "A", ArrayUtils.toBitArray(hitArray(4, 1)), 4);
+
+    assertEquals(t1, t2);
+    assertEquals(t1.hashCode(), t2.hashCode());
+    assertFalse(t1.equals(t3));
+  }
+
+  @Test
+  public void testResetProbeGroupIds() {
+    Transaction t1 = new Transaction("test", TransactionOutcome.PASS, 1L, "");
+    t1.addActivity("hashA", "A", ArrayUtils.toBitArray(hitArray(4, 2)), 4);
+    t1.addActivity("hashB", "B", ArrayUtils.toBitArray(hitArray(2, 0)), 2);
+
+    ProbeGroupIds.reset();
+    assertEquals(0, ProbeGroupIds.current().size());
+
+    // interned in the opposite order
+    Transaction t2 = new Transaction("test", TransactionOutcome.PASS, 1L, "");
+    t2.addActivity("hashB", "B", ArrayUtils.toBitArray(hitArray(2, 0)), 2);
+    t2.addActivity("hashA", "A", ArrayUtils.toBitArray(hitArray(4, 2)), 4);
+
+    // transactions keep the identifiers they have been created with
+    assertNotSame(t1.getProbeGroupIds(), t2.getProbeGroupIds());
+    assertEquals("A", t1.getActivity().get("hashA").getLeft());
+    assertArrayEquals(hitArray(4, 2), t1.getHitArrayByProbeGroupHash("hashA"));
+    assertEquals(t1, t2);
+    assertEquals(t1.hashCode(), t2.hashCode());
+  }
+}
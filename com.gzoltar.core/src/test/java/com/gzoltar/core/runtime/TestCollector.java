@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.model.NodeFactory;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import javassist.ClassPool;
+import javassist.CtBehavior;
+import javassist.CtClass;
+
+public class TestCollector {
+
+  private static final String HASH = "c0ffee";
+
+  private static final String NAME = "org.gzoltar.examples.Foo";
+
+  @Before
+  public void setUp() {
+    Collector.instance();
+    Collector.restart();
+  }
+
+  private static boolean[] getHitArray(final int numberOfProbes) {
+    Object[] args = new Object[] {HASH, NAME, String.valueOf(numberOfProbes)};
+    Collector.instance().getHitArray(args);
+    return (boolean[]) args[0];
+  }
+
+  /**
+   * Mimics the code executed by an instrumented class when a probe is hit.
+   */
+  private static void hit(final boolean[] hitArray, final int probe) {
+    int dirtyFlag = hitArray.length - 1;
+    if (!hitArray[dirtyFlag]) {
+      hitArray[dirtyFlag] = true;
+      Collector.instance().markDirty(new Object[] {HASH, hitArray});
+    }
+    hitArray[probe] = true;
+  }
+
+  @Test
+  public void testGlobalScope() {
+    boolean[] hitArray = getHitArray(3);
+    assertSame(hitArray, getHitArray(3));
+
+    hit(hitArray, 1);
+    Collector.instance().endTransaction("test", TransactionOutcome.PASS, 0L, "");
+
+    // probes and dirty flag have been reset
+    assertFalse(hitArray[1]);
+    assertFalse(hitArray[3]);
+
+    List<Transaction> transactions = Collector.instance().getSpectrum().getTransactions();
+    assertEquals(1, transactions.size());
+    boolean[] activity = transactions.get(0).getHitArrayByProbeGroupHash(HASH);
+    assertFalse(activity[0]);
+    assertTrue(activity[1]);
+    assertFalse(activity[2]);
+    assertEquals(3, activity.length);
+
+    // nothing has been executed since the last transaction
+    Collector.instance().endTransaction("test", TransactionOutcome.PASS, 0L, "");
+    assertEquals(1, transactions.size());
+  }
+
+  @Test
+  public void testFrameSpanningTransactions() {
+    boolean[] hitArray = getHitArray(3);
+
+    // e.g., a loop of a background thread, which keeps running after the first transaction
+    hit(hitArray, 0);
+    Collector.instance().endTransaction("test1", TransactionOutcome.PASS, 0L, "");
+    hitArray[1] = true;
+    Collector.instance().endTransaction("test2", TransactionOutcome.PASS, 0L, "");
+
+    assertFalse(hitArray[1]);
+    List<Transaction> transactions = Collector.instance().getSpectrum().getTransactions();
+    assertEquals(2, transactions.size());
+    boolean[] activity = transactions.get(0).getHitArrayByProbeGroupHash(HASH);
+    assertTrue(activity[0]);
+    assertFalse(activity[1]);
+    activity = transactions.get(1).getHitArrayByProbeGroupHash(HASH);
+    assertFalse(activity[0]);
+    assertTrue(activity[1]);
+  }
+
+  @Test
+  public void testHitArrayOfPreviousScopeIsAdopted() {
+    TransactionScope previousScope = new TransactionScope();
+    Collector.instance().bindScope(previousScope);
+    boolean[] hitArray;
+    try {
+      hitArray = getHitArray(3);
+      hit(hitArray, 0);
+      Collector.instance().endTransaction("test1", TransactionOutcome.PASS, 0L, "");
+    } finally {
+      Collector.instance().unbindScope();
+    }
+
+    // e.g., the next test method, run in the same class loader
+    TransactionScope scope = new TransactionScope();
+    Collector.instance().bindScope(scope);
+    try {
+      hit(hitArray, 1);
+      Collector.instance().endTransaction("test2", TransactionOutcome.PASS, 0L, "");
+    } finally {
+      Collector.instance().unbindScope();
+    }
+
+    assertEquals(NAME, scope.getProbeGroupName(HASH, hitArray));
+    assertNull(previousScope.getProbeGroupName(HASH, hitArray));
+
+    List<Transaction> transactions = Collector.instance().getSpectrum().getTransactions();
+    assertEquals(2, transactions.size());
+    Transaction transaction = transactions.get(1);
+    assertEquals("test2", transaction.getName());
+    boolean[] activity = transaction.getHitArrayByProbeGroupHash(HASH);
+    assertFalse(activity[0]);
+    assertTrue(activity[1]);
+  }
+
+  @Test
+  public void testInferredProbes() throws Exception {
+    CtClass ctClass = new ClassPool(true).makeClass(NAME);
+    CtBehavior ctBehavior = ctClass.makeClassInitializer();
+    ProbeGroup probeGroup = new ProbeGroup(HASH, ctClass);
+    for (int line = 1; line <= 3; line++) {
+      probeGroup.registerProbe(NodeFactory.createNode(ctClass, ctBehavior, line, true),
+          ctBehavior);
+    }
+    // the last probe is executed if and only if any of the other two is
+    probeGroup.registerInferredProbe(2, new int[] {0, 1});
+    Collector.instance().regiterProbeGroup(probeGroup);
+
+    boolean[] hitArray = getHitArray(3);
+    hit(hitArray, 1);
+    Collector.instance().endTransaction("test", TransactionOutcome.PASS, 0L, "");
+
+    assertFalse(hitArray[2]);
+    boolean[] activity = Collector.instance().getSpectrum().getTransactions().get(0)
+        .getHitArrayByProbeGroupHash(HASH);
+    assertFalse(activity[0]);
+    assertTrue(activity[1]);
+    assertTrue(activity[2]);
+  }
+
+  @Test
+  public void testFocus() throws Exception {
+    CtClass ctClass = new ClassPool(true).makeClass(NAME);
+    CtBehavior ctBehavior = ctClass.makeClassInitializer();
+    ProbeGroup probeGroup = new ProbeGroup(HASH, ctClass);
+    probeGroup.registerProbe(NodeFactory.createNode(ctClass, ctBehavior, 1, true), ctBehavior);
+    Collector.instance().regiterProbeGroup(probeGroup);
+
+    // no agent able to focus coverage
+    assertFalse(Collector.instance().focus());
+
+    final Set<String> focus = new HashSet<String>();
+    Collector.instance().setFocusHandler(new IFocusHandler() {
+      @Override
+      public void focus(final Set<String> classNames) {
+        focus.addAll(classNames);
+      }
+    });
+    try {
+      boolean[] hitArray = getHitArray(1);
+      hit(hitArray, 0);
+      Collector.instance().endTransaction("test1", TransactionOutcome.PASS, 0L, "");
+      assertTrue(Collector.instance().getClassesExecutedByFailingTransactions().isEmpty());
+
+      hit(hitArray, 0);
+      Collector.instance().endTransaction("test2", TransactionOutcome.FAIL, 0L, "");
+      assertTrue(Collector.instance().focus());
+      assertEquals(Collections.singleton(NAME), focus);
+    } finally {
+      Collector.instance().setFocusHandler(null);
+    }
+  }
+
+  @Test
+  public void testConcurrentScopes() throws Exception {
+    final int numberOfThreads = 4;
+    final boolean[][] hitArrays = new boolean[numberOfThreads][];
+
+    Thread[] threads = new Thread[numberOfThreads];
+    for (int i = 0; i < numberOfThreads; i++) {
+      final int probe = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Collector.instance().bindScope(new TransactionScope());
+          try {
+            hitArrays[probe] = getHitArray(numberOfThreads);
+            hit(hitArrays[probe], probe);
+            Collector.instance().endTransaction("test" + probe, TransactionOutcome.PASS, 0L, "");
+          } finally {
+            Collector.instance().unbindScope();
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    for (int i = 1; i < numberOfThreads; i++) {
+      assertNotSame(hitArrays[0], hitArrays[i]);
+    }
+
+    List<Transaction> transactions = Collector.instance().getSpectrum().getTransactions();
+    assertEquals(numberOfThreads, transactions.size());
+    for (Transaction transaction : transactions) {
+      int probe = Integer.valueOf(transaction.getName().substring("test".length()));
+      boolean[] activity = transaction.getHitArrayByProbeGroupHash(HASH);
+      for (int i = 0; i < numberOfThreads; i++) {
+        assertEquals(i == probe, activity[i]);
+      }
+    }
+
+    // nothing has been collected in the global scope
+    assertTrue(Collector.instance().getScope().isEmpty());
+  }
+}
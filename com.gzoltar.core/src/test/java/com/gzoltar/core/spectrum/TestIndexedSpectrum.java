@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.spectrum;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.gzoltar.examples.DeprecatedAnnotation;
+import org.gzoltar.examples.EnumClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.events.EmptyEventListener;
+import com.gzoltar.core.instr.InstrumentationLevel;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.instr.pass.CoveragePass;
+import com.gzoltar.core.model.Node;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.Probe;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.util.ArrayUtils;
+import javassist.ClassPool;
+
+@SuppressWarnings("deprecation")
+public class TestIndexedSpectrum {
+
+  private final static ClassPool pool = ClassPool.getDefault();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void beforeEachUnitTest() {
+    Collector.restart();
+  }
+
+  private ISpectrum createSpectrum(final int numberOfTransactions) throws Exception {
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(GranularityLevel.LINE);
+    configs.setInstrumentationLevel(InstrumentationLevel.NONE);
+
+    Collector.instance().addListener(new EmptyEventListener());
+
+    CoveragePass instrumentationPass = new CoveragePass(configs);
+    instrumentationPass.transform(pool.get(DeprecatedAnnotation.class.getCanonicalName()));
+    instrumentationPass.transform(pool.get(EnumClass.class.getCanonicalName()));
+
+    ISpectrum spectrum = Collector.instance().getSpectrum();
+
+    Random random = new Random(0);
+    for (int t = 0; t < numberOfTransactions; t++) {
+      Transaction transaction = new Transaction("test" + t,
+          random.nextInt(4) == 0 ? TransactionOutcome.FAIL : TransactionOutcome.PASS, t, "");
+      for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
+        long[] hitArray = new long[ArrayUtils.numberOfWords(probeGroup.getNumberOfProbes())];
+        for (int i = 0; i < probeGroup.getNumberOfProbes(); i++) {
+          if (random.nextInt(3) == 0) {
+            ArrayUtils.setBit(hitArray, i);
+          }
+        }
+        if (ArrayUtils.containsBit(hitArray)) {
+          transaction.addActivity(probeGroup.getHash(), probeGroup.getName(), hitArray,
+              probeGroup.getNumberOfProbes());
+        }
+      }
+      spectrum.addTransaction(transaction);
+    }
+
+    return spectrum;
+  }
+
+  private IndexedSpectrum index(final ISpectrum spectrum, final long columnsBufferSize)
+      throws Exception {
+    File file = this.folder.newFile("gzoltar.ser.idx");
+    IndexedSpectrumWriter writer = new IndexedSpectrumWriter(file, spectrum, columnsBufferSize);
+    for (Transaction transaction : spectrum.getTransactions()) {
+      writer.writeTransaction(transaction);
+    }
+    writer.close();
+    return new IndexedSpectrum(file);
+  }
+
+  @Test
+  public void testTransactionsAndColumns() throws Exception {
+    ISpectrum spectrum = this.createSpectrum(130);
+    // at most 3 columns are built at once
+    IndexedSpectrum indexedSpectrum = this.index(spectrum, 3 * 3 * 8);
+
+    assertEquals(spectrum.getNodes(), indexedSpectrum.getNodes());
+    assertEquals(spectrum.getTransactions(), indexedSpectrum.getTransactions());
+
+    long[] failing = indexedSpectrum.getFailingTransactions();
+    long[] passing = indexedSpectrum.getPassingTransactions();
+    for (int t = 0; t < spectrum.getNumberOfTransactions(); t++) {
+      boolean hasFailed = spectrum.getTransactions().get(t).hasFailed();
+      assertEquals(hasFailed, ArrayUtils.isBitSet(failing, t));
+      assertEquals(!hasFailed, ArrayUtils.isBitSet(passing, t));
+    }
+    assertEquals(spectrum.getNumberOfTransactions(),
+        Long.bitCount(failing[0] | passing[0]) + Long.bitCount(failing[1] | passing[1])
+            + Long.bitCount(failing[2] | passing[2]));
+
+    int column = 0;
+    for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
+      for (Probe probe : probeGroup.getProbes()) {
+        long[] bits = indexedSpectrum.getProbeColumn(column++);
+        for (int t = 0; t < spectrum.getNumberOfTransactions(); t++) {
+          Transaction transaction = spectrum.getTransactions().get(t);
+          long[] hitArray = transaction.getHitBitsByProbeGroupHash(probeGroup.getHash());
+          assertEquals(hitArray != null && ArrayUtils.isBitSet(hitArray, probe.getArrayIndex()),
+              ArrayUtils.isBitSet(bits, t));
+        }
+      }
+    }
+
+    indexedSpectrum.close();
+  }
+
+  @Test
+  public void testFilter() throws Exception {
+    ISpectrum spectrum = this.createSpectrum(70);
+    IndexedSpectrum indexedSpectrum = this.index(spectrum, 1024 * 1024);
+
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(GranularityLevel.METHOD);
+    configs.setInclPublicMethods(false);
+
+    ISpectrum expected = new FilteredSpectrum(configs).filter(spectrum);
+    ISpectrum actual = new FilteredSpectrum(configs).filter(indexedSpectrum);
+
+    List<String> expectedNodes = new ArrayList<String>();
+    for (Node node : expected.getNodes()) {
+      expectedNodes.add(node.getName());
+    }
+    List<String> actualNodes = new ArrayList<String>();
+    for (Node node : actual.getNodes()) {
+      actualNodes.add(node.getName());
+    }
+    assertEquals(expectedNodes, actualNodes);
+    assertEquals(expected.getNumberOfTransactions(), actual.getNumberOfTransactions());
+    assertEquals(expected.getTransactions(), actual.getTransactions());
+
+    indexedSpectrum.close();
+  }
+
+  @Test
+  public void testMappedFileChunks() throws Exception {
+    byte[] bytes = new byte[64];
+    new Random(0).nextBytes(bytes);
+    File file = this.folder.newFile("bytes");
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(bytes);
+    out.close();
+
+    ByteBuffer expected = ByteBuffer.wrap(bytes);
+    MappedFile mappedFile = new MappedFile(file, bytes.length, 5);
+    for (int position = 0; position <= bytes.length - 8; position++) {
+      assertEquals(expected.getLong(position), mappedFile.getLong(position));
+      assertEquals(expected.getInt(position), mappedFile.getInt(position));
+      assertEquals(expected.getChar(position), mappedFile.getChar(position));
+    }
+
+    byte[] read = new byte[bytes.length];
+    MappedFile.Cursor cursor = mappedFile.newInputStream(3L);
+    assertEquals(bytes.length - 3, cursor.read(read, 3, bytes.length - 3));
+    assertEquals(-1, cursor.read());
+    cursor.seek(0L);
+    for (int i = 0; i < 3; i++) {
+      read[i] = (byte) cursor.read();
+    }
+    assertArrayEquals(bytes, read);
+    mappedFile.close();
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.spectrum;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.gzoltar.examples.DeprecatedAnnotation;
+import org.gzoltar.examples.EnumClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.events.EmptyEventListener;
+import com.gzoltar.core.instr.InstrumentationLevel;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.instr.pass.CoveragePass;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.ProbeGroup;
+import javassist.ClassPool;
+
+public class TestSpectrumMerger {
+
+  private final static ClassPool pool = ClassPool.getDefault();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<ProbeGroup> probeGroups = new ArrayList<ProbeGroup>();
+
+  @Before
+  public void setUp() throws Exception {
+    Collector.restart();
+    Collector.instance().addListener(new EmptyEventListener());
+
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(GranularityLevel.LINE);
+    configs.setInstrumentationLevel(InstrumentationLevel.NONE);
+
+    CoveragePass instrumentationPass = new CoveragePass(configs);
+    instrumentationPass.transform(pool.get(DeprecatedAnnotation.class.getCanonicalName()));
+    instrumentationPass.transform(pool.get(EnumClass.class.getCanonicalName()));
+
+    this.probeGroups.clear();
+    this.probeGroups.addAll(Collector.instance().getSpectrum().getProbeGroups());
+  }
+
+  private Transaction createTransaction(final String name, final int probe) {
+    Transaction transaction = new Transaction(name, TransactionOutcome.PASS, 1L, "");
+    for (ProbeGroup probeGroup : this.probeGroups) {
+      boolean[] hitArray = new boolean[probeGroup.getNumberOfProbes()];
+      hitArray[probe % hitArray.length] = true;
+      transaction.addActivity(probeGroup.getHash(),
+          new ImmutablePair<String, boolean[]>(probeGroup.getName(), hitArray));
+    }
+    return transaction;
+  }
+
+  private File write(final String fileName, final Transaction... transactions) throws Exception {
+    File file = this.folder.newFile(fileName);
+    FileOutputStream output = new FileOutputStream(file);
+    SpectrumWriter writer = new SpectrumWriter(output);
+    for (Transaction transaction : transactions) {
+      writer.writeTransaction(transaction);
+    }
+    output.close();
+    return file;
+  }
+
+  @Test
+  public void testMergeInOrder() throws Exception {
+    Transaction t0 = this.createTransaction("test0", 0);
+    Transaction t1 = this.createTransaction("test1", 1);
+    Transaction t2 = this.createTransaction("test2", 2);
+    Transaction t3 = this.createTransaction("test3", 3);
+    Transaction unknown = this.createTransaction("unknown", 4);
+
+    List<File> files = new ArrayList<File>();
+    files.add(this.write("shard0.ser", t1, unknown, t3));
+    files.add(this.folder.getRoot().toPath().resolve("missing.ser").toFile());
+    files.add(this.write("shard1.ser", t0, t2));
+
+    SpectrumMerger merger = new SpectrumMerger();
+    merger.setOrder(Arrays.asList("test0", "test1", "test2", "test3"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    assertEquals(5, merger.merge(files, bytes));
+
+    TransactionReader reader =
+        new TransactionReader(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(t0, reader.read());
+    assertEquals(t1, reader.read());
+    assertEquals(unknown, reader.read());
+    assertEquals(t2, reader.read());
+    assertEquals(t3, reader.read());
+    assertNull(reader.read());
+
+    // same as if all transactions had been written to a single file, i.e., probeGroups are only
+    // described once
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    SpectrumWriter writer = new SpectrumWriter(expected);
+    for (Transaction transaction : Arrays.asList(t0, t1, unknown, t2, t3)) {
+      writer.writeTransaction(transaction);
+    }
+    assertArrayEquals(expected.toByteArray(), bytes.toByteArray());
+  }
+
+  @Test
+  public void testConcatenateWithoutOrder() throws Exception {
+    Transaction t0 = this.createTransaction("test0", 0);
+    Transaction t1 = this.createTransaction("test1", 1);
+
+    List<File> files = new ArrayList<File>();
+    files.add(this.write("shard0.ser", t1));
+    files.add(this.write("shard1.ser", t0));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    assertEquals(2, new SpectrumMerger().merge(files, bytes));
+
+    TransactionReader reader =
+        new TransactionReader(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(t1, reader.read());
+    assertEquals(t0, reader.read());
+    assertNull(reader.read());
+  }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.spectrum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.gzoltar.examples.DeprecatedAnnotation;
+import org.gzoltar.examples.EnumClass;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.events.EmptyEventListener;
+import com.gzoltar.core.instr.InstrumentationLevel;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.instr.matchers.MethodAnnotationMatcher;
+import com.gzoltar.core.instr.matchers.MethodModifierMatcher;
+import com.gzoltar.core.instr.matchers.MethodNameMatcher;
+import com.gzoltar.core.instr.pass.CoveragePass;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.Probe;
+import com.gzoltar.core.runtime.ProbeGroup;
+import javassist.ClassPool;
+import javassist.Modifier;
+
+@SuppressWarnings("deprecation")
+public class TestSpectrumWriter {
+
+  private final static ClassPool pool = ClassPool.getDefault();
+
+  @Before
+  public void beforeEachUnitTest() {
+    Collector.restart();
+  }
+
+  private ISpectrum instrument(final String... classesUnderTest) throws Exception {
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(GranularityLevel.LINE);
+    configs.setInstrumentationLevel(InstrumentationLevel.NONE);
+
+    Collector.instance().addListener(new EmptyEventListener());
+
+    CoveragePass instrumentationPass = new CoveragePass(configs);
+    for (String classUnderTest : classesUnderTest) {
+      instrumentationPass.transform(pool.get(classUnderTest));
+    }
+
+    return Collector.instance().getSpectrum();
+  }
+
+  @Test
+  public void testProbeGroupsAreSelfDescribed() throws Exception {
+    ISpectrum spectrum = this.instrument(DeprecatedAnnotation.class.getCanonicalName(),
+        EnumClass.class.getCanonicalName());
+
+    Transaction transaction = new Transaction("test", TransactionOutcome.FAIL, 1L, "");
+    for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
+      boolean[] hitArray = new boolean[probeGroup.getNumberOfProbes()];
+      hitArray[0] = true;
+      transaction.addActivity(probeGroup.getHash(),
+          new ImmutablePair<String, boolean[]>(
+              probeGroup.getName(), hitArray));
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    SpectrumWriter writer = new SpectrumWriter(bytes);
+    writer.writeTransaction(transaction);
+    writer.writeTransaction(transaction);
+
+    TransactionReader reader = new TransactionReader(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(transaction, reader.read());
+    assertEquals(transaction, reader.read());
+    assertNull(reader.read());
+
+    // probeGroups are only described once, and are equivalent to the instrumented ones
+    assertEquals(spectrum.getProbeGroups().size(), reader.getProbeGroups().size());
+    for (ProbeGroup expected : spectrum.getProbeGroups()) {
+      ProbeGroup actual = reader.getProbeGroupByHash(expected.getHash());
+      assertNotNull(actual);
+      assertEquals(expected.getName(), actual.getName());
+      assertEquals(expected.getNumberOfProbes(), actual.getNumberOfProbes());
+
+      for (int i = 0; i < expected.getNumberOfProbes(); i++) {
+        Probe expectedProbe = expected.getProbes().get(i);
+        Probe actualProbe = actual.getProbes().get(i);
+        assertEquals(expectedProbe.getNode(), actualProbe.getNode());
+        assertEquals(expectedProbe.getNode().isStartBlock(), actualProbe.getNode().isStartBlock());
+        assertEquals(expectedProbe.isProbeInClassInitialiser(),
+            actualProbe.isProbeInClassInitialiser());
+
+        // method filters must behave the same
+        MethodNameMatcher nameMatcher = new MethodNameMatcher("<clinit>*");
+        assertEquals(nameMatcher.matches(expectedProbe.getCtBehavior()),
+            nameMatcher.matches(actualProbe.getCtBehavior()));
+        MethodModifierMatcher modifierMatcher = new MethodModifierMatcher(Modifier.PUBLIC);
+        assertEquals(modifierMatcher.matches(expectedProbe.getCtBehavior()),
+            modifierMatcher.matches(actualProbe.getCtBehavior()));
+        MethodAnnotationMatcher annotationMatcher =
+            new MethodAnnotationMatcher(Deprecated.class.getCanonicalName());
+        assertEquals(annotationMatcher.matches(expectedProbe.getCtBehavior()),
+            annotationMatcher.matches(actualProbe.getCtBehavior()));
+      }
+    }
+  }
+
+  @Test
+  public void testGranularityIsRecorded() throws Exception {
+    Transaction transaction = new Transaction("test", TransactionOutcome.PASS, 1L, "");
+    transaction.addActivity("c0ffee",
+        new ImmutablePair<String, boolean[]>("Foo", new boolean[] {true, false}));
+
+    // e.g., segments written by agents with different configurations
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new SpectrumWriter(bytes, GranularityLevel.LINE).writeTransaction(transaction);
+    new SpectrumWriter(bytes, GranularityLevel.METHOD).writeTransaction(transaction);
+    new SpectrumWriter(bytes).writeTransaction(transaction);
+
+    TransactionReader reader = new TransactionReader(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(transaction, reader.read());
+    assertEquals(GranularityLevel.LINE, reader.getGranularity());
+    assertEquals(transaction, reader.read());
+    assertEquals(transaction, reader.read());
+    assertNull(reader.read());
+    // the coarsest one
+    assertEquals(GranularityLevel.METHOD, reader.getGranularity());
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.spectrum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.gzoltar.examples.DeprecatedAnnotation;
+import org.gzoltar.examples.EnumClass;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.events.EmptyEventListener;
+import com.gzoltar.core.instr.InstrumentationLevel;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.instr.pass.CoveragePass;
+import com.gzoltar.core.model.Node;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.util.ArrayUtils;
+import javassist.ClassPool;
+
+@SuppressWarnings("deprecation")
+public class TestStreamingSpectrum {
+
+  private final static ClassPool pool = ClassPool.getDefault();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private AgentConfigs configs;
+
+  private Spectrum spectrum;
+
+  private File dataFile;
+
+  @Before
+  public void beforeEachUnitTest() throws Exception {
+    Collector.restart();
+
+    this.configs = new AgentConfigs();
+    this.configs.setGranularity(GranularityLevel.LINE);
+    this.configs.setInstrumentationLevel(InstrumentationLevel.NONE);
+
+    Collector.instance().addListener(new EmptyEventListener());
+
+    CoveragePass instrumentationPass = new CoveragePass(this.configs);
+    instrumentationPass.transform(pool.get(DeprecatedAnnotation.class.getCanonicalName()));
+    instrumentationPass.transform(pool.get(EnumClass.class.getCanonicalName()));
+
+    // every other transaction executes the first probe of every probeGroup, the others the last
+    this.spectrum = new Spectrum();
+    for (ProbeGroup probeGroup : Collector.instance().getSpectrum().getProbeGroups()) {
+      this.spectrum.addProbeGroup(probeGroup);
+    }
+    for (int t = 0; t < 10; t++) {
+      Transaction transaction = new Transaction("test" + t,
+          t % 3 == 0 ? TransactionOutcome.FAIL : TransactionOutcome.PASS, t, "");
+      for (ProbeGroup probeGroup : this.spectrum.getProbeGroups()) {
+        long[] hitArray = new long[ArrayUtils.numberOfWords(probeGroup.getNumberOfProbes())];
+        ArrayUtils.setBit(hitArray, t % 2 == 0 ? 0 : probeGroup.getNumberOfProbes() - 1);
+        transaction.addActivity(probeGroup.getHash(), probeGroup.getName(), hitArray,
+            probeGroup.getNumberOfProbes());
+      }
+      this.spectrum.addTransaction(transaction);
+    }
+
+    this.dataFile = this.folder.newFile("gzoltar.ser");
+    new SpectrumWriter(new FileOutputStream(this.dataFile)).writeSpectrum(this.spectrum);
+
+    // probeGroups are then only known from the data file
+    Collector.restart();
+  }
+
+  @Test
+  public void testTransactionsAreStreamed() throws Exception {
+    StreamingSpectrum streamingSpectrum = new StreamingSpectrum(
+        this.folder.getRoot().getAbsolutePath(), this.configs, this.dataFile);
+
+    assertEquals(this.spectrum.getNodes(), streamingSpectrum.getNodes());
+    assertEquals(this.spectrum.getNumberOfTransactions(),
+        streamingSpectrum.getNumberOfTransactions());
+    // each iteration reads the file again
+    assertEquals(this.spectrum.getTransactions(), streamingSpectrum.getTransactions());
+    assertEquals(this.spectrum.getTransactions(), streamingSpectrum.getTransactions());
+    assertEquals(this.spectrum.getTransactions().get(7), streamingSpectrum.getTransactions().get(7));
+    assertEquals(this.spectrum.getTransactions().get(3),
+        streamingSpectrum.findTransactionByName("test3"));
+  }
+
+  @Test
+  public void testIteratorIsClosed() throws Exception {
+    StreamingSpectrum streamingSpectrum = new StreamingSpectrum(
+        this.folder.getRoot().getAbsolutePath(), this.configs, this.dataFile);
+
+    // an iterator that is not iterated to the end closes the file once it is closed
+    Iterator<Transaction> it = streamingSpectrum.getTransactions().iterator();
+    assertEquals(this.spectrum.getTransactions().get(0), it.next());
+    assertTrue(it instanceof Closeable);
+    ((Closeable) it).close();
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testFilter() throws Exception {
+    StreamingSpectrum streamingSpectrum = new StreamingSpectrum(
+        this.folder.getRoot().getAbsolutePath(), this.configs, this.dataFile);
+
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(GranularityLevel.METHOD);
+    configs.setInclPublicMethods(false);
+
+    ISpectrum expected = new FilteredSpectrum(configs).filter(this.spectrum);
+    ISpectrum actual = new FilteredSpectrum(configs).filter(streamingSpectrum);
+
+    List<String> expectedNodes = new ArrayList<String>();
+    for (Node node : expected.getNodes()) {
+      expectedNodes.add(node.getName());
+    }
+    List<String> actualNodes = new ArrayList<String>();
+    for (Node node : actual.getNodes()) {
+      actualNodes.add(node.getName());
+    }
+    assertEquals(expectedNodes, actualNodes);
+    assertEquals(expected.getNumberOfTransactions(), actual.getNumberOfTransactions());
+
+    Iterator<Transaction> it = actual.getTransactions().iterator();
+    for (Transaction transaction : expected.getTransactions()) {
+      assertEquals(transaction, it.next());
+    }
+    assertFalse(it.hasNext());
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ *
+ * This file is part of GZoltar.
+ *
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import java.net.URL;
+import org.junit.Test;
+import com.gzoltar.core.util.ClassType;
+import com.gzoltar.core.util.IsolatingClassLoader;
+
+public class TestClassLoaderPool {
+
+  /**
+   * Records the class loader in which it runs.
+   */
+  private static class ClassLoaderTestTask extends TestTask {
+
+    private ClassLoader classLoader = null;
+
+    private final long sleep;
+
+    ClassLoaderTestTask(final String testClassName, final long sleep) {
+      super(false, false, false, new TestMethod(ClassType.JUNIT, testClassName, "test"));
+      this.sleep = sleep;
+    }
+
+    @Override
+    public TestResult call() throws Exception {
+      this.classLoader = Thread.currentThread().getContextClassLoader();
+      Thread.sleep(this.sleep);
+      return null;
+    }
+  }
+
+  @Test
+  public void testSameIsolationGroupSharesClassLoader() throws Exception {
+    try (ClassLoaderPool pool = new ClassLoaderPool(new URL[0], 0)) {
+      ClassLoaderTestTask foo1 = new ClassLoaderTestTask("Foo", 0L);
+      ClassLoaderTestTask foo2 = new ClassLoaderTestTask("Foo", 0L);
+      ClassLoaderTestTask bar = new ClassLoaderTestTask("Bar", 0L);
+      TestRunner.run(pool, foo1, 0L);
+      TestRunner.run(pool, foo2, 0L);
+      TestRunner.run(pool, bar, 0L);
+
+      assertSame(foo1.classLoader, foo2.classLoader);
+      assertNotSame(foo1.classLoader, bar.classLoader);
+      assertEquals(2, pool.size());
+    }
+  }
+
+  @Test
+  public void testClassLoaderIsRecycled() throws Exception {
+    try (ClassLoaderPool pool = new ClassLoaderPool(new URL[0], 2)) {
+      ClassLoaderTestTask[] testTasks = new ClassLoaderTestTask[5];
+      for (int i = 0; i < testTasks.length; i++) {
+        testTasks[i] = new ClassLoaderTestTask("Foo", 0L);
+        TestRunner.run(pool, testTasks[i], 0L);
+      }
+
+      assertSame(testTasks[0].classLoader, testTasks[1].classLoader);
+      assertNotSame(testTasks[1].classLoader, testTasks[2].classLoader);
+      assertSame(testTasks[2].classLoader, testTasks[3].classLoader);
+      assertNotSame(testTasks[3].classLoader, testTasks[4].classLoader);
+      assertEquals(1, pool.size());
+    }
+  }
+
+  @Test
+  public void testClassLoaderIsNotSharedAtTheSameTime() throws Exception {
+    try (ClassLoaderPool pool = new ClassLoaderPool(new URL[0], 0)) {
+      IsolatingClassLoader first = pool.acquire("Foo");
+      IsolatingClassLoader second = pool.acquire("Foo");
+      assertNotSame(first, second);
+
+      pool.release("Foo", first, true);
+      assertSame(first, pool.acquire("Foo"));
+    }
+  }
+
+  @Test
+  public void testClassLoaderOfTimedOutTestIsNotReused() throws Exception {
+    try (ClassLoaderPool pool = new ClassLoaderPool(new URL[0], 0)) {
+      ClassLoaderTestTask slow = new ClassLoaderTestTask("Foo", 10000L);
+      ClassLoaderTestTask fast = new ClassLoaderTestTask("Foo", 0L);
+      assertNull(TestRunner.run(pool, slow, 100L));
+      TestRunner.run(pool, fast, 0L);
+
+      assertNotSame(slow.classLoader, fast.classLoader);
+      assertEquals(1, pool.size());
+    }
+  }
+}
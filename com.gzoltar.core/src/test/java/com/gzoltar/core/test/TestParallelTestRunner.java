@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.util.ClassType;
+
+public class TestParallelTestRunner {
+
+  private static final String HASH = "c0ffee";
+
+  private static final int NUMBER_OF_TESTS = 8;
+
+  @Before
+  public void setUp() {
+    Collector.instance();
+    Collector.restart();
+  }
+
+  /**
+   * Mimics a test method that executes a single probe of an instrumented class, and that finishes
+   * sooner than the test methods before it.
+   */
+  private static class ProbeTestTask extends TestTask {
+
+    protected final int probe;
+
+    private final long sleep;
+
+    ProbeTestTask(final int probe, final long sleep) {
+      super(false, true, false, new TestMethod(ClassType.JUNIT, "Foo#test" + probe));
+      this.probe = probe;
+      this.sleep = sleep;
+    }
+
+    @Override
+    public TestResult call() throws Exception {
+      Object[] args = new Object[] {HASH, "Foo", String.valueOf(NUMBER_OF_TESTS)};
+      Collector.instance().getHitArray(args);
+      boolean[] hitArray = (boolean[]) args[0];
+
+      Thread.sleep(this.sleep);
+
+      hitArray[NUMBER_OF_TESTS] = true;
+      Collector.instance().markDirty(new Object[] {HASH, hitArray});
+      hitArray[this.probe] = true;
+
+      Collector.instance().endTransaction(this.testMethod.getLongName(), TransactionOutcome.PASS,
+          0L, "");
+      return null;
+    }
+  }
+
+  /**
+   * Mimics a test method that executes a single probe of an instrumented class that, as it would
+   * be initialised only once, gets its hit array only once per class loader.
+   */
+  private static class PooledProbeTestTask extends ProbeTestTask {
+
+    private static final Map<ClassLoader, boolean[]> hitArrays =
+        new IdentityHashMap<ClassLoader, boolean[]>();
+
+    PooledProbeTestTask(final int probe) {
+      super(probe, 0L);
+    }
+
+    @Override
+    public TestResult call() throws Exception {
+      ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+      boolean[] hitArray;
+      synchronized (hitArrays) {
+        hitArray = hitArrays.get(classLoader);
+        if (hitArray == null) {
+          Object[] args = new Object[] {HASH, "Foo", String.valueOf(NUMBER_OF_TESTS)};
+          Collector.instance().getHitArray(args);
+          hitArray = (boolean[]) args[0];
+          hitArrays.put(classLoader, hitArray);
+        }
+      }
+
+      if (!hitArray[NUMBER_OF_TESTS]) {
+        hitArray[NUMBER_OF_TESTS] = true;
+        Collector.instance().markDirty(new Object[] {HASH, hitArray});
+      }
+      hitArray[this.probe] = true;
+
+      Collector.instance().endTransaction(this.testMethod.getLongName(), TransactionOutcome.PASS,
+          0L, "");
+      return null;
+    }
+  }
+
+  @Test
+  public void testTransactionsAreOrderedAndIsolated() throws Exception {
+    List<TestTask> testTasks = new ArrayList<TestTask>();
+    for (int i = 0; i < NUMBER_OF_TESTS; i++) {
+      testTasks.add(new ProbeTestTask(i, (NUMBER_OF_TESTS - i) * 20L));
+    }
+
+    new ParallelTestRunner(new URL[0], 4, 0L).run(testTasks);
+
+    List<Transaction> transactions = Collector.instance().getSpectrum().getTransactions();
+    assertEquals(NUMBER_OF_TESTS, transactions.size());
+    for (int i = 0; i < NUMBER_OF_TESTS; i++) {
+      Transaction transaction = transactions.get(i);
+      assertEquals(testTasks.get(i).getTestMethod().getLongName(), transaction.getName());
+
+      // each test method only covers its own probe
+      boolean[] activity = transaction.getHitArrayByProbeGroupHash(HASH);
+      for (int j = 0; j < NUMBER_OF_TESTS; j++) {
+        assertEquals(i == j, activity[j]);
+      }
+    }
+  }
+
+  @Test
+  public void testPooledClassLoaders() throws Exception {
+    List<TestTask> testTasks = new ArrayList<TestTask>();
+    for (int i = 0; i < NUMBER_OF_TESTS; i++) {
+      testTasks.add(new PooledProbeTestTask(i));
+    }
+
+    ClassLoaderPool classLoaderPool = new ClassLoaderPool(new URL[0], NUMBER_OF_TESTS);
+    try {
+      new ParallelTestRunner(classLoaderPool, 2, 0L).run(testTasks);
+    } finally {
+      classLoaderPool.close();
+    }
+
+    // test methods run in a class loader used by a previous test method also report their coverage
+    List<Transaction> transactions = Collector.instance().getSpectrum().getTransactions();
+    assertEquals(NUMBER_OF_TESTS, transactions.size());
+    for (int i = 0; i < NUMBER_OF_TESTS; i++) {
+      Transaction transaction = transactions.get(i);
+      assertEquals(testTasks.get(i).getTestMethod().getLongName(), transaction.getName());
+
+      boolean[] activity = transaction.getHitArrayByProbeGroupHash(HASH);
+      for (int j = 0; j < NUMBER_OF_TESTS; j++) {
+        assertEquals(i == j, activity[j]);
+      }
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    List<TestTask> testTasks = new ArrayList<TestTask>();
+    testTasks.add(new ProbeTestTask(0, 10000L));
+    testTasks.add(new ProbeTestTask(1, 0L));
+
+    long start = System.currentTimeMillis();
+    List<TestResult> results = new ParallelTestRunner(new URL[0], 2, 100L).run(testTasks);
+    assertTrue(System.currentTimeMillis() - start < 10000L);
+    assertNull(results.get(0));
+
+    // the transaction of the test method that has timed out is not reported
+    List<Transaction> transactions = Collector.instance().getSpectrum().getTransactions();
+    assertEquals(1, transactions.size());
+    assertEquals(testTasks.get(1).getTestMethod().getLongName(), transactions.get(0).getName());
+  }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.net.URL;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.util.ClassType;
+
+public class TestTestRunner {
+
+  private static final String HASH = "c0ffee";
+
+  private static final int NUMBER_OF_PROBES = 2;
+
+  @Before
+  public void setUp() {
+    Collector.instance();
+    Collector.restart();
+  }
+
+  /**
+   * Mimics a test method that executes a single probe of an instrumented class after some time.
+   */
+  private static class ProbeTestTask extends TestTask {
+
+    private final int probe;
+
+    private final long sleep;
+
+    private final boolean endTransaction;
+
+    ProbeTestTask(final int probe, final long sleep, final boolean endTransaction) {
+      super(false, true, false, new TestMethod(ClassType.JUNIT, "Foo#test" + probe));
+      this.probe = probe;
+      this.sleep = sleep;
+      this.endTransaction = endTransaction;
+    }
+
+    @Override
+    public TestResult call() throws Exception {
+      Object[] args = new Object[] {HASH, "Foo", String.valueOf(NUMBER_OF_PROBES)};
+      Collector.instance().getHitArray(args);
+      boolean[] hitArray = (boolean[]) args[0];
+
+      long end = System.currentTimeMillis() + this.sleep;
+      while (System.currentTimeMillis() < end) {
+        try {
+          Thread.sleep(end - System.currentTimeMillis());
+        } catch (InterruptedException e) {
+          // a test method that has timed out is interrupted, but might keep running
+        }
+      }
+
+      if (!hitArray[NUMBER_OF_PROBES]) {
+        hitArray[NUMBER_OF_PROBES] = true;
+        Collector.instance().markDirty(new Object[] {HASH, hitArray});
+      }
+      hitArray[this.probe] = true;
+
+      if (this.endTransaction) {
+        Collector.instance().endTransaction(this.testMethod.getLongName(),
+            TransactionOutcome.PASS, 0L, "");
+      }
+      return null;
+    }
+  }
+
+  @Test
+  public void testTimedOutTestMethodDoesNotPolluteNextOne() throws Exception {
+    // keeps running, and executes its probe, after it has timed out
+    assertNull(TestRunner.run(new URL[0], new ProbeTestTask(0, 200L, false), 50L));
+    // which happens while the next test method is running
+    TestRunner.run(new URL[0], new ProbeTestTask(1, 400L, true), 0L);
+
+    List<Transaction> transactions = Collector.instance().getSpectrum().getTransactions();
+    assertEquals(1, transactions.size());
+    boolean[] activity = transactions.get(0).getHitArrayByProbeGroupHash(HASH);
+    assertFalse(activity[0]);
+    assertTrue(activity[1]);
+
+    // and the thread that runs the tests is not bound to any scope
+    assertFalse(Collector.instance().isScopeBound());
+  }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.core.test;
+
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.spectrum.SpectrumWriter;
+import com.gzoltar.core.util.ClassType;
+
+public class TestTestSharding {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static List<TestMethod> createTestMethods(final int numberOfTestMethods) {
+    List<TestMethod> testMethods = new ArrayList<TestMethod>();
+    for (int i = 0; i < numberOfTestMethods; i++) {
+      testMethods.add(new TestMethod(ClassType.JUNIT, "FooTest#test" + i));
+    }
+    return testMethods;
+  }
+
+  private static long runtime(final List<TestMethod> shard, final Map<String, Long> runtimes) {
+    long runtime = 0L;
+    for (TestMethod testMethod : shard) {
+      runtime += runtimes.get(testMethod.getLongName());
+    }
+    return runtime;
+  }
+
+  @Test
+  public void testBalancedByRuntime() {
+    List<TestMethod> testMethods = createTestMethods(6);
+    Map<String, Long> runtimes = new HashMap<String, Long>();
+    long[] values = new long[] {100L, 1L, 1L, 1L, 1L, 96L};
+    for (int i = 0; i < values.length; i++) {
+      runtimes.put(testMethods.get(i).getLongName(), values[i]);
+    }
+
+    List<List<TestMethod>> shards = TestSharding.partition(testMethods, runtimes, 2);
+    assertEquals(2, shards.size());
+    assertEquals(100L, runtime(shards.get(0), runtimes));
+    assertEquals(100L, runtime(shards.get(1), runtimes));
+
+    // test methods keep their original order
+    assertEquals(testMethods.get(0), shards.get(0).get(0));
+    assertEquals(testMethods.get(1), shards.get(1).get(0));
+    assertEquals(testMethods.get(5), shards.get(1).get(4));
+  }
+
+  @Test
+  public void testUnknownRuntimes() {
+    List<TestMethod> testMethods = createTestMethods(7);
+
+    List<List<TestMethod>> shards =
+        TestSharding.partition(testMethods, new HashMap<String, Long>(), 3);
+    assertEquals(3, shards.size());
+    assertEquals(3, shards.get(0).size());
+    assertEquals(2, shards.get(1).size());
+    assertEquals(2, shards.get(2).size());
+
+    // never more shards than test methods
+    assertEquals(2, TestSharding.partition(createTestMethods(2), new HashMap<String, Long>(), 4)
+        .size());
+  }
+
+  @Test
+  public void testReadRuntimes() throws Exception {
+    File file = this.folder.newFile("gzoltar.ser");
+    FileOutputStream output = new FileOutputStream(file);
+    SpectrumWriter writer = new SpectrumWriter(output);
+    for (int i = 0; i < 3; i++) {
+      Transaction transaction =
+          new Transaction("FooTest#test" + i, TransactionOutcome.PASS, 10L * i, "");
+      transaction.addActivity("c0ffee", "Foo", new long[] {1L}, 1);
+      writer.writeTransaction(transaction);
+    }
+    output.close();
+
+    Map<String, Long> runtimes = TestSharding.readRuntimes(file);
+    assertEquals(3, runtimes.size());
+    assertEquals(Long.valueOf(20L), runtimes.get("FooTest#test2"));
+  }
+
+}
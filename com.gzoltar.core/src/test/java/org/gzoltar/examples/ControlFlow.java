@@ -14,35 +14,41 @@
  * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
  * not, see <https://www.gnu.org/licenses/>.
  */
-package com.gzoltar.core.messaging;
+package org.gzoltar.examples;
 
-import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+public class ControlFlow {
 
-public abstract class ThreadedServer extends Thread {
+  private static int parsed;
 
-  private ThreadGroup threads = new ThreadGroup("");
+  private final int value;
 
-  private ServerSocket serverSocket;
-
-  public ThreadedServer(final ServerSocket serverSocket) {
-    this.serverSocket = serverSocket;
+  public ControlFlow(final int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("negative value");
+    }
+    this.value = value;
   }
 
-  @Override
-  public final void run() {
-    while (!this.serverSocket.isClosed()) {
-      try {
-        Socket socket = this.serverSocket.accept();
-        Thread thread = new Thread(this.threads, handle(socket));
-        thread.start();
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+  public int compareTo(final int x) {
+    if (this.value > x) {
+      return 1;
+    }
+    if (this.value < x) {
+      return -1;
     }
+    return 0;
   }
 
-  protected abstract Runnable handle(final Socket s);
+  public static int parse(final String s) {
+    int result;
+    try {
+      result = Integer.parseInt(s);
+    } catch (NumberFormatException e) {
+      return -1;
+    } finally {
+      parsed++;
+    }
+    return result;
+  }
 
 }
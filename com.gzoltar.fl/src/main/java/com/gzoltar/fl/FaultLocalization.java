@@ -18,27 +18,86 @@ package com.gzoltar.fl;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.List;
 import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.runtime.Collector;
 import com.gzoltar.core.spectrum.FilteredSpectrum;
 import com.gzoltar.core.spectrum.ISpectrum;
+import com.gzoltar.core.spectrum.IndexedSpectrum;
+import com.gzoltar.core.spectrum.IndexedSpectrumWriter;
 import com.gzoltar.core.spectrum.SpectrumReader;
+import com.gzoltar.core.spectrum.StreamingSpectrum;
 import com.gzoltar.sfl.SFL;
 
 public class FaultLocalization {
 
+  private static final String INDEX_FILE_EXTENSION = ".idx";
+
   private final IFaultLocalization<IFormula> fl;
 
+  private final boolean indexedSpectrum;
+
+  private final boolean streamingSpectrum;
+
   /**
    * 
    * @param flFamily
    * @param formulas
    */
   public FaultLocalization(final FaultLocalizationFamily flFamily, final List<IFormula> formulas) {
+    this(flFamily, formulas, 0);
+  }
+
+  /**
+   * 
+   * @param flFamily
+   * @param formulas
+   * @param parallelism number of threads used to diagnose a spectrum (1 means sequential, less than
+   *        1 means as many as available processors)
+   */
+  public FaultLocalization(final FaultLocalizationFamily flFamily, final List<IFormula> formulas,
+      final int parallelism) {
+    this(flFamily, formulas, parallelism, false);
+  }
+
+  /**
+   * 
+   * @param flFamily
+   * @param formulas
+   * @param parallelism number of threads used to diagnose a spectrum (1 means sequential, less than
+   *        1 means as many as available processors)
+   * @param indexedSpectrum whether the spectrum is read from an indexed, memory-mapped file (see
+   *        {@link com.gzoltar.core.spectrum.IndexedSpectrum}) instead of being loaded in memory
+   */
+  public FaultLocalization(final FaultLocalizationFamily flFamily, final List<IFormula> formulas,
+      final int parallelism, final boolean indexedSpectrum) {
+    this(flFamily, formulas, parallelism, indexedSpectrum, false);
+  }
+
+  /**
+   * 
+   * @param flFamily
+   * @param formulas
+   * @param parallelism number of threads used to diagnose a spectrum (1 means sequential, less than
+   *        1 means as many as available processors)
+   * @param indexedSpectrum whether the spectrum is read from an indexed, memory-mapped file (see
+   *        {@link com.gzoltar.core.spectrum.IndexedSpectrum}) instead of being loaded in memory
+   * @param streamingSpectrum whether transactions are read from the data file whenever they are
+   *        iterated (see {@link com.gzoltar.core.spectrum.StreamingSpectrum}) instead of being
+   *        loaded in memory. It trades time for memory, as each pass over the transactions reads
+   *        the whole data file again
+   */
+  public FaultLocalization(final FaultLocalizationFamily flFamily, final List<IFormula> formulas,
+      final int parallelism, final boolean indexedSpectrum, final boolean streamingSpectrum) {
+    this.indexedSpectrum = indexedSpectrum;
+    this.streamingSpectrum = streamingSpectrum;
     switch (flFamily) {
       case SFL:
       default:
-        this.fl = new SFL<IFormula>(formulas);
+        this.fl = new SFL<IFormula>(formulas, parallelism);
         break;
     }
   }
@@ -49,15 +108,40 @@ public class FaultLocalization {
    * @param agentConfigs
    * @param dataFile
    * @return
+   * @throws IllegalArgumentException if the granularity level of <code>agentConfigs</code> is finer
+   *         than the one at which the coverage of <code>dataFile</code> has been collected
    * @throws Exception
    */
   public ISpectrum diagnose(final String buildLocation, final AgentConfigs agentConfigs,
       final File dataFile) throws Exception {
-    FileInputStream inStream = new FileInputStream(dataFile);
+    ISpectrum spectrum;
+    GranularityLevel granularity;
+    if (this.indexedSpectrum) {
+      IndexedSpectrum indexedSpectrum = this.index(buildLocation, agentConfigs, dataFile);
+      granularity = indexedSpectrum.getGranularity();
+      spectrum = indexedSpectrum;
+    } else if (this.streamingSpectrum) {
+      // transactions are read from the data file whenever they are needed, rather than kept in
+      // memory
+      StreamingSpectrum streamingSpectrum =
+          new StreamingSpectrum(buildLocation, agentConfigs, dataFile);
+      granularity = streamingSpectrum.getGranularity();
+      spectrum = streamingSpectrum;
+    } else {
+      try (FileInputStream inStream = new FileInputStream(dataFile)) {
+        SpectrumReader spectrumReader = new SpectrumReader(buildLocation, agentConfigs, inStream);
+        spectrumReader.read();
+        granularity = spectrumReader.getGranularity();
+        spectrum = spectrumReader.getSpectrum();
+      }
+    }
 
-    SpectrumReader spectrumReader = new SpectrumReader(buildLocation, agentConfigs, inStream);
-    spectrumReader.read();
-    ISpectrum spectrum = spectrumReader.getSpectrum();
+    // coverage collected at a coarser granularity lacks the probes required by a finer report
+    if (granularity != null && agentConfigs.getGranularity().isFinerThan(granularity)) {
+      throw new IllegalArgumentException("Coverage of '" + dataFile + "' has been collected at "
+          + granularity + " granularity, it cannot be reported at "
+          + agentConfigs.getGranularity() + " granularity");
+    }
 
     // filter a spectrum object according to user's preferences
     FilteredSpectrum filter = new FilteredSpectrum(agentConfigs);
@@ -67,4 +151,43 @@ public class FaultLocalization {
 
     return filteredSpectrum;
   }
+
+  /**
+   * Returns the indexed spectrum of a data file, which is written next to it (and reused as long
+   * as it is not older than the data file).
+   * 
+   * @param buildLocation
+   * @param agentConfigs
+   * @param dataFile
+   * @return
+   * @throws Exception
+   */
+  private IndexedSpectrum index(final String buildLocation, final AgentConfigs agentConfigs,
+      final File dataFile) throws Exception {
+    File indexFile = new File(dataFile.getPath() + INDEX_FILE_EXTENSION);
+
+    if (!indexFile.exists() || indexFile.lastModified() < dataFile.lastModified()) {
+      // write it aside, so that an incomplete index is never reused
+      File tmpIndexFile = new File(indexFile.getPath() + ".tmp");
+      try (FileInputStream inStream = new FileInputStream(dataFile)) {
+        IndexedSpectrumWriter writer =
+            new IndexedSpectrumWriter(tmpIndexFile, Collector.instance().getSpectrum());
+        SpectrumReader spectrumReader = new SpectrumReader(buildLocation, agentConfigs, inStream);
+        Transaction transaction;
+        while ((transaction = spectrumReader.nextTransaction()) != null) {
+          writer.endTransaction(transaction);
+        }
+        // only known once all headers have been read
+        writer.setGranularity(spectrumReader.getGranularity());
+        writer.endSession();
+      }
+
+      indexFile.delete();
+      if (!tmpIndexFile.renameTo(indexFile)) {
+        throw new IOException("Unable to rename '" + tmpIndexFile + "' to '" + indexFile + "'");
+      }
+    }
+
+    return new IndexedSpectrum(indexFile);
+  }
 }
@@ -0,0 +1,436 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.sfl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import com.gzoltar.core.model.ProbeGroupIds;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.runtime.Probe;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.spectrum.ISpectrum;
+import com.gzoltar.core.spectrum.IndexedSpectrum;
+
+/**
+ * The four counters used by spectrum-based formulas (n00, n01, n10, n11) of every probe of a
+ * spectrum. The counters are computed in a single pass over all transactions, by visiting only the
+ * bits set in each transaction's hit arrays (or, for indexed spectra, over the column of each
+ * probe), and can then be shared by any number of formulas.
+ */
+public class ContingencyTable {
+
+  /** Number of transactions counted at once, if transactions can only be read sequentially */
+  private static final int BATCH_SIZE = 1024;
+
+  /** All probes, in the same order as they appear in the spectrum */
+  private final List<Probe> probes = new ArrayList<Probe>();
+
+  /** Table of the probe group identifiers used by the table */
+  private final ProbeGroupIds ids = ProbeGroupIds.current();
+
+  /** Index of the first probe of each probe group, by probe group identifier (or -1) */
+  private int[] offsets;
+
+  /** Number of probes of each probe group, by probe group identifier */
+  private int[] lengths;
+
+  /** Number of passing transactions that execute each probe */
+  private final int[] n10;
+
+  /** Number of failing transactions that execute each probe */
+  private final int[] n11;
+
+  private int numberOfPassingTransactions = 0;
+
+  private int numberOfFailingTransactions = 0;
+
+  /**
+   * Creates the contingency table of all probes of a spectrum.
+   * 
+   * @param spectrum
+   */
+  public ContingencyTable(final ISpectrum spectrum) {
+    this(spectrum.getProbeGroups());
+    if (spectrum instanceof IndexedSpectrum) {
+      this.countTransactions((IndexedSpectrum) spectrum);
+      this.countColumns((IndexedSpectrum) spectrum, 0, this.probes.size());
+      return;
+    }
+    for (Transaction transaction : spectrum.getTransactions()) {
+      this.add(transaction);
+    }
+  }
+
+  /**
+   * Creates the contingency table of all probes of a spectrum, using a {@link ForkJoinPool} to
+   * update the counters of disjoint sets of probe groups in parallel.
+   * 
+   * @param spectrum
+   * @param pool
+   */
+  public ContingencyTable(final ISpectrum spectrum, final ForkJoinPool pool) {
+    this(spectrum.getProbeGroups());
+    if (spectrum instanceof IndexedSpectrum) {
+      this.countTransactions((IndexedSpectrum) spectrum);
+      pool.invoke(new ColumnTask((IndexedSpectrum) spectrum, 0, this.probes.size()));
+      return;
+    }
+
+    // identifiers of all probe groups in the table, sorted as in each transaction, and the
+    // cumulative number of probes of those probe groups
+    int[] ids = new int[this.offsets.length];
+    int[] cumulative = new int[this.offsets.length + 1];
+    int numberOfIds = 0;
+    for (int id = 0; id < this.offsets.length; id++) {
+      if (this.offsets[id] != -1) {
+        ids[numberOfIds] = id;
+        cumulative[numberOfIds + 1] = cumulative[numberOfIds] + this.lengths[id];
+        numberOfIds++;
+      }
+    }
+
+    List<Transaction> transactions = spectrum.getTransactions();
+    if (transactions instanceof RandomAccess) {
+      this.countTransactions(transactions);
+      pool.invoke(new AddTask(transactions, ids, cumulative, 0, numberOfIds));
+      return;
+    }
+
+    // transactions that can only be read sequentially (e.g., from a file) are read once, and
+    // counted in batches
+    List<Transaction> batch = new ArrayList<Transaction>(BATCH_SIZE);
+    for (Transaction transaction : transactions) {
+      batch.add(transaction);
+      if (batch.size() == BATCH_SIZE) {
+        this.countTransactions(batch);
+        pool.invoke(new AddTask(batch, ids, cumulative, 0, numberOfIds));
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      this.countTransactions(batch);
+      pool.invoke(new AddTask(batch, ids, cumulative, 0, numberOfIds));
+    }
+  }
+
+  /**
+   * Creates an empty contingency table of a set of probe groups.
+   * 
+   * @param probeGroups
+   */
+  public ContingencyTable(final Iterable<ProbeGroup> probeGroups) {
+    this.offsets = new int[0];
+    this.lengths = new int[0];
+    for (ProbeGroup probeGroup : probeGroups) {
+      int id = this.ids.intern(probeGroup.getHash(), probeGroup.getName());
+      if (id >= this.offsets.length) {
+        int length = this.offsets.length;
+        this.offsets = Arrays.copyOf(this.offsets, Math.max(id + 1, length * 2));
+        Arrays.fill(this.offsets, length, this.offsets.length, -1);
+        this.lengths = Arrays.copyOf(this.lengths, this.offsets.length);
+      }
+      this.offsets[id] = this.probes.size();
+      this.lengths[id] = probeGroup.getNumberOfProbes();
+      this.probes.addAll(probeGroup.getProbes());
+    }
+
+    this.n10 = new int[this.probes.size()];
+    this.n11 = new int[this.probes.size()];
+  }
+
+  /**
+   * Updates the counters of all probes with the activity of a transaction.
+   * 
+   * @param transaction
+   */
+  public void add(final Transaction transaction) {
+    if (transaction.hasFailed()) {
+      this.numberOfFailingTransactions++;
+    } else {
+      this.numberOfPassingTransactions++;
+    }
+    this.count(transaction, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Updates the counters of the probes that belong to probe groups whose identifier is within
+   * [fromId, toId], with the activity of a transaction.
+   * 
+   * @param transaction
+   * @param fromId
+   * @param toId
+   */
+  private void count(final Transaction transaction, final int fromId, final int toId) {
+    int[] executed = transaction.hasFailed() ? this.n11 : this.n10;
+
+    if (transaction.getProbeGroupIds() != this.ids) {
+      // transaction created before the collector restarted, whose identifiers have to be
+      // translated one by one
+      for (int i = 0; i < transaction.getNumberOfActivities(); i++) {
+        int id = this.ids.get(transaction.getProbeGroupHash(i));
+        if (id >= fromId && id <= toId) {
+          this.count(transaction, i, id, executed);
+        }
+      }
+      return;
+    }
+
+    for (int i = transaction.lowerBoundOf(fromId); i < transaction.getNumberOfActivities(); i++) {
+      int id = transaction.getProbeGroupId(i);
+      if (id > toId) {
+        break;
+      }
+      this.count(transaction, i, id, executed);
+    }
+  }
+
+  /**
+   * Updates the counters of the probes of the i-th probe group executed by a transaction.
+   * 
+   * @param transaction
+   * @param index
+   * @param id identifier of the probe group in this table
+   * @param executed
+   */
+  private void count(final Transaction transaction, final int index, final int id,
+      final int[] executed) {
+    if (id >= this.offsets.length || this.offsets[id] == -1) {
+      // probe group is not part of the spectrum
+      return;
+    }
+
+    int offset = this.offsets[id];
+    int numberOfProbes = transaction.getNumberOfProbes(index);
+    long[] hitArray = transaction.getHitBits(index);
+
+    for (int w = 0; w < hitArray.length; w++) {
+      long word = hitArray[w];
+      while (word != 0L) {
+        int arrayIndex = (w << 6) + Long.numberOfTrailingZeros(word);
+        if (arrayIndex < numberOfProbes) {
+          executed[offset + arrayIndex]++;
+        }
+        word &= word - 1L;
+      }
+    }
+  }
+
+  /**
+   * Counts the passing and failing transactions of a list of transactions.
+   * 
+   * @param transactions
+   */
+  private void countTransactions(final List<Transaction> transactions) {
+    for (Transaction transaction : transactions) {
+      if (transaction.hasFailed()) {
+        this.numberOfFailingTransactions++;
+      } else {
+        this.numberOfPassingTransactions++;
+      }
+    }
+  }
+
+  /**
+   * Counts the passing and failing transactions of an indexed spectrum.
+   * 
+   * @param spectrum
+   */
+  private void countTransactions(final IndexedSpectrum spectrum) {
+    for (long word : spectrum.getFailingTransactions()) {
+      this.numberOfFailingTransactions += Long.bitCount(word);
+    }
+    for (long word : spectrum.getPassingTransactions()) {
+      this.numberOfPassingTransactions += Long.bitCount(word);
+    }
+  }
+
+  /**
+   * Updates the counters of the probes within [from, to[ with the columns of an indexed spectrum,
+   * i.e., without deserialising any transaction.
+   * 
+   * @param spectrum
+   * @param from
+   * @param to
+   */
+  private void countColumns(final IndexedSpectrum spectrum, final int from, final int to) {
+    long[] failing = spectrum.getFailingTransactions();
+    long[] passing = spectrum.getPassingTransactions();
+
+    for (int i = from; i < to; i++) {
+      long[] column = spectrum.getProbeColumn(i);
+      for (int w = 0; w < column.length; w++) {
+        this.n11[i] += Long.bitCount(column[w] & failing[w]);
+        this.n10[i] += Long.bitCount(column[w] & passing[w]);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of probes in the table.
+   * 
+   * @return
+   */
+  public int getNumberOfProbes() {
+    return this.probes.size();
+  }
+
+  /**
+   * Returns the i-th probe of the table.
+   * 
+   * @param index
+   * @return
+   */
+  public Probe getProbe(final int index) {
+    return this.probes.get(index);
+  }
+
+  /**
+   * Returns the number of passing transactions that do not execute the i-th probe.
+   * 
+   * @param index
+   * @return
+   */
+  public int getN00(final int index) {
+    return this.numberOfPassingTransactions - this.n10[index];
+  }
+
+  /**
+   * Returns the number of failing transactions that do not execute the i-th probe.
+   * 
+   * @param index
+   * @return
+   */
+  public int getN01(final int index) {
+    return this.numberOfFailingTransactions - this.n11[index];
+  }
+
+  /**
+   * Returns the number of passing transactions that execute the i-th probe.
+   * 
+   * @param index
+   * @return
+   */
+  public int getN10(final int index) {
+    return this.n10[index];
+  }
+
+  /**
+   * Returns the number of failing transactions that execute the i-th probe.
+   * 
+   * @param index
+   * @return
+   */
+  public int getN11(final int index) {
+    return this.n11[index];
+  }
+
+  /**
+   * Splits the probe groups of the table into chunks with a similar number of probes, and counts
+   * the activity of all transactions over each chunk. As chunks are disjoint, each counter is only
+   * ever updated by a single thread.
+   */
+  @SuppressWarnings("serial")
+  private final class AddTask extends RecursiveAction {
+
+    private static final int THRESHOLD = 4096;
+
+    private final List<Transaction> transactions;
+
+    private final int[] ids;
+
+    private final int[] cumulative;
+
+    private final int from;
+
+    private final int to;
+
+    private AddTask(final List<Transaction> transactions, final int[] ids, final int[] cumulative,
+        final int from, final int to) {
+      this.transactions = transactions;
+      this.ids = ids;
+      this.cumulative = cumulative;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.from >= this.to) {
+        return;
+      }
+
+      int firstProbe = this.cumulative[this.from];
+      int lastProbe = this.cumulative[this.to];
+      if (this.to - this.from == 1 || lastProbe - firstProbe <= THRESHOLD) {
+        int fromId = this.ids[this.from];
+        int toId = this.ids[this.to - 1];
+        for (Transaction transaction : this.transactions) {
+          count(transaction, fromId, toId);
+        }
+        return;
+      }
+
+      // split where the number of probes is (roughly) halved
+      int middleProbe = firstProbe + (lastProbe - firstProbe) / 2;
+      int middle = Arrays.binarySearch(this.cumulative, this.from + 1, this.to, middleProbe);
+      if (middle < 0) {
+        middle = -(middle + 1);
+      }
+      middle = Math.max(this.from + 1, Math.min(middle, this.to - 1));
+
+      invokeAll(new AddTask(this.transactions, this.ids, this.cumulative, this.from, middle),
+          new AddTask(this.transactions, this.ids, this.cumulative, middle, this.to));
+    }
+  }
+
+  /**
+   * Counts the activity of ranges of columns of an indexed spectrum.
+   */
+  @SuppressWarnings("serial")
+  private final class ColumnTask extends RecursiveAction {
+
+    private static final int THRESHOLD = 1024;
+
+    private final IndexedSpectrum spectrum;
+
+    private final int from;
+
+    private final int to;
+
+    private ColumnTask(final IndexedSpectrum spectrum, final int from, final int to) {
+      this.spectrum = spectrum;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.to - this.from <= THRESHOLD) {
+        countColumns(this.spectrum, this.from, this.to);
+        return;
+      }
+
+      int middle = this.from + (this.to - this.from) / 2;
+      invokeAll(new ColumnTask(this.spectrum, this.from, middle),
+          new ColumnTask(this.spectrum, middle, this.to));
+    }
+  }
+}
@@ -18,35 +18,141 @@ package com.gzoltar.sfl;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import com.gzoltar.core.spectrum.ISpectrum;
 import com.gzoltar.fl.IFaultLocalization;
 import com.gzoltar.fl.IFormula;
+import com.gzoltar.sfl.formulas.ISFLFormula;
 
-/**
- * Spectrum-based Fault Localization
- * 
- * @author José Campos
- */
 public class SFL<F extends IFormula> implements IFaultLocalization<F> {
 
   private final List<F> formulas = new ArrayList<F>();
 
+  private final int parallelism;
+
   /**
    * 
    * @param sflFormulas
    */
   public SFL(final List<F> sflFormulas) {
+    this(sflFormulas, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * 
+   * @param sflFormulas
+   * @param parallelism number of threads used to diagnose a spectrum (1 means sequential, less than
+   *        1 means as many as available processors)
+   */
+  public SFL(final List<F> sflFormulas, final int parallelism) {
     for (F sflFormula : sflFormulas) {
       this.formulas.add(sflFormula);
     }
+    this.parallelism =
+        parallelism < 1 ? Runtime.getRuntime().availableProcessors() : parallelism;
   }
 
   /**
    * {@inheritDoc}
    */
   public void diagnose(final ISpectrum spectrum) {
+    if (this.parallelism == 1) {
+      this.diagnoseSequentially(spectrum);
+      return;
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+    try {
+      this.diagnoseInParallel(spectrum, pool);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private void diagnoseSequentially(final ISpectrum spectrum) {
+    // n00, n01, n10, and n11 are computed once and shared by all formulas
+    ContingencyTable table = null;
+
     for (F formula : this.formulas) {
+      if (formula instanceof ISFLFormula) {
+        if (table == null) {
+          table = new ContingencyTable(spectrum);
+        }
+        ((ISFLFormula) formula).diagnose(table);
+      } else {
+        formula.diagnose(spectrum);
+      }
+    }
+  }
+
+  private void diagnoseInParallel(final ISpectrum spectrum, final ForkJoinPool pool) {
+    ContingencyTable table = null;
+
+    // consecutive SFL formulas are evaluated together, probe by probe, so that suspiciousness
+    // values are added to each node in the same order as a sequential diagnosis would
+    List<ISFLFormula> batch = new ArrayList<ISFLFormula>();
+    for (F formula : this.formulas) {
+      if (formula instanceof ISFLFormula) {
+        batch.add((ISFLFormula) formula);
+        continue;
+      }
+      if (!batch.isEmpty()) {
+        if (table == null) {
+          table = new ContingencyTable(spectrum, pool);
+        }
+        pool.invoke(new DiagnoseTask(batch, table, 0, table.getNumberOfProbes()));
+        batch = new ArrayList<ISFLFormula>();
+      }
       formula.diagnose(spectrum);
     }
+
+    if (!batch.isEmpty()) {
+      if (table == null) {
+        table = new ContingencyTable(spectrum, pool);
+      }
+      pool.invoke(new DiagnoseTask(batch, table, 0, table.getNumberOfProbes()));
+    }
+  }
+
+  /**
+   * Evaluates a set of formulas over a range of probes of a contingency table.
+   */
+  @SuppressWarnings("serial")
+  private static final class DiagnoseTask extends RecursiveAction {
+
+    private static final int THRESHOLD = 1024;
+
+    private final List<ISFLFormula> formulas;
+
+    private final ContingencyTable table;
+
+    private final int from;
+
+    private final int to;
+
+    private DiagnoseTask(final List<ISFLFormula> formulas, final ContingencyTable table,
+        final int from, final int to) {
+      this.formulas = formulas;
+      this.table = table;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.to - this.from <= THRESHOLD) {
+        for (int i = this.from; i < this.to; i++) {
+          for (ISFLFormula formula : this.formulas) {
+            formula.diagnose(this.table, i, i + 1);
+          }
+        }
+        return;
+      }
+
+      int middle = (this.from + this.to) >>> 1;
+      invokeAll(new DiagnoseTask(this.formulas, this.table, this.from, middle),
+          new DiagnoseTask(this.formulas, this.table, middle, this.to));
+    }
   }
 }
@@ -16,10 +16,8 @@
  */
 package com.gzoltar.sfl.formulas;
 
-import com.gzoltar.core.model.Transaction;
-import com.gzoltar.core.runtime.Probe;
-import com.gzoltar.core.runtime.ProbeGroup;
 import com.gzoltar.core.spectrum.ISpectrum;
+import com.gzoltar.sfl.ContingencyTable;
 
 public abstract class AbstractSFLFormula implements ISFLFormula {
 
@@ -27,35 +25,23 @@ public abstract class AbstractSFLFormula implements ISFLFormula {
    * {@inheritDoc}
    */
   public void diagnose(final ISpectrum spectrum) {
-    int n00 = 0;
-    int n01 = 0;
-    int n10 = 0;
-    int n11 = 0;
-
-    for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
-      for (Probe probe : probeGroup.getProbes()) {
-        n00 = n01 = n10 = n11 = 0;
-
-        for (Transaction transaction : spectrum.getTransactions()) {
-          boolean hasFailed = transaction.hasFailed();
+    this.diagnose(new ContingencyTable(spectrum));
+  }
 
-          if (transaction.isProbeActived(probeGroup, probe.getArrayIndex())) {
-            if (hasFailed) {
-              n11++;
-            } else {
-              n10++;
-            }
-          } else {
-            if (hasFailed) {
-              n01++;
-            } else {
-              n00++;
-            }
-          }
-        }
+  /**
+   * {@inheritDoc}
+   */
+  public void diagnose(final ContingencyTable table) {
+    this.diagnose(table, 0, table.getNumberOfProbes());
+  }
 
-        probe.getNode().addSuspiciousnessValue(this.getName(), this.compute(n00, n01, n10, n11));
-      }
+  /**
+   * {@inheritDoc}
+   */
+  public void diagnose(final ContingencyTable table, final int from, final int to) {
+    for (int i = from; i < to; i++) {
+      table.getProbe(i).getNode().addSuspiciousnessValue(this.getName(),
+          this.compute(table.getN00(i), table.getN01(i), table.getN10(i), table.getN11(i)));
     }
   }
 
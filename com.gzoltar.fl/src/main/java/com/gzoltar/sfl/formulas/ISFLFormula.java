@@ -17,9 +17,27 @@
 package com.gzoltar.sfl.formulas;
 
 import com.gzoltar.fl.IFormula;
+import com.gzoltar.sfl.ContingencyTable;
 
 public interface ISFLFormula extends IFormula {
 
+  /**
+   * Computes the suspiciousness value of every probe of a previously computed contingency table.
+   * 
+   * @param table
+   */
+  public void diagnose(final ContingencyTable table);
+
+  /**
+   * Computes the suspiciousness value of the probes of a previously computed contingency table
+   * whose index is within [from, to).
+   * 
+   * @param table
+   * @param from
+   * @param to
+   */
+  public void diagnose(final ContingencyTable table, final int from, final int to);
+
   /**
    * Returns a suspiciousness value
    * 
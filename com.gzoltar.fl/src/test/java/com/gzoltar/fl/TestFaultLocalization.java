@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.fl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.spectrum.SpectrumWriter;
+import com.gzoltar.sfl.formulas.Ochiai;
+
+public class TestFaultLocalization {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void beforeEachUnitTest() {
+    Collector.restart();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testReportFinerThanCollectedCoverage() throws Exception {
+    File dataFile = this.folder.newFile("gzoltar.ser");
+    OutputStream output = new FileOutputStream(dataFile);
+    try {
+      new SpectrumWriter(output, GranularityLevel.METHOD);
+    } finally {
+      output.close();
+    }
+
+    AgentConfigs agentConfigs = new AgentConfigs();
+    agentConfigs.setGranularity(GranularityLevel.LINE);
+    List<IFormula> formulas = new ArrayList<IFormula>();
+    formulas.add(new Ochiai());
+    new FaultLocalization(FaultLocalizationFamily.SFL, formulas)
+        .diagnose(this.folder.getRoot().getAbsolutePath(), agentConfigs, dataFile);
+  }
+}
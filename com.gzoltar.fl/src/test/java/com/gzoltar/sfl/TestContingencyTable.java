@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.sfl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.instr.InstrumentationLevel;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.instr.pass.CoveragePass;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.Probe;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.spectrum.FilteredSpectrum;
+import com.gzoltar.core.spectrum.ISpectrum;
+import com.gzoltar.core.util.ArrayUtils;
+import com.gzoltar.fl.FaultLocalization;
+import javassist.ClassPool;
+
+public class TestContingencyTable {
+
+  private final static ClassPool pool = ClassPool.getDefault();
+
+  @Before
+  public void beforeEachUnitTest() {
+    Collector.restart();
+  }
+
+  /**
+   * Creates a spectrum of several probe groups, whose transactions execute random probes.
+   */
+  private static ISpectrum createSpectrum(final int numberOfTransactions) throws Exception {
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(GranularityLevel.LINE);
+    configs.setInstrumentationLevel(InstrumentationLevel.NONE);
+
+    CoveragePass instrumentationPass = new CoveragePass(configs);
+    instrumentationPass.transform(pool.get(ContingencyTable.class.getCanonicalName()));
+    instrumentationPass.transform(pool.get(SFL.class.getCanonicalName()));
+    instrumentationPass.transform(pool.get(FaultLocalization.class.getCanonicalName()));
+
+    ISpectrum spectrum = Collector.instance().getSpectrum();
+
+    Random random = new Random(0);
+    for (int t = 0; t < numberOfTransactions; t++) {
+      Transaction transaction = new Transaction("test" + t,
+          random.nextInt(4) == 0 ? TransactionOutcome.FAIL : TransactionOutcome.PASS, t, "");
+      for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
+        if (random.nextInt(3) == 0) {
+          // probe group not executed at all
+          continue;
+        }
+        long[] hitArray = new long[ArrayUtils.numberOfWords(probeGroup.getNumberOfProbes())];
+        for (int i = 0; i < probeGroup.getNumberOfProbes(); i++) {
+          if (random.nextInt(3) == 0) {
+            ArrayUtils.setBit(hitArray, i);
+          }
+        }
+        if (ArrayUtils.containsBit(hitArray)) {
+          transaction.addActivity(probeGroup.getHash(), probeGroup.getName(), hitArray,
+              probeGroup.getNumberOfProbes());
+        }
+      }
+      spectrum.addTransaction(transaction);
+    }
+
+    return spectrum;
+  }
+
+  /**
+   * Checks the counters of a contingency table against those computed probe by probe, over all
+   * transactions of the spectrum.
+   */
+  private static void assertCounters(final ISpectrum spectrum, final ContingencyTable table) {
+    // <probe, [n00, n01, n10, n11]>
+    Map<Probe, int[]> expected = new IdentityHashMap<Probe, int[]>();
+    for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
+      for (Probe probe : probeGroup.getProbes()) {
+        int[] counters = new int[4];
+        for (Transaction transaction : spectrum.getTransactions()) {
+          boolean hasFailed = transaction.hasFailed();
+          if (transaction.isProbeActived(probeGroup, probe.getArrayIndex())) {
+            counters[hasFailed ? 3 : 2]++;
+          } else {
+            counters[hasFailed ? 1 : 0]++;
+          }
+        }
+        expected.put(probe, counters);
+      }
+    }
+
+    assertEquals(expected.size(), table.getNumberOfProbes());
+    for (int i = 0; i < table.getNumberOfProbes(); i++) {
+      int[] counters = expected.get(table.getProbe(i));
+      assertNotNull(counters);
+      assertEquals(counters[0], table.getN00(i));
+      assertEquals(counters[1], table.getN01(i));
+      assertEquals(counters[2], table.getN10(i));
+      assertEquals(counters[3], table.getN11(i));
+    }
+  }
+
+  private static void assertCounters(final ISpectrum spectrum) {
+    assertCounters(spectrum, new ContingencyTable(spectrum));
+
+    ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+    try {
+      assertCounters(spectrum, new ContingencyTable(spectrum, forkJoinPool));
+    } finally {
+      forkJoinPool.shutdown();
+    }
+  }
+
+  @Test
+  public void testSeveralProbeGroups() throws Exception {
+    ISpectrum spectrum = createSpectrum(150);
+    assertEquals(3, spectrum.getProbeGroups().size());
+    assertCounters(spectrum);
+  }
+
+  @Test
+  public void testFilteredSpectrum() throws Exception {
+    ISpectrum spectrum = createSpectrum(150);
+
+    // probes are removed, and therefore the remaining ones are given new array indexes
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(GranularityLevel.METHOD);
+    configs.setInclPublicMethods(false);
+    ISpectrum filteredSpectrum = new FilteredSpectrum(configs).filter(spectrum);
+    assertTrue(filteredSpectrum.getNumberOfNodes() > 0);
+    assertTrue(filteredSpectrum.getNumberOfNodes() < spectrum.getNumberOfNodes());
+
+    assertCounters(filteredSpectrum);
+  }
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.sfl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.instr.InstrumentationLevel;
+import com.gzoltar.core.instr.granularity.GranularityLevel;
+import com.gzoltar.core.instr.pass.CoveragePass;
+import com.gzoltar.core.model.Node;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.runtime.Collector;
+import com.gzoltar.core.runtime.ProbeGroup;
+import com.gzoltar.core.spectrum.ISpectrum;
+import com.gzoltar.core.util.ArrayUtils;
+import com.gzoltar.fl.FaultLocalization;
+import com.gzoltar.sfl.formulas.ISFLFormula;
+import javassist.ClassPool;
+
+public class TestSFL {
+
+  private final static ClassPool pool = ClassPool.getDefault();
+
+  @Before
+  public void beforeEachUnitTest() {
+    Collector.restart();
+  }
+
+  /**
+   * Creates a new spectrum of several probe groups, whose transactions execute random (but, for
+   * the same seed, always the same) probes.
+   */
+  private static ISpectrum createSpectrum(final int numberOfTransactions, final long seed)
+      throws Exception {
+    Collector.restart();
+
+    AgentConfigs configs = new AgentConfigs();
+    configs.setGranularity(GranularityLevel.LINE);
+    configs.setInstrumentationLevel(InstrumentationLevel.NONE);
+
+    CoveragePass instrumentationPass = new CoveragePass(configs);
+    instrumentationPass.transform(pool.get(ContingencyTable.class.getCanonicalName()));
+    instrumentationPass.transform(pool.get(SFL.class.getCanonicalName()));
+    instrumentationPass.transform(pool.get(FaultLocalization.class.getCanonicalName()));
+
+    ISpectrum spectrum = Collector.instance().getSpectrum();
+
+    Random random = new Random(seed);
+    for (int t = 0; t < numberOfTransactions; t++) {
+      Transaction transaction = new Transaction("test" + t,
+          random.nextInt(4) == 0 ? TransactionOutcome.FAIL : TransactionOutcome.PASS, t, "");
+      for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
+        long[] hitArray = new long[ArrayUtils.numberOfWords(probeGroup.getNumberOfProbes())];
+        for (int i = 0; i < probeGroup.getNumberOfProbes(); i++) {
+          if (random.nextInt(3) == 0) {
+            ArrayUtils.setBit(hitArray, i);
+          }
+        }
+        if (ArrayUtils.containsBit(hitArray)) {
+          transaction.addActivity(probeGroup.getHash(), probeGroup.getName(), hitArray,
+              probeGroup.getNumberOfProbes());
+        }
+      }
+      spectrum.addTransaction(transaction);
+    }
+
+    return spectrum;
+  }
+
+  private static List<ISFLFormula> allFormulas() {
+    List<ISFLFormula> formulas = new ArrayList<ISFLFormula>();
+    for (SFLFormulas formula : SFLFormulas.values()) {
+      formulas.add(formula.getFormula());
+    }
+    return formulas;
+  }
+
+  /**
+   * Returns the names of the nodes of a spectrum, from the most to the least suspicious one
+   * according to a formula. Nodes equally suspicious keep the order of the spectrum.
+   */
+  private static List<String> rank(final ISpectrum spectrum, final String formulaName) {
+    List<Node> nodes = new ArrayList<Node>(spectrum.getNodes());
+    Collections.sort(nodes, new Comparator<Node>() {
+      @Override
+      public int compare(final Node n1, final Node n2) {
+        return Double.compare(n2.getSuspiciousnessValue(formulaName),
+            n1.getSuspiciousnessValue(formulaName));
+      }
+    });
+
+    List<String> names = new ArrayList<String>();
+    for (Node node : nodes) {
+      names.add(node.getNameWithLineNumber());
+    }
+    return names;
+  }
+
+  @Test
+  public void testSequentialAndParallelDiagnosesAgree() throws Exception {
+    ISpectrum sequential = createSpectrum(300, 0L);
+    new SFL<ISFLFormula>(allFormulas(), 1).diagnose(sequential);
+
+    ISpectrum parallel = createSpectrum(300, 0L);
+    new SFL<ISFLFormula>(allFormulas(), 4).diagnose(parallel);
+
+    List<Node> sequentialNodes = sequential.getNodes();
+    List<Node> parallelNodes = parallel.getNodes();
+    assertTrue(sequentialNodes.size() > 0);
+    assertEquals(sequentialNodes.size(), parallelNodes.size());
+
+    // same suspiciousness values, added in the same order
+    for (int i = 0; i < sequentialNodes.size(); i++) {
+      Node sequentialNode = sequentialNodes.get(i);
+      Node parallelNode = parallelNodes.get(i);
+      assertEquals(sequentialNode.getNameWithLineNumber(), parallelNode.getNameWithLineNumber());
+      assertEquals(new ArrayList<String>(sequentialNode.getSuspiciousnessValues().keySet()),
+          new ArrayList<String>(parallelNode.getSuspiciousnessValues().keySet()));
+      assertEquals(new ArrayList<Double>(sequentialNode.getSuspiciousnessValues().values()),
+          new ArrayList<Double>(parallelNode.getSuspiciousnessValues().values()));
+    }
+
+    // and therefore the same ranking
+    for (ISFLFormula formula : allFormulas()) {
+      assertEquals(rank(sequential, formula.getName()), rank(parallel, formula.getName()));
+    }
+  }
+
+}
@@ -65,6 +65,26 @@ public abstract class AbstractAgentMojo extends AbstractGZoltarMojo {
   @Parameter(property = "gzoltar.inclNoLocationClasses", defaultValue = "false")
   private Boolean inclNoLocationClasses;
 
+  /**
+   * Specifies the granularity level at which coverage is collected, i.e., which probes are placed.
+   * Reports at a finer granularity level cannot be built from the collected coverage. Valid options
+   * are:
+   * <ul>
+   * <li>line (default)</li>
+   * <li>basicblock</li>
+   * <li>method</li>
+   * <li>class</li>
+   * </ul>
+   */
+  @Parameter(property = "gzoltar.granularity", defaultValue = "LINE")
+  private String granularity;
+
+  /**
+   * Specifies whether probes whose hits can be inferred from other probes should not be placed.
+   */
+  @Parameter(property = "gzoltar.inferProbes", defaultValue = "false")
+  private Boolean inferProbes;
+
   /**
    * Output method to use for writing coverage data. Valid options are:
    * <ul>
@@ -76,6 +96,13 @@ public abstract class AbstractAgentMojo extends AbstractGZoltarMojo {
   @Parameter(property = "gzoltar.output", defaultValue = "FILE")
   private String output;
 
+  /**
+   * Directory in which instrumented classes are cached, so that classes that have not changed are
+   * not instrumented again by later builds. By default, instrumented classes are not cached.
+   */
+  @Parameter(property = "gzoltar.instrumentationCache")
+  private File instrumentationCache;
+
   @Override
   public void executeMojo() throws MojoExecutionException, MojoFailureException {
     final Properties projectProperties = this.getProject().getProperties();
@@ -95,6 +122,19 @@ public abstract class AbstractAgentMojo extends AbstractGZoltarMojo {
     return this.createAgentConfigurations().prependVMArguments("", getAgentJarFile());
   }
 
+  /**
+   * Return a string representation of the GZoltar Java agent with all properties defined, which
+   * writes its execution data to the given file.
+   * 
+   * @param destFile
+   * @return
+   */
+  public String prepareAgentVM(final File destFile) {
+    final AgentConfigs agentConfigs = this.createAgentConfigurations();
+    agentConfigs.setDestfile(destFile.getAbsolutePath());
+    return agentConfigs.prependVMArguments("", getAgentJarFile());
+  }
+
   private File getAgentJarFile() {
     final Artifact gzoltarAgentArtifact = this.pluginArtifactMap.get(AGENT_ARTIFACT_NAME);
     return gzoltarAgentArtifact.getFile();
@@ -127,10 +167,22 @@ public abstract class AbstractAgentMojo extends AbstractGZoltarMojo {
       agentConfigs.setInclNoLocationClasses(this.inclNoLocationClasses.booleanValue());
     }
 
+    if (this.granularity != null) {
+      agentConfigs.setGranularity(this.granularity);
+    }
+
+    if (this.inferProbes != null) {
+      agentConfigs.setInferProbes(this.inferProbes.booleanValue());
+    }
+
     if (this.output != null) {
       agentConfigs.setOutput(this.output);
     }
 
+    if (this.instrumentationCache != null) {
+      agentConfigs.setInstrumentationCache(this.instrumentationCache.getAbsolutePath());
+    }
+
     return agentConfigs;
   }
 
@@ -23,10 +23,11 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import com.gzoltar.core.AgentConfigs;
 import com.gzoltar.core.instr.InstrumentationLevel;
-import com.gzoltar.core.instr.Instrumenter;
+import com.gzoltar.core.instr.ParallelInstrumenter;
 import javassist.ClassPool;
 
 @Mojo(name = "instrument", defaultPhase = LifecyclePhase.PROCESS_CLASSES,
@@ -34,6 +35,12 @@ import javassist.ClassPool;
     requiresDependencyCollection = ResolutionScope.TEST, threadSafe = true)
 public class InstrumentMojo extends AbstractAgentMojo {
 
+  /**
+   * Number of threads used to instrument classes (0 means as many as available processors).
+   */
+  @Parameter(property = "gzoltar.parallelism", defaultValue = "0")
+  private int parallelism;
+
   /**
    * {@inheritDoc}
    */
@@ -78,7 +85,7 @@ public class InstrumentMojo extends AbstractAgentMojo {
     // configure instrumentation
     AgentConfigs agentConfigs = this.createAgentConfigurations();
     agentConfigs.setInstrumentationLevel(InstrumentationLevel.OFFLINE);
-    Instrumenter instrumenter = new Instrumenter(agentConfigs);
+    ParallelInstrumenter instrumenter = new ParallelInstrumenter(agentConfigs, this.parallelism);
 
     // instrument recursively
     try {
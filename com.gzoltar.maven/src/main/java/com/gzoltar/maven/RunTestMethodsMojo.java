@@ -16,9 +16,23 @@
  */
 package com.gzoltar.maven;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -27,6 +41,10 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
+import com.gzoltar.core.spectrum.SpectrumMerger;
+import com.gzoltar.core.test.TestMethod;
+import com.gzoltar.core.test.TestSharding;
+import com.gzoltar.core.util.ClassType;
 import com.gzoltar.core.util.SystemProperties;
 import com.gzoltar.maven.utils.ClasspathUtils;
 import com.gzoltar.maven.utils.Launcher;
@@ -50,6 +68,39 @@ public class RunTestMethodsMojo extends AgentMojo {
   @Parameter(property = "gzoltar.collectCoverage", defaultValue = "true")
   private boolean collectCoverage;
 
+  /**
+   * Number of test methods run at the same time (0 means as many as available processors).
+   */
+  @Parameter(property = "gzoltar.testParallelism", defaultValue = "1")
+  private int testParallelism;
+
+  /**
+   * Number of test methods of the same test class run in the same class loader before it is
+   * recycled (0 means no limit). By default, each test method runs in its own class loader.
+   */
+  @Parameter(property = "gzoltar.testsPerClassLoader", defaultValue = "1")
+  private int testsPerClassLoader;
+
+  /**
+   * Maximum number of milliseconds each test method may run for (0 means no limit).
+   */
+  @Parameter(property = "gzoltar.testTimeout", defaultValue = "0")
+  private long testTimeout;
+
+  /**
+   * Number of JVMs among which test methods are distributed. Each JVM writes its own execution data
+   * file, and all files are merged into the destination file once all JVMs have finished.
+   */
+  @Parameter(property = "gzoltar.shards", defaultValue = "1")
+  private int shards;
+
+  /**
+   * Execution data file from which the runtime of each test method is read, to balance the shards.
+   * By default, the destination file (if it exists), i.e., the execution data of a previous run.
+   */
+  @Parameter(property = "gzoltar.shardRuntimes")
+  private File shardRuntimes;
+
   /**
    * {@inheritDoc}
    */
@@ -60,37 +111,150 @@ public class RunTestMethodsMojo extends AgentMojo {
       throw new MojoExecutionException(testMethodsFile + " does not exist or cannot be read");
     }
 
+    if (this.shards > 1) {
+      this.executeShards(testMethodsFile);
+      return;
+    }
+
     try {
-      List<String> commandLineArgs = new ArrayList<String>();
+      if (Launcher.launch(this.createCommandLine(testMethodsFile, this.getDestFile())) != 0) {
+        throw new MojoFailureException("Execution of each test case in isolation has failed!");
+      }
+    } catch (Exception e) {
+      throw new MojoExecutionException(e.getMessage(), e);
+    }
+  }
+
+  private List<String> createCommandLine(final File testMethodsFile, final File destFile)
+      throws Exception {
+    List<String> commandLineArgs = new ArrayList<String>();
+
+    if (!this.offline) {
+      commandLineArgs.add(this.prepareAgentVM(destFile));
+    } else {
+      commandLineArgs.add("-Dgzoltar-agent.destfile=" + destFile.getAbsolutePath());
+      commandLineArgs.add("-Dgzoltar-agent.output=" + this.getOutput());
+    }
+
+    commandLineArgs.add("-classpath");
+    commandLineArgs.add(StringUtils.join(ClasspathUtils.getTestClasspath(this.getProject()),
+        SystemProperties.PATH_SEPARATOR));
+
+    commandLineArgs.add("com.gzoltar.cli.Main");
+
+    commandLineArgs.add("runTestMethods");
+    commandLineArgs.add("--testMethods");
+    commandLineArgs.add(testMethodsFile.getAbsolutePath());
+    if (this.offline) {
+      commandLineArgs.add("--offline");
+    }
+    if (this.collectCoverage) {
+      commandLineArgs.add("--collectCoverage");
+    }
+    commandLineArgs.add("--parallelism");
+    commandLineArgs.add(Integer.toString(this.testParallelism));
+    commandLineArgs.add("--testsPerClassLoader");
+    commandLineArgs.add(Integer.toString(this.testsPerClassLoader));
+    commandLineArgs.add("--timeout");
+    commandLineArgs.add(Long.toString(this.testTimeout));
+
+    return commandLineArgs;
+  }
 
-      if (!this.offline) {
-        commandLineArgs.add(this.prepareAgentVM());
-      } else {
-        commandLineArgs.add("-Dgzoltar-agent.destfile=" + this.getDestFile().getAbsolutePath());
-        commandLineArgs.add("-Dgzoltar-agent.output=" + this.getOutput());
+  /**
+   * Runs each shard of test methods in its own JVM, and merges their execution data files into the
+   * destination file, in the order of the test methods.
+   * 
+   * @param testMethodsFile
+   * @throws MojoExecutionException
+   * @throws MojoFailureException
+   */
+  private void executeShards(final File testMethodsFile)
+      throws MojoExecutionException, MojoFailureException {
+    final File destFile = this.getDestFile();
+    final File shardsDirectory =
+        new File(destFile.getAbsoluteFile().getParentFile(), "gzoltar-shards");
+    shardsDirectory.mkdirs();
+
+    boolean failed = false;
+    try {
+      final List<TestMethod> testMethods = new ArrayList<TestMethod>();
+      final List<String> testMethodNames = new ArrayList<String>();
+      try (BufferedReader br = new BufferedReader(new FileReader(testMethodsFile))) {
+        String line;
+        while ((line = br.readLine()) != null) {
+          String[] split = line.split(",");
+          TestMethod testMethod = new TestMethod(ClassType.valueOf(split[0]), split[1]);
+          testMethods.add(testMethod);
+          testMethodNames.add(testMethod.getLongName());
+        }
+      }
+
+      Map<String, Long> runtimes = new HashMap<String, Long>();
+      final File runtimesFile = this.shardRuntimes != null ? this.shardRuntimes : destFile;
+      if (runtimesFile.exists()) {
+        try {
+          runtimes = TestSharding.readRuntimes(runtimesFile);
+        } catch (IOException e) {
+          this.getLog().warn("Runtime of test methods could not be read from " + runtimesFile
+              + ", shards are balanced by number of test methods");
+        }
       }
 
-      commandLineArgs.add("-classpath");
-      commandLineArgs.add(StringUtils.join(ClasspathUtils.getTestClasspath(this.getProject()),
-          SystemProperties.PATH_SEPARATOR));
+      final List<List<TestMethod>> testShards =
+          TestSharding.partition(testMethods, runtimes, this.shards);
+      final List<File> dataFiles = new ArrayList<File>();
+      final List<Callable<Integer>> launches = new ArrayList<Callable<Integer>>();
+      for (int i = 0; i < testShards.size(); i++) {
+        final File shardFile = new File(shardsDirectory, "tests-" + i + ".txt");
+        try (PrintWriter writer = new PrintWriter(shardFile)) {
+          for (TestMethod testMethod : testShards.get(i)) {
+            writer.println(testMethod.getClassType().name() + "," + testMethod.getLongName());
+          }
+        }
 
-      commandLineArgs.add("com.gzoltar.cli.Main");
+        final File dataFile = new File(shardsDirectory, "gzoltar-" + i + ".ser");
+        // agents append to their destination file
+        dataFile.delete();
+        dataFiles.add(dataFile);
 
-      commandLineArgs.add("runTestMethods");
-      commandLineArgs.add("--testMethods");
-      commandLineArgs.add(this.testFileName);
-      if (this.offline) {
-        commandLineArgs.add("--offline");
+        final List<String> commandLineArgs = this.createCommandLine(shardFile, dataFile);
+        launches.add(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            return Launcher.launch(commandLineArgs);
+          }
+        });
       }
-      if (this.collectCoverage) {
-        commandLineArgs.add("--collectCoverage");
+
+      this.getLog().info("Running " + testMethods.size() + " test methods in "
+          + testShards.size() + " JVMs");
+      ExecutorService executor = Executors.newFixedThreadPool(launches.size());
+      try {
+        for (Future<Integer> result : executor.invokeAll(launches)) {
+          try {
+            failed = failed || result.get() != 0;
+          } catch (ExecutionException e) {
+            this.getLog().error(e.getCause());
+            failed = true;
+          }
+        }
+      } finally {
+        executor.shutdown();
       }
 
-      if (Launcher.launch(commandLineArgs) != 0) {
-        throw new MojoFailureException("Execution of each test case in isolation has failed!");
+      SpectrumMerger merger = new SpectrumMerger();
+      merger.setOrder(testMethodNames);
+      try (OutputStream output = new BufferedOutputStream(new FileOutputStream(destFile, true))) {
+        int numberOfTransactions = merger.merge(dataFiles, output);
+        this.getLog().info("Merged " + numberOfTransactions + " transactions into " + destFile);
       }
     } catch (Exception e) {
       throw new MojoExecutionException(e.getMessage(), e);
     }
+
+    if (failed) {
+      throw new MojoFailureException("Execution of each test case in isolation has failed!");
+    }
   }
 }
@@ -53,8 +53,9 @@ public class FaultLocalizationReportBuilder {
           + flFamily.getName().toLowerCase(Locale.ENGLISH);
 
       // first diagnose it
-      FaultLocalization fl =
-          new FaultLocalization(flFamily.getFaultLocalizationFamily(), flFamily.getFormulas());
+      FaultLocalization fl = new FaultLocalization(flFamily.getFaultLocalizationFamily(),
+          flFamily.getFormulas(), flFamily.getParallelism(), flFamily.getIndexedSpectrum(),
+          flFamily.getStreamingSpectrum());
       ISpectrum spectrum = fl.diagnose(buildLocation, agentConfigs, dataFile);
 
       // which formatter of report?
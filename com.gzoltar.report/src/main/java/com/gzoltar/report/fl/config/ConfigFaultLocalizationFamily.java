@@ -36,6 +36,12 @@ public class ConfigFaultLocalizationFamily {
 
   private List<IReportFormatter> formatters;
 
+  private int parallelism = 0;
+
+  private boolean indexedSpectrum = false;
+
+  private boolean streamingSpectrum = false;
+
   public void setName(String faultLocalizationFamilyName) {
     this.faultLocalizationFamily =
         FaultLocalizationFamily.valueOf(faultLocalizationFamilyName.toUpperCase(Locale.ENGLISH));
@@ -98,4 +104,28 @@ public class ConfigFaultLocalizationFamily {
   public boolean hasReportFormatters() {
     return !this.formatters.isEmpty();
   }
+
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  public int getParallelism() {
+    return this.parallelism;
+  }
+
+  public void setIndexedSpectrum(boolean indexedSpectrum) {
+    this.indexedSpectrum = indexedSpectrum;
+  }
+
+  public boolean getIndexedSpectrum() {
+    return this.indexedSpectrum;
+  }
+
+  public void setStreamingSpectrum(boolean streamingSpectrum) {
+    this.streamingSpectrum = streamingSpectrum;
+  }
+
+  public boolean getStreamingSpectrum() {
+    return this.streamingSpectrum;
+  }
 }
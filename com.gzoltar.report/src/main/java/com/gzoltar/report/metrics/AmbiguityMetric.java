@@ -17,7 +17,9 @@
 package com.gzoltar.report.metrics;
 
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 import com.gzoltar.core.model.Transaction;
 import com.gzoltar.core.runtime.Probe;
@@ -32,20 +34,35 @@ public class AmbiguityMetric extends AbstractMetric {
       return 0;
     }
 
-    Set<Integer> ambiguityGroups = new LinkedHashSet<Integer>();
+    // transactions that execute each probe, found in a single pass over all transactions (which
+    // might be read from a file, see com.gzoltar.core.spectrum.StreamingSpectrum)
+    Map<String, BitSet[]> executions = new HashMap<String, BitSet[]>();
     for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
-      for (Probe probe : probeGroup.getProbes()) {
-        BitSet bs = new BitSet();
+      BitSet[] bitSets = new BitSet[probeGroup.getNumberOfProbes()];
+      for (int i = 0; i < bitSets.length; i++) {
+        bitSets[i] = new BitSet();
+      }
+      executions.put(probeGroup.getHash(), bitSets);
+    }
 
-        int t = 0;
-        for (Transaction transaction : spectrum.getTransactions()) {
+    int t = 0;
+    for (Transaction transaction : spectrum.getTransactions()) {
+      for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
+        BitSet[] bitSets = executions.get(probeGroup.getHash());
+        for (Probe probe : probeGroup.getProbes()) {
           if (transaction.isProbeActived(probeGroup, probe.getArrayIndex())) {
-            bs.set(t);
+            bitSets[probe.getArrayIndex()].set(t);
           }
-          t++;
         }
- 
-        ambiguityGroups.add(bs.hashCode());
+      }
+      t++;
+    }
+
+    Set<Integer> ambiguityGroups = new LinkedHashSet<Integer>();
+    for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
+      BitSet[] bitSets = executions.get(probeGroup.getHash());
+      for (Probe probe : probeGroup.getProbes()) {
+        ambiguityGroups.add(bitSets[probe.getArrayIndex()].hashCode());
       }
     }
 
@@ -16,6 +16,8 @@
  */
 package com.gzoltar.report.metrics;
 
+import java.util.HashMap;
+import java.util.Map;
 import com.gzoltar.core.model.Transaction;
 import com.gzoltar.core.runtime.Probe;
 import com.gzoltar.core.runtime.ProbeGroup;
@@ -32,17 +34,33 @@ public class CoverageMetric extends AbstractMetric {
     int components = spectrum.getNumberOfNodes();
     int activations = 0;
 
+    // probes executed by any transaction, found in a single pass over all transactions (which
+    // might be read from a file, see com.gzoltar.core.spectrum.StreamingSpectrum)
+    Map<String, boolean[]> executed = new HashMap<String, boolean[]>();
     for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
-      probeBreak: for (Probe probe : probeGroup.getProbes()) {
-        for (Transaction transaction : spectrum.getTransactions()) {
+      executed.put(probeGroup.getHash(), new boolean[probeGroup.getNumberOfProbes()]);
+    }
+    for (Transaction transaction : spectrum.getTransactions()) {
+      for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
+        boolean[] probes = executed.get(probeGroup.getHash());
+        for (Probe probe : probeGroup.getProbes()) {
           if (transaction.isProbeActived(probeGroup, probe.getArrayIndex())) {
-            activations += 1;
-            break probeBreak;
+            probes[probe.getArrayIndex()] = true;
           }
         }
       }
     }
 
+    for (ProbeGroup probeGroup : spectrum.getProbeGroups()) {
+      boolean[] probes = executed.get(probeGroup.getHash());
+      probeBreak: for (Probe probe : probeGroup.getProbes()) {
+        if (probes[probe.getArrayIndex()]) {
+          activations += 1;
+          break probeBreak;
+        }
+      }
+    }
+
     double coverage = (double) activations / (double) components;
     return coverage;
   }
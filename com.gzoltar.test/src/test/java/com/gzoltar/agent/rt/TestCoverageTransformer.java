@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.agent.rt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.instr.InstrumentationConstants;
+import com.gzoltar.core.instr.InstrumentationLevel;
+import com.gzoltar.core.runtime.Collector;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewMethod;
+import javassist.bytecode.ClassFile;
+
+/**
+ * Unit tests for {@link com.gzoltar.agent.rt.CoverageTransformer}
+ */
+public class TestCoverageTransformer {
+
+  private static final String OFFLINE_CLASS_NAME = "com.gzoltar.internal.agent.rt.Offline";
+
+  @Before
+  public void setUp() {
+    Collector.instance();
+    Collector.restart();
+  }
+
+  /**
+   * Class whose static initializer always runs before any other of its methods.
+   */
+  public static class Counter {
+
+    private static int count = 0;
+
+    public static int increment() {
+      if (count < 0) {
+        count = 0;
+      }
+      return ++count;
+    }
+  }
+
+  /**
+   * Loads the given classes before delegating to its parent.
+   */
+  private static final class ClassesLoader extends ClassLoader {
+
+    private final Map<String, byte[]> classes;
+
+    private ClassesLoader(final Map<String, byte[]> classes) {
+      super(TestCoverageTransformer.class.getClassLoader());
+      this.classes = classes;
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(final String name, final boolean resolve)
+        throws ClassNotFoundException {
+      byte[] bytecode = this.classes.get(name);
+      if (bytecode == null) {
+        return super.loadClass(name, resolve);
+      }
+      Class<?> clazz = this.findLoadedClass(name);
+      if (clazz == null) {
+        clazz = this.defineClass(name, bytecode, 0, bytecode.length);
+      }
+      return clazz;
+    }
+  }
+
+  /**
+   * Stub of the agent's runtime, which keeps the arguments of its last calls.
+   */
+  private static byte[] createOfflineStub(final ClassPool classPool) throws Exception {
+    CtClass offline = classPool.makeClass(OFFLINE_CLASS_NAME);
+    offline.addField(CtField.make("public static Object[] dirtyArgs;", offline));
+    offline.addMethod(CtNewMethod.make("public static void getHitArray(Object[] a) { "
+        + "a[0] = new boolean[Integer.parseInt((String) a[2]) + 1]; }", offline));
+    offline.addMethod(
+        CtNewMethod.make("public static void markDirty(Object[] a) { dirtyArgs = a; }", offline));
+    return offline.toBytecode();
+  }
+
+  /**
+   * Instrumentation that is never used, as classes are retransformed by calling the transformer.
+   */
+  private static Instrumentation createInstrumentation() {
+    return (Instrumentation) Proxy.newProxyInstance(Instrumentation.class.getClassLoader(),
+        new Class<?>[] {Instrumentation.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  @Test
+  public void testRetransformInitialisedClass() throws Exception {
+    ClassPool classPool = new ClassPool(true);
+    CtClass ctClass = classPool.get(Counter.class.getName());
+    // link the hit array through the stub's collector call
+    ctClass.getClassFile().setMajorVersion(ClassFile.JAVA_6);
+    byte[] originalBytes = ctClass.toBytecode();
+    byte[] offlineStub = createOfflineStub(classPool);
+
+    AgentConfigs configs = new AgentConfigs();
+    configs.setInstrumentationLevel(InstrumentationLevel.OFFLINE);
+    configs.setInclNoLocationClasses(true);
+    CoverageTransformer transformer = new CoverageTransformer(configs, createInstrumentation());
+    String className = Counter.class.getName().replace('.', '/');
+
+    // load and initialise the instrumented class
+    Map<String, byte[]> classes = new HashMap<String, byte[]>();
+    classes.put(OFFLINE_CLASS_NAME, offlineStub);
+    classes.put(Counter.class.getName(),
+        transformer.transform(TestCoverageTransformer.class.getClassLoader(), className, null,
+            null, originalBytes));
+    ClassLoader loader = new ClassesLoader(classes);
+    Class<?> clazz = loader.loadClass(Counter.class.getName());
+    assertEquals(1, clazz.getMethod("increment").invoke(null));
+
+    // retransform it, as the agent does once coverage is focused
+    byte[] retransformedBytes =
+        transformer.transform(loader, className, clazz, null, originalBytes);
+    assertNotNull(retransformedBytes);
+
+    // the static initializer of a retransformed class does not run again, i.e., its hit array
+    // might have never been bound (e.g., if it had been loaded without probes)
+    classes.put(Counter.class.getName(), retransformedBytes);
+    loader = new ClassesLoader(classes);
+    clazz = loader.loadClass(Counter.class.getName());
+    Field hitArrayField = clazz.getDeclaredField(InstrumentationConstants.FIELD_NAME);
+    hitArrayField.setAccessible(true);
+    hitArrayField.set(null, null);
+
+    assertEquals(1, clazz.getMethod("increment").invoke(null));
+
+    // and yet, the class has been reported as executed
+    boolean[] hitArray = (boolean[]) hitArrayField.get(null);
+    assertNotNull(hitArray);
+    Object[] dirtyArgs =
+        (Object[]) loader.loadClass(OFFLINE_CLASS_NAME).getField("dirtyArgs").get(null);
+    assertNotNull(dirtyArgs);
+    assertSame(hitArray, dirtyArgs[1]);
+    assertTrue(hitArray[hitArray.length - 1]);
+  }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.agent.rt.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.gzoltar.core.AgentConfigs;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.spectrum.SpectrumWriter;
+
+/**
+ * Unit tests for {@link com.gzoltar.agent.rt.output.FileOutput}
+ */
+public class TestFileOutput {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static Transaction transaction(final String name) {
+    Transaction transaction = new Transaction(name, TransactionOutcome.PASS, 1L, "");
+    transaction.addActivity("hash", "Class", new long[] {5L}, 3);
+    return transaction;
+  }
+
+  private static byte[] serialize(final Transaction... transactions) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    // agents record the granularity level at which they collect coverage
+    SpectrumWriter writer = new SpectrumWriter(bytes, new AgentConfigs().getGranularity());
+    for (Transaction transaction : transactions) {
+      writer.writeTransaction(transaction);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] concat(final byte[] a, final byte[] b) {
+    byte[] c = new byte[a.length + b.length];
+    System.arraycopy(a, 0, c, 0, a.length);
+    System.arraycopy(b, 0, c, a.length, b.length);
+    return c;
+  }
+
+  private FileOutput createFileOutput(final File destFile) {
+    AgentConfigs agentConfigs = new AgentConfigs();
+    agentConfigs.setDestfile(destFile.getAbsolutePath());
+    return new FileOutput(agentConfigs);
+  }
+
+  @Test
+  public void testSingleHeaderPerOutput() throws Exception {
+    File destFile = new File(this.folder.getRoot(), "gzoltar.ser");
+    FileOutput output = this.createFileOutput(destFile);
+    output.writeTransaction(transaction("t1"));
+    output.writeTransaction(transaction("t2"));
+    output.close();
+
+    assertArrayEquals(serialize(transaction("t1"), transaction("t2")),
+        Files.readAllBytes(destFile.toPath()));
+    assertEquals(1, this.folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testSegmentsAreMergedInOrder() throws Exception {
+    File destFile = new File(this.folder.getRoot(), "gzoltar.ser");
+    FileOutput first = this.createFileOutput(destFile);
+    FileOutput second = this.createFileOutput(destFile);
+
+    first.writeTransaction(transaction("t1"));
+    second.writeTransaction(transaction("t2"));
+
+    // the first segment is still in use, nothing can be merged
+    second.close();
+    assertEquals(0, destFile.length());
+    assertEquals(3, this.folder.getRoot().list().length);
+
+    first.close();
+    assertArrayEquals(
+        concat(serialize(transaction("t1")), serialize(transaction("t2"))),
+        Files.readAllBytes(destFile.toPath()));
+    assertEquals(1, this.folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testSegmentInUseIsNotOpened() throws Exception {
+    File destFile = new File(this.folder.getRoot(), "gzoltar.ser");
+    FileOutput first = this.createFileOutput(destFile);
+    first.writeTransaction(transaction("t1"));
+
+    // merging must not release the lock of the segment being written
+    FileOutput.mergeSegments(destFile);
+    FileOutput.mergeSegments(destFile);
+    assertEquals(0, destFile.length());
+    assertEquals(2, this.folder.getRoot().list().length);
+
+    first.writeTransaction(transaction("t2"));
+    first.close();
+    assertArrayEquals(serialize(transaction("t1"), transaction("t2")),
+        Files.readAllBytes(destFile.toPath()));
+    assertEquals(1, this.folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testClosedSegmentsAreMerged() throws Exception {
+    File destFile = new File(this.folder.getRoot(), "gzoltar.ser");
+    destFile.createNewFile();
+    // closed segment left behind by an agent whose merge was blocked by a segment still in use
+    File stale = new File(this.folder.getRoot(),
+        "gzoltar.ser.0000000000000-0000000000000000-0.seg");
+    Files.write(stale.toPath(), concat(serialize(transaction("t0")), FileOutput.SEGMENT_TRAILER));
+
+    FileOutput output = this.createFileOutput(destFile);
+    output.writeTransaction(transaction("t1"));
+    output.close();
+
+    // it is merged before any newer segment
+    assertArrayEquals(
+        concat(serialize(transaction("t0")), serialize(transaction("t1"))),
+        Files.readAllBytes(destFile.toPath()));
+    assertEquals(1, this.folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testUnclosedSegmentsAreMovedAside() throws Exception {
+    File destFile = new File(this.folder.getRoot(), "gzoltar.ser");
+    destFile.createNewFile();
+    // segment left behind by an agent whose JVM has crashed while writing a block
+    File stale = new File(this.folder.getRoot(),
+        "gzoltar.ser.0000000000000-0000000000000000-0.seg");
+    byte[] staleBytes = serialize(transaction("t0"));
+    staleBytes = Arrays.copyOf(staleBytes, staleBytes.length - 1);
+    Files.write(stale.toPath(), staleBytes);
+
+    FileOutput output = this.createFileOutput(destFile);
+    output.writeTransaction(transaction("t1"));
+    output.close();
+
+    assertArrayEquals(serialize(transaction("t1")), Files.readAllBytes(destFile.toPath()));
+    File orphan = new File(this.folder.getRoot(),
+        "gzoltar.ser.0000000000000-0000000000000000-0.orphan");
+    assertArrayEquals(staleBytes, Files.readAllBytes(orphan.toPath()));
+    assertEquals(2, this.folder.getRoot().list().length);
+  }
+
+  @Test
+  public void testSegmentsOfPreviousRunsAreMovedAside() throws Exception {
+    // the destination file of the previous run has been deleted
+    File destFile = new File(this.folder.getRoot(), "gzoltar.ser");
+    File stale = new File(this.folder.getRoot(),
+        "gzoltar.ser.0000000000000-0000000000000000-0.seg");
+    Files.write(stale.toPath(), concat(serialize(transaction("t0")), FileOutput.SEGMENT_TRAILER));
+
+    FileOutput output = this.createFileOutput(destFile);
+    output.writeTransaction(transaction("t1"));
+    output.close();
+
+    assertArrayEquals(serialize(transaction("t1")), Files.readAllBytes(destFile.toPath()));
+    assertTrue(new File(this.folder.getRoot(),
+        "gzoltar.ser.0000000000000-0000000000000000-0.orphan").exists());
+    assertEquals(2, this.folder.getRoot().list().length);
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2020 GZoltar contributors.
+ * 
+ * This file is part of GZoltar.
+ * 
+ * GZoltar is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * GZoltar is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with GZoltar. If
+ * not, see <https://www.gnu.org/licenses/>.
+ */
+package com.gzoltar.agent.rt.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import com.gzoltar.core.AgentOutputOverflow;
+import com.gzoltar.core.model.Transaction;
+import com.gzoltar.core.model.TransactionOutcome;
+import com.gzoltar.core.spectrum.ISpectrum;
+
+/**
+ * Unit tests for {@link com.gzoltar.agent.rt.output.OutputEventListener}
+ */
+public class TestOutputEventListener {
+
+  private static final int NUMBER_OF_TRANSACTIONS = 50;
+
+  /**
+   * An output that takes some time to write each transaction and records their names.
+   */
+  private static final class SlowOutput implements IAgentOutput {
+
+    private final List<String> names = new ArrayList<String>();
+
+    private boolean closed = false;
+
+    @Override
+    public void writeSpectrum(final ISpectrum spectrum) throws Exception {
+      // NO-OP
+    }
+
+    @Override
+    public synchronized void writeTransaction(final Transaction transaction) throws IOException {
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      this.names.add(transaction.getName());
+    }
+
+    @Override
+    public void flush() throws IOException {
+      // NO-OP
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      this.closed = true;
+    }
+  }
+
+  private static Transaction transaction(final int i) {
+    Transaction transaction = new Transaction("t" + i, TransactionOutcome.PASS, 1L, "");
+    transaction.addActivity("hash", "Class", new long[] {1L << (i % 3)}, 3);
+    return transaction;
+  }
+
+  private static List<String> expectedNames() {
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+      names.add("t" + i);
+    }
+    return names;
+  }
+
+  private void testOverflow(final AgentOutputOverflow overflow) {
+    SlowOutput output = new SlowOutput();
+    OutputEventListener listener = new OutputEventListener(output, 2, overflow);
+
+    for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+      listener.endTransaction(transaction(i));
+    }
+    listener.endSession();
+    assertEquals(expectedNames(), output.names);
+
+    listener.close();
+    assertEquals(true, output.closed);
+  }
+
+  @Test
+  public void testSynchronous() {
+    SlowOutput output = new SlowOutput();
+    OutputEventListener listener = new OutputEventListener(output);
+    for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+      listener.endTransaction(transaction(i));
+    }
+    assertEquals(expectedNames(), output.names);
+  }
+
+  @Test
+  public void testBlock() {
+    this.testOverflow(AgentOutputOverflow.BLOCK);
+  }
+
+  @Test
+  public void testSpill() {
+    this.testOverflow(AgentOutputOverflow.SPILL);
+  }
+
+  @Test
+  public void testCloseDrainsQueue() {
+    SlowOutput output = new SlowOutput();
+    OutputEventListener listener = new OutputEventListener(output, 8, AgentOutputOverflow.SPILL);
+    for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+      listener.endTransaction(transaction(i));
+    }
+    listener.close();
+    assertEquals(expectedNames(), output.names);
+
+    // transactions are ignored once the listener has been closed
+    listener.endTransaction(transaction(NUMBER_OF_TRANSACTIONS));
+    assertEquals(expectedNames(), output.names);
+  }
+
+  @Test
+  public void testCloseWhileBlocked() throws Exception {
+    final SlowOutput output = new SlowOutput();
+    final OutputEventListener listener =
+        new OutputEventListener(output, 1, AgentOutputOverflow.BLOCK);
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 4; i++) {
+      final int offset = i * NUMBER_OF_TRANSACTIONS;
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < NUMBER_OF_TRANSACTIONS; j++) {
+            listener.endTransaction(transaction(offset + j));
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+
+    Thread.sleep(20L);
+    listener.close();
+    List<String> names;
+    synchronized (output) {
+      names = new ArrayList<String>(output.names);
+    }
+
+    // none of the threads is blocked by a full queue that no writer drains anymore
+    for (Thread thread : threads) {
+      thread.join(10000L);
+      assertFalse(thread.isAlive());
+    }
+
+    // and no transaction queued while the listener was being closed is written afterwards
+    Thread.sleep(200L);
+    synchronized (output) {
+      assertEquals(names, output.names);
+    }
+  }
+}